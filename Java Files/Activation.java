@@ -0,0 +1,176 @@
+/**
+ * Responsible for the activation functions a layer of an MLP can use, and their derivatives.
+ * Each derivative is written in terms of the activation's own output (i.e., sigmoid'(x) =
+ * sigmoid(x) * (1 - sigmoid(x))), so the backward pass only needs the layers the forward pass kept.
+ * SIGMOID and TANH call e^x for every unit, while RELU and LEAKY_RELU are a single max.
+ * SOFTMAX turns a whole layer into probabilities, so it can only be used for the output layer, where
+ * it is trained with the cross-entropy error (the output error is then just target - output).
+ * The ids are written to checkpoints, so they must never change.
+ */
+public enum Activation {
+
+    SIGMOID(0),
+    TANH(1),
+    RELU(2),
+    LEAKY_RELU(3),
+    SOFTMAX(4);
+
+    // Slope of LEAKY_RELU below 0.
+    public static final double LEAKY_RELU_SLOPE = 0.01;
+
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+
+    private final int id;
+
+    Activation(int newId) {
+        id = newId;
+    }
+
+    // Return the id of the activation in checkpoints.
+    int getId() {
+        return id;
+    }
+
+    // Return the activation with an id (from a checkpoint), or throw an IllegalArgumentException.
+    static Activation fromId(int id) {
+        for(Activation activation : values()) {
+            if(activation.id == id) {
+                return activation;
+            }
+        }
+        throw new IllegalArgumentException("Activation id " + id + " is unknown");
+    }
+
+    // Return whether every unit is activated on its own (all but SOFTMAX), so a layer can be a hidden layer.
+    public boolean isElementwise() {
+        return this != SOFTMAX;
+    }
+
+    /**
+     * Replaces the weighted sums of a layer by their activations.
+     *
+     * @param layer
+     *     Array that holds the layer units.
+     * @param offset
+     *     Index of the first unit.
+     * @param length
+     *     Number of units (the whole layer for SOFTMAX; any number of units for the others).
+     */
+    public void activate(double[] layer, int offset, int length) {
+        switch(this) {
+            case SIGMOID:
+                KERNELS.sigmoid(layer, offset, length);
+                break;
+            case TANH:
+                for(int i = offset; i < offset + length; ++i) {
+                    layer[i] = Math.tanh(layer[i]);
+                }
+                break;
+            case RELU:
+                KERNELS.relu(layer, offset, length, 0);
+                break;
+            case LEAKY_RELU:
+                KERNELS.relu(layer, offset, length, LEAKY_RELU_SLOPE);
+                break;
+            case SOFTMAX:
+                OutputDecoder.softmax(layer, offset, length, layer, offset);
+                break;
+        }
+    }
+
+    /**
+     * Replaces the weighted sums of every row of a batch of layers by their activations.
+     *
+     * @param layers
+     *     [batchSize x layerSize] matrix, where row i is the layer of input i.
+     * @param batchSize
+     *     Number of rows to activate.
+     */
+    public void activate(Tensor layers, int batchSize) {
+        if(isElementwise()) { // The rows are contiguous, so they are activated in one call.
+            activate(layers.data, layers.index(0, 0), batchSize * layers.columns);
+            return;
+        }
+        for(int i = 0; i < batchSize; ++i) {
+            activate(layers.data, layers.index(i, 0), layers.columns);
+        }
+    }
+
+    // Same as activate, over floats (for the FLOAT32 training path).
+    public void activate(float[] layer, int offset, int length) {
+        switch(this) {
+            case SIGMOID:
+                KERNELS.sigmoid(layer, offset, length);
+                break;
+            case TANH:
+                for(int i = offset; i < offset + length; ++i) {
+                    layer[i] = (float)Math.tanh(layer[i]);
+                }
+                break;
+            case RELU:
+                KERNELS.relu(layer, offset, length, 0f);
+                break;
+            case LEAKY_RELU:
+                KERNELS.relu(layer, offset, length, (float)LEAKY_RELU_SLOPE);
+                break;
+            case SOFTMAX:
+                OutputDecoder.softmax(layer, offset, length, layer, offset);
+                break;
+        }
+    }
+
+    // Same as activate, over a batch of floats layers.
+    public void activate(FloatTensor layers, int batchSize) {
+        if(isElementwise()) {
+            activate(layers.data, layers.index(0, 0), batchSize * layers.columns);
+            return;
+        }
+        for(int i = 0; i < batchSize; ++i) {
+            activate(layers.data, layers.index(i, 0), layers.columns);
+        }
+    }
+
+    /**
+     * Returns the derivative of the activation at a unit, from the unit's activated value.
+     * Not defined for SOFTMAX, whose units depend on each other (see the class comment).
+     *
+     * @param output
+     *     The activated value of the unit.
+     */
+    public double derivative(double output) {
+        switch(this) {
+            case SIGMOID:
+                return output * (1 - output);
+            case TANH:
+                return 1 - output * output;
+            case RELU:
+                return (output > 0 ? 1 : 0);
+            case LEAKY_RELU:
+                return (output > 0 ? 1 : LEAKY_RELU_SLOPE);
+            default:
+                throw new IllegalStateException(this + " has no elementwise derivative.");
+        }
+    }
+
+    /**
+     * Returns the range the weights feeding a layer with this activation are drawn from
+     * (uniformly in [-range, range]) when an MLP is created.
+     * SIGMOID and SOFTMAX keep the small range the MLP has always used, RELU and LEAKY_RELU use He
+     * initialization (sqrt(6 / fanIn)) and TANH uses LeCun initialization (sqrt(3 / fanIn)), which keep
+     * the variance of the units about the same from layer to layer.
+     *
+     * @param fanIn
+     *     Number of units feeding into each unit of the layer (without the bias).
+     */
+    double getInitialWeightRange(int fanIn) {
+        switch(this) {
+            case RELU:
+            case LEAKY_RELU:
+                return Math.sqrt(6.0 / fanIn);
+            case TANH:
+                return Math.sqrt(3.0 / fanIn);
+            default:
+                return 0.05;
+        }
+    }
+}
@@ -1,7 +1,11 @@
+import java.nio.*;
 import java.util.*;
 
 /**
  * Responsible for managing a convolutional neural network.
+ * The convolution layer is either a fixed filter set (every filter followed by downsizing, never
+ * trained, so its output can be cached), or a stack of trainable layers (i.e., convolution and
+ * pooling layers) that are trained along with the perceptron.
  */
 public class CNN implements Network {
 
@@ -9,12 +13,52 @@ public class CNN implements Network {
     // The smaller the downsize factor, the longer it will take to execute, 
     // but also the higher the accuracy will be.
     // This value shouldn't be changed for now.
+    // Number of pixels each filter moves between outputs, and rows/columns of zeros around each side of the image.
+    private static final int CONVOLUTION_STRIDE = 1;
+    private static final int CONVOLUTION_PADDING = 0;
 
     private int inputLayerSize, hiddenLayerSize, outputLayerSize;
 
     private Filter[] filterSet;
+    // Every filter of the set stacked into one kernel matrix (null if the filters are not all the same size).
+    private Tensor filterKernels;
     private int filterApplicationAmount;
     private MLP perceptron;
+    // Hidden layers, activations and hyperparameters of the perceptron (by default one hidden layer of hiddenLayerSize units).
+    private MLPConfiguration perceptronConfiguration;
+    private FeatureCache featureCache;
+    // Generation of the feature cache that belongs to this CNN's filter set (see FeatureCache.getGeneration).
+    private int featureCacheGeneration;
+    // Reused to pass the filter set output into the perceptron without allocating a new Input each time.
+    private Input perceptronInput;
+    private Input[] perceptronInputs;
+    // Trainable layers (null when the fixed filter set is used), and the channels/dimension of the input of
+    // each layer, where the last element belongs to the output of the last layer.
+    private Layer[] layers;
+    private int[] layerChannels, layerDimensions;
+    private LayerWorkspace layerWorkspace;
+    private LayerWorkspace[] batchLayerWorkspaces;
+    private Tensor batchFeatureErrors;
+
+    /**
+     * Holds the output and error of every trainable layer for a single input. The buffers are
+     * allocated once and reused for every input, so a forward and backward pass allocates nothing.
+     */
+    private static class LayerWorkspace {
+
+        // activations[0] holds the input image and activations[i + 1] the output of layers[i].
+        // errors are laid out the same way (errors[0] is null, since the image is not trained).
+        final Tensor[] activations, errors;
+
+        LayerWorkspace(int[] channels, int[] dimensions) {
+            activations = new Tensor[channels.length];
+            errors = new Tensor[channels.length];
+            for(int i = 0; i < channels.length; ++i) {
+                activations[i] = new Tensor(channels[i], dimensions[i] * dimensions[i]);
+                errors[i] = (i == 0 ? null : new Tensor(channels[i], dimensions[i] * dimensions[i]));
+            }
+        }
+    }
 
     /**
      * Creates a new <code>CNN</code> to train a model to classify an
@@ -36,8 +80,106 @@ public class CNN implements Network {
         hiddenLayerSize = newHiddenLayerSize;
         outputLayerSize = newOutputLayerSize;
         filterSet = newFilterSet;
+        filterKernels = stackFilterKernels(newFilterSet);
         filterApplicationAmount = newFilterApplicationAmount;
+        perceptronConfiguration = MLPConfiguration.DEFAULT.withHiddenLayerSizes(newHiddenLayerSize);
         perceptron = null;
+        featureCache = null;
+        perceptronInput = new Input();
+        perceptronInputs = new Input[0];
+    }
+
+    /**
+     * Creates a new <code>CNN</code> that reuses the convolution layer output of each input
+     * across epochs through a feature cache (the filter set is never trained).
+     *
+     * @param newInputLayerSize
+     *     Number of input layer units that enter the neural network.
+     * @param newHiddenLayerSize
+     *     Number of hidden layer units that take values from the input layer and pass on a value to the output layer.
+     * @param newOutputLayerSize
+     *     Number of output layer units where the activation value from a hidden layer is taken to give the output classification value.
+     * @param newFilterSet
+     *     Filter 1-D array used in the convolution layer.
+     * @param newFilterApplicationAmount
+     *     Number of times each filter should be applied (further shrinking the result matrix in the process)
+     * @param newFeatureCache
+     *     FeatureCache used to save the convolution layer output of each input.
+     */
+    public CNN(int newInputLayerSize, int newHiddenLayerSize, int newOutputLayerSize, Filter[] newFilterSet, int newFilterApplicationAmount, FeatureCache newFeatureCache) {
+        this(newInputLayerSize, newHiddenLayerSize, newOutputLayerSize, newFilterSet, newFilterApplicationAmount);
+        featureCache = newFeatureCache;
+        featureCacheGeneration = (newFeatureCache == null ? 0 : newFeatureCache.getGeneration());
+    }
+
+    /**
+     * Creates a new <code>CNN</code> whose convolution layer is a stack of trainable layers. The
+     * output of the last layer enters the perceptron, and every layer is trained along with it.
+     *
+     * @param newInputLayerSize
+     *     Number of input layer units that enter the neural network (a square single-channel image).
+     * @param newHiddenLayerSize
+     *     Number of hidden layer units that take values from the input layer and pass on a value to the output layer.
+     * @param newOutputLayerSize
+     *     Number of output layer units where the activation value from a hidden layer is taken to give the output classification value.
+     * @param newLayers
+     *     Layers (i.e., convolution and pooling layers) that the image passes through in order.
+     */
+    public CNN(int newInputLayerSize, int newHiddenLayerSize, int newOutputLayerSize, Layer[] newLayers) {
+        this(newInputLayerSize, newHiddenLayerSize, newOutputLayerSize, newLayers, null);
+    }
+
+    // Create a CNN with trainable layers and a new untrained perceptron, or the one read from a checkpoint.
+    private CNN(int newInputLayerSize, int newHiddenLayerSize, int newOutputLayerSize, Layer[] newLayers, MLP newPerceptron) {
+        this(newInputLayerSize, newHiddenLayerSize, newOutputLayerSize, new Filter[0], 0);
+        layers = newLayers;
+        layerChannels = new int[layers.length + 1];
+        layerDimensions = new int[layers.length + 1];
+        layerChannels[0] = 1;
+        layerDimensions[0] = (int)Math.sqrt(newInputLayerSize);
+        for(int i = 0; i < layers.length; ++i) {
+            layerChannels[i + 1] = layers[i].getOutputChannels(layerChannels[i]);
+            layerDimensions[i + 1] = layers[i].getOutputDimension(layerDimensions[i]);
+            if(layerChannels[i + 1] <= 0 || layerDimensions[i + 1] <= 0) {
+                throw new IllegalArgumentException("Layer " + i + " turns " + layerChannels[i] + " [" + layerDimensions[i] + " x " + layerDimensions[i]
+                                                   + "] channels into an empty output");
+            }
+        }
+        layerWorkspace = new LayerWorkspace(layerChannels, layerDimensions);
+        batchLayerWorkspaces = new LayerWorkspace[0];
+        if(newPerceptron == null) {
+            perceptron = createPerceptron(getFeatureSize());
+        } else {
+            perceptronConfiguration = newPerceptron.getConfiguration();
+            perceptron = newPerceptron;
+        }
+    }
+
+    /**
+     * Replaces the hidden layers, activations and hyperparameters of the perceptron. Must be called
+     * before training, since a perceptron that already exists is replaced by a new untrained one.
+     *
+     * @param newPerceptronConfiguration
+     *     Configuration of the perceptron that classifies the convolution layer output.
+     */
+    public synchronized void setPerceptronConfiguration(MLPConfiguration newPerceptronConfiguration) {
+        perceptronConfiguration = newPerceptronConfiguration;
+        perceptron = (perceptron == null ? null : createPerceptron(perceptron.getLayerSizes()[0]));
+    }
+
+    // Return a new untrained perceptron for a convolution layer output of the passed in size.
+    private MLP createPerceptron(int featureSize) {
+        return new MLP(featureSize, outputLayerSize, perceptronConfiguration);
+    }
+
+    // Return whether the convolution layer is trained along with the perceptron.
+    boolean hasTrainableLayers() {
+        return layers != null;
+    }
+
+    // Return the number of values that leave the last trainable layer.
+    private int getFeatureSize() {
+        return layerChannels[layers.length] * layerDimensions[layers.length] * layerDimensions[layers.length];
     }
 
 
@@ -48,15 +190,426 @@ public class CNN implements Network {
      *     Input image data object that contains pixel data and an associated label to propagate forward.
      */
     public double[] executeForwardPropagation(Input input) {
+        double[] filterSetOutput = (layers == null ? getFilterSetOutput(input, perceptronInput.data) : forwardLayers(input, layerWorkspace));
+        perceptron = (perceptron == null ? createPerceptron(filterSetOutput.length) : perceptron);
+        perceptronInput.data = filterSetOutput;
+        perceptronInput.label = input.label;
+        return perceptron.executeForwardPropagation(perceptronInput);
+    }
+
+    /**
+     * Passes a batch of input data forward through the convolutional neural network.
+     *
+     * @param inputs
+     *     Input image data objects that contain pixel data and an associated label to propagate forward.
+     * @return The output layers of the batch, where row i belongs to inputs[i] (only the first inputs.length rows are valid).
+     */
+    public double[][] forwardBatch(Input[] inputs) {
+        if(perceptronInputs.length != inputs.length) {
+            perceptronInputs = new Input[inputs.length];
+            for(int i = 0; i < inputs.length; ++i) {
+                perceptronInputs[i] = new Input();
+            }
+        }
+        if(layers != null && batchLayerWorkspaces.length < inputs.length) {
+            batchLayerWorkspaces = Arrays.copyOf(batchLayerWorkspaces, inputs.length);
+            for(int i = 0; i < inputs.length; ++i) {
+                batchLayerWorkspaces[i] = (batchLayerWorkspaces[i] == null ? new LayerWorkspace(layerChannels, layerDimensions) : batchLayerWorkspaces[i]);
+            }
+            batchFeatureErrors = new Tensor(inputs.length, getFeatureSize());
+        }
+        for(int i = 0; i < inputs.length; ++i) {
+            perceptronInputs[i].data = (layers == null ? getFilterSetOutput(inputs[i], perceptronInputs[i].data) : forwardLayers(inputs[i], batchLayerWorkspaces[i]));
+            perceptronInputs[i].label = inputs[i].label;
+        }
+        perceptron = (perceptron == null ? createPerceptron(perceptronInputs[0].getSize()) : perceptron);
+        return perceptron.forwardBatch(perceptronInputs);
+    }
+
+    /**
+     * Runs an input through the convolution layer (every filter followed by downsizing), or takes
+     * the result from the feature cache if the input has already been through it.
+     * The filters are only read, so this can be called from several threads at once.
+     *
+     * @param input
+     *     Input image data object that contains pixel data and an associated label.
+     */
+    double[] getFilterSetOutput(Input input) {
+        return getFilterSetOutput(input, null);
+    }
+
+    /**
+     * Runs an input through the convolution layer like getFilterSetOutput(input), but copies a feature map
+     * cached off the heap into a buffer instead of a new array.
+     *
+     * @param input
+     *     Input image data object that contains pixel data and an associated label.
+     * @param buffer
+     *     Array an off-heap feature map is copied into (null copies it into a new one). Passing the array
+     *     the previous call returned is safe: a feature cache on the heap never copies into it, and one
+     *     off the heap never returns the array it stores.
+     */
+    double[] getFilterSetOutput(Input input, double[] buffer) {
+        if(layers != null) { // Run through its own buffers, since the shared ones may be in use.
+            return forwardLayers(input, new LayerWorkspace(layerChannels, layerDimensions));
+        }
+        double[] filterSetOutput = (featureCache == null ? null : featureCache.get(input, buffer, featureCacheGeneration));
+        if(filterSetOutput != null) {
+            return filterSetOutput;
+        }
         ImageParser parser = new ImageParser();
-        double[] filterSetOutput = null;
+        Tensor image = Tensor.square(input.getData(null));
+        long startTime = Telemetry.start();
+        int[] outputDimensions = new int[filterSet.length];
+        int filterSetOutputSize = 0;
+        for(int i = 0; i < filterSet.length; ++i) {
+            outputDimensions[i] = getOutputDimension(filterSet[i], image.rows);
+            filterSetOutputSize += outputDimensions[i] * outputDimensions[i];
+        }
+        // Each filter's downsized output is written straight into its own segment of the combined output.
+        filterSetOutput = new double[filterSetOutputSize];
+        Tensor[] filterOutputs = applyFilterSet(image);
+        int outputOffset = 0;
+        for(int i = 0; i < filterSet.length; ++i) {
+            Tensor singleFilterOutput = filterOutputs[i];
+            for(int j = 1; j < filterApplicationAmount; ++j) { // Each further application filters the filter's own output.
+                int dimension = filterSet[i].getOutputDimension(singleFilterOutput.rows, CONVOLUTION_STRIDE, CONVOLUTION_PADDING);
+                Tensor nextFilterOutput = new Tensor(dimension, dimension);
+                filterSet[i].applyFilter(singleFilterOutput, CONVOLUTION_STRIDE, CONVOLUTION_PADDING, nextFilterOutput);
+                singleFilterOutput = nextFilterOutput;
+            }
+            parser.downsizeImage(singleFilterOutput, DOWNSIZE_FACTOR, new Tensor(filterSetOutput, outputOffset, outputDimensions[i], outputDimensions[i]));
+            outputOffset += outputDimensions[i] * outputDimensions[i];
+        }
+        Telemetry.stop(Telemetry.Stage.CONVOLUTION, startTime);
+        if(featureCache != null) {
+            featureCache.put(input, filterSetOutput, featureCacheGeneration);
+        }
+        return filterSetOutput;
+    }
+
+    /**
+     * Applies every filter of the set to an image once. When the filters are all the same size,
+     * the whole set is applied in a single pass over the image.
+     *
+     * @param image
+     *     [n x n] image matrix to be filtered.
+     * @return The filtered image of each filter, where element i belongs to filterSet[i].
+     */
+    private Tensor[] applyFilterSet(Tensor image) {
+        Tensor[] filterOutputs = new Tensor[filterSet.length];
+        if(filterKernels != null) {
+            int dimension = filterSet[0].getOutputDimension(image.rows, CONVOLUTION_STRIDE, CONVOLUTION_PADDING);
+            Tensor bankOutput = new Tensor(filterSet.length, dimension * dimension);
+            Convolution.convolve(image, filterKernels, filterSet[0].getSize(), CONVOLUTION_STRIDE, CONVOLUTION_PADDING, bankOutput);
+            for(int i = 0; i < filterSet.length; ++i) {
+                filterOutputs[i] = new Tensor(bankOutput.data, bankOutput.index(i, 0), dimension, dimension);
+            }
+            return filterOutputs;
+        }
         for(int i = 0; i < filterSet.length; ++i) {
-            double[] singleFilterOutput = applyFilter(filterSet[i], input, filterApplicationAmount);
-            singleFilterOutput = parser.getArrayFromMatrix(parser.downsizeImage(parser.getMatrixFromArray(singleFilterOutput), DOWNSIZE_FACTOR));
-            filterSetOutput = (filterSetOutput == null ? singleFilterOutput : combineTwoArrays(filterSetOutput, singleFilterOutput));
+            int dimension = filterSet[i].getOutputDimension(image.rows, CONVOLUTION_STRIDE, CONVOLUTION_PADDING);
+            filterOutputs[i] = new Tensor(dimension, dimension);
+            filterSet[i].applyFilter(image, CONVOLUTION_STRIDE, CONVOLUTION_PADDING, filterOutputs[i]);
+        }
+        return filterOutputs;
+    }
+
+    /**
+     * Passes an input forward through every trainable layer.
+     *
+     * @param input
+     *     Input image data object that contains pixel data and an associated label to propagate forward.
+     * @param workspace
+     *     Workspace whose layer outputs are written to.
+     * @return The output of the last layer (the data of the workspace's last activation).
+     */
+    private double[] forwardLayers(Input input, LayerWorkspace workspace) {
+        input.copyData(workspace.activations[0].data, 0);
+        long startTime = Telemetry.start();
+        for(int i = 0; i < layers.length; ++i) {
+            layers[i].forward(workspace.activations[i], layerDimensions[i], workspace.activations[i + 1]);
+        }
+        Telemetry.stop(Telemetry.Stage.CONVOLUTION, startTime);
+        return workspace.activations[layers.length].data;
+    }
+
+    /**
+     * Passes the error of the last layer's output backwards through every trainable layer,
+     * which add the gradients of their weights.
+     *
+     * @param workspace
+     *     Workspace holding the layer outputs of the input, and the error of the last layer's output.
+     */
+    private void backwardLayers(LayerWorkspace workspace) {
+        for(int i = layers.length - 1; i >= 0; --i) {
+            layers[i].backward(workspace.activations[i], layerDimensions[i], workspace.activations[i + 1], workspace.errors[i + 1], workspace.errors[i]);
+        }
+    }
+
+    // Update the weights of every trainable layer with the average of the gradients added over a number of inputs.
+    private void applyLayerGradients(int sampleCount) {
+        for(Layer layer : layers) {
+            layer.applyGradients(sampleCount);
+        }
+    }
+
+    // Return the filter set stacked into one kernel matrix, or null if the filters are not all the same size.
+    private static Tensor stackFilterKernels(Filter[] filterSet) {
+        for(Filter filter : filterSet) {
+            if(filter.getSize() != filterSet[0].getSize()) {
+                return null;
+            }
+        }
+        return (filterSet.length == 0 ? null : Filter.stackKernels(filterSet));
+    }
+
+    /**
+     * Returns the perceptron that classifies the filter set output, creating it if it does not exist yet.
+     *
+     * @param filterSetOutputSize
+     *     Number of values in the filter set output of an input.
+     */
+    synchronized MLP getPerceptron(int filterSetOutputSize) {
+        perceptron = (perceptron == null ? createPerceptron(filterSetOutputSize) : perceptron);
+        return perceptron;
+    }
+
+    // Return the perceptron, or null if a filter set has not passed an input forward yet.
+    synchronized MLP getPerceptron() {
+        return perceptron;
+    }
+
+    // Return a copy of every trainable layer (null for a filter set, which is never trained).
+    Layer[] copyTrainableLayers() {
+        return (layers == null ? null : copyLayers());
+    }
+
+    /**
+     * Replaces the trainable layers by copies made by copyTrainableLayers (i.e., to return to the best
+     * epoch of a training run). The copies are used from then on, so they must not be restored twice.
+     *
+     * @param layerCopies
+     *     Copies of the trainable layers, made by copyTrainableLayers.
+     */
+    void restoreTrainableLayers(Layer[] layerCopies) {
+        if(layers == null || layerCopies.length != layers.length) {
+            throw new IllegalArgumentException("The copy has " + layerCopies.length + " layers, but this CNN has "
+                                               + (layers == null ? 0 : layers.length) + " trainable layers");
+        }
+        System.arraycopy(layerCopies, 0, layers, 0, layers.length);
+    }
+
+    /**
+     * Creates an inference-only copy of this CNN that any number of threads can use at once. The
+     * copy runs through its own copy of the filter set (or trainable layers), followed by a copy of
+     * the perceptron. Later training of this CNN does not change it.
+     * A copy of a filter set shares this CNN's feature cache, pinned to the cache's current generation:
+     * evaluating the copy on inputs this CNN has already seen does not recalculate their feature maps,
+     * and the other way around, until the filter set changes and the cache is invalidated. From then
+     * on, the copy neither reads nor adds feature maps, and calculates them with its own filter set.
+     */
+    public Predictor createPredictor() {
+        if(layers != null) {
+            CNN featureExtractor = new CNN(inputLayerSize, hiddenLayerSize, outputLayerSize, copyLayers());
+            return perceptron.createPredictor(featureExtractor::getFilterSetOutput);
+        }
+        CNN featureExtractor = new CNN(inputLayerSize, hiddenLayerSize, outputLayerSize, filterSet.clone(), filterApplicationAmount, featureCache);
+        featureExtractor.featureCacheGeneration = featureCacheGeneration;
+        MLP classifier = getPerceptron(featureExtractor.getFilterSetOutputSize());
+        return classifier.createPredictor(featureExtractor::getFilterSetOutput);
+    }
+
+    // Return a copy of every trainable layer.
+    private Layer[] copyLayers() {
+        Layer[] layerCopies = new Layer[layers.length];
+        for(int i = 0; i < layers.length; ++i) {
+            layerCopies[i] = layers[i].copy();
+        }
+        return layerCopies;
+    }
+
+    // Return the number of values in the filter set output of an input.
+    int getFilterSetOutputSize() {
+        int inputDimension = (int)Math.sqrt(inputLayerSize);
+        int filterSetOutputSize = 0;
+        for(Filter filter : filterSet) {
+            int outputDimension = getOutputDimension(filter, inputDimension);
+            filterSetOutputSize += outputDimension * outputDimension;
+        }
+        return filterSetOutputSize;
+    }
+
+    // Return the number of bytes writeCheckpoint writes.
+    long getCheckpointBytes(boolean momentumIncluded) {
+        long bytes = 4 * Integer.BYTES;
+        if(layers == null) {
+            bytes += 2 * Integer.BYTES;
+            for(Filter filter : filterSet) {
+                bytes += Integer.BYTES + Checkpoint.getTensorBytes(filter.getKernel());
+            }
+        } else {
+            bytes += Integer.BYTES;
+            for(Layer layer : layers) {
+                bytes += layer.getCheckpointBytes(momentumIncluded);
+            }
+        }
+        return bytes + Integer.BYTES + (perceptron == null ? 0 : perceptron.getCheckpointBytes(momentumIncluded));
+    }
+
+    /**
+     * Writes the layer sizes, the filter set (or trainable layers) and the perceptron of this CNN to a
+     * checkpoint (see Checkpoint). The feature cache is not saved.
+     *
+     * @param buffer
+     *     Little-endian buffer to write to.
+     * @param momentumIncluded
+     *     Whether to write the previous weight changes (the momentum terms) too.
+     */
+    void writeCheckpoint(ByteBuffer buffer, boolean momentumIncluded) {
+        buffer.putInt(inputLayerSize).putInt(hiddenLayerSize).putInt(outputLayerSize).putInt(layers == null ? 0 : 1);
+        if(layers == null) {
+            buffer.putInt(filterApplicationAmount).putInt(filterSet.length);
+            for(Filter filter : filterSet) {
+                buffer.putInt(filter.getSize());
+                Checkpoint.putTensor(buffer, filter.getKernel());
+            }
+        } else {
+            buffer.putInt(layers.length);
+            for(Layer layer : layers) {
+                layer.writeCheckpoint(buffer, momentumIncluded);
+            }
+        }
+        buffer.putInt(perceptron == null ? 0 : 1); // The perceptron of a filter set is only made by the first forward pass.
+        if(perceptron != null) {
+            perceptron.writeCheckpoint(buffer, momentumIncluded);
+        }
+    }
+
+    /**
+     * Creates a CNN from the layer sizes, filter set (or trainable layers) and perceptron in a
+     * checkpoint (see Checkpoint). It has no feature cache.
+     *
+     * @param buffer
+     *     Little-endian buffer to read from.
+     * @param momentumIncluded
+     *     Whether the previous weight changes (the momentum terms) were written too.
+     * @param formatVersion
+     *     Format version of the checkpoint (see MLP.readCheckpoint).
+     */
+    static CNN readCheckpoint(ByteBuffer buffer, boolean momentumIncluded, int formatVersion) {
+        int newInputLayerSize = Checkpoint.getSize(buffer, 1, "Input layer size");
+        int newHiddenLayerSize = Checkpoint.getSize(buffer, 1, "Hidden layer size");
+        int newOutputLayerSize = Checkpoint.getSize(buffer, 1, "Output layer size");
+        if(buffer.getInt() != 0) {
+            int newLayerAmount = Checkpoint.getSize(buffer, 1, "Layer amount");
+            Checkpoint.checkRemainingBytes(buffer, (double)newLayerAmount * 2 * Integer.BYTES, "The layers");
+            Layer[] newLayers = new Layer[newLayerAmount];
+            for(int i = 0; i < newLayers.length; ++i) {
+                newLayers[i] = readLayer(buffer, momentumIncluded);
+            }
+            long featureSize = getFeatureSize(newInputLayerSize, newLayers);
+            MLP newPerceptron = readPerceptron(buffer, momentumIncluded, formatVersion, featureSize, newOutputLayerSize);
+            if(newPerceptron == null) {
+                throw new IllegalArgumentException("A CNN with trainable layers has no perceptron");
+            }
+            // The layer workspaces are only allocated once the perceptron has been checked against the layers' output.
+            return new CNN(newInputLayerSize, newHiddenLayerSize, newOutputLayerSize, newLayers, newPerceptron);
+        }
+        int newFilterApplicationAmount = Checkpoint.getSize(buffer, 1, "Filter application amount");
+        int newFilterAmount = Checkpoint.getSize(buffer, 0, "Filter amount");
+        Checkpoint.checkRemainingBytes(buffer, (double)newFilterAmount * (Integer.BYTES + Double.BYTES), "The filters");
+        Filter[] newFilterSet = new Filter[newFilterAmount];
+        for(int i = 0; i < newFilterSet.length; ++i) {
+            int filterSize = Checkpoint.getSize(buffer, 1, "Filter size");
+            Checkpoint.checkRemainingBytes(buffer, (double)filterSize * filterSize * Double.BYTES, "The values of filter " + i);
+            double[][] filterMatrix = new double[filterSize][filterSize];
+            for(double[] row : filterMatrix) {
+                buffer.asDoubleBuffer().get(row);
+                buffer.position(buffer.position() + row.length * Double.BYTES);
+            }
+            newFilterSet[i] = new Filter(filterMatrix);
+        }
+        CNN cnn = new CNN(newInputLayerSize, newHiddenLayerSize, newOutputLayerSize, newFilterSet, newFilterApplicationAmount);
+        MLP newPerceptron = readPerceptron(buffer, momentumIncluded, formatVersion, cnn.getFilterSetOutputSize(), newOutputLayerSize);
+        if(newPerceptron != null) {
+            cnn.perceptronConfiguration = newPerceptron.getConfiguration();
+            cnn.perceptron = newPerceptron;
+        }
+        return cnn;
+    }
+
+    // Read the perceptron of a checkpoint, if one was written, and check that it fits the convolution layer output.
+    private static MLP readPerceptron(ByteBuffer buffer, boolean momentumIncluded, int formatVersion, long featureSize, int outputLayerSize) {
+        if(buffer.getInt() == 0) {
+            return null;
+        }
+        MLP perceptron = MLP.readCheckpoint(buffer, momentumIncluded, formatVersion);
+        int[] perceptronLayerSizes = perceptron.getLayerSizes();
+        if(perceptronLayerSizes[0] != featureSize || perceptronLayerSizes[perceptronLayerSizes.length - 1] != outputLayerSize) {
+            throw new IllegalArgumentException("The perceptron does not fit the " + featureSize + " values that leave the convolution layer");
+        }
+        return perceptron;
+    }
+
+    /**
+     * Returns the number of values that leave the last of the layers read from a checkpoint, and checks that
+     * no layer's output is out of range, before the CNN allocates a workspace for every layer.
+     *
+     * @param inputLayerSize
+     *     Number of input layer units (a square single-channel image).
+     * @param newLayers
+     *     Layers that the image passes through in order.
+     */
+    private static long getFeatureSize(int inputLayerSize, Layer[] newLayers) {
+        int channels = 1;
+        int dimension = (int)Math.sqrt(inputLayerSize);
+        long outputSize = inputLayerSize;
+        for(int i = 0; i < newLayers.length; ++i) {
+            channels = newLayers[i].getOutputChannels(channels);
+            dimension = newLayers[i].getOutputDimension(dimension);
+            Checkpoint.checkSize(dimension, 1, "Output width of layer " + i);
+            // Multiplied as doubles, since a corrupted shape can pass the range of a long (the cast saturates).
+            outputSize = Checkpoint.checkSize((long)((double)channels * dimension * dimension), 1, "Output of layer " + i);
+        }
+        return outputSize;
+    }
+
+    // Read a trainable layer of any type from a checkpoint.
+    private static Layer readLayer(ByteBuffer buffer, boolean momentumIncluded) {
+        int layerType = buffer.getInt();
+        if(layerType == ConvolutionLayer.CHECKPOINT_TYPE) {
+            return ConvolutionLayer.readCheckpoint(buffer, momentumIncluded);
+        } else if(layerType == PoolingLayer.CHECKPOINT_TYPE) {
+            return PoolingLayer.readCheckpoint(buffer);
+        }
+        throw new IllegalArgumentException("Unknown layer type " + layerType);
+    }
+
+    /**
+     * Replaces the filter set used in the convolution layer. The cached feature maps were
+     * made with the old filters, so they are invalidated, and the perceptron is rebuilt
+     * since its inputs no longer mean the same thing.
+     *
+     * @param newFilterSet
+     *     Filter 1-D array used in the convolution layer.
+     */
+    public void setFilterSet(Filter[] newFilterSet) {
+        if(layers != null) {
+            throw new IllegalStateException("This CNN trains its own convolution layers instead of using a filter set.");
+        }
+        filterSet = newFilterSet;
+        filterKernels = stackFilterKernels(newFilterSet);
+        perceptron = null;
+        invalidateFeatureCache();
+    }
+
+    // Remove every cached feature map (i.e., when a filter has been changed).
+    public void invalidateFeatureCache() {
+        if(featureCache != null) {
+            featureCache.invalidate();
+            featureCacheGeneration = featureCache.getGeneration();
         }
-        perceptron = (perceptron == null ? new MLP(filterSetOutput.length, hiddenLayerSize, outputLayerSize) : perceptron);
-        return perceptron.executeForwardPropagation(new Input(filterSetOutput, input.label));
     }
 
     /**
@@ -69,7 +622,7 @@ public class CNN implements Network {
      *     Number of times each filter should be applied (further shrinking the result matrix in the process)
      */
     public double[] applyFilter(Filter filter, Input input, int applicationAmount) {
-        double[] filterOutput = input.data;
+        double[] filterOutput = input.getData(null);
         for(int i = 0; i < applicationAmount; ++i) {
             filterOutput = filter.applyFilter(filterOutput);
         }
@@ -83,26 +636,53 @@ public class CNN implements Network {
      *     1-D doubles array of target classification values to propagate backwards through the neural network.
      */
     public void executeBackPropagation(double[] target) {
-        perceptron.executeBackPropagation(target);
+        if(layers == null) {
+            perceptron.executeBackPropagation(target);
+            return;
+        }
+        perceptron.executeBackPropagation(target, layerWorkspace.errors[layers.length].data);
+        long startTime = Telemetry.start();
+        backwardLayers(layerWorkspace);
+        applyLayerGradients(1);
+        Telemetry.stop(Telemetry.Stage.BACKWARD, startTime);
     }
 
     /**
-     * Sum the individual cell values of two 1-D arrays and then return the result.
+     * Passes a batch of target classification data backwards through the convolutional neural network.
      *
-     * @param array1
-     *     First 1-D array of values to be combined with another array.
-     * @param array1
-     *     Second 1-D array of values to be combined with another array.
+     * @param targets
+     *     Target classification values for each input of the last forward batch.
      */
-    private double[] combineTwoArrays(double[] array1, double[] array2) {
-        double[] combinedArray = new double[array1.length + array2.length];
-        for(int i = 0; i < array1.length; ++i) {
-            combinedArray[i] = array1[i];
+    public void backwardBatch(double[][] targets) {
+        if(layers == null) {
+            perceptron.backwardBatch(targets);
+            return;
         }
-        for(int i = 0; i < array2.length; ++i) {
-            combinedArray[i + array1.length] = array2[i];
+        perceptron.backwardBatch(targets, batchFeatureErrors);
+        long startTime = Telemetry.start();
+        for(int i = 0; i < targets.length; ++i) {
+            LayerWorkspace workspace = batchLayerWorkspaces[i];
+            System.arraycopy(batchFeatureErrors.data, batchFeatureErrors.index(i, 0), workspace.errors[layers.length].data, 0, batchFeatureErrors.columns);
+            backwardLayers(workspace);
+        }
+        applyLayerGradients(targets.length);
+        Telemetry.stop(Telemetry.Stage.BACKWARD, startTime);
+    }
+
+    /**
+     * Calculates the dimension of a filter's output after it has been applied and the result downsized.
+     *
+     * @param filter
+     *     A Filter object containing a matrix/2-D array with [n x n] dimensions.
+     * @param inputDimension
+     *     Width/height of the square input image.
+     */
+    private int getOutputDimension(Filter filter, int inputDimension) {
+        int dimension = inputDimension;
+        for(int i = 0; i < filterApplicationAmount; ++i) {
+            dimension = filter.getOutputDimension(dimension, CONVOLUTION_STRIDE, CONVOLUTION_PADDING);
         }
-        return combinedArray;
+        return dimension / DOWNSIZE_FACTOR;
     }
     
 }
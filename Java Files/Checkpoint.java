@@ -0,0 +1,212 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Responsible for saving a trained network to a single binary file, and for loading it back
+ * through a memory-mapped file (the weights are bulk-copied straight out of the mapped pages, so
+ * a model loads in about the time it takes to read the file, without parsing or stream buffers).
+ *
+ * File layout (little-endian):
+ *      - Header: magic number, format version, network type, whether the momentum terms are included,
+ *        number of epochs trained.
+ *      - Network: an MLP is its layer sizes, activations and hyperparameters followed by its weight
+ *        matrices (and momentum terms). A CNN is its layer sizes, its filter set (each filter's size and
+ *        values) or trainable layers (each layer's type, shape and weights), and then its perceptron,
+ *        written the same way as an MLP.
+ * Weights are stored as doubles, so a loaded network classifies exactly like the one that was saved,
+ * and with the momentum terms included, training continues exactly where it stopped.
+ */
+public class Checkpoint {
+
+    private static final int MAGIC_NUMBER = 0x41534C4D; // "ASLM"
+    // Version 2 added the hidden layers, activations and hyperparameters of a perceptron; version 1 files are still read.
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 4;
+    private static final int MLP_TYPE = 1, CNN_TYPE = 2;
+    // Largest size (of a layer, filter, etc.) accepted from a file, far beyond any network here.
+    private static final int MAX_SIZE = 1 << 24;
+
+    private final Network network;
+    private final int epochAmount;
+    private final boolean momentumIncluded;
+
+    private Checkpoint(Network newNetwork, int newEpochAmount, boolean newMomentumIncluded) {
+        network = newNetwork;
+        epochAmount = newEpochAmount;
+        momentumIncluded = newMomentumIncluded;
+    }
+
+    // Return the network that was saved.
+    public Network getNetwork() {
+        return network;
+    }
+
+    // Return the number of epochs the network had been trained for when it was saved.
+    public int getEpochAmount() {
+        return epochAmount;
+    }
+
+    // Return whether the momentum terms were saved (if not, they start from 0 when training resumes).
+    public boolean isMomentumIncluded() {
+        return momentumIncluded;
+    }
+
+    /**
+     * Saves a network to a checkpoint file. The file is written next to the checkpoint file first and
+     * then moved into place, so a half-written checkpoint is never loaded (and an older one at the same
+     * path is kept if saving fails).
+     *
+     * @param checkpointFilePath
+     *     The string path name of the checkpoint file (missing folders are created).
+     * @param network
+     *     The MLP or CNN to save.
+     * @param epochAmount
+     *     Number of epochs the network has been trained for.
+     * @param momentumIncluded
+     *     Whether to save the momentum terms too, so that training can resume exactly (about doubles the file size).
+     * @return Whether the checkpoint was saved.
+     */
+    public static boolean save(String checkpointFilePath, Network network, int epochAmount, boolean momentumIncluded) {
+        if(!(network instanceof MLP) && !(network instanceof CNN)) {
+            throw new IllegalArgumentException("Only an MLP or a CNN can be saved.");
+        }
+        Path checkpointPath = Paths.get(checkpointFilePath);
+        Path temporaryPath = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+        long networkBytes = (network instanceof MLP ? ((MLP)network).getCheckpointBytes(momentumIncluded)
+                                                    : ((CNN)network).getCheckpointBytes(momentumIncluded));
+        try {
+            if(checkpointPath.getParent() != null) {
+                Files.createDirectories(checkpointPath.getParent());
+            }
+            try(FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                       StandardOpenOption.TRUNCATE_EXISTING)) {
+                // Written through a buffer rather than a mapping, since a mapped file cannot be moved on every platform.
+                ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(HEADER_BYTES + networkBytes)).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC_NUMBER).putInt(FORMAT_VERSION).putInt(network instanceof MLP ? MLP_TYPE : CNN_TYPE);
+                buffer.putInt(momentumIncluded ? 1 : 0).putInt(epochAmount);
+                if(network instanceof MLP) {
+                    ((MLP)network).writeCheckpoint(buffer, momentumIncluded);
+                } else {
+                    ((CNN)network).writeCheckpoint(buffer, momentumIncluded);
+                }
+                buffer.flip();
+                while(buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporaryPath, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch(IOException e) {
+            System.err.println("Error with writing " + checkpointPath + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Loads a network from a checkpoint file.
+     *
+     * @param checkpointFilePath
+     *     The string path name of the checkpoint file.
+     * @return The checkpoint, or null if the file is missing, unreadable, truncated or of another format version.
+     */
+    public static Checkpoint load(String checkpointFilePath) {
+        Path checkpointPath = Paths.get(checkpointFilePath);
+        if(Files.isRegularFile(checkpointPath) == false) {
+            System.err.println("Error with reading " + checkpointPath + ": file not found");
+            return null;
+        }
+        try(FileChannel channel = FileChannel.open(checkpointPath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if(buffer.getInt() != MAGIC_NUMBER) {
+                System.err.println("Error with reading " + checkpointPath + ": not a checkpoint file");
+                return null;
+            }
+            int formatVersion = buffer.getInt();
+            if(formatVersion < 1 || formatVersion > FORMAT_VERSION) {
+                System.err.println("Error with reading " + checkpointPath + ": format version " + formatVersion
+                                   + " (this version reads 1 to " + FORMAT_VERSION + ")");
+                return null;
+            }
+            int networkType = buffer.getInt();
+            boolean momentumIncluded = (buffer.getInt() != 0);
+            int epochAmount = buffer.getInt();
+            Network network;
+            if(networkType == MLP_TYPE) {
+                network = MLP.readCheckpoint(buffer, momentumIncluded, formatVersion);
+            } else if(networkType == CNN_TYPE) {
+                network = CNN.readCheckpoint(buffer, momentumIncluded, formatVersion);
+            } else {
+                System.err.println("Error with reading " + checkpointPath + ": unknown network type " + networkType);
+                return null;
+            }
+            if(buffer.hasRemaining()) {
+                System.err.println("Error with reading " + checkpointPath + ": " + buffer.remaining() + " unexpected bytes at the end");
+                return null;
+            }
+            return new Checkpoint(network, epochAmount, momentumIncluded);
+        } catch(IOException | BufferUnderflowException | IllegalArgumentException e) { // Unreadable, truncated or inconsistent.
+            System.err.println("Error with reading " + checkpointPath + ": " + (e instanceof BufferUnderflowException ? "file is truncated" : e.getMessage()));
+            return null;
+        }
+    }
+
+    // Return the number of bytes putTensor writes for a matrix.
+    static long getTensorBytes(Tensor tensor) {
+        return (long)tensor.getSize() * Double.BYTES;
+    }
+
+    // Write the values of a matrix (its shape is written by its owner).
+    static void putTensor(ByteBuffer buffer, Tensor tensor) {
+        buffer.asDoubleBuffer().put(tensor.data, tensor.offset, tensor.getSize());
+        buffer.position(buffer.position() + tensor.getSize() * Double.BYTES);
+    }
+
+    // Read the values of a matrix into it (its shape is read by its owner).
+    static void getTensor(ByteBuffer buffer, Tensor tensor) {
+        buffer.asDoubleBuffer().get(tensor.data, tensor.offset, tensor.getSize());
+        buffer.position(buffer.position() + tensor.getSize() * Double.BYTES);
+    }
+
+    /**
+     * Reads a size (i.e., a layer size or number of filters) and checks that it is in range, so that a
+     * corrupted file fails with a message instead of allocating a huge array.
+     *
+     * @param buffer
+     *     Buffer to read the size from.
+     * @param minimum
+     *     Smallest valid size.
+     * @param name
+     *     Name of the size for the error message.
+     */
+    static int getSize(ByteBuffer buffer, int minimum, String name) {
+        return (int)checkSize(buffer.getInt(), minimum, name);
+    }
+
+    // Check that a size worked out from others in a checkpoint (i.e., the output of a layer) is in the same range as getSize's.
+    static long checkSize(long size, int minimum, String name) {
+        if(size < minimum || size > MAX_SIZE) {
+            throw new IllegalArgumentException(name + " of " + size + " is out of range");
+        }
+        return size;
+    }
+
+    /**
+     * Checks that the rest of a checkpoint holds at least a number of bytes, so that sizes that are each in range
+     * but together ask for more values than the file holds fail with a message before anything is allocated.
+     *
+     * @param buffer
+     *     Buffer the values are about to be read from.
+     * @param byteAmount
+     *     Number of bytes the values take, as a double so that a product of several sizes cannot overflow.
+     * @param name
+     *     What the values are (for the message).
+     */
+    static void checkRemainingBytes(ByteBuffer buffer, double byteAmount, String name) {
+        if(byteAmount > buffer.remaining()) {
+            throw new IllegalArgumentException(name + " need " + (long)byteAmount + " bytes, but only " + buffer.remaining() + " are left");
+        }
+    }
+}
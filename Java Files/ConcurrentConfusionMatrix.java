@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Responsible for a confusion matrix that many threads add classifications to at once, without locks.
+ * Each cell is a LongAdder, which spreads concurrent increments over per-thread cells (stripes) and
+ * only sums them when it is read, so writer threads rarely contend even when they hit the same cell.
+ * Reading takes a snapshot: a plain ConfusionMatrix holding the current counts, which then answers
+ * accuracy, precision, recall and F1 score like any other. A snapshot taken while threads are still
+ * adding may miss the classifications in flight, but every count in it has been added.
+ */
+public class ConcurrentConfusionMatrix {
+
+    private final int size;
+    private final LongAdder[] cells; // Row-major: cells[predictedValue * size + actualValue].
+    private final LongAdder correctAmount, totalAmount;
+
+    /**
+     * Creates a new <code>ConcurrentConfusionMatrix</code> with all counts at zero.
+     *
+     * @param newSize
+     *     Number indicating the square dimensions of the matrix to create.
+     */
+    public ConcurrentConfusionMatrix(int newSize) {
+        size = newSize;
+        cells = new LongAdder[size * size];
+        for(int i = 0; i < cells.length; ++i) {
+            cells[i] = new LongAdder();
+        }
+        correctAmount = new LongAdder();
+        totalAmount = new LongAdder();
+    }
+
+    /**
+     * Adds one to the matrix at a specific coordinate. Safe to call from any number of threads at once.
+     *
+     * @param predictedValue
+     *     Number indicating matrix X coordinate.
+     * @param actualValue
+     *     Number indicating matrix Y coordinate.
+     */
+    public void add(int predictedValue, int actualValue) {
+        cells[predictedValue * size + actualValue].increment();
+        if(predictedValue == actualValue) {
+            correctAmount.increment();
+        }
+        totalAmount.increment();
+    }
+
+    /**
+     * Adds a confusion matrix (i.e., a shard a worker filled on its own) to this one. Safe to call
+     * from any number of threads at once, and while other threads are adding single classifications.
+     *
+     * @param toAdd
+     *     ConfusionMatrix to be added to this matrix.
+     */
+    public void addConfusionMatrix(ConfusionMatrix toAdd) {
+        for(int predictedValue = 0; predictedValue < size; ++predictedValue) {
+            for(int actualValue = 0; actualValue < size; ++actualValue) {
+                int count = toAdd.getCount(predictedValue, actualValue);
+                if(count != 0) {
+                    cells[predictedValue * size + actualValue].add(count);
+                }
+            }
+            correctAmount.add(toAdd.getCount(predictedValue, predictedValue));
+        }
+        totalAmount.add(toAdd.getTotal());
+    }
+
+    /**
+     * Function to calculate the accuracy so far without taking a snapshot.
+     *
+     * @return confusion matrix accuracy
+     */
+    public double getAccuracy() {
+        // The total is read first, so classifications in flight can only raise the accuracy a little, never past 1.
+        long total = totalAmount.sum();
+        return (double)Math.min(correctAmount.sum(), total) / (double)total;
+    }
+
+    /**
+     * Copies the current counts into a plain confusion matrix.
+     *
+     * @return A new ConfusionMatrix (owned by the caller).
+     */
+    public ConfusionMatrix snapshot() {
+        ConfusionMatrix matrix = new ConfusionMatrix(size);
+        for(int predictedValue = 0; predictedValue < size; ++predictedValue) {
+            for(int actualValue = 0; actualValue < size; ++actualValue) {
+                long count = cells[predictedValue * size + actualValue].sum();
+                if(count != 0) {
+                    matrix.add(predictedValue, actualValue, Math.toIntExact(count));
+                }
+            }
+        }
+        return matrix;
+    }
+}
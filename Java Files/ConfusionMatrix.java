@@ -1,10 +1,18 @@
 
 /**
  * Responsible for managing a confusion matrix.
+ * Rows are predicted classes and columns are actual classes. Alongside the matrix it keeps running
+ * totals (correct classifications, all classifications, and each row and column sum), so accuracy is
+ * O(1), the precision, recall and F1 score of a class are O(1), and their macro averages are O(classes).
+ * Not thread-safe: threads that classify at the same time should each fill their own matrix and merge
+ * them with addConfusionMatrix, or share a ConcurrentConfusionMatrix.
  */
 public class ConfusionMatrix {
     
     private int[][] matrix;
+    private int[] predictedTotals; // Row sums: how often each class was predicted.
+    private int[] actualTotals; // Column sums: how often each class was the actual class.
+    private int correctAmount, totalAmount;
 
     /**
      * Creates a <code>ConfusionMatrix<code/> that shows the classification
@@ -31,6 +39,25 @@ public class ConfusionMatrix {
                 matrix[rowIndex][columnIndex] = 0;
             }
         }
+        predictedTotals = new int[size];
+        actualTotals = new int[size];
+        correctAmount = 0;
+        totalAmount = 0;
+    }
+
+    // Return the number of classes (the square dimensions of the matrix).
+    public int getSize() {
+        return matrix.length;
+    }
+
+    // Return the number of classifications added so far.
+    public int getTotal() {
+        return totalAmount;
+    }
+
+    // Return the number of times a class was predicted when another (or the same) class was the actual class.
+    public int getCount(int predictedValue, int actualValue) {
+        return matrix[predictedValue][actualValue];
     }
 
     /**
@@ -42,7 +69,25 @@ public class ConfusionMatrix {
      *     Number indicating matrix Y coordinate.
      */
     public void add(int predictedValue, int actualValue) {
-        ++matrix[predictedValue][actualValue];
+        add(predictedValue, actualValue, 1);
+    }
+
+    /**
+     * Adds a count to the matrix at a specific coordinate (i.e., when merging counts kept elsewhere).
+     *
+     * @param predictedValue
+     *     Number indicating matrix X coordinate.
+     * @param actualValue
+     *     Number indicating matrix Y coordinate.
+     * @param amount
+     *     Number of classifications to add.
+     */
+    void add(int predictedValue, int actualValue, int amount) {
+        matrix[predictedValue][actualValue] += amount;
+        predictedTotals[predictedValue] += amount;
+        actualTotals[actualValue] += amount;
+        correctAmount += (predictedValue == actualValue ? amount : 0);
+        totalAmount += amount;
     }
 
     /**
@@ -56,7 +101,11 @@ public class ConfusionMatrix {
             for(int columnIndex = 0; columnIndex < matrix.length; ++columnIndex) {
                 matrix[rowIndex][columnIndex] += toAdd.matrix[rowIndex][columnIndex];
             }
+            predictedTotals[rowIndex] += toAdd.predictedTotals[rowIndex];
+            actualTotals[rowIndex] += toAdd.actualTotals[rowIndex];
         }
+        correctAmount += toAdd.correctAmount;
+        totalAmount += toAdd.totalAmount;
     }
 
     /**
@@ -67,48 +116,84 @@ public class ConfusionMatrix {
      * @return confusion matrix accuracy
      */
     public double getAccuracy() {
-        return (double)(sumPositives()) / (double)(sumPositives() + sumNegatives());
+        return (double)correctAmount / (double)totalAmount;
     }
 
-    // Output the confusion matrix to terminal/cmd.
-    public void print() {
-        for(int rowIndex = 0; rowIndex < matrix.length; ++rowIndex) {
-            for(int columnIndex = 0; columnIndex < matrix.length; ++columnIndex) {
-                System.out.print("\t " + matrix[rowIndex][columnIndex]);
-            }
-            System.out.println();
-        }
+    /**
+     * Function to calculate the precision of a class: how many of the inputs predicted
+     * as that class actually were that class.
+     *
+     * @param classValue
+     *     Number of the class.
+     * @return class precision (0 if the class was never predicted).
+     */
+    public double getPrecision(int classValue) {
+        return divide(matrix[classValue][classValue], predictedTotals[classValue]);
     }
 
     /**
-     * Function to add/sum the positive classifications along the descending diagonal
-     * cells of the privately held confusion matrix.
+     * Function to calculate the recall of a class: how many of the inputs of that class
+     * were predicted as that class.
      *
-     * @return numberical sum of all diagonal (positive) values.
+     * @param classValue
+     *     Number of the class.
+     * @return class recall (0 if the class never was the actual class).
      */
-    private int sumPositives() {
-        int sum = 0;
-        for(int rowIndex = 0; rowIndex < matrix.length; ++rowIndex) {
-            for(int columnIndex = 0; columnIndex < matrix.length; ++columnIndex) {
-                sum += (rowIndex == columnIndex ? matrix[rowIndex][columnIndex] : 0);
-            }
-        }
-        return sum;
+    public double getRecall(int classValue) {
+        return divide(matrix[classValue][classValue], actualTotals[classValue]);
     }
 
     /**
-     * Function to add/sum the negative classifications that exist outside of the
-     * descending diagonal cells of the privately held confusion matrix.
+     * Function to calculate the F1 score of a class (the harmonic mean of its precision and recall).
      *
-     * @return numberical sum of all non-diagonal (negative) values.
+     * @param classValue
+     *     Number of the class.
+     * @return class F1 score (0 if the class was never predicted correctly).
      */
-    private int sumNegatives() {
-        int sum = 0;
+    public double getF1Score(int classValue) {
+        // 2PR / (P + R) simplifies to 2TP / (predicted + actual), which needs no division by 0 check on P + R.
+        return divide(2.0 * matrix[classValue][classValue], predictedTotals[classValue] + actualTotals[classValue]);
+    }
+
+    // Return the unweighted average of every class's precision.
+    public double getMacroPrecision() {
+        double sum = 0;
+        for(int classValue = 0; classValue < matrix.length; ++classValue) {
+            sum += getPrecision(classValue);
+        }
+        return sum / matrix.length;
+    }
+
+    // Return the unweighted average of every class's recall.
+    public double getMacroRecall() {
+        double sum = 0;
+        for(int classValue = 0; classValue < matrix.length; ++classValue) {
+            sum += getRecall(classValue);
+        }
+        return sum / matrix.length;
+    }
+
+    // Return the unweighted average of every class's F1 score.
+    public double getMacroF1Score() {
+        double sum = 0;
+        for(int classValue = 0; classValue < matrix.length; ++classValue) {
+            sum += getF1Score(classValue);
+        }
+        return sum / matrix.length;
+    }
+
+    // Output the confusion matrix to terminal/cmd.
+    public void print() {
         for(int rowIndex = 0; rowIndex < matrix.length; ++rowIndex) {
             for(int columnIndex = 0; columnIndex < matrix.length; ++columnIndex) {
-                sum += (rowIndex != columnIndex ? matrix[rowIndex][columnIndex] : 0);
+                System.out.print("\t " + matrix[rowIndex][columnIndex]);
             }
+            System.out.println();
         }
-        return sum;
+    }
+
+    // Return numerator / denominator, or 0 if the denominator is 0.
+    private static double divide(double numerator, int denominator) {
+        return (denominator == 0 ? 0 : numerator / denominator);
     }
 }
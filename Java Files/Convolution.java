@@ -0,0 +1,329 @@
+import java.util.*;
+
+/**
+ * Responsible for applying a whole bank of filters to an image in one pass (a convolution layer).
+ * The image is processed one output row at a time: the filterSize x filterSize input values under
+ * the row are lowered into filterSize * filterSize "tap" rows (im2col, one output row at a time so
+ * the block stays in the L1 cache), and then every stacked filter kernel is multiplied against the
+ * same tap rows. Each image row is read from memory once for the whole bank instead of once per filter.
+ * An image can have several channels (i.e., the filtered images of a previous layer), in which case
+ * every filter covers every channel and the tap rows of each channel follow each other.
+ * The backward passes run over the same tap rows, so they cost about as much as the forward pass.
+ */
+public class Convolution {
+
+    // Panel slots (see LinearAlgebra.getPanel).
+    private static final int TAP_SLOT = 2;
+    private static final int SUM_SLOT = 3;
+    private static final int ERROR_SLOT = 4;
+
+    private Convolution() {}
+
+    /**
+     * Calculates the width/height of a filtered image.
+     *
+     * @param inputDimension
+     *     Width/height of the image.
+     * @param filterSize
+     *     Width/height of the filter.
+     * @param stride
+     *     Number of pixels the filter moves between outputs.
+     * @param padding
+     *     Number of rows/columns of zeros around each side of the image.
+     */
+    public static int getOutputDimension(int inputDimension, int filterSize, int stride, int padding) {
+        return (inputDimension + 2 * padding - filterSize) / stride + 1;
+    }
+
+    /**
+     * Applies every filter of a bank to a single-channel image, with zero padding around the image.
+     *
+     * @param image
+     *     [rows x columns] image matrix to be filtered.
+     * @param kernels
+     *     [filterAmount x (filterSize * filterSize)] matrix, where row f holds filter f in row-major order.
+     * @param filterSize
+     *     Width/height of every filter.
+     * @param stride
+     *     Number of pixels the filters move between outputs (in both directions).
+     * @param padding
+     *     Number of rows/columns of zeros around each side of the image.
+     * @param output
+     *     [filterAmount x (outputRows * outputColumns)] matrix that the filtered images are written to,
+     *     where row f holds the image filtered by filter f in row-major order.
+     */
+    public static void convolve(Tensor image, Tensor kernels, int filterSize, int stride, int padding, Tensor output) {
+        Tensor channels = new Tensor(image.data, image.offset, 1, image.getSize());
+        convolve(channels, image.rows, image.columns, kernels, filterSize, stride, padding, output);
+    }
+
+    /**
+     * Applies every filter of a bank to a multi-channel image, with zero padding around the image.
+     *
+     * @param input
+     *     [channels x (inputRows * inputColumns)] matrix, where row c holds channel c in row-major order.
+     * @param inputRows
+     *     Height of each channel.
+     * @param inputColumns
+     *     Width of each channel.
+     * @param kernels
+     *     [filterAmount x (channels * filterSize * filterSize)] matrix, where row f holds filter f
+     *     (channel by channel, each in row-major order).
+     * @param filterSize
+     *     Width/height of every filter.
+     * @param stride
+     *     Number of pixels the filters move between outputs (in both directions).
+     * @param padding
+     *     Number of rows/columns of zeros around each side of the image.
+     * @param output
+     *     [filterAmount x (outputRows * outputColumns)] matrix that the filtered images are written to.
+     */
+    public static void convolve(Tensor input, int inputRows, int inputColumns, Tensor kernels, int filterSize, int stride, int padding, Tensor output) {
+        int outputRows = getOutputDimension(inputRows, filterSize, stride, padding);
+        int outputColumns = getOutputDimension(inputColumns, filterSize, stride, padding);
+        checkShapes(input, inputRows, inputColumns, kernels, filterSize, outputRows * outputColumns, output, "output");
+        int filterAmount = kernels.rows;
+        int tapAmount = kernels.columns;
+        double[][] taps = LinearAlgebra.getPanel(TAP_SLOT, tapAmount, outputColumns);
+        double[] sum = LinearAlgebra.getPanel(SUM_SLOT, 1, outputColumns)[0];
+        double[] kernelData = kernels.data;
+        for(int outputRow = 0; outputRow < outputRows; ++outputRow) {
+            lowerRow(input, inputRows, inputColumns, outputRow * stride - padding, filterSize, stride, padding, outputColumns, taps);
+            for(int filterIndex = 0; filterIndex < filterAmount; ++filterIndex) {
+                Arrays.fill(sum, 0, outputColumns, 0);
+                int kernelRow = kernels.index(filterIndex, 0);
+                for(int tap = 0; tap < tapAmount; ++tap) { // Same order as a single filter summing its segment.
+                    double weight = kernelData[kernelRow + tap];
+                    if(weight == 0) { // Edge filters are mostly 0s and 1s.
+                        continue;
+                    }
+                    LinearAlgebra.axpy(weight, taps[tap], sum, outputColumns);
+                }
+                System.arraycopy(sum, 0, output.data, output.index(filterIndex, outputRow * outputColumns), outputColumns);
+            }
+        }
+    }
+
+    /**
+     * Adds the gradients of every filter weight (output error * the input value under the weight,
+     * summed over every output) to a gradients matrix.
+     *
+     * @param input
+     *     [channels x (inputRows * inputColumns)] matrix the filters were applied to.
+     * @param inputRows
+     *     Height of each channel.
+     * @param inputColumns
+     *     Width of each channel.
+     * @param outputError
+     *     [filterAmount x (outputRows * outputColumns)] matrix of the error of each output.
+     * @param filterSize
+     *     Width/height of every filter.
+     * @param stride
+     *     Number of pixels the filters move between outputs.
+     * @param padding
+     *     Number of rows/columns of zeros around each side of the image.
+     * @param kernelGradients
+     *     [filterAmount x (channels * filterSize * filterSize)] matrix the gradients are added to (laid out like the kernels).
+     */
+    public static void accumulateKernelGradients(Tensor input, int inputRows, int inputColumns, Tensor outputError, int filterSize,
+                                                 int stride, int padding, Tensor kernelGradients) {
+        int outputRows = getOutputDimension(inputRows, filterSize, stride, padding);
+        int outputColumns = getOutputDimension(inputColumns, filterSize, stride, padding);
+        checkShapes(input, inputRows, inputColumns, kernelGradients, filterSize, outputRows * outputColumns, outputError, "output error");
+        int filterAmount = kernelGradients.rows;
+        int tapAmount = kernelGradients.columns;
+        double[][] taps = LinearAlgebra.getPanel(TAP_SLOT, tapAmount, outputColumns);
+        double[][] errors = LinearAlgebra.getPanel(ERROR_SLOT, filterAmount, outputColumns);
+        double[] gradientData = kernelGradients.data;
+        for(int outputRow = 0; outputRow < outputRows; ++outputRow) {
+            lowerRow(input, inputRows, inputColumns, outputRow * stride - padding, filterSize, stride, padding, outputColumns, taps);
+            packErrorRow(outputError, outputRow, outputColumns, errors);
+            for(int filterIndex = 0; filterIndex < filterAmount; ++filterIndex) {
+                int gradientRow = kernelGradients.index(filterIndex, 0);
+                for(int tap = 0; tap < tapAmount; ++tap) {
+                    gradientData[gradientRow + tap] += LinearAlgebra.dot(errors[filterIndex], taps[tap], outputColumns);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the output error of a filter bank back to its input (each input value gets the sum of
+     * output error * weight over every output it was under).
+     *
+     * @param outputError
+     *     [filterAmount x (outputRows * outputColumns)] matrix of the error of each output.
+     * @param kernels
+     *     [filterAmount x (channels * filterSize * filterSize)] matrix of the filters.
+     * @param filterSize
+     *     Width/height of every filter.
+     * @param stride
+     *     Number of pixels the filters move between outputs.
+     * @param padding
+     *     Number of rows/columns of zeros around each side of the image.
+     * @param inputError
+     *     [channels x (inputRows * inputColumns)] matrix that the error of each input value is written to.
+     * @param inputRows
+     *     Height of each channel.
+     * @param inputColumns
+     *     Width of each channel.
+     */
+    public static void backpropagate(Tensor outputError, Tensor kernels, int filterSize, int stride, int padding,
+                                     Tensor inputError, int inputRows, int inputColumns) {
+        int outputRows = getOutputDimension(inputRows, filterSize, stride, padding);
+        int outputColumns = getOutputDimension(inputColumns, filterSize, stride, padding);
+        checkShapes(inputError, inputRows, inputColumns, kernels, filterSize, outputRows * outputColumns, outputError, "output error");
+        int filterAmount = kernels.rows;
+        int tapAmount = kernels.columns;
+        double[][] tapErrors = LinearAlgebra.getPanel(TAP_SLOT, tapAmount, outputColumns);
+        double[][] errors = LinearAlgebra.getPanel(ERROR_SLOT, filterAmount, outputColumns);
+        double[] kernelData = kernels.data;
+        inputError.fill(0);
+        for(int outputRow = 0; outputRow < outputRows; ++outputRow) {
+            packErrorRow(outputError, outputRow, outputColumns, errors);
+            for(int tap = 0; tap < tapAmount; ++tap) { // The error under each filter cell, for every output column.
+                double[] tapError = tapErrors[tap];
+                Arrays.fill(tapError, 0, outputColumns, 0);
+                for(int filterIndex = 0; filterIndex < filterAmount; ++filterIndex) {
+                    double weight = kernelData[kernels.index(filterIndex, tap)];
+                    if(weight == 0) {
+                        continue;
+                    }
+                    LinearAlgebra.axpy(weight, errors[filterIndex], tapError, outputColumns);
+                }
+            }
+            raiseRow(tapErrors, outputRow * stride - padding, filterSize, stride, padding, outputColumns, inputError, inputRows, inputColumns);
+        }
+    }
+
+    // Throw an IllegalArgumentException if a filter bank, its input and its output/output error do not fit together.
+    private static void checkShapes(Tensor input, int inputRows, int inputColumns, Tensor kernels, int filterSize, int outputSize, Tensor output, String outputName) {
+        int channels = input.rows;
+        if(input.columns != inputRows * inputColumns || kernels.columns != channels * filterSize * filterSize
+           || output.rows != kernels.rows || output.columns != outputSize) {
+            throw new IllegalArgumentException("A bank of " + kernels.rows + " [" + channels + " x " + filterSize + " x " + filterSize + "] filters ("
+                                               + kernels.rows + " x " + kernels.columns + " kernels) over " + input.rows + " [" + inputRows + " x "
+                                               + inputColumns + "] channels (" + input.rows + " x " + input.columns + ") needs a [" + kernels.rows
+                                               + " x " + outputSize + "] " + outputName + ", not [" + output.rows + " x " + output.columns + "]");
+        }
+    }
+
+    // Copy one output row of every filter's error into the rows of an error panel.
+    private static void packErrorRow(Tensor outputError, int outputRow, int outputColumns, double[][] errors) {
+        for(int filterIndex = 0; filterIndex < outputError.rows; ++filterIndex) {
+            System.arraycopy(outputError.data, outputError.index(filterIndex, outputRow * outputColumns), errors[filterIndex], 0, outputColumns);
+        }
+    }
+
+    /**
+     * Copies the input values under one output row into tap rows, so that tap row
+     * ((c * filterSize + i) * filterSize + j) holds, for every output column, the value of channel c
+     * under filter cell [i, j] (0 where it falls in the padding).
+     *
+     * @param input
+     *     [channels x (inputRows * inputColumns)] matrix being filtered.
+     * @param inputRows
+     *     Height of each channel.
+     * @param inputColumns
+     *     Width of each channel.
+     * @param startRow
+     *     Input row under the first filter row (negative inside the top padding).
+     * @param filterSize
+     *     Width/height of every filter.
+     * @param stride
+     *     Number of pixels the filters move between outputs.
+     * @param padding
+     *     Number of rows/columns of zeros around each side of the image.
+     * @param outputColumns
+     *     Number of output columns.
+     * @param taps
+     *     Doubles array of at least [(channels * filterSize * filterSize) x outputColumns] that the taps are written to.
+     */
+    private static void lowerRow(Tensor input, int inputRows, int inputColumns, int startRow, int filterSize, int stride, int padding,
+                                 int outputColumns, double[][] taps) {
+        double[] inputData = input.data;
+        for(int channel = 0; channel < input.rows; ++channel) {
+            for(int i = 0; i < filterSize; ++i) {
+                int inputRow = startRow + i;
+                for(int j = 0; j < filterSize; ++j) {
+                    double[] tapRow = taps[(channel * filterSize + i) * filterSize + j];
+                    if(inputRow < 0 || inputRow >= inputRows) {
+                        Arrays.fill(tapRow, 0, outputColumns, 0);
+                        continue;
+                    }
+                    // Output columns [start, end) fall inside the image, the rest fall in the left/right padding.
+                    int start = getFirstInsideColumn(j, stride, padding, outputColumns);
+                    int end = getEndInsideColumn(j, stride, padding, outputColumns, inputColumns, start);
+                    Arrays.fill(tapRow, 0, start, 0);
+                    Arrays.fill(tapRow, end, outputColumns, 0);
+                    if(start == end) {
+                        continue;
+                    }
+                    int inputOffset = input.index(channel, inputRow * inputColumns + start * stride - padding + j);
+                    if(stride == 1) {
+                        System.arraycopy(inputData, inputOffset, tapRow, start, end - start);
+                    } else {
+                        for(int column = start; column < end; ++column) {
+                            tapRow[column] = inputData[inputOffset + (column - start) * stride];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds tap rows back onto the input values they were lowered from (the reverse of lowerRow),
+     * skipping the taps that fall in the padding.
+     *
+     * @param tapErrors
+     *     Doubles array of at least [(channels * filterSize * filterSize) x outputColumns] of the error of each tap.
+     * @param startRow
+     *     Input row under the first filter row (negative inside the top padding).
+     * @param filterSize
+     *     Width/height of every filter.
+     * @param stride
+     *     Number of pixels the filters move between outputs.
+     * @param padding
+     *     Number of rows/columns of zeros around each side of the image.
+     * @param outputColumns
+     *     Number of output columns.
+     * @param inputError
+     *     [channels x (inputRows * inputColumns)] matrix the tap errors are added to.
+     * @param inputRows
+     *     Height of each channel.
+     * @param inputColumns
+     *     Width of each channel.
+     */
+    private static void raiseRow(double[][] tapErrors, int startRow, int filterSize, int stride, int padding, int outputColumns,
+                                 Tensor inputError, int inputRows, int inputColumns) {
+        double[] errorData = inputError.data;
+        for(int channel = 0; channel < inputError.rows; ++channel) {
+            for(int i = 0; i < filterSize; ++i) {
+                int inputRow = startRow + i;
+                if(inputRow < 0 || inputRow >= inputRows) {
+                    continue;
+                }
+                for(int j = 0; j < filterSize; ++j) {
+                    double[] tapError = tapErrors[(channel * filterSize + i) * filterSize + j];
+                    int start = getFirstInsideColumn(j, stride, padding, outputColumns);
+                    int end = getEndInsideColumn(j, stride, padding, outputColumns, inputColumns, start);
+                    int inputOffset = inputError.index(channel, inputRow * inputColumns) + start * stride - padding + j;
+                    for(int column = start; column < end; ++column) {
+                        errorData[inputOffset + (column - start) * stride] += tapError[column];
+                    }
+                }
+            }
+        }
+    }
+
+    // Return the first output column whose filter column j falls inside the image.
+    private static int getFirstInsideColumn(int j, int stride, int padding, int outputColumns) {
+        return Math.min(outputColumns, Math.max(0, Math.floorDiv(padding - j + stride - 1, stride)));
+    }
+
+    // Return the output column after the last one whose filter column j falls inside the image (at least 'start').
+    private static int getEndInsideColumn(int j, int stride, int padding, int outputColumns, int inputColumns, int start) {
+        return Math.max(start, Math.min(outputColumns, Math.floorDiv(inputColumns - 1 + padding - j, stride) + 1));
+    }
+}
@@ -0,0 +1,267 @@
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Responsible for a trainable convolution layer: a bank of filters that each cover every input
+ * channel, with one bias per filter and an optional ReLU activation. Each filter produces one
+ * output channel. The gradients of a number of inputs are summed, and the weights are updated
+ * once with their average.
+ */
+public class ConvolutionLayer implements Layer {
+
+    // Train with momentum term selection. [Enable to find the global error minimum]
+    private final boolean MOMENTUM_ENABLED = true;
+
+    // Every filter weight is reused at every output position, so its gradient is a sum over the whole
+    // image and the learning rate is smaller than the perceptron's.
+    private final double LEARNING_RATE = 0.01;
+    private final double MOMENTUM_VALUE = 0.9;
+
+    // Written before the layer's shape in a checkpoint (see CNN.readLayer).
+    static final int CHECKPOINT_TYPE = 1;
+
+    // Runs the innermost loops (scalar, or SIMD when the Vector API is available).
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+
+    private final int inputChannels, outputChannels;
+    private final int filterSize, stride, padding;
+    private final boolean reluEnabled;
+    // Kernels are [outputChannels x (inputChannels * filterSize * filterSize)] row-major matrices (see Convolution),
+    // and biases are [outputChannels x 1].
+    private final Tensor kernels, biases;
+    private final Tensor deltaKernels, deltaBiases;
+    private final Tensor kernelGradients, biasGradients;
+
+    /**
+     * Creates a new <code>ConvolutionLayer</code> with randomly initialized filters.
+     *
+     * @param newInputChannels
+     *     Number of channels that enter the layer.
+     * @param newOutputChannels
+     *     Number of filters (and channels that leave the layer).
+     * @param newFilterSize
+     *     Width/height of every filter.
+     * @param newStride
+     *     Number of pixels the filters move between outputs.
+     * @param newPadding
+     *     Number of rows/columns of zeros around each side of every input channel.
+     * @param newReluEnabled
+     *     Whether negative outputs are set to 0 (ReLU activation).
+     */
+    public ConvolutionLayer(int newInputChannels, int newOutputChannels, int newFilterSize, int newStride, int newPadding, boolean newReluEnabled) {
+        this(newInputChannels, newOutputChannels, newFilterSize, newStride, newPadding, newReluEnabled, true);
+    }
+
+    // Create a layer whose filters start random, or at 0 for a checkpoint to read them into.
+    private ConvolutionLayer(int newInputChannels, int newOutputChannels, int newFilterSize, int newStride, int newPadding, boolean newReluEnabled,
+                             boolean randomFiltersEnabled) {
+        inputChannels = newInputChannels;
+        outputChannels = newOutputChannels;
+        filterSize = newFilterSize;
+        stride = newStride;
+        padding = newPadding;
+        reluEnabled = newReluEnabled;
+        kernels = new Tensor(outputChannels, inputChannels * filterSize * filterSize);
+        biases = new Tensor(outputChannels, 1);
+        deltaKernels = new Tensor(kernels.rows, kernels.columns);
+        deltaBiases = new Tensor(biases.rows, biases.columns);
+        kernelGradients = new Tensor(kernels.rows, kernels.columns);
+        biasGradients = new Tensor(biases.rows, biases.columns);
+        if(randomFiltersEnabled) {
+            initializeKernels();
+        }
+    }
+
+    // Set the kernels uniform in +/- sqrt(6 / inputs per output), which keeps the output variance about the same as the input's.
+    private void initializeKernels() {
+        Random random = new Random();
+        double limit = Math.sqrt(6.0 / kernels.columns);
+        for(int i = 0; i < kernels.getSize(); ++i) {
+            kernels.data[i] = (random.nextDouble() * 2 - 1) * limit;
+        }
+    }
+
+    /**
+     * Creates a new <code>ConvolutionLayer</code> over single-channel images that starts from the
+     * filter matrices of a filter set (the filters are copied, so training does not change them).
+     *
+     * @param filterSet
+     *     Filters that all have the same size, one per output channel.
+     * @param newStride
+     *     Number of pixels the filters move between outputs.
+     * @param newPadding
+     *     Number of rows/columns of zeros around each side of the image.
+     * @param newReluEnabled
+     *     Whether negative outputs are set to 0 (ReLU activation).
+     */
+    public ConvolutionLayer(Filter[] filterSet, int newStride, int newPadding, boolean newReluEnabled) {
+        this(1, filterSet.length, filterSet[0].getSize(), newStride, newPadding, newReluEnabled);
+        Tensor filterKernels = Filter.stackKernels(filterSet);
+        System.arraycopy(filterKernels.data, 0, kernels.data, 0, kernels.getSize());
+    }
+
+    // Return a copy of the layer with the current filters and biases (the copy's training state starts empty).
+    public Layer copy() {
+        ConvolutionLayer copy = new ConvolutionLayer(inputChannels, outputChannels, filterSize, stride, padding, reluEnabled, false);
+        System.arraycopy(kernels.data, 0, copy.kernels.data, 0, kernels.getSize());
+        System.arraycopy(biases.data, 0, copy.biases.data, 0, biases.getSize());
+        return copy;
+    }
+
+    public long getCheckpointBytes(boolean momentumIncluded) {
+        long weightBytes = Checkpoint.getTensorBytes(kernels) + Checkpoint.getTensorBytes(biases);
+        return 7 * Integer.BYTES + (momentumIncluded ? 2 * weightBytes : weightBytes);
+    }
+
+    public void writeCheckpoint(ByteBuffer buffer, boolean momentumIncluded) {
+        buffer.putInt(CHECKPOINT_TYPE).putInt(inputChannels).putInt(outputChannels);
+        buffer.putInt(filterSize).putInt(stride).putInt(padding).putInt(reluEnabled ? 1 : 0);
+        Checkpoint.putTensor(buffer, kernels);
+        Checkpoint.putTensor(buffer, biases);
+        if(momentumIncluded) {
+            Checkpoint.putTensor(buffer, deltaKernels);
+            Checkpoint.putTensor(buffer, deltaBiases);
+        }
+    }
+
+    /**
+     * Creates a <code>ConvolutionLayer</code> from the shape and weights in a checkpoint, after its type.
+     *
+     * @param buffer
+     *     Little-endian buffer to read from.
+     * @param momentumIncluded
+     *     Whether the previous weight changes (the momentum terms) were written too.
+     */
+    static ConvolutionLayer readCheckpoint(ByteBuffer buffer, boolean momentumIncluded) {
+        int newInputChannels = Checkpoint.getSize(buffer, 1, "Input channels");
+        int newOutputChannels = Checkpoint.getSize(buffer, 1, "Output channels");
+        int newFilterSize = Checkpoint.getSize(buffer, 1, "Filter size");
+        int newStride = Checkpoint.getSize(buffer, 1, "Stride");
+        int newPadding = Checkpoint.getSize(buffer, 0, "Padding");
+        boolean newReluEnabled = (buffer.getInt() != 0);
+        double weightAmount = (double)newOutputChannels * ((double)newInputChannels * newFilterSize * newFilterSize + 1);
+        Checkpoint.checkRemainingBytes(buffer, weightAmount * Double.BYTES * (momentumIncluded ? 2 : 1), "The filters and biases");
+        ConvolutionLayer layer = new ConvolutionLayer(newInputChannels, newOutputChannels, newFilterSize, newStride, newPadding, newReluEnabled, false);
+        Checkpoint.getTensor(buffer, layer.kernels);
+        Checkpoint.getTensor(buffer, layer.biases);
+        if(momentumIncluded) {
+            Checkpoint.getTensor(buffer, layer.deltaKernels);
+            Checkpoint.getTensor(buffer, layer.deltaBiases);
+        }
+        return layer;
+    }
+
+    // Return the kernels and biases themselves (not copies), i.e., to check the gradients against finite differences.
+    Tensor[] getWeightMatrices() {
+        return new Tensor[] {kernels, biases};
+    }
+
+    // Return the gradients added since the last update, laid out like getWeightMatrices.
+    Tensor[] getGradientMatrices() {
+        return new Tensor[] {kernelGradients, biasGradients};
+    }
+
+    public int getOutputChannels(int inputChannels) {
+        return outputChannels;
+    }
+
+    public int getOutputDimension(int inputDimension) {
+        return Convolution.getOutputDimension(inputDimension, filterSize, stride, padding);
+    }
+
+    /**
+     * Applies every filter to an input and adds the biases (followed by the ReLU activation if enabled).
+     *
+     * @param input
+     *     [inputChannels x (inputDimension * inputDimension)] matrix of the input channels.
+     * @param inputDimension
+     *     Width/height of each input channel.
+     * @param output
+     *     [outputChannels x (outputDimension * outputDimension)] matrix that the output channels are written to.
+     */
+    public void forward(Tensor input, int inputDimension, Tensor output) {
+        checkInputChannels(input);
+        Convolution.convolve(input, inputDimension, inputDimension, kernels, filterSize, stride, padding, output);
+        double[] outputData = output.data;
+        for(int channel = 0; channel < outputChannels; ++channel) {
+            double bias = biases.data[channel];
+            int start = output.index(channel, 0);
+            for(int i = start; i < start + output.columns; ++i) {
+                double value = outputData[i] + bias;
+                outputData[i] = (reluEnabled && value < 0 ? 0 : value);
+            }
+        }
+    }
+
+    /**
+     * Adds the gradients of every filter weight and bias for an input, and passes the error of the
+     * output back to the input.
+     *
+     * @param input
+     *     [inputChannels x (inputDimension * inputDimension)] matrix that the output was calculated from.
+     * @param inputDimension
+     *     Width/height of each input channel.
+     * @param output
+     *     [outputChannels x (outputDimension * outputDimension)] matrix written by the forward pass.
+     * @param outputError
+     *     Matrix (laid out like the output) of the error of each output (overwritten by the error before the ReLU activation).
+     * @param inputError
+     *     Matrix (laid out like the input) that the error of each input value is written to, or null if it is not needed.
+     */
+    public void backward(Tensor input, int inputDimension, Tensor output, Tensor outputError, Tensor inputError) {
+        checkInputChannels(input);
+        double[] outputData = output.data, errorData = outputError.data;
+        for(int channel = 0; channel < outputChannels; ++channel) {
+            int outputStart = output.index(channel, 0);
+            int errorStart = outputError.index(channel, 0);
+            double biasGradient = 0;
+            for(int i = 0; i < outputError.columns; ++i) {
+                if(reluEnabled && outputData[outputStart + i] <= 0) { // The output was cut off, so nothing flows through it.
+                    errorData[errorStart + i] = 0;
+                }
+                biasGradient += errorData[errorStart + i];
+            }
+            biasGradients.data[channel] += biasGradient;
+        }
+        Convolution.accumulateKernelGradients(input, inputDimension, inputDimension, outputError, filterSize, stride, padding, kernelGradients);
+        if(inputError != null) {
+            Convolution.backpropagate(outputError, kernels, filterSize, stride, padding, inputError, inputDimension, inputDimension);
+        }
+    }
+
+    /**
+     * Updates every filter weight and bias once with the average of the gradients added since the last update.
+     *
+     * @param sampleCount
+     *     Number of inputs the gradients were added over.
+     */
+    public void applyGradients(int sampleCount) {
+        applyGradients(kernels, deltaKernels, kernelGradients, LEARNING_RATE / sampleCount);
+        applyGradients(biases, deltaBiases, biasGradients, LEARNING_RATE / sampleCount);
+    }
+
+    /**
+     * Updates a set of weights with a set of summed gradients, and clears the gradients.
+     *
+     * @param weights
+     *     Row-major matrix of the weights to update.
+     * @param deltaWeights
+     *     Row-major matrix of the previous weight changes (used for the momentum term).
+     * @param gradients
+     *     Row-major matrix of the summed gradients.
+     * @param scale
+     *     Learning rate divided by the number of inputs the gradients were added over.
+     */
+    private void applyGradients(Tensor weights, Tensor deltaWeights, Tensor gradients, double scale) {
+        double momentum = (MOMENTUM_ENABLED == true ? MOMENTUM_VALUE : 0);
+        KERNELS.updateWeights(weights.data, deltaWeights.data, 0, scale, gradients.data, 0, weights.getSize(), momentum);
+        gradients.fill(0);
+    }
+
+    // Throw an IllegalArgumentException if an input does not have the number of channels the filters cover.
+    private void checkInputChannels(Tensor input) {
+        if(input.rows != inputChannels) {
+            throw new IllegalArgumentException("The filters cover " + inputChannels + " channels, but the input has " + input.rows);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * Responsible for preparing the mini-batches of a training epoch on background threads while the
+ * network trains on the previous ones. The batches are written into a ring of preallocated batch
+ * buffers: producer threads fill the free buffers (in batch order), and the trainer takes them in
+ * order, so the trainer only waits when no batch is ready yet (starved), and the producers only wait
+ * when every buffer is full (saturated).
+ * A batch holds the inputs themselves and their shared target vectors, so nothing is copied: an
+ * input's values are read (and, for a lazily decoded Dataset, decoded) by the producer thread, and
+ * the trainer passes the batch's arrays straight to the network.
+ * Not thread-safe on the consuming side: one thread takes the batches.
+ */
+public class DataLoader implements AutoCloseable {
+
+    private final Input[] inputs;
+    private final int batchSize;
+    private final IntFunction<double[]> targetProvider;
+    private final Random random; // Null if the inputs are used in the order they were given.
+    private final Batch[] buffers;
+    private final List<Thread> producers;
+
+    private final ReentrantLock lock;
+    private final Condition batchReady, bufferFree;
+    // Guarded by the lock.
+    private Input[] epochOrder;
+    private int epochBatchAmount, claimedAmount, takenAmount, releasedAmount;
+    private boolean closed;
+    private long takeAmount, starvedAmount, readyBatchSum, starvedNanos, saturatedNanos;
+
+    /**
+     * A mini-batch, valid until the next batch is taken.
+     */
+    public static class Batch {
+
+        // Exactly as long as the batch, so they can be passed to forwardBatch and backwardBatch as they are.
+        public Input[] inputs;
+        public double[][] targets;
+        private int batchNumber; // The batch the buffer holds, or -1 while it is being filled (guarded by the loader's lock).
+
+        Batch(int batchSize) {
+            inputs = new Input[batchSize];
+            targets = new double[batchSize][];
+            batchNumber = -1;
+        }
+
+        // Return the number of inputs in the batch.
+        public int getSize() {
+            return inputs.length;
+        }
+    }
+
+    /**
+     * Creates a new <code>DataLoader</code> and starts its producer threads (which wait for startEpoch).
+     *
+     * @param newInputs
+     *     Inputs of an epoch (only read).
+     * @param newBatchSize
+     *     Number of inputs per batch (the last batch of an epoch holds the rest).
+     * @param bufferAmount
+     *     Number of batch buffers in the ring (how far the producers may get ahead of the trainer).
+     * @param producerAmount
+     *     Number of producer threads.
+     * @param newTargetProvider
+     *     Function that gives the target output layer of a label.
+     * @param shuffleSeed
+     *     Seed of the order the inputs are shuffled into at the start of every epoch, or null to use them in the given order.
+     */
+    public DataLoader(Input[] newInputs, int newBatchSize, int bufferAmount, int producerAmount,
+                      IntFunction<double[]> newTargetProvider, Long shuffleSeed) {
+        if(newBatchSize < 1 || bufferAmount < 1 || producerAmount < 1) {
+            throw new IllegalArgumentException("The batch size, buffer amount and producer amount must be at least 1, but they are "
+                                               + newBatchSize + ", " + bufferAmount + " and " + producerAmount);
+        }
+        inputs = newInputs;
+        batchSize = newBatchSize;
+        targetProvider = newTargetProvider;
+        random = (shuffleSeed == null ? null : new Random(shuffleSeed));
+        buffers = new Batch[bufferAmount];
+        for(int i = 0; i < bufferAmount; ++i) {
+            buffers[i] = new Batch(batchSize);
+        }
+        lock = new ReentrantLock();
+        batchReady = lock.newCondition();
+        bufferFree = lock.newCondition();
+        epochBatchAmount = 0;
+        closed = false;
+        producers = new ArrayList<>(producerAmount);
+        for(int i = 0; i < producerAmount; ++i) {
+            Thread producer = new Thread(this::produceBatches, "data-loader-" + i);
+            producer.setDaemon(true);
+            producer.start();
+            producers.add(producer);
+        }
+    }
+
+    /**
+     * Starts producing the batches of a new epoch (shuffling the inputs first if a seed was given).
+     * The batches of the previous epoch must all have been taken.
+     */
+    public void startEpoch() {
+        Input[] order = inputs.clone();
+        if(random != null) {
+            Collections.shuffle(Arrays.asList(order), random);
+        }
+        lock.lock();
+        try {
+            if(takenAmount < epochBatchAmount) {
+                throw new IllegalStateException("The previous epoch still has " + (epochBatchAmount - takenAmount) + " batches left.");
+            }
+            epochOrder = order;
+            epochBatchAmount = (order.length + batchSize - 1) / batchSize;
+            claimedAmount = 0;
+            takenAmount = 0;
+            releasedAmount = 0;
+            for(Batch buffer : buffers) {
+                buffer.batchNumber = -1;
+            }
+            bufferFree.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next batch of the epoch, waiting for it if it is not ready yet. Taking a batch hands the
+     * previous one back to the producers, so a batch is only valid until the next call.
+     *
+     * @return The next batch, or null once every batch of the epoch has been taken.
+     */
+    public Batch next() {
+        lock.lock();
+        try {
+            if(releasedAmount < takenAmount) { // The previous batch is done with.
+                ++releasedAmount;
+                bufferFree.signalAll();
+            }
+            if(takenAmount == epochBatchAmount) {
+                return null;
+            }
+            int batchNumber = takenAmount++;
+            Batch batch = buffers[batchNumber % buffers.length];
+            ++takeAmount;
+            readyBatchSum += countReadyBatches(batchNumber);
+            if(batch.batchNumber != batchNumber) {
+                ++starvedAmount;
+                long startTime = System.nanoTime();
+                while(batch.batchNumber != batchNumber && !closed) {
+                    batchReady.awaitUninterruptibly();
+                }
+                starvedNanos += System.nanoTime() - startTime;
+                if(closed) {
+                    throw new IllegalStateException("The data loader has been closed.");
+                }
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Return the share of batches the trainer had to wait for (near 1 means the model is starved for data).
+    public double getStarvedFraction() {
+        lock.lock();
+        try {
+            return (takeAmount == 0 ? 0 : (double)starvedAmount / takeAmount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Return the average number of ready batches in the ring when the trainer took one (near the buffer amount means the producers are saturated).
+    public double getAverageReadyBatches() {
+        lock.lock();
+        try {
+            return (takeAmount == 0 ? 0 : (double)readyBatchSum / takeAmount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Return the time the trainer spent waiting for batches so far.
+    public long getStarvedNanos() {
+        lock.lock();
+        try {
+            return starvedNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Return the time the producers spent waiting for a free buffer so far (summed over the producers).
+    public long getSaturatedNanos() {
+        lock.lock();
+        try {
+            return saturatedNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Stop the producer threads, waiting for them to finish the batches they are filling.
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            bufferFree.signalAll();
+            batchReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        for(Thread producer : producers) {
+            while(producer.isAlive()) {
+                try {
+                    producer.join();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Count the batches from a batch number onwards that are ready in the ring (called with the lock held).
+    private int countReadyBatches(int batchNumber) {
+        int readyAmount = 0;
+        for(Batch buffer : buffers) {
+            readyAmount += (buffer.batchNumber >= batchNumber ? 1 : 0);
+        }
+        return readyAmount;
+    }
+
+    // Claim the next batch of the epoch and fill its buffer, until the loader is closed.
+    private void produceBatches() {
+        while(true) {
+            int batchNumber;
+            Input[] order;
+            lock.lock();
+            try {
+                // Wait for work: a batch left to claim whose buffer the trainer has handed back.
+                while(!closed && (claimedAmount == epochBatchAmount || claimedAmount - releasedAmount >= buffers.length)) {
+                    if(claimedAmount < epochBatchAmount) { // Every buffer is full.
+                        long startTime = System.nanoTime();
+                        bufferFree.awaitUninterruptibly();
+                        saturatedNanos += System.nanoTime() - startTime;
+                    } else {
+                        bufferFree.awaitUninterruptibly();
+                    }
+                }
+                if(closed) {
+                    return;
+                }
+                batchNumber = claimedAmount++;
+                order = epochOrder;
+            } finally {
+                lock.unlock();
+            }
+            Batch batch = buffers[batchNumber % buffers.length];
+            fillBatch(batch, order, batchNumber);
+            lock.lock();
+            try {
+                batch.batchNumber = batchNumber;
+                batchReady.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Fills a buffer with a batch of inputs and their targets, preloading every input so that inputs
+     * decoded on demand are decoded here rather than on the trainer's thread.
+     *
+     * @param batch
+     *     Buffer to fill (the trainer has handed it back).
+     * @param order
+     *     Inputs of the epoch, in order.
+     * @param batchNumber
+     *     Number of the batch within the epoch.
+     */
+    private void fillBatch(Batch batch, Input[] order, int batchNumber) {
+        int start = batchNumber * batchSize;
+        int size = Math.min(batchSize, order.length - start);
+        if(batch.inputs.length != size) { // Only the last batch of an epoch is smaller (and the next epoch grows it back).
+            batch.inputs = new Input[size];
+            batch.targets = new double[size][];
+        }
+        for(int i = 0; i < size; ++i) {
+            Input input = order[start + i];
+            batch.inputs[i] = input;
+            batch.targets[i] = targetProvider.apply(input.label);
+            input.preload();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Responsible for a dataset that is decoded on demand instead of all at once, for datasets that
+ * do not fit in memory. Only the image files and their labels are listed up front; each image is
+ * an <code>Input</code> handle that decodes its file the first time its values are read.
+ * Decoded images are kept in a cache that is bounded by a number of bytes and evicts the least
+ * recently used image first, so a dataset larger than the cache keeps the images in use and reads
+ * the rest from disk again.
+ * Once the order the inputs are used in is known (see setOrder), reading an input also decodes the
+ * next inputs in that order on background threads, so the images are usually already in the cache
+ * by the time they are needed. The handles keep their identity, so they work with the feature
+ * cache (which is keyed by input) like any other input.
+ */
+public class Dataset {
+
+    private final ImageParser parser;
+    private final Entry[] entries;
+    private final Precision precision;
+    private final int valuesPerImage;
+    private final long maxCacheBytes;
+    private final int prefetchAmount;
+    private final ExecutorService prefetchPool;
+
+    // Least recently used first (the map is in access order). Guarded by the map itself.
+    private final LinkedHashMap<Entry, Input> cache;
+    private long usedCacheBytes;
+    // Images that are being decoded, so that an image needed while it is being prefetched is only decoded once.
+    private final ConcurrentHashMap<Entry, CompletableFuture<Input>> loading;
+    private final LongAdder hitAmount, missAmount;
+
+    /**
+     * An input whose values are read from the dataset's cache (and decoded from its file if they are not there).
+     */
+    private static final class Entry extends Input {
+
+        final Dataset dataset;
+        final File file;
+        // The inputs this input is used with, in order, and its position among them (null until setOrder).
+        Input[] order;
+        int position;
+
+        Entry(Dataset newDataset, File newFile, int newLabel) {
+            dataset = newDataset;
+            file = newFile;
+            label = newLabel;
+        }
+
+        @Override
+        public double[] getData(double[] buffer) {
+            return dataset.get(this).getData(buffer);
+        }
+
+        @Override
+        public void copyData(double[] destination, int offset) {
+            dataset.get(this).copyData(destination, offset);
+        }
+
+        @Override
+        public void copyData(float[] destination, int offset) {
+            dataset.get(this).copyData(destination, offset);
+        }
+
+        @Override
+        public void preload() {
+            dataset.get(this);
+        }
+
+        @Override
+        public int getSize() {
+            return dataset.valuesPerImage;
+        }
+
+        @Override
+        public Precision getPrecision() {
+            return dataset.precision;
+        }
+
+        @Override
+        public long getDataBytes() {
+            return (long)getSize() * getPrecision().bytesPerValue;
+        }
+
+        // An input at another precision is decoded into a new (in memory) input.
+        @Override
+        public Input withPrecision(Precision newPrecision, int levelAmount) {
+            return (newPrecision == getPrecision() ? this : dataset.get(this).withPrecision(newPrecision, levelAmount));
+        }
+    }
+
+    /**
+     * Creates a new <code>Dataset</code> from the sign folders of an images folder. Only the first image
+     * is decoded (to find the number of values per image); every image is assumed to be the same size.
+     *
+     * @param imagesFolderPath
+     *     The containing folder string path name to be read from.
+     * @param newPrecision
+     *     Precision the decoded images are kept in the cache at.
+     * @param cacheSizeMB
+     *     Number of megabytes the decoded images are allowed to take up.
+     * @param newPrefetchAmount
+     *     Number of inputs ahead of the one being read to decode in the background (0 prefetches none).
+     * @param prefetchWorkerAmount
+     *     Number of threads to decode prefetched images on.
+     */
+    public Dataset(String imagesFolderPath, Precision newPrecision, int cacheSizeMB, int newPrefetchAmount, int prefetchWorkerAmount) {
+        parser = new ImageParser();
+        precision = newPrecision;
+        maxCacheBytes = cacheSizeMB * 1024L * 1024L;
+        prefetchAmount = newPrefetchAmount;
+        cache = new LinkedHashMap<>(16, 0.75f, true);
+        usedCacheBytes = 0;
+        loading = new ConcurrentHashMap<>();
+        hitAmount = new LongAdder();
+        missAmount = new LongAdder();
+        List<Entry> entryList = new ArrayList<>();
+        for(int signValue = 0; signValue < ImageParser.SIGN_AMOUNT; ++signValue) {
+            File[] folderFiles = new File(imagesFolderPath + "/" + signValue).listFiles();
+            if(folderFiles == null) {
+                System.err.println("Error with reading folder " + imagesFolderPath + "/" + signValue);
+                continue;
+            }
+            Arrays.sort(folderFiles); // listFiles gives no particular order.
+            for(File currentFile : folderFiles) {
+                entryList.add(new Entry(this, currentFile, signValue));
+            }
+        }
+        entries = entryList.toArray(new Entry[entryList.size()]);
+        double[] firstImage = (entries.length == 0 ? null : parser.parseDownsizedImageFromFile(entries[0].file));
+        valuesPerImage = (firstImage == null ? 0 : firstImage.length);
+        prefetchPool = Executors.newFixedThreadPool(Math.max(1, prefetchWorkerAmount), runnable -> {
+            Thread thread = new Thread(runnable, "dataset-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns every input of the dataset, grouped by sign. The inputs are handles whose values are
+     * decoded on demand, and the same handles are returned every time.
+     */
+    public Input[] getInputs() {
+        return entries.clone();
+    }
+
+    /**
+     * Records the order a set of this dataset's inputs will be used in (i.e., the shuffled training
+     * set), so that reading one of them prefetches the ones that come after it. An input belongs to
+     * one order at a time (the last one it was passed in).
+     *
+     * @param inputs
+     *     Inputs of this dataset, in the order they will be read.
+     */
+    public void setOrder(Input[] inputs) {
+        for(int i = 0; i < inputs.length; ++i) {
+            Entry entry = getEntry(inputs[i]);
+            entry.order = inputs;
+            entry.position = i;
+        }
+    }
+
+    // Return the number of images.
+    public int getSize() {
+        return entries.length;
+    }
+
+    // Return the number of values in every image.
+    public int getValuesPerImage() {
+        return valuesPerImage;
+    }
+
+    // Return the share of reads that found their image in the cache (or being prefetched into it).
+    public double getCacheHitRate() {
+        long hits = hitAmount.sum();
+        long total = hits + missAmount.sum();
+        return (total == 0 ? 0 : (double)hits / total);
+    }
+
+    // Return the number of bytes taken up by the cached images.
+    public long getUsedCacheBytes() {
+        synchronized(cache) {
+            return usedCacheBytes;
+        }
+    }
+
+    // Stop the prefetching threads (inputs can still be read afterwards, without prefetching).
+    public void shutdown() {
+        prefetchPool.shutdownNow();
+    }
+
+    // Return an input as one of this dataset's entries, or throw an IllegalArgumentException.
+    private Entry getEntry(Input input) {
+        if(!(input instanceof Entry) || ((Entry)input).dataset != this) {
+            throw new IllegalArgumentException("The input does not belong to this dataset.");
+        }
+        return (Entry)input;
+    }
+
+    /**
+     * Returns the decoded image of an entry, from the cache if it is there, and starts prefetching
+     * the entries that come after it.
+     *
+     * @param entry
+     *     Entry to read.
+     * @return The decoded image, as an in-memory input at the dataset's precision.
+     */
+    private Input get(Entry entry) {
+        prefetchAfter(entry);
+        Input decoded;
+        synchronized(cache) {
+            decoded = cache.get(entry);
+        }
+        if(decoded != null) {
+            hitAmount.increment();
+            return decoded;
+        }
+        CompletableFuture<Input> pending = loading.get(entry);
+        if(pending != null) { // Being prefetched: wait for it instead of decoding it twice.
+            hitAmount.increment();
+            return pending.join();
+        }
+        missAmount.increment();
+        return load(entry);
+    }
+
+    /**
+     * Starts decoding the entries up to prefetchAmount positions after an entry in its order. Starts
+     * from the furthest one and stops at the first one that is already cached or being decoded, so
+     * while the inputs are read in order only one new entry is checked per read.
+     *
+     * @param entry
+     *     Entry being read.
+     */
+    private void prefetchAfter(Entry entry) {
+        Input[] order = entry.order;
+        if(order == null || prefetchAmount == 0 || prefetchPool.isShutdown()) {
+            return;
+        }
+        int last = Math.min(entry.position + prefetchAmount, order.length - 1);
+        for(int position = last; position > entry.position; --position) {
+            Entry next = (Entry)order[position];
+            boolean cached;
+            synchronized(cache) {
+                cached = cache.containsKey(next); // Does not count as a use.
+            }
+            if(cached || loading.containsKey(next)) {
+                return;
+            }
+            try {
+                prefetchPool.execute(() -> load(next));
+            } catch(RejectedExecutionException e) { // Shut down in the meantime.
+                return;
+            }
+        }
+    }
+
+    /**
+     * Decodes the image of an entry and adds it to the cache (unless another thread is already
+     * decoding it, in which case that thread's result is waited for).
+     *
+     * @param entry
+     *     Entry to decode.
+     * @return The decoded image.
+     */
+    private Input load(Entry entry) {
+        CompletableFuture<Input> result = new CompletableFuture<>();
+        CompletableFuture<Input> pending = loading.putIfAbsent(entry, result);
+        if(pending != null) {
+            return pending.join();
+        }
+        Input decoded;
+        synchronized(cache) {
+            decoded = cache.get(entry);
+        }
+        try {
+            if(decoded == null) {
+                decoded = decode(entry);
+                put(entry, decoded);
+            }
+            result.complete(decoded);
+            return decoded;
+        } catch(RuntimeException e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(entry);
+        }
+    }
+
+    /**
+     * Decodes the image file of an entry. An image that cannot be read is printed as an error and
+     * replaced with a blank image, since the dataset has already been split by the time it is read.
+     *
+     * @param entry
+     *     Entry to decode.
+     * @return The decoded image, as an in-memory input at the dataset's precision.
+     */
+    private Input decode(Entry entry) {
+        double[] imageData = parser.parseDownsizedImageFromFile(entry.file);
+        if(imageData != null && imageData.length != valuesPerImage) {
+            System.err.println("Error with reading " + entry.file.getName() + ": " + imageData.length + " values instead of " + valuesPerImage);
+            imageData = null;
+        }
+        return new Input(imageData == null ? new double[valuesPerImage] : imageData, entry.label)
+                   .withPrecision(precision, ImageParser.PIXEL_LEVEL_AMOUNT);
+    }
+
+    // Add a decoded image to the cache, evicting the least recently used images until it fits.
+    private void put(Entry entry, Input decoded) {
+        long entryBytes = decoded.getDataBytes();
+        if(entryBytes > maxCacheBytes) {
+            return;
+        }
+        synchronized(cache) {
+            if(cache.containsKey(entry)) {
+                return;
+            }
+            Iterator<Input> leastRecentlyUsed = cache.values().iterator();
+            while(usedCacheBytes + entryBytes > maxCacheBytes && leastRecentlyUsed.hasNext()) {
+                usedCacheBytes -= leastRecentlyUsed.next().getDataBytes();
+                leastRecentlyUsed.remove();
+            }
+            cache.put(entry, decoded);
+            usedCacheBytes += entryBytes;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+/**
+ * Responsible for saving the parsed (grayscale and downsized) images to a single binary file,
+ * and for loading them back through a memory-mapped file instead of decoding every .jpg again.
+ * The loaded inputs read their values straight from the mapped file, so they take up no heap
+ * until they are converted to another precision (see Input.withPrecision).
+ *
+ * File layout (little-endian):
+ *      - Header: magic number, format version, source fingerprint, image count, values per image.
+ *      - Labels: one byte per image.
+ *      - Pixels: one float per value, every image stored one after another (the values are
+ *        averages of 0-1 pixels, so float precision is plenty).
+ * The fingerprint covers the name, size and last-modified time of every source image (and the
+ * downsize factor), so the file is rebuilt whenever the images change.
+ */
+public class DatasetCache {
+
+    private static final int MAGIC_NUMBER = 0x41534C44; // "ASLD"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+
+    private final Path cacheFilePath;
+
+    /**
+     * An input whose values are the floats of one image in the mapped file (a FLOAT32 input that is never copied).
+     * Reads only use absolute indices, so every input can share the one view of the pixels.
+     */
+    private static final class MappedInput extends Input {
+
+        final FloatBuffer pixels;
+        final int offset, size;
+
+        MappedInput(FloatBuffer newPixels, int newOffset, int newSize, int newLabel) {
+            pixels = newPixels;
+            offset = newOffset;
+            size = newSize;
+            label = newLabel;
+        }
+
+        @Override
+        public void copyData(double[] destination, int destinationOffset) {
+            for(int i = 0; i < size; ++i) {
+                destination[destinationOffset + i] = pixels.get(offset + i);
+            }
+        }
+
+        @Override
+        public void copyData(float[] destination, int destinationOffset) {
+            pixels.get(offset, destination, destinationOffset, size);
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public Precision getPrecision() {
+            return Precision.FLOAT32;
+        }
+    }
+
+    /**
+     * Creates a new <code>DatasetCache</code> backed by a single file.
+     *
+     * @param newCacheFilePath
+     *     The string path name of the cache file to read from and write to.
+     */
+    public DatasetCache(String newCacheFilePath) {
+        cacheFilePath = Paths.get(newCacheFilePath);
+    }
+
+    /**
+     * Loads the inputs from the cache file, as long as it was made from the current images. The inputs
+     * are FLOAT32 views of the mapped file, which stays mapped for as long as any of them is used.
+     *
+     * @param imagesFolderPath
+     *     The containing folder string path name of the source images.
+     * @return The cached inputs, or null if the cache file is missing, unreadable or out of date.
+     */
+    public Input[] load(String imagesFolderPath) {
+        if(Files.isRegularFile(cacheFilePath) == false) {
+            return null;
+        }
+        try(FileChannel channel = FileChannel.open(cacheFilePath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if(buffer.getInt() != MAGIC_NUMBER || buffer.getInt() != FORMAT_VERSION
+               || buffer.getLong() != getFingerprint(imagesFolderPath)) {
+                return null;
+            }
+            int imageAmount = buffer.getInt();
+            int valuesPerImage = buffer.getInt();
+            if(channel.size() != HEADER_BYTES + imageAmount + (long)imageAmount * valuesPerImage * Float.BYTES) {
+                System.err.println("Error with reading " + cacheFilePath + ": file is truncated");
+                return null;
+            }
+            byte[] labels = new byte[imageAmount];
+            buffer.get(labels);
+            FloatBuffer pixels = buffer.asFloatBuffer();
+            Input[] inputs = new Input[imageAmount];
+            for(int i = 0; i < imageAmount; ++i) {
+                inputs[i] = new MappedInput(pixels, i * valuesPerImage, valuesPerImage, labels[i]);
+            }
+            return inputs;
+        } catch(IOException | BufferUnderflowException e) {
+            System.err.println("Error with reading " + cacheFilePath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves inputs to the cache file. The file is written next to the cache file first and then
+     * moved into place, so a half-written file is never loaded.
+     *
+     * @param imagesFolderPath
+     *     The containing folder string path name of the source images.
+     * @param inputs
+     *     Parsed inputs to save (every input must have the same number of values).
+     */
+    public void save(String imagesFolderPath, Input[] inputs) {
+        int valuesPerImage = (inputs.length == 0 ? 0 : inputs[0].getSize());
+        Path temporaryPath = cacheFilePath.resolveSibling(cacheFilePath.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + inputs.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC_NUMBER).putInt(FORMAT_VERSION).putLong(getFingerprint(imagesFolderPath));
+            header.putInt(inputs.length).putInt(valuesPerImage);
+            for(Input input : inputs) {
+                header.put((byte)input.label);
+            }
+            header.flip();
+            writeFully(channel, header);
+            ByteBuffer pixels = ByteBuffer.allocate(valuesPerImage * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            double[] values = new double[valuesPerImage];
+            for(Input input : inputs) {
+                double[] inputValues = input.getData(values);
+                pixels.clear();
+                for(int j = 0; j < valuesPerImage; ++j) {
+                    pixels.putFloat((float)inputValues[j]);
+                }
+                pixels.flip();
+                writeFully(channel, pixels);
+            }
+        } catch(IOException e) {
+            System.err.println("Error with writing " + temporaryPath + ": " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporaryPath, cacheFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            System.err.println("Error with writing " + cacheFilePath + ": " + e.getMessage());
+        }
+    }
+
+    // Write the remaining bytes of a buffer to a channel.
+    private void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Calculates a fingerprint of the source images from the name, size and last-modified time of
+     * every file in the sign folders (one file system lookup per file, without reading the files).
+     * The per-file hashes are summed, so the order the folder is listed in does not matter.
+     *
+     * @param imagesFolderPath
+     *     The containing folder string path name of the source images.
+     */
+    private long getFingerprint(String imagesFolderPath) throws IOException {
+        long fingerprint = ImageParser.DOWNSIZE_FACTOR;
+        for(int signValue = 0; signValue < ImageParser.SIGN_AMOUNT; ++signValue) {
+            Path folder = Paths.get(imagesFolderPath, Integer.toString(signValue));
+            if(Files.isDirectory(folder) == false) {
+                continue;
+            }
+            try(DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+                for(Path file : files) {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    long fileHash = 31 * signValue + file.getFileName().toString().hashCode();
+                    fileHash = 31 * fileHash + attributes.size();
+                    fileHash = 31 * fileHash + attributes.lastModifiedTime().toMillis();
+                    fingerprint += fileHash * 0x9E3779B97F4A7C15L; // Spread the bits before summing.
+                }
+            }
+        }
+        return fingerprint;
+    }
+}
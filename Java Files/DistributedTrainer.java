@@ -0,0 +1,415 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Responsible for training an MLP data-parallel on several training nodes (see TrainingNode), which
+ * can be threads of this JVM or other JVMs, connected to this trainer over TCP.
+ *
+ * The trainer is a parameter server: it holds the one copy of the weights that counts, and each epoch
+ * gives every node its own share (shard) of the training set. For each mini-batch, a node pulls the
+ * current weights, sums the gradients of its batch and pushes them back, and the server applies them
+ * (with the perceptron's learning rate and momentum) as soon as they arrive, so nodes do not wait for
+ * each other's batches. How far a node can get ahead is bounded (stale synchronous parallel): before its
+ * batch b, a node waits until every node still training the epoch has pushed batch b - staleness. A
+ * staleness of 0 keeps the nodes in lockstep, and a larger one lets fast nodes carry on past slow ones,
+ * at the cost of gradients calculated on weights that miss up to that many batches of the others.
+ * Gradients can be sent at half precision (see TensorCodec); weights are always sent exactly.
+ *
+ * Protocol (each message is a type byte followed by its fields):
+ *      - A node connects and sends HELLO with the size and labels of its training set. The server replies
+ *        WELCOME with the node's index and the MLP's shape, so the node can build a copy of it.
+ *      - A node asks for NEXT_EPOCH, and the server replies START_EPOCH with its shard once the epoch
+ *        starts, or SHUTDOWN once training is over.
+ *      - For each batch, a node sends PULL (and gets WEIGHTS back) and then PUSH with the summed gradients.
+ *      - After its shard, a node sends EPOCH_DONE with the confusion matrix of its predictions.
+ */
+public class DistributedTrainer {
+
+    static final int MAGIC_NUMBER = 0x41534C44; // "ASLD"
+    static final int PROTOCOL_VERSION = 1;
+    // Messages from a node.
+    static final byte HELLO = 1, NEXT_EPOCH = 2, PULL = 3, PUSH = 4, EPOCH_DONE = 5;
+    // Messages from the server.
+    static final byte WELCOME = 11, START_EPOCH = 12, WEIGHTS = 13, SHUTDOWN = 14;
+    static final int STREAM_BUFFER_BYTES = 1 << 16;
+    // How long the server waits for every node to connect.
+    private static final int CONNECTION_TIMEOUT_MILLIS = 120_000;
+
+    private final MLP perceptron;
+    private final int nodeAmount, localNodeAmount, batchSize, staleness;
+    private final boolean halfPrecisionEnabled;
+    private final ToIntFunction<double[]> labelDecoder;
+    private final IntFunction<double[]> targetProvider;
+    private final ServerSocket serverSocket;
+    private final List<Thread> threads;
+    private boolean connected;
+    private int trainingSetLength;
+
+    // State shared with the threads serving the nodes (guarded by this).
+    private int epochAmount;      // Number of epochs started.
+    private boolean shutdown;
+    private String failure;       // Why a node failed, or null.
+    private final int[] clocks;   // Number of batches each node has pushed in the current epoch.
+    private final boolean[] nodesDone;
+    private int doneAmount;
+    private ConfusionMatrix epochMatrix;
+    private long weightsVersion;  // Number of pushes applied so far.
+    private byte[] encodedWeights;
+    private long encodedWeightsVersion;
+
+    /**
+     * Creates a new <code>DistributedTrainer</code> and starts listening for training nodes.
+     *
+     * @param newNetwork
+     *     The MLP to train.
+     * @param newNodeAmount
+     *     Number of training nodes to train on.
+     * @param newLocalNodeAmount
+     *     Number of those nodes to run as threads of this JVM (the others connect from other JVMs).
+     * @param host
+     *     Address to listen on (i.e., 127.0.0.1 for nodes on this host only).
+     * @param port
+     *     Port to listen on (0 picks a free one, for local nodes only).
+     * @param newBatchSize
+     *     Number of inputs a node sums the gradients of for each push.
+     * @param newStaleness
+     *     Number of batches a node may get ahead of the slowest node still training the epoch.
+     * @param newHalfPrecisionEnabled
+     *     Whether nodes push their gradients as half-precision floats.
+     * @param newLabelDecoder
+     *     Function that gives the predicted label of an output layer (for the local nodes).
+     * @param newTargetProvider
+     *     Function that gives the target output layer of a label (for the local nodes).
+     */
+    public DistributedTrainer(Network newNetwork, int newNodeAmount, int newLocalNodeAmount, String host, int port, int newBatchSize, int newStaleness,
+                              boolean newHalfPrecisionEnabled, ToIntFunction<double[]> newLabelDecoder, IntFunction<double[]> newTargetProvider) {
+        if(!(newNetwork instanceof MLP)) {
+            throw new IllegalArgumentException("Only an MLP can be trained on distributed nodes.");
+        }
+        if(newNodeAmount < 1 || newLocalNodeAmount < 0 || newLocalNodeAmount > newNodeAmount || newBatchSize < 1 || newStaleness < 0) {
+            throw new IllegalArgumentException("A distributed trainer needs at least 1 node (of which at most all are local), a batch size of at least 1 and a staleness "
+                                               + "of at least 0, but was given " + newNodeAmount + " nodes (" + newLocalNodeAmount + " local), batch size "
+                                               + newBatchSize + " and staleness " + newStaleness);
+        }
+        perceptron = (MLP)newNetwork;
+        nodeAmount = newNodeAmount;
+        localNodeAmount = newLocalNodeAmount;
+        batchSize = newBatchSize;
+        staleness = newStaleness;
+        halfPrecisionEnabled = newHalfPrecisionEnabled;
+        labelDecoder = newLabelDecoder;
+        targetProvider = newTargetProvider;
+        try {
+            serverSocket = new ServerSocket(port, newNodeAmount, InetAddress.getByName(host));
+        } catch(IOException e) {
+            throw new IllegalStateException("Could not listen for training nodes on " + host + ":" + port + ": " + e.getMessage(), e);
+        }
+        threads = new ArrayList<>();
+        clocks = new int[newNodeAmount];
+        nodesDone = new boolean[newNodeAmount];
+        encodedWeightsVersion = -1;
+    }
+
+    // Return the port the trainer listens on.
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Executes a single training epoch over the MLP on every node, waiting for the nodes to connect first.
+     *
+     * @param trainingSet
+     *     Inputs to train on (the same set every epoch).
+     * @return The confusion matrix produced over this epoch (each node's predictions made before its pushes).
+     */
+    public ConfusionMatrix executeTrainingEpoch(Input[] trainingSet) {
+        connectNodes(trainingSet);
+        if(trainingSet.length != trainingSetLength) {
+            throw new IllegalArgumentException("The nodes train on " + trainingSetLength + " inputs, not " + trainingSet.length);
+        }
+        try {
+            synchronized(this) {
+                Arrays.fill(clocks, 0);
+                Arrays.fill(nodesDone, false);
+                doneAmount = 0;
+                epochMatrix = new ConfusionMatrix(targetProvider.apply(0).length);
+                ++epochAmount;
+                notifyAll();
+                while(doneAmount < nodeAmount && failure == null) {
+                    wait();
+                }
+                if(failure != null) {
+                    throw new IllegalStateException(failure);
+                }
+                return epochMatrix;
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the training nodes.", e);
+        }
+    }
+
+    // Tell the nodes to stop once they ask for another epoch, and stop listening.
+    public void shutdown() {
+        synchronized(this) {
+            shutdown = true;
+            notifyAll();
+        }
+        try {
+            for(Thread thread : threads) {
+                thread.join(CONNECTION_TIMEOUT_MILLIS);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            serverSocket.close();
+        } catch(IOException e) {
+            System.err.println("Error with closing the parameter server socket: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts the local nodes and waits for every node to connect, checking that each one has the same
+     * training set (its size and labels), so every shard means the same inputs on every node.
+     *
+     * @param trainingSet
+     *     Inputs to train on.
+     */
+    private void connectNodes(Input[] trainingSet) {
+        if(connected) {
+            return;
+        }
+        connected = true;
+        trainingSetLength = trainingSet.length;
+        int labelHash = getLabelHash(trainingSet);
+        InetAddress address = serverSocket.getInetAddress();
+        String localHost = (address.isAnyLocalAddress() ? InetAddress.getLoopbackAddress() : address).getHostAddress();
+        for(int i = 0; i < localNodeAmount; ++i) {
+            TrainingNode node = new TrainingNode(localHost, getPort(), trainingSet, labelDecoder, targetProvider);
+            startThread("training-node-" + i, node::run);
+        }
+        int nodeIndex = 0;
+        try {
+            serverSocket.setSoTimeout(CONNECTION_TIMEOUT_MILLIS);
+            for(; nodeIndex < nodeAmount; ++nodeIndex) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_BYTES));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_BYTES));
+                if(in.readByte() != HELLO || in.readInt() != MAGIC_NUMBER || in.readInt() != PROTOCOL_VERSION) {
+                    socket.close();
+                    throw new IllegalStateException("A training node spoke another protocol (or version) than the parameter server.");
+                }
+                int nodeTrainingSetLength = in.readInt();
+                int nodeLabelHash = in.readInt();
+                if(nodeTrainingSetLength != trainingSetLength || nodeLabelHash != labelHash) {
+                    socket.close();
+                    throw new IllegalStateException("Training node " + nodeIndex + " has another training set than the parameter server (" + nodeTrainingSetLength
+                                                    + " and " + trainingSetLength + " inputs, or the same number of inputs in another order): both need the "
+                                                    + "same data set and split seed.");
+                }
+                writeWelcome(out, nodeIndex);
+                int index = nodeIndex;
+                startThread("parameter-server-" + nodeIndex, () -> serveNode(index, socket, in, out));
+            }
+        } catch(SocketTimeoutException e) {
+            throw new IllegalStateException("Only " + nodeIndex + " of " + nodeAmount + " training nodes connected to port " + getPort() + " in time.", e);
+        } catch(IOException e) {
+            throw new IllegalStateException("Error with connecting training node " + nodeIndex + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    // Return a hash of the labels of a training set in order (equal on every node that has the same split).
+    static int getLabelHash(Input[] trainingSet) {
+        int hash = 1;
+        for(Input input : trainingSet) {
+            hash = 31 * hash + input.label;
+        }
+        return hash;
+    }
+
+    // Send a node its index, the batch settings, and the MLP's layer sizes and activations.
+    private void writeWelcome(DataOutputStream out, int nodeIndex) throws IOException {
+        MLPConfiguration configuration = perceptron.getConfiguration();
+        int[] layerSizes = perceptron.getLayerSizes();
+        out.writeByte(WELCOME);
+        out.writeInt(nodeIndex);
+        out.writeInt(batchSize);
+        out.writeBoolean(halfPrecisionEnabled);
+        out.writeInt(layerSizes.length);
+        for(int layerSize : layerSizes) {
+            out.writeInt(layerSize);
+        }
+        out.writeInt(configuration.getHiddenActivation().getId());
+        out.writeInt(configuration.getOutputActivation().getId());
+        out.writeDouble(configuration.getBiasValue());
+        out.flush();
+    }
+
+    /**
+     * Answers the messages of one node until it is told to shut down, or fails (which fails the epoch).
+     *
+     * @param nodeIndex
+     *     Index of the node.
+     */
+    private void serveNode(int nodeIndex, Socket socket, DataInputStream in, DataOutputStream out) {
+        MLP.Gradients gradients = perceptron.createGradients();
+        byte[] pushBytes = new byte[0];
+        int nodeEpochAmount = 0;
+        try(socket) {
+            while(true) {
+                byte type = in.readByte();
+                if(type == NEXT_EPOCH) {
+                    if(!awaitEpoch(nodeEpochAmount)) {
+                        out.writeByte(SHUTDOWN);
+                        out.flush();
+                        return;
+                    }
+                    ++nodeEpochAmount;
+                    out.writeByte(START_EPOCH);
+                    out.writeInt(nodeEpochAmount);
+                    out.writeInt((int)((long)trainingSetLength * nodeIndex / nodeAmount));
+                    out.writeInt((int)((long)trainingSetLength * (nodeIndex + 1) / nodeAmount));
+                    out.flush();
+                } else if(type == PULL) {
+                    byte[] weights = awaitWeights(nodeIndex, in.readInt());
+                    out.writeByte(WEIGHTS);
+                    out.writeInt(weights.length);
+                    out.write(weights);
+                    out.flush();
+                } else if(type == PUSH) {
+                    int clock = in.readInt();
+                    int sampleCount = in.readInt();
+                    int length = in.readInt();
+                    pushBytes = (pushBytes.length < length ? new byte[length] : pushBytes);
+                    in.readFully(pushBytes, 0, length);
+                    TensorCodec.decode(ByteBuffer.wrap(pushBytes, 0, length), gradients.weights);
+                    applyGradients(nodeIndex, clock, gradients, sampleCount);
+                } else if(type == EPOCH_DONE) {
+                    finishEpoch(nodeIndex, readConfusionMatrix(in));
+                } else {
+                    throw new IOException("unknown message type " + type);
+                }
+            }
+        } catch(IOException | RuntimeException e) {
+            fail("Training node " + nodeIndex + " failed: " + e);
+        }
+    }
+
+    // Wait until an epoch after a number of epochs starts. Return false if training is over instead.
+    private synchronized boolean awaitEpoch(int nodeEpochAmount) {
+        try {
+            while(epochAmount <= nodeEpochAmount && !shutdown && failure == null) {
+                wait();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return (!shutdown && failure == null);
+    }
+
+    /**
+     * Waits until a node may train its next batch (it is at most staleness batches ahead of the slowest
+     * node still training the epoch), and returns the encoded weights to train it on.
+     *
+     * @param nodeIndex
+     *     Index of the node.
+     * @param clock
+     *     Number of batches the node has pushed this epoch.
+     */
+    private synchronized byte[] awaitWeights(int nodeIndex, int clock) {
+        if(clock != clocks[nodeIndex]) {
+            throw new IllegalStateException("node " + nodeIndex + " pulled for batch " + clock + " after pushing " + clocks[nodeIndex]);
+        }
+        try {
+            while(clock > getMinimumClock() + staleness && failure == null) {
+                wait();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the other nodes", e);
+        }
+        if(failure != null) {
+            throw new IllegalStateException("another node failed");
+        }
+        if(encodedWeightsVersion != weightsVersion) { // Encoded once per update, however many nodes pull it (never reused, a node may still be sending it).
+            Tensor[] weights = perceptron.getWeightMatrices();
+            ByteBuffer buffer = ByteBuffer.allocate(TensorCodec.getEncodedBytes(weights, false));
+            TensorCodec.encode(weights, false, buffer);
+            encodedWeights = buffer.array();
+            encodedWeightsVersion = weightsVersion;
+        }
+        return encodedWeights;
+    }
+
+    // Return the fewest batches pushed by any node still training the epoch.
+    private int getMinimumClock() {
+        int minimumClock = Integer.MAX_VALUE;
+        for(int i = 0; i < nodeAmount; ++i) {
+            minimumClock = (nodesDone[i] ? minimumClock : Math.min(minimumClock, clocks[i]));
+        }
+        return minimumClock;
+    }
+
+    // Apply the gradients a node summed over a batch to the weights.
+    private synchronized void applyGradients(int nodeIndex, int clock, MLP.Gradients gradients, int sampleCount) {
+        if(clock != clocks[nodeIndex]) {
+            throw new IllegalStateException("node " + nodeIndex + " pushed batch " + clock + " after pushing " + clocks[nodeIndex]);
+        }
+        perceptron.applyGradients(gradients, sampleCount);
+        ++weightsVersion;
+        clocks[nodeIndex] = clock + 1;
+        notifyAll();
+    }
+
+    private synchronized void finishEpoch(int nodeIndex, ConfusionMatrix matrix) {
+        epochMatrix.addConfusionMatrix(matrix);
+        nodesDone[nodeIndex] = true;
+        ++doneAmount;
+        notifyAll(); // A finished node no longer holds the others back.
+    }
+
+    private synchronized void fail(String message) {
+        if(!shutdown && failure == null) {
+            failure = message;
+        }
+        notifyAll();
+    }
+
+    // Write a confusion matrix as its size and then its counts, row by row.
+    static void writeConfusionMatrix(DataOutputStream out, ConfusionMatrix matrix) throws IOException {
+        out.writeInt(matrix.getSize());
+        for(int predictedValue = 0; predictedValue < matrix.getSize(); ++predictedValue) {
+            for(int actualValue = 0; actualValue < matrix.getSize(); ++actualValue) {
+                out.writeInt(matrix.getCount(predictedValue, actualValue));
+            }
+        }
+    }
+
+    // Read a confusion matrix written by writeConfusionMatrix.
+    static ConfusionMatrix readConfusionMatrix(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if(size < 1 || size > 1 << 12) {
+            throw new IOException("a confusion matrix of size " + size + " is not valid");
+        }
+        ConfusionMatrix matrix = new ConfusionMatrix(size);
+        for(int predictedValue = 0; predictedValue < size; ++predictedValue) {
+            for(int actualValue = 0; actualValue < size; ++actualValue) {
+                matrix.add(predictedValue, actualValue, in.readInt());
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,198 @@
+import java.util.*;
+
+/**
+ * Responsible for the telemetry of one epoch: its accuracies and losses, its training throughput,
+ * how long each stage took, and its garbage collections and allocations. Made by
+ * Telemetry.snapshotEpoch and handed to every MetricsSink; immutable, so sinks can keep it.
+ */
+public class EpochMetrics {
+
+    private final int epoch;
+    private final long timestampMillis;
+    private final double trainingAccuracy, testingAccuracy, trainingLoss, testingLoss;
+    private final long trainingSampleAmount;
+    private final List<StageMetrics> stages;
+    private final long gcCount, gcMillis, allocatedBytes, heapUsedBytes;
+
+    /**
+     * The durations of one stage over an epoch.
+     */
+    public static class StageMetrics {
+
+        private final String name;
+        private final long amount, totalNanos, maxNanos, p50Nanos, p99Nanos;
+
+        StageMetrics(String newName, long newAmount, long newTotalNanos, long newMaxNanos, long newP50Nanos, long newP99Nanos) {
+            name = newName;
+            amount = newAmount;
+            totalNanos = newTotalNanos;
+            maxNanos = newMaxNanos;
+            p50Nanos = newP50Nanos;
+            p99Nanos = newP99Nanos;
+        }
+
+        // Return the name of the stage (a Telemetry.Stage name).
+        public String getName() {
+            return name;
+        }
+
+        // Return the number of times the stage ran.
+        public long getAmount() {
+            return amount;
+        }
+
+        // Return the time spent in the stage, summed over every thread.
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        // Return the average time of one run of the stage (0 if it did not run).
+        public long getMeanNanos() {
+            return (amount == 0 ? 0 : totalNanos / amount);
+        }
+
+        // Return the longest run of the stage.
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        // Return the time half of the runs took at most (rounded up to a power of 2, or the longest run).
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        // Return the time 99% of the runs took at most (rounded up to a power of 2, or the longest run).
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+    }
+
+    EpochMetrics(int newEpoch, long newTimestampMillis, double newTrainingAccuracy, double newTestingAccuracy,
+                 double newTrainingLoss, double newTestingLoss, long newTrainingSampleAmount, List<StageMetrics> newStages,
+                 long newGcCount, long newGcMillis, long newAllocatedBytes, long newHeapUsedBytes) {
+        epoch = newEpoch;
+        timestampMillis = newTimestampMillis;
+        trainingAccuracy = newTrainingAccuracy;
+        testingAccuracy = newTestingAccuracy;
+        trainingLoss = newTrainingLoss;
+        testingLoss = newTestingLoss;
+        trainingSampleAmount = newTrainingSampleAmount;
+        stages = Collections.unmodifiableList(new ArrayList<>(newStages));
+        gcCount = newGcCount;
+        gcMillis = newGcMillis;
+        allocatedBytes = newAllocatedBytes;
+        heapUsedBytes = newHeapUsedBytes;
+    }
+
+    // Return the number of the epoch (0 for the testing pass before training).
+    public int getEpoch() {
+        return epoch;
+    }
+
+    // Return when the metrics were collected, in milliseconds since the epoch (1970).
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public double getTrainingAccuracy() {
+        return trainingAccuracy;
+    }
+
+    public double getTestingAccuracy() {
+        return testingAccuracy;
+    }
+
+    // Return the average training loss per input (half the summed squared error of the output layer).
+    public double getTrainingLoss() {
+        return trainingLoss;
+    }
+
+    // Return the average testing loss per input (half the summed squared error of the output layer).
+    public double getTestingLoss() {
+        return testingLoss;
+    }
+
+    // Return the number of inputs trained on.
+    public long getTrainingSampleAmount() {
+        return trainingSampleAmount;
+    }
+
+    // Return the number of inputs trained on per second of the training stage (0 if there was no training).
+    public double getTrainingSamplesPerSecond() {
+        StageMetrics training = getStage(Telemetry.Stage.TRAINING);
+        return (training == null || training.getTotalNanos() == 0 ? 0 : trainingSampleAmount * 1e9 / training.getTotalNanos());
+    }
+
+    // Return the durations of every stage, in Telemetry.Stage order.
+    public List<StageMetrics> getStages() {
+        return stages;
+    }
+
+    // Return the durations of a stage, or null if it was not measured.
+    public StageMetrics getStage(Telemetry.Stage stage) {
+        for(StageMetrics stageMetrics : stages) {
+            if(stageMetrics.getName().equals(stage.name())) {
+                return stageMetrics;
+            }
+        }
+        return null;
+    }
+
+    // Return the number of garbage collections during the epoch.
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    // Return the time spent in garbage collections during the epoch.
+    public long getGcMillis() {
+        return gcMillis;
+    }
+
+    // Return the bytes allocated during the epoch (by the threads alive at its end).
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    // Return the bytes of the heap in use at the end of the epoch.
+    public long getHeapUsedBytes() {
+        return heapUsedBytes;
+    }
+
+    /**
+     * Returns the metrics as a single line of JSON (without a line break), i.e.
+     * {"epoch":1,...,"stages":{"FORWARD":{"amount":...,"totalNanos":...},...}}.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"epoch\":").append(epoch)
+            .append(",\"timestampMillis\":").append(timestampMillis)
+            .append(",\"trainingAccuracy\":").append(toJsonNumber(trainingAccuracy))
+            .append(",\"testingAccuracy\":").append(toJsonNumber(testingAccuracy))
+            .append(",\"trainingLoss\":").append(toJsonNumber(trainingLoss))
+            .append(",\"testingLoss\":").append(toJsonNumber(testingLoss))
+            .append(",\"trainingSamples\":").append(trainingSampleAmount)
+            .append(",\"trainingSamplesPerSecond\":").append(toJsonNumber(getTrainingSamplesPerSecond()))
+            .append(",\"gcCount\":").append(gcCount)
+            .append(",\"gcMillis\":").append(gcMillis)
+            .append(",\"allocatedBytes\":").append(allocatedBytes)
+            .append(",\"heapUsedBytes\":").append(heapUsedBytes)
+            .append(",\"stages\":{");
+        for(int i = 0; i < stages.size(); ++i) {
+            StageMetrics stage = stages.get(i);
+            json.append(i == 0 ? "" : ",").append('"').append(stage.getName()).append("\":{")
+                .append("\"amount\":").append(stage.getAmount())
+                .append(",\"totalNanos\":").append(stage.getTotalNanos())
+                .append(",\"meanNanos\":").append(stage.getMeanNanos())
+                .append(",\"p50Nanos\":").append(stage.getP50Nanos())
+                .append(",\"p99Nanos\":").append(stage.getP99Nanos())
+                .append(",\"maxNanos\":").append(stage.getMaxNanos())
+                .append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    // JSON has no NaN or infinities.
+    private static String toJsonNumber(double value) {
+        return (Double.isFinite(value) ? Double.toString(value) : "null");
+    }
+}
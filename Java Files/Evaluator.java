@@ -0,0 +1,115 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Responsible for evaluating a network on a dataset on several threads at once.
+ * Evaluation only reads the weights, so it runs on a <code>Predictor</code> (a snapshot of the
+ * network): the dataset is split between the workers, each worker classifies its share into its
+ * own confusion matrix, and the matrices are merged once every worker has finished.
+ * Since the snapshot never changes, an evaluation can also run in the background while the
+ * network it was made from goes on training (see evaluateAsync).
+ */
+public class Evaluator {
+
+    private final int workerAmount, classAmount;
+    private final ForkJoinPool pool;
+    private final ToIntFunction<double[]> labelDecoder;
+
+    /**
+     * Creates a new <code>Evaluator</code> and its worker threads.
+     *
+     * @param newWorkerAmount
+     *     Number of worker threads to evaluate on.
+     * @param newClassAmount
+     *     Number of classes (the size of the confusion matrices).
+     * @param newLabelDecoder
+     *     Function that gives the predicted label of an output layer (it must be safe to call from several threads at once).
+     */
+    public Evaluator(int newWorkerAmount, int newClassAmount, ToIntFunction<double[]> newLabelDecoder) {
+        if(newWorkerAmount < 1) {
+            throw new IllegalArgumentException("An evaluator needs at least 1 worker, but was given " + newWorkerAmount);
+        }
+        workerAmount = newWorkerAmount;
+        classAmount = newClassAmount;
+        labelDecoder = newLabelDecoder;
+        pool = new ForkJoinPool(newWorkerAmount);
+    }
+
+    /**
+     * Evaluates a predictor on a dataset, waiting until every worker has finished.
+     *
+     * @param predictor
+     *     Predictor made from the network to evaluate.
+     * @param inputs
+     *     Inputs to classify (only read).
+     * @return The confusion matrix of the predictions.
+     */
+    public ConfusionMatrix evaluate(Predictor predictor, Input[] inputs) {
+        try {
+            return evaluateAsync(predictor, inputs).get();
+        } catch(ExecutionException e) { // Rethrow whatever the predictor threw.
+            throw (e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : new IllegalStateException(e.getCause()));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an evaluation.", e);
+        }
+    }
+
+    /**
+     * Starts evaluating a predictor on a dataset, and returns without waiting for it.
+     * The inputs must not be changed until the evaluation has finished.
+     *
+     * @param predictor
+     *     Predictor made from the network to evaluate.
+     * @param inputs
+     *     Inputs to classify (only read).
+     * @return A future of the confusion matrix of the predictions.
+     */
+    public CompletableFuture<ConfusionMatrix> evaluateAsync(Predictor predictor, Input[] inputs) {
+        long startTime = Telemetry.start();
+        List<CompletableFuture<ConfusionMatrix>> shards = new ArrayList<>(workerAmount);
+        for(int i = 0; i < workerAmount; ++i) {
+            int start = (int)((long)inputs.length * i / workerAmount);
+            int end = (int)((long)inputs.length * (i + 1) / workerAmount);
+            shards.add(CompletableFuture.supplyAsync(() -> evaluateShard(predictor, inputs, start, end), pool));
+        }
+        return CompletableFuture.allOf(shards.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            ConfusionMatrix merged = new ConfusionMatrix(classAmount);
+            for(CompletableFuture<ConfusionMatrix> shard : shards) {
+                merged.addConfusionMatrix(shard.join());
+            }
+            Telemetry.stop(Telemetry.Stage.EVALUATION, startTime);
+            return merged;
+        });
+    }
+
+    // Stop the worker threads once the evaluations that have been started are done.
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Classifies one worker's share of a dataset.
+     *
+     * @param predictor
+     *     Predictor made from the network to evaluate.
+     * @param inputs
+     *     Inputs to classify.
+     * @param start
+     *     Index of the first input of the share.
+     * @param end
+     *     Index after the last input of the share.
+     * @return The confusion matrix of the share.
+     */
+    private ConfusionMatrix evaluateShard(Predictor predictor, Input[] inputs, int start, int end) {
+        ConfusionMatrix matrix = new ConfusionMatrix(classAmount);
+        for(int inputIndex = start; inputIndex < end; ++inputIndex) {
+            // One input at a time, so the predictions are exactly those of the network (see Predictor.predictBatch).
+            double[] outputLayer = predictor.predict(inputs[inputIndex]);
+            matrix.add(labelDecoder.applyAsInt(outputLayer), inputs[inputIndex].label);
+            Telemetry.recordTestingLoss(outputLayer, inputs[inputIndex].label);
+        }
+        return matrix;
+    }
+}
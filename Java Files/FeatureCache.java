@@ -0,0 +1,215 @@
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Responsible for caching the convolution layer output (feature maps) of a CNN.
+ * The filter set of a CNN is never trained, so the feature map of an input is the
+ * same in every epoch and only needs to be calculated the first time it is seen.
+ */
+public class FeatureCache {
+
+    private static final int BYTES_PER_VALUE = Double.BYTES;
+    // Off-heap storage is allocated in chunks of this many bytes (or of one feature map, if that is larger) as
+    // feature maps arrive, so a small dataset does not reserve the whole memory bound.
+    private static final int OFF_HEAP_CHUNK_BYTES = 16 << 20;
+
+    /**
+     * The cached feature maps, replaced as a whole by invalidate. A reader reads the holder once, so the
+     * storage and offsets it uses always belong together, even while the cache is being invalidated.
+     */
+    private static class Entries {
+
+        // Number of times the cache had been invalidated when these entries were created.
+        final int generation;
+        // Input does not override equals/hashCode, so entries are keyed by Input identity.
+        final Map<Input, double[]> heapEntries = new ConcurrentHashMap<>();
+        // The index of each feature map stored off the heap, in the order they were put.
+        final Map<Input, Integer> offHeapIndices = new ConcurrentHashMap<>();
+        // Set by the first put, and grown (by replacing the array) when the last chunk is full. Both are written
+        // before the index that needs them is added to offHeapIndices, so a reader that has found an index also sees them.
+        DoubleBuffer[] offHeapChunks = new DoubleBuffer[0];
+        int featureLength, featureMapsPerChunk;
+
+        Entries(int newGeneration) {
+            generation = newGeneration;
+        }
+    }
+
+    private final long maxBytes;
+    private final boolean offHeapEnabled;
+    // Written under the lock by put and invalidate, and read without it by getUsedBytes.
+    private volatile long usedBytes;
+    private volatile Entries entries;
+
+    /**
+     * Creates a new <code>FeatureCache</code> that holds feature maps up until a memory bound is reached.
+     * Once the bound is reached, new feature maps are no longer cached (the inputs that are already
+     * cached stay cached), so a dataset is filled once and then reused in every following epoch.
+     *
+     * @param newMaxBytes
+     *     Number of bytes the cached feature maps are allowed to take up.
+     * @param newOffHeapEnabled
+     *     Whether the feature maps should be stored outside of the Java heap (for large datasets).
+     */
+    public FeatureCache(long newMaxBytes, boolean newOffHeapEnabled) {
+        maxBytes = newMaxBytes;
+        offHeapEnabled = newOffHeapEnabled;
+        invalidate();
+    }
+
+    /**
+     * Looks up the cached feature map of an input.
+     *
+     * @param input
+     *     Input image data object whose feature map is being looked up.
+     * @return The cached feature map, or null if the input has not been cached.
+     */
+    public double[] get(Input input) {
+        return get(input, null);
+    }
+
+    /**
+     * Looks up the cached feature map of an input, copying a feature map stored off the heap into
+     * a buffer instead of a new array. A feature map on the heap is returned as is (never copied).
+     *
+     * @param input
+     *     Input image data object whose feature map is being looked up.
+     * @param destination
+     *     Array an off-heap feature map is copied into (null, or one of the wrong length, copies it into a new one).
+     * @return The cached feature map (destination, if it was copied into it), or null if the input has not been cached.
+     */
+    public double[] get(Input input, double[] destination) {
+        return get(entries, input, destination);
+    }
+
+    /**
+     * Looks up the cached feature map of an input like get(input, destination), as long as the cache has not
+     * been invalidated since a generation (i.e., by a filter set change the caller does not know about).
+     *
+     * @param input
+     *     Input image data object whose feature map is being looked up.
+     * @param destination
+     *     Array an off-heap feature map is copied into (null, or one of the wrong length, copies it into a new one).
+     * @param generation
+     *     The generation (from getGeneration) the caller's feature maps belong to.
+     * @return The cached feature map, or null if the input has not been cached or the cache has been invalidated since.
+     */
+    public double[] get(Input input, double[] destination, int generation) {
+        Entries currentEntries = entries;
+        return (currentEntries.generation == generation ? get(currentEntries, input, destination) : null);
+    }
+
+    // Look up the feature map of an input in one set of entries.
+    private double[] get(Entries currentEntries, Input input, double[] destination) {
+        if(offHeapEnabled == false) {
+            return currentEntries.heapEntries.get(input);
+        }
+        Integer index = currentEntries.offHeapIndices.get(input);
+        if(index == null) {
+            return null;
+        }
+        int featureLength = currentEntries.featureLength;
+        int featureMapsPerChunk = currentEntries.featureMapsPerChunk;
+        destination = (destination == null || destination.length != featureLength ? new double[featureLength] : destination);
+        currentEntries.offHeapChunks[index / featureMapsPerChunk].get((index % featureMapsPerChunk) * featureLength, destination, 0, featureLength);
+        return destination;
+    }
+
+    /**
+     * Saves the feature map of an input, as long as it still fits within the memory bound.
+     *
+     * @param input
+     *     Input image data object that the feature map was calculated from.
+     * @param features
+     *     1-D doubles array of the convolution layer output for the input.
+     */
+    public synchronized void put(Input input, double[] features) {
+        put(input, features, entries.generation);
+    }
+
+    /**
+     * Saves the feature map of an input like put(input, features), unless the cache has been invalidated
+     * since a generation, since the feature map may then have been calculated by an older filter set.
+     *
+     * @param input
+     *     Input image data object that the feature map was calculated from.
+     * @param features
+     *     1-D doubles array of the convolution layer output for the input.
+     * @param generation
+     *     The generation (from getGeneration) of the filter set the feature map was calculated by.
+     */
+    public synchronized void put(Input input, double[] features, int generation) {
+        if(entries.generation != generation) {
+            return;
+        }
+        long entryBytes = (long)features.length * BYTES_PER_VALUE;
+        if(usedBytes + entryBytes > maxBytes || contains(input)) {
+            return;
+        }
+        if(offHeapEnabled == false) {
+            entries.heapEntries.put(input, features);
+        } else {
+            Entries currentEntries = entries;
+            int index = currentEntries.offHeapIndices.size();
+            if(index == 0) { // Every feature map of a CNN has the same length.
+                currentEntries.featureLength = features.length;
+                currentEntries.featureMapsPerChunk = (int)Math.max(1, OFF_HEAP_CHUNK_BYTES / entryBytes);
+            }
+            int featureLength = currentEntries.featureLength;
+            int featureMapsPerChunk = currentEntries.featureMapsPerChunk;
+            if(features.length != featureLength) {
+                return;
+            }
+            int chunkIndex = index / featureMapsPerChunk;
+            if(chunkIndex == currentEntries.offHeapChunks.length) {
+                // The last chunk is cut short at the memory bound.
+                long chunkValues = Math.min((long)featureMapsPerChunk * featureLength, (maxBytes - usedBytes) / BYTES_PER_VALUE);
+                if(chunkValues * BYTES_PER_VALUE > Integer.MAX_VALUE) {
+                    return;
+                }
+                DoubleBuffer[] offHeapChunks = Arrays.copyOf(currentEntries.offHeapChunks, chunkIndex + 1);
+                offHeapChunks[chunkIndex] = ByteBuffer.allocateDirect((int)chunkValues * BYTES_PER_VALUE).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+                currentEntries.offHeapChunks = offHeapChunks;
+            }
+            currentEntries.offHeapChunks[chunkIndex].put((index % featureMapsPerChunk) * featureLength, features, 0, featureLength);
+            currentEntries.offHeapIndices.put(input, index);
+        }
+        usedBytes += entryBytes;
+    }
+
+    /**
+     * Checks whether the feature map of an input has been cached.
+     *
+     * @param input
+     *     Input image data object to check for.
+     */
+    public boolean contains(Input input) {
+        Entries currentEntries = entries;
+        return (offHeapEnabled == false ? currentEntries.heapEntries.containsKey(input) : currentEntries.offHeapIndices.containsKey(input));
+    }
+
+    /**
+     * Removes all cached feature maps. Needs to be called whenever the filter set changes.
+     */
+    public synchronized void invalidate() {
+        entries = new Entries(entries == null ? 0 : entries.generation + 1);
+        usedBytes = 0;
+    }
+
+    // Return the number of times the cache has been invalidated, which tells the feature maps of different filter sets apart.
+    public int getGeneration() {
+        return entries.generation;
+    }
+
+    // Return the number of cached feature maps.
+    public int getSize() {
+        Entries currentEntries = entries;
+        return (offHeapEnabled == false ? currentEntries.heapEntries.size() : currentEntries.offHeapIndices.size());
+    }
+
+    // Return the number of bytes taken up by the cached feature maps.
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+}
@@ -6,7 +6,7 @@ import java.util.*;
  */
 public class Filter {
 
-    double[][] filterMatrix;
+    Tensor filterMatrix;
 
     /**
      * Creates a new Convolutional Neural Network <code>Filter</code> from a passed in 2-D matrix/array
@@ -16,32 +16,87 @@ public class Filter {
      *     The 2-D Matrix/Array filter matrix.
      */
     public Filter(double[][] newFilterMatrix) {
-        filterMatrix = newFilterMatrix.clone();
+        filterMatrix = Tensor.fromMatrix(newFilterMatrix);
     }
 
     // Take a 1-D input layer array and iteratively (with a stride of 1) apply the saved filter matrix to each segment of the image.
     public double[] applyFilter(double[] input) {
-        ImageParser parser = new ImageParser();
-        double[][] matrix = parser.getMatrixFromArray(input);
-        int filteredMatrixDimension = matrix.length - (filterMatrix.length - 1);
-        double[][] filteredMatrix = new double[filteredMatrixDimension][filteredMatrixDimension];
-        for(int rowIndex = 0; rowIndex < filteredMatrixDimension; ++rowIndex) {
-            for(int columnIndex = 0; columnIndex < filteredMatrixDimension; ++columnIndex) { // Single-step apply the filter
-                filteredMatrix[rowIndex][columnIndex] = applyFilterToMatrixSegment(matrix, rowIndex, columnIndex);
-            }
-        }
-        return parser.getArrayFromMatrix(filteredMatrix);
+        Tensor matrix = Tensor.square(input);
+        int filteredMatrixDimension = getOutputDimension(matrix.rows);
+        Tensor filteredMatrix = new Tensor(filteredMatrixDimension, filteredMatrixDimension);
+        applyFilter(matrix, filteredMatrix);
+        return filteredMatrix.data;
+    }
+
+    /**
+     * Applies the saved filter matrix (with a stride of 1) to every segment of a matrix.
+     *
+     * @param matrix
+     *     [n x n] image matrix to be filtered.
+     * @param filteredMatrix
+     *     [(n - filterSize + 1) x (n - filterSize + 1)] matrix that the result is written to.
+     */
+    public void applyFilter(Tensor matrix, Tensor filteredMatrix) {
+        applyFilter(matrix, 1, 0, filteredMatrix);
+    }
+
+    /**
+     * Applies the saved filter matrix to every segment of a matrix, moving 'stride' pixels between
+     * segments, with 'padding' rows/columns of zeros around each side of the matrix.
+     *
+     * @param matrix
+     *     [n x n] image matrix to be filtered.
+     * @param stride
+     *     Number of pixels the filter moves between segments.
+     * @param padding
+     *     Number of rows/columns of zeros around each side of the matrix.
+     * @param filteredMatrix
+     *     [m x m] matrix that the result is written to, where m = getOutputDimension(n, stride, padding).
+     */
+    public void applyFilter(Tensor matrix, int stride, int padding, Tensor filteredMatrix) {
+        Tensor output = new Tensor(filteredMatrix.data, filteredMatrix.offset, 1, filteredMatrix.getSize());
+        Convolution.convolve(matrix, getKernel(), getSize(), stride, padding, output);
     }
 
-    // Segment of an image matrix for the filter matrix to be multiplied against (filtered).
-    private double applyFilterToMatrixSegment(double[][] matrix, int startRowIndex, int startColumnIndex) {
-        double result = 0;
-        for(int rowIndex = 0; rowIndex < filterMatrix.length; ++rowIndex) {
-            for(int columnIndex = 0; columnIndex < filterMatrix.length; ++columnIndex) { // Sum the products of matrix multiplication.
-                result += matrix[rowIndex + startRowIndex][columnIndex + startColumnIndex] * filterMatrix[rowIndex][columnIndex];
+    // Return the dimension of the matrix that results from filtering an [n x n] matrix.
+    public int getOutputDimension(int inputDimension) {
+        return getOutputDimension(inputDimension, 1, 0);
+    }
+
+    // Return the dimension of the matrix that results from filtering an [n x n] matrix with a stride and padding.
+    public int getOutputDimension(int inputDimension, int stride, int padding) {
+        return Convolution.getOutputDimension(inputDimension, getSize(), stride, padding);
+    }
+
+    // Return the width/height of the filter matrix.
+    public int getSize() {
+        return filterMatrix.rows;
+    }
+
+    // Return a [1 x (filterSize * filterSize)] view of the filter matrix (a bank of one kernel).
+    Tensor getKernel() {
+        return new Tensor(filterMatrix.data, filterMatrix.offset, 1, filterMatrix.getSize());
+    }
+
+    /**
+     * Stacks the filter matrices of a filter set into one kernel matrix, so that the whole set
+     * can be applied in one pass by <code>Convolution.convolve</code>.
+     *
+     * @param filterSet
+     *     Filters that all have the same size.
+     * @return [filterAmount x (filterSize * filterSize)] matrix, where row f holds filter f in row-major order.
+     */
+    public static Tensor stackKernels(Filter[] filterSet) {
+        int filterSize = filterSet[0].getSize();
+        Tensor kernels = new Tensor(filterSet.length, filterSize * filterSize);
+        for(int i = 0; i < filterSet.length; ++i) {
+            if(filterSet[i].getSize() != filterSize) {
+                throw new IllegalArgumentException("Filter " + i + " is [" + filterSet[i].getSize() + " x " + filterSet[i].getSize()
+                                                   + "], but filter 0 is [" + filterSize + " x " + filterSize + "]");
             }
+            System.arraycopy(filterSet[i].filterMatrix.data, filterSet[i].filterMatrix.offset, kernels.data, kernels.index(i, 0), kernels.columns);
         }
-        return result;
+        return kernels;
     }
 
     // Pad out the dimensions of a passed in matrix by 1 (i.e., an [NxN] dimensional matrix would become [(N+1)x(N+1)]).
@@ -0,0 +1,85 @@
+import java.util.*;
+
+/**
+ * Responsible for viewing a flat 1-D floats array as a row-major 2-D matrix, the way Tensor does for doubles.
+ * Used by the FLOAT32 training path of the MLP (see MLPConfiguration.withTrainingPrecision), where the
+ * batch layers, errors and gradients take half the memory of Tensors, and a SIMD vector holds twice as many of them.
+ */
+public class FloatTensor {
+
+    public final float[] data;
+    public final int offset;
+    public final int rows, columns;
+
+    /**
+     * Creates a new <code>FloatTensor</code> with its own zero-filled storage.
+     *
+     * @param newRows
+     *     Number of rows in the matrix.
+     * @param newColumns
+     *     Number of columns in the matrix.
+     */
+    public FloatTensor(int newRows, int newColumns) {
+        this(new float[newRows * newColumns], 0, newRows, newColumns);
+    }
+
+    /**
+     * Creates a new <code>FloatTensor</code> view over an existing 1-D floats array.
+     *
+     * @param newData
+     *     Flat 1-D floats array that holds the matrix values in row-major order.
+     * @param newOffset
+     *     Index in the array where the first matrix value is.
+     * @param newRows
+     *     Number of rows in the matrix.
+     * @param newColumns
+     *     Number of columns in the matrix.
+     */
+    public FloatTensor(float[] newData, int newOffset, int newRows, int newColumns) {
+        if(newOffset < 0 || newOffset + newRows * newColumns > newData.length) {
+            throw new IllegalArgumentException("A [" + newRows + " x " + newColumns + "] view at " + newOffset
+                                               + " does not fit in an array of length " + newData.length);
+        }
+        data = newData;
+        offset = newOffset;
+        rows = newRows;
+        columns = newColumns;
+    }
+
+    // Return the array index of a matrix cell.
+    public int index(int rowIndex, int columnIndex) {
+        return offset + rowIndex * columns + columnIndex;
+    }
+
+    public float get(int rowIndex, int columnIndex) {
+        return data[index(rowIndex, columnIndex)];
+    }
+
+    public void set(int rowIndex, int columnIndex, float value) {
+        data[index(rowIndex, columnIndex)] = value;
+    }
+
+    // Return the number of values in the matrix.
+    public int getSize() {
+        return rows * columns;
+    }
+
+    // Set every value in the matrix.
+    public void fill(float value) {
+        Arrays.fill(data, offset, offset + getSize(), value);
+    }
+
+    // Copy the first 'rowCount' rows of a doubles matrix of the same width in, rounding each value to the nearest float.
+    public void copyFrom(Tensor tensor, int rowCount) {
+        for(int i = 0; i < rowCount * columns; ++i) {
+            data[offset + i] = (float)tensor.data[tensor.offset + i];
+        }
+    }
+
+    // Copy the first 'rowCount' rows out into a doubles matrix of the same width (exactly, every float is a double).
+    public void copyTo(Tensor tensor, int rowCount) {
+        for(int i = 0; i < rowCount * columns; ++i) {
+            tensor.data[tensor.offset + i] = data[offset + i];
+        }
+    }
+}
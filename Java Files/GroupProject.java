@@ -1,11 +1,13 @@
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class represents the main .java file used to call and run the neural network
  * training models for a 445 - Machine Learning Group Final Project on an American
  * Sign Language image dataset. What is illustrated to the user includes the
- * training/testing accuracy per epoch and a confusion matrix for the total
- * training/testing accuracy over all epochs.
+ * training/validation accuracy per epoch, a confusion matrix for the total
+ * training/validation accuracy over all epochs, and the testing accuracy of the
+ * trained network.
  * The neural network models that can be used through calling this Java file are:
  *      - A Convolutional Neural Network (CNN)
  *      - A Multi-Layer Perceptron (MLP/Deep Feedforward Neural Network)
@@ -13,22 +15,158 @@ import java.util.*;
 public class GroupProject {
 
     private static final boolean TOTAL_CONFUSION_MATRIX_PRINTING_ENABLED = true;
+    // Compare the trained model against an 8-bit integer copy of it on the testing set. [Enable to check quantized accuracy]
+    private static final boolean QUANTIZATION_REPORT_ENABLED = false;
+    // Classify the testing set from many request threads through a micro-batching PredictionService. [Enable to check concurrent inference]
+    private static final boolean PREDICTION_SERVICE_REPORT_ENABLED = false;
+    // Number of request threads, the most requests classified in one batch, and how long a batch waits for more requests.
+    private static final int PREDICTION_REQUEST_THREAD_AMOUNT = 16;
+    private static final int PREDICTION_MAX_BATCH_SIZE = 32;
+    private static final long PREDICTION_MAX_DELAY_MICROSECONDS = 500;
+    // Store the cached CNN feature maps outside of the Java heap. [Enable for large datasets]
+    private static final boolean FEATURE_CACHE_OFF_HEAP_ENABLED = false;
+
+    // Save a checkpoint of the network every CHECKPOINT_INTERVAL epochs (0 saves none), named "<MLP|CNN>-epoch-<n>.ckpt".
+    private static final int CHECKPOINT_INTERVAL = 0;
+    private static final String CHECKPOINT_FOLDER_PATH = "checkpoints";
+    // Include the momentum terms in checkpoints, so that resumed training continues exactly. [Disable for half-size checkpoints]
+    private static final boolean CHECKPOINT_MOMENTUM_ENABLED = true;
+    // Checkpoint to resume training from (i.e., "checkpoints/MLP-epoch-10.ckpt"), or null to start from random weights.
+    // Only used for the network type it holds; its epochs count towards EPOCH_AMOUNT.
+    private static final String RESUME_CHECKPOINT_PATH = null;
+
+    // Where the per-epoch telemetry is sent when it is turned on (java -Dasl.telemetry=true GroupProject ...):
+    // appended to a JSON lines file (null writes none), and/or exposed as the "asl:type=Telemetry" JMX bean.
+    private static final String TELEMETRY_JSON_PATH = "telemetry/metrics.jsonl";
+    private static final boolean TELEMETRY_JMX_ENABLED = true;
 
     private static final String IMAGES_FOLDER_PATH = "archive/signs";
+    // Parsed images are saved here and loaded on the next run (rebuilt whenever the images change).
+    private static final String DATASET_CACHE_PATH = "archive/signs.cache";
+    // Decode each image when it is first needed, keeping the decoded images in a bounded cache, instead of loading
+    // every image up front. [Enable for datasets larger than the heap] The next LAZY_DATASET_PREFETCH_AMOUNT images
+    // in training/testing order are decoded in the background while the current one is used.
+    private static final boolean LAZY_DATASET_ENABLED = false;
+    private static final int LAZY_DATASET_CACHE_SIZE_MB = 256;
+    private static final int LAZY_DATASET_PREFETCH_AMOUNT = 64;
 
+    // Seed of the split into training, validation and testing sets (null splits differently every run).
+    private static final Long DATASET_SPLIT_SEED = null;
+    // Share of the training inputs held out as the validation set, which is evaluated after every epoch to drive the learning
+    // rate plan, early stopping and the choice of the best weights. The testing set is only evaluated once, after training.
+    private static final double VALIDATION_SPLIT = 0.2;
     private static final int INPUT_LAYER_SIZE = 32 * 32;
-    private static final int HIDDEN_LAYER_SIZE = 50;
+    // Units of each hidden layer of the perceptron, from the input side (the CNN needs at least one hidden layer).
+    private static final int[] HIDDEN_LAYER_SIZES = {50};
+    // Activation of the hidden layers and of the output layer (a SOFTMAX output layer is trained with the cross-entropy error).
+    private static final Activation HIDDEN_ACTIVATION = Activation.SIGMOID;
+    private static final Activation OUTPUT_ACTIVATION = Activation.SIGMOID;
+    private static final double LEARNING_RATE = 0.1;
+    // Share of the previous weight change added to each change (0 trains without momentum).
+    private static final double MOMENTUM = 0.9;
     private static final int OUTPUT_LAYER_SIZE = 26;
     private static final int EPOCH_AMOUNT = 25;
+    // How the perceptron's learning rate changes from epoch to epoch (CONSTANT keeps LEARNING_RATE). STEP multiplies it by
+    // LEARNING_RATE_DECAY every LEARNING_RATE_INTERVAL epochs, PLATEAU whenever the validation accuracy has not improved for
+    // LEARNING_RATE_INTERVAL epochs, and COSINE lowers it to MINIMUM_LEARNING_RATE along half a cosine over EPOCH_AMOUNT epochs.
+    private static final TrainingController.Schedule LEARNING_RATE_SCHEDULE = TrainingController.Schedule.CONSTANT;
+    private static final double LEARNING_RATE_DECAY = 0.5;
+    private static final int LEARNING_RATE_INTERVAL = 2;
+    private static final double MINIMUM_LEARNING_RATE = 0.001;
+    // Stop training once the validation accuracy has not risen by more than EARLY_STOPPING_MINIMUM_IMPROVEMENT
+    // for EARLY_STOPPING_PATIENCE epochs (0 always runs EPOCH_AMOUNT epochs).
+    // Either way, the network ends with the weights of its epoch with the best validation accuracy.
+    private static final int EARLY_STOPPING_PATIENCE = 0;
+    private static final double EARLY_STOPPING_MINIMUM_IMPROVEMENT = 0.0005;
+    // Number of inputs per weight update (1 updates after every input, larger batches run faster matrix-matrix kernels).
+    private static final int BATCH_SIZE = 1;
+    // Precision the MLP trains mini-batches (BATCH_SIZE > 1) in. FLOAT32 runs the batch matrix kernels on floats, twice
+    // as many per SIMD vector, while the weights are still kept and updated in DOUBLE (see MLPConfiguration.withTrainingPrecision).
+    private static final Precision TRAINING_PRECISION = Precision.DOUBLE;
+    // Number of threads to train on (1 trains on the main thread), and how the threads share the weights.
+    // SYNCHRONOUS mode updates the weights once every BATCH_SIZE inputs, so it should be used with larger batches.
+    private static final int TRAINING_WORKER_AMOUNT = 1;
+    private static final ParallelTrainer.Mode PARALLEL_TRAINING_MODE = ParallelTrainer.Mode.HOGWILD;
+    // Train the MLP data-parallel on training nodes that exchange gradients with a parameter server over TCP (0 trains
+    // as above). DISTRIBUTED_REMOTE_NODE_AMOUNT of the nodes are other JVMs, started with "java GroupProject NODE" (they
+    // connect to DISTRIBUTED_HOST:DISTRIBUTED_PORT and need the same DATASET_SPLIT_SEED), and the rest are threads of this JVM.
+    private static final int DISTRIBUTED_NODE_AMOUNT = 0;
+    private static final int DISTRIBUTED_REMOTE_NODE_AMOUNT = 0;
+    private static final String DISTRIBUTED_HOST = "127.0.0.1";
+    private static final int DISTRIBUTED_PORT = 5005;
+    private static final int DISTRIBUTED_BATCH_SIZE = 32;
+    // Learning rate and momentum of the distributed training (used instead of LEARNING_RATE and MOMENTUM). Each push is one
+    // update averaged over a node's batch, so the rate is higher than for BATCH_SIZE = 1, but every node's push is applied on
+    // its own to weights the other nodes' pushes have already moved, so it is lower than for a single process with the same
+    // batch size (which trains best at about 3.2). Momentum adds to that overshoot, and keeps a sigmoid MLP from learning at these rates.
+    private static final double DISTRIBUTED_LEARNING_RATE = 1.5;
+    private static final double DISTRIBUTED_MOMENTUM = 0;
+    // Number of batches a node may get ahead of the slowest one (0 keeps the nodes in lockstep).
+    private static final int DISTRIBUTED_STALENESS = 2;
+    // Push the gradients as half-precision floats (4x less to send, about 3 significant digits).
+    private static final boolean DISTRIBUTED_HALF_PRECISION_ENABLED = false;
+    // Prepare the training mini-batches on background threads while the network trains on the previous ones.
+    // [Enable for inputs decoded on demand] Only used with TRAINING_WORKER_AMOUNT = 1. With a shuffle seed, the
+    // training set is shuffled again at the start of every epoch (null keeps the same order every epoch).
+    private static final boolean DATA_LOADER_ENABLED = false;
+    private static final int DATA_LOADER_BUFFER_AMOUNT = 4;
+    private static final int DATA_LOADER_PRODUCER_AMOUNT = 2;
+    private static final Long DATA_LOADER_SHUFFLE_SEED = 445L;
+    // Number of threads the testing set is evaluated on (1 evaluates on the main thread).
+    private static final int EVALUATION_WORKER_AMOUNT = Runtime.getRuntime().availableProcessors();
+    // Evaluate each epoch on a snapshot of the weights in the background, while the next epoch trains.
+    // [Enable to overlap testing with training] Each epoch's results are then printed after the next epoch has trained.
+    private static final boolean ASYNC_EVALUATION_ENABLED = false;
     private static final int FILTER_APPLICATION_AMOUNT = 1;
+    // Train the CNN's filters (starting from the filter set) along with its perceptron, instead of keeping them fixed.
+    // [Enable for trainable convolution and pooling layers] Only works with TRAINING_WORKER_AMOUNT = 1.
+    private static final boolean CONVOLUTION_TRAINING_ENABLED = false;
+    // Filters in the second trainable convolution layer, and how each pooling layer shrinks its input.
+    private static final int SECOND_CONVOLUTION_CHANNELS = 16;
+    private static final PoolingLayer.Mode POOLING_MODE = PoolingLayer.Mode.MAX;
+    private static final int FEATURE_CACHE_SIZE_MB = 512;
+    // Number of threads for each stage of the image parsing pipeline (1 parses the images on the main thread).
+    private static final int IMAGE_PARSER_WORKER_AMOUNT = Runtime.getRuntime().availableProcessors();
+    // Precision the parsed images are kept in memory at. Every pixel value fits exactly in any of them,
+    // so FLOAT32 (2x smaller) and INT8 (8x smaller) train the same as DOUBLE. FLOAT32 inputs loaded from the dataset cache
+    // file are read straight from the mapped file and take up no heap at all.
+    private static final Precision INPUT_PRECISION = Precision.DOUBLE;
+
+    // Hyperparameter sweep (run with the "SWEEP" argument): every combination of the values below, or SWEEP_RANDOM_AMOUNT
+    // random ones (0 runs the grid), trained SWEEP_WORKER_AMOUNT at a time. Each trial uses the learning rate plan above,
+    // and is cancelled after SWEEP_GRACE_EPOCHS once its accuracy is below the median of the others.
+    private static final Hyperparameters.NetworkType[] SWEEP_NETWORK_TYPES = {Hyperparameters.NetworkType.MLP, Hyperparameters.NetworkType.CNN};
+    private static final int[][] SWEEP_HIDDEN_LAYER_SIZES = {{25}, {50}, {100}};
+    private static final double[] SWEEP_LEARNING_RATES = {0.05, 0.1, 0.2};
+    // Indices into getFilterSet() of the filters a CNN trial uses.
+    private static final int[][] SWEEP_FILTER_SUBSETS = {{0, 1, 2, 3, 4, 5, 6, 7}, {0, 1, 2, 3}, {4, 5, 6, 7}};
+    private static final int[] SWEEP_FILTER_APPLICATION_AMOUNTS = {1, 2};
+    private static final int SWEEP_RANDOM_AMOUNT = 0;
+    private static final long SWEEP_RANDOM_SEED = 445L;
+    private static final int SWEEP_EPOCH_AMOUNT = 10;
+    private static final int SWEEP_WORKER_AMOUNT = Runtime.getRuntime().availableProcessors();
+    private static final int SWEEP_GRACE_EPOCHS = 2;
+    private static final int SWEEP_FEATURE_CACHE_SIZE_MB = 1024;
+    private static final String SWEEP_RESULTS_PATH = "sweep/results.txt";
+
+    private static final MLPConfiguration PERCEPTRON_CONFIGURATION = MLPConfiguration.DEFAULT.withHiddenLayerSizes(HIDDEN_LAYER_SIZES)
+                                                                                             .withActivations(HIDDEN_ACTIVATION, OUTPUT_ACTIVATION)
+                                                                                             .withLearningRate(LEARNING_RATE)
+                                                                                             .withMomentum(MOMENTUM)
+                                                                                             .withTrainingPrecision(TRAINING_PRECISION);
 
-    private static Input[] trainingSet, testingSet;
+    private static Input[] trainingSet, validationSet, testingSet;
+    private static Dataset dataset; // Only used when LAZY_DATASET_ENABLED.
+    private static final List<MetricsSink> metricsSinks = new ArrayList<>(); // Only used when Telemetry.ENABLED.
+    // One target vector per sign, built once and shared (never modified).
+    private static final OneHotTargets SIGN_VECTORS = new OneHotTargets(OUTPUT_LAYER_SIZE);
     
     // ==================================== TERMINAL/CMD USAGE ====================================
     // Remove old .class files: rm *.class
     //            Compile with: javac GroupProject.java
     //                Run with: java GroupProject [ARGUEMNTS]
-    //             [ARGUMENTS]: "MLP" for MLP execution, and "CNN" for CNN execution.
+    //             [ARGUMENTS]: "MLP" for MLP execution, "CNN" for CNN execution, and "SWEEP" for a hyperparameter sweep.
+    //                          "NODE" runs a training node for an MLP execution with distributed nodes in another JVM.
 
     public static void main(String[] args) {
         if(args == null || args.length == 0) {
@@ -38,28 +176,118 @@ public class GroupProject {
 
         System.out.println("\nRun info:");
         System.out.println("    Amount of epochs: " + EPOCH_AMOUNT);
-        System.out.println("   Hidden layer size: " + HIDDEN_LAYER_SIZE);
+        System.out.println("          Perceptron: " + PERCEPTRON_CONFIGURATION);
+        System.out.println("  Learning rate plan: " + LEARNING_RATE_SCHEDULE + " schedule, "
+                           + (EARLY_STOPPING_PATIENCE > 0 ? "early stopping after " + EARLY_STOPPING_PATIENCE + " epochs without improvement" : "no early stopping"));
+        System.out.println("          Batch size: " + BATCH_SIZE);
+        System.out.println("    Training workers: " + TRAINING_WORKER_AMOUNT + (TRAINING_WORKER_AMOUNT > 1 ? " (" + PARALLEL_TRAINING_MODE + ")" : ""));
+        System.out.println("   Distributed nodes: " + (DISTRIBUTED_NODE_AMOUNT > 0 ? DISTRIBUTED_NODE_AMOUNT + " (" + DISTRIBUTED_REMOTE_NODE_AMOUNT + " remote) on "
+                                                                  + DISTRIBUTED_HOST + ":" + DISTRIBUTED_PORT + ", batch size " + DISTRIBUTED_BATCH_SIZE
+                                                                  + ", learning rate " + DISTRIBUTED_LEARNING_RATE + ", momentum " + DISTRIBUTED_MOMENTUM
+                                                                  + ", staleness " + DISTRIBUTED_STALENESS
+                                                                  + (DISTRIBUTED_HALF_PRECISION_ENABLED ? ", half-precision gradients" : "") : "off"));
+        System.out.println("         Data loader: " + (DATA_LOADER_ENABLED ? DATA_LOADER_PRODUCER_AMOUNT + " producers, " + DATA_LOADER_BUFFER_AMOUNT + " batch buffers"
+                                                                  + (DATA_LOADER_SHUFFLE_SEED != null ? ", shuffled every epoch" : "") : "off"));
+        System.out.println("  Evaluation workers: " + EVALUATION_WORKER_AMOUNT + (ASYNC_EVALUATION_ENABLED ? " (overlapping training)" : ""));
         System.out.println("   Amount of filters: " + getFilterSet().length);
         System.out.println("  Application amount: " + FILTER_APPLICATION_AMOUNT);
+        System.out.println("   Filters trainable: " + CONVOLUTION_TRAINING_ENABLED + (CONVOLUTION_TRAINING_ENABLED ? " (" + POOLING_MODE + " pooling)" : ""));
+        System.out.println("     Input precision: " + INPUT_PRECISION);
+        System.out.println("             Kernels: " + Kernels.INSTANCE.getName());
+        System.out.println("         Checkpoints: " + (CHECKPOINT_INTERVAL > 0 ? "every " + CHECKPOINT_INTERVAL + " epochs" : "off")
+                           + (RESUME_CHECKPOINT_PATH != null ? " (resuming from " + RESUME_CHECKPOINT_PATH + ")" : ""));
+        System.out.println("           Telemetry: " + (Telemetry.ENABLED ? "on" + (TELEMETRY_JSON_PATH != null ? ", " + TELEMETRY_JSON_PATH : "")
+                                                                  + (TELEMETRY_JMX_ENABLED ? ", JMX " + JmxMetricsSink.OBJECT_NAME : "") : "off"));
 
-        System.out.println("\nBuilding training and testing sets...");
+        System.out.println("\nBuilding training, validation and testing sets...");
         initializeTrainingAndTestingSets();
-        System.out.println("\nFinished building training and testing sets.");
+        System.out.println("\nFinished building training, validation and testing sets.");
 
         // Read the provided command line arguments to determine whether to train an MLP model, a CNN model, or both.
         for(String arg : args) {
             if(arg.toUpperCase().equals("MLP")) {
                 System.out.println("\nBeginning MLP execution...");
-                executeEpochs(new MLP(INPUT_LAYER_SIZE, HIDDEN_LAYER_SIZE, OUTPUT_LAYER_SIZE));
+                Checkpoint checkpoint = getResumeCheckpoint(MLP.class);
+                if(checkpoint != null) {
+                    executeEpochs(checkpoint.getNetwork(), checkpoint.getEpochAmount());
+                } else {
+                    executeEpochs(new MLP(INPUT_LAYER_SIZE, OUTPUT_LAYER_SIZE, PERCEPTRON_CONFIGURATION), 0);
+                }
                 System.out.println("\nFinished MLP execution.\n");
             } else if(arg.toUpperCase().equals("CNN")) {
                 System.out.println("\nBeginning CNN execution...");
-                executeEpochs(new CNN(INPUT_LAYER_SIZE, HIDDEN_LAYER_SIZE, OUTPUT_LAYER_SIZE, getFilterSet(), FILTER_APPLICATION_AMOUNT));
+                Checkpoint checkpoint = getResumeCheckpoint(CNN.class);
+                if(checkpoint != null) {
+                    executeEpochs(checkpoint.getNetwork(), checkpoint.getEpochAmount());
+                } else {
+                    CNN cnn;
+                    if(CONVOLUTION_TRAINING_ENABLED == true) {
+                        cnn = new CNN(INPUT_LAYER_SIZE, HIDDEN_LAYER_SIZES[0], OUTPUT_LAYER_SIZE, getConvolutionLayers());
+                    } else {
+                        cnn = new CNN(INPUT_LAYER_SIZE, HIDDEN_LAYER_SIZES[0], OUTPUT_LAYER_SIZE, getFilterSet(), FILTER_APPLICATION_AMOUNT,
+                                      new FeatureCache(FEATURE_CACHE_SIZE_MB * 1024L * 1024L, FEATURE_CACHE_OFF_HEAP_ENABLED));
+                    }
+                    cnn.setPerceptronConfiguration(PERCEPTRON_CONFIGURATION);
+                    executeEpochs(cnn, 0);
+                }
                 System.out.println("\nFinished CNN execution.\n");
+            } else if(arg.toUpperCase().equals("SWEEP")) {
+                System.out.println("\nBeginning hyperparameter sweep...");
+                executeSweep();
+                System.out.println("\nFinished hyperparameter sweep.\n");
+            } else if(arg.toUpperCase().equals("NODE")) {
+                System.out.println("\nConnecting to the parameter server at " + DISTRIBUTED_HOST + ":" + DISTRIBUTED_PORT + "...");
+                int epochAmount = new TrainingNode(DISTRIBUTED_HOST, DISTRIBUTED_PORT, trainingSet, OutputDecoder::argmax, SIGN_VECTORS).run();
+                System.out.println(epochAmount >= 0 ? "\nFinished training node after " + epochAmount + " epochs.\n" : "\nTraining node failed.\n");
             }
         }
     }
 
+    /**
+     * Trains the sweep's trials on the training and validation sets built once for the whole run, then
+     * prints their results from the most accurate down and writes them to SWEEP_RESULTS_PATH. The testing
+     * set is left out, so that it still gives an unbiased accuracy for the hyperparameters the sweep picks.
+     */
+    private static void executeSweep() {
+        HyperparameterSweep.Space space = new HyperparameterSweep.Space(SWEEP_NETWORK_TYPES, SWEEP_HIDDEN_LAYER_SIZES, SWEEP_LEARNING_RATES,
+                                                                        SWEEP_FILTER_SUBSETS, SWEEP_FILTER_APPLICATION_AMOUNTS, PERCEPTRON_CONFIGURATION);
+        List<Hyperparameters> trials = (SWEEP_RANDOM_AMOUNT > 0 ? space.sample(SWEEP_RANDOM_AMOUNT, SWEEP_RANDOM_SEED) : space.grid());
+        System.out.println(trials.size() + " trials of up to " + SWEEP_EPOCH_AMOUNT + " epochs, " + SWEEP_WORKER_AMOUNT + " at a time");
+        HyperparameterSweep sweep = new HyperparameterSweep(trainingSet, validationSet, OUTPUT_LAYER_SIZE, getFilterSet(), SWEEP_EPOCH_AMOUNT,
+                                                            (network, learningRate) -> new TrainingController(network, SWEEP_EPOCH_AMOUNT, LEARNING_RATE_SCHEDULE,
+                                                                                                              learningRate, LEARNING_RATE_DECAY, LEARNING_RATE_INTERVAL,
+                                                                                                              Math.min(MINIMUM_LEARNING_RATE, learningRate),
+                                                                                                              EARLY_STOPPING_PATIENCE, EARLY_STOPPING_MINIMUM_IMPROVEMENT),
+                                                            SWEEP_WORKER_AMOUNT, SWEEP_GRACE_EPOCHS, SWEEP_FEATURE_CACHE_SIZE_MB * 1024L * 1024L);
+        List<HyperparameterSweep.Result> results = sweep.run(trials, result -> System.out.printf("\t%-13s %.5f after %d epochs (%.1f s): %s%n", result.getStatus(),
+                                                                                                result.getBestAccuracy(), result.getEpochAmount(),
+                                                                                                result.getSeconds(), result.getHyperparameters()));
+        System.out.println("\nRanked results:");
+        System.out.print(HyperparameterSweep.formatResults(results));
+        if(HyperparameterSweep.writeResults(SWEEP_RESULTS_PATH, results)) {
+            System.out.println("Results written to " + SWEEP_RESULTS_PATH);
+        }
+    }
+
+    /**
+     * Loads the checkpoint to resume training from, if there is one and it holds the type of network being run.
+     * @param networkClass The type of network being run (MLP or CNN).
+     * @return The checkpoint, or null to start from random weights.
+     */
+    private static Checkpoint getResumeCheckpoint(Class<? extends Network> networkClass) {
+        if(RESUME_CHECKPOINT_PATH == null) {
+            return null;
+        }
+        Checkpoint checkpoint = Checkpoint.load(RESUME_CHECKPOINT_PATH);
+        if(checkpoint == null || networkClass.isInstance(checkpoint.getNetwork()) == false) {
+            System.out.println("No " + networkClass.getName() + " checkpoint to resume from, starting from random weights.");
+            return null;
+        }
+        System.out.println("Resuming from epoch " + checkpoint.getEpochAmount() + " of " + RESUME_CHECKPOINT_PATH
+                           + (checkpoint.isMomentumIncluded() ? "" : " (without momentum terms)"));
+        return checkpoint;
+    }
+
     /**
      * Generates a set of filters for a CNN.
      * @return A list of filters.
@@ -114,19 +342,54 @@ public class GroupProject {
     }
 
     /**
-     * Sets up the training and testing sets from randomly selected inputs from the input folder.
-     * The input data is split 60:40 for training and testing sets respectively.
-     * Uses ImageParser to parse date from archive/signs.
+     * Generates the trainable layers of a CNN: the filter set as a first convolution layer, then a
+     * second convolution layer over its outputs, each followed by a pooling layer that halves the image.
+     * The padding keeps the filtered images the same size as their inputs (32 -> 16 -> 8).
+     * @return A list of layers, in the order an image passes through them.
+     */
+    private static Layer[] getConvolutionLayers() {
+        Filter[] filterSet = getFilterSet();
+        return new Layer[] {
+            new ConvolutionLayer(filterSet, 1, 1, true),
+            new PoolingLayer(POOLING_MODE, 2),
+            new ConvolutionLayer(filterSet.length, SECOND_CONVOLUTION_CHANNELS, 3, 1, 1, true),
+            new PoolingLayer(POOLING_MODE, 2)
+        };
+    }
+
+    /**
+     * Sets up the training, validation and testing sets from randomly selected inputs from the input folder.
+     * The input data is split 60:40 for training and testing sets respectively, and VALIDATION_SPLIT of the
+     * training inputs are then held out as the validation set.
+     * Uses ImageParser to parse date from archive/signs (or its dataset cache file).
      */
     private static void initializeTrainingAndTestingSets() {
-        Input[] inputs = new ImageParser().parseImages(IMAGES_FOLDER_PATH);
-        Vector<Input> inputList = new Vector<>(inputs.length);
-        Collections.addAll(inputList, randomizeInputs(inputs));
-        testingSet = new Input[(int)(inputs.length * 0.4)];
-        for(int i = 0; i < (int)(inputs.length * 0.4); ++i) {
-            testingSet[i] = inputList.remove(0);
+        Input[] inputs;
+        if(LAZY_DATASET_ENABLED == true) {
+            dataset = new Dataset(IMAGES_FOLDER_PATH, INPUT_PRECISION, LAZY_DATASET_CACHE_SIZE_MB, LAZY_DATASET_PREFETCH_AMOUNT, IMAGE_PARSER_WORKER_AMOUNT);
+            inputs = dataset.getInputs();
+            System.out.println("Dataset size: " + inputs.length + " images, decoded on demand (up to " + LAZY_DATASET_CACHE_SIZE_MB + " MB cached)");
+        } else {
+            inputs = new ImageParser().loadImages(IMAGES_FOLDER_PATH, IMAGE_PARSER_WORKER_AMOUNT, DATASET_CACHE_PATH);
+            long datasetBytes = 0;
+            for(int i = 0; i < inputs.length; ++i) {
+                inputs[i] = inputs[i].withPrecision(INPUT_PRECISION, ImageParser.PIXEL_LEVEL_AMOUNT);
+                datasetBytes += inputs[i].getDataBytes();
+            }
+            System.out.println("Dataset size: " + inputs.length + " images, " + (datasetBytes / (1024 * 1024)) + " MB of pixel data");
+        }
+        Input[] randomizedInputs = randomizeInputs(inputs);
+        int testingAmount = (int)(inputs.length * 0.4);
+        int validationAmount = (int)((inputs.length - testingAmount) * VALIDATION_SPLIT);
+        testingSet = Arrays.copyOfRange(randomizedInputs, 0, testingAmount);
+        validationSet = Arrays.copyOfRange(randomizedInputs, testingAmount, testingAmount + validationAmount);
+        trainingSet = Arrays.copyOfRange(randomizedInputs, testingAmount + validationAmount, randomizedInputs.length);
+        System.out.println(trainingSet.length + " training, " + validationSet.length + " validation and " + testingSet.length + " testing inputs");
+        if(dataset != null) { // Each set is read in order every epoch, so prefetch in that order.
+            dataset.setOrder(trainingSet);
+            dataset.setOrder(validationSet);
+            dataset.setOrder(testingSet);
         }
-        trainingSet = inputList.toArray(new Input[inputList.size()]);
     }
 
     /**
@@ -136,37 +399,303 @@ public class GroupProject {
      */
     private static Input[] randomizeInputs(Input[] inputs) {
         List<Input> inputList = Arrays.asList(inputs);
-        Collections.shuffle(inputList);
+        if(DATASET_SPLIT_SEED != null) {
+            Collections.shuffle(inputList, new Random(DATASET_SPLIT_SEED));
+        } else {
+            Collections.shuffle(inputList);
+        }
         return inputList.toArray(new Input[inputList.size()]);
     }
 
     /**
-     * Execute the epochs over a network.
+     * Execute the epochs over a network, saving a checkpoint every CHECKPOINT_INTERVAL epochs. A TrainingController
+     * sets the learning rate of each epoch, stops training once the validation accuracy stops improving, and
+     * restores the weights of the best epoch at the end. The testing set is evaluated once, on the final weights.
      * @param network The network to run through the epochs.
+     * @param firstEpoch Number of epochs the network has already been trained for (i.e., by a resumed checkpoint).
      */
-    private static void executeEpochs(Network network) {
+    private static void executeEpochs(Network network, int firstEpoch) {
         ConfusionMatrix totalTrainingMatrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
-        ConfusionMatrix totalTestingMatrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
+        ConfusionMatrix totalValidationMatrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
+        DistributedTrainer distributedTrainer = (DISTRIBUTED_NODE_AMOUNT > 0 ? new DistributedTrainer(network, DISTRIBUTED_NODE_AMOUNT,
+                                                                                                      DISTRIBUTED_NODE_AMOUNT - DISTRIBUTED_REMOTE_NODE_AMOUNT,
+                                                                                                      DISTRIBUTED_HOST, DISTRIBUTED_PORT, DISTRIBUTED_BATCH_SIZE,
+                                                                                                      DISTRIBUTED_STALENESS, DISTRIBUTED_HALF_PRECISION_ENABLED,
+                                                                                                      OutputDecoder::argmax, SIGN_VECTORS) : null);
+        ParallelTrainer parallelTrainer = (TRAINING_WORKER_AMOUNT > 1 && distributedTrainer == null
+                                           ? new ParallelTrainer(network, PARALLEL_TRAINING_MODE, TRAINING_WORKER_AMOUNT, BATCH_SIZE, OutputDecoder::argmax, SIGN_VECTORS)
+                                           : null);
+        Evaluator evaluator = (EVALUATION_WORKER_AMOUNT > 1 || ASYNC_EVALUATION_ENABLED ? new Evaluator(EVALUATION_WORKER_AMOUNT, OUTPUT_LAYER_SIZE,
+                                                                                                      OutputDecoder::argmax) : null);
+        DataLoader dataLoader = (DATA_LOADER_ENABLED && parallelTrainer == null && distributedTrainer == null ? new DataLoader(trainingSet, BATCH_SIZE, DATA_LOADER_BUFFER_AMOUNT,
+                                                                                                 DATA_LOADER_PRODUCER_AMOUNT, SIGN_VECTORS, DATA_LOADER_SHUFFLE_SEED) : null);
+        openMetricsSinks();
         System.out.println("\nRunning Epochs...");
         System.out.println("\nOutput:");
-        System.out.println("|\tEpoch\t\t|\tTraining Accuracy\t|\tTesting Accuracy\t|");
-        System.out.println("\t  0\t\t 0\t\t\t\t " + executeTestingEpoch(network).getAccuracy());
-        for(int i = 0; i < EPOCH_AMOUNT; ++i) {
-            ConfusionMatrix trainingMatrix = executeTrainingEpoch(network);
-            ConfusionMatrix testingMatrix = executeTestingEpoch(network);
-            System.out.print("\t  " + (i + 1) + "\t\t ");
-            System.out.print(trainingMatrix.getAccuracy() + "\t\t ");
-            System.out.println(testingMatrix.getAccuracy());
-            totalTrainingMatrix.addConfusionMatrix(trainingMatrix);
-            totalTestingMatrix.addConfusionMatrix(testingMatrix);
+        System.out.println("|\tEpoch\t\t|\tTraining Accuracy\t|\tValidation Accuracy\t|");
+        ConfusionMatrix initialValidationMatrix = executeTestingEpoch(network, evaluator, validationSet);
+        System.out.println("\t  " + firstEpoch + "\t\t 0\t\t\t\t " + initialValidationMatrix.getAccuracy());
+        publishEpochMetrics(firstEpoch, null, initialValidationMatrix); // Includes building the training, validation and testing sets.
+        if(distributedTrainer != null) {
+            ((MLP)network).setMomentum(DISTRIBUTED_MOMENTUM);
+        }
+        TrainingController controller = new TrainingController(network, EPOCH_AMOUNT, LEARNING_RATE_SCHEDULE,
+                                                                (distributedTrainer != null ? DISTRIBUTED_LEARNING_RATE : LEARNING_RATE), LEARNING_RATE_DECAY,
+                                                                LEARNING_RATE_INTERVAL, MINIMUM_LEARNING_RATE, EARLY_STOPPING_PATIENCE,
+                                                                EARLY_STOPPING_MINIMUM_IMPROVEMENT);
+        controller.finishEpochTraining(firstEpoch);
+        controller.recordAccuracy(firstEpoch, initialValidationMatrix);
+        // With asynchronous evaluation, the previous epoch's validation results, which are printed once the next epoch has trained.
+        ConfusionMatrix pendingTrainingMatrix = null;
+        CompletableFuture<ConfusionMatrix> pendingValidationMatrix = null;
+        int epoch = firstEpoch;
+        double learningRate = 0;
+        int checkpointInterval = CHECKPOINT_INTERVAL; // 0 saves no checkpoints.
+        for(; epoch < EPOCH_AMOUNT && controller.isStopped() == false; ++epoch) {
+            double previousLearningRate = learningRate;
+            learningRate = controller.startEpoch(epoch);
+            if(epoch > firstEpoch && learningRate != previousLearningRate) {
+                System.out.println("\t\t(learning rate " + learningRate + " from epoch " + (epoch + 1) + ")");
+            }
+            long trainingStartTime = Telemetry.start();
+            ConfusionMatrix trainingMatrix;
+            if(distributedTrainer != null) {
+                trainingMatrix = distributedTrainer.executeTrainingEpoch(trainingSet);
+            } else if(parallelTrainer != null) {
+                trainingMatrix = parallelTrainer.executeTrainingEpoch(trainingSet);
+            } else {
+                trainingMatrix = (dataLoader != null ? executeTrainingEpoch(network, dataLoader) : executeTrainingEpoch(network));
+            }
+            Telemetry.stop(Telemetry.Stage.TRAINING, trainingStartTime);
+            controller.finishEpochTraining(epoch + 1);
+            if(ASYNC_EVALUATION_ENABLED == true) {
+                CompletableFuture<ConfusionMatrix> validationMatrix = evaluator.evaluateAsync(network.createPredictor(), validationSet);
+                if(pendingValidationMatrix != null) {
+                    ConfusionMatrix pendingMatrix = pendingValidationMatrix.join();
+                    printEpochResult(epoch, pendingTrainingMatrix, pendingMatrix, totalTrainingMatrix, totalValidationMatrix);
+                    controller.recordAccuracy(epoch, pendingMatrix);
+                }
+                pendingTrainingMatrix = trainingMatrix;
+                pendingValidationMatrix = validationMatrix;
+            } else {
+                ConfusionMatrix validationMatrix = executeTestingEpoch(network, evaluator, validationSet);
+                printEpochResult(epoch + 1, trainingMatrix, validationMatrix, totalTrainingMatrix, totalValidationMatrix);
+                controller.recordAccuracy(epoch + 1, validationMatrix);
+            }
+            if(checkpointInterval > 0 && (epoch + 1) % checkpointInterval == 0) {
+                String checkpointPath = CHECKPOINT_FOLDER_PATH + "/" + network.getClass().getName() + "-epoch-" + (epoch + 1) + ".ckpt";
+                if(Checkpoint.save(checkpointPath, network, epoch + 1, CHECKPOINT_MOMENTUM_ENABLED) == true) {
+                    System.out.println("\t\t(saved " + checkpointPath + ")");
+                }
+            }
+        }
+        if(pendingValidationMatrix != null) {
+            ConfusionMatrix pendingMatrix = pendingValidationMatrix.join();
+            printEpochResult(epoch, pendingTrainingMatrix, pendingMatrix, totalTrainingMatrix, totalValidationMatrix);
+            controller.recordAccuracy(epoch, pendingMatrix);
+        }
+        if(epoch < EPOCH_AMOUNT) {
+            System.out.println("\nStopped early after epoch " + epoch + ": the validation accuracy stopped improving.");
+        }
+        if(controller.restoreBestWeights() == true) {
+            System.out.println("Restored the weights of epoch " + controller.getBestEpoch() + ", the most accurate one (validation accuracy "
+                               + controller.getBestAccuracy() + ").");
         }
         System.out.println("\nFinished running Epochs.");
+        ConfusionMatrix testingMatrix = executeTestingEpoch(network, evaluator, testingSet);
+        System.out.println("\nTesting accuracy: " + testingMatrix.getAccuracy());
+        if(dataset != null) {
+            System.out.println("Dataset cache hit rate: " + dataset.getCacheHitRate() + " (" + (dataset.getUsedCacheBytes() / (1024 * 1024)) + " MB cached)");
+        }
+        if(parallelTrainer != null) {
+            parallelTrainer.shutdown();
+        }
+        if(distributedTrainer != null) {
+            distributedTrainer.shutdown();
+        }
+        if(evaluator != null) {
+            evaluator.shutdown();
+        }
+        if(dataLoader != null) {
+            System.out.println("Data loader: the network waited for " + (dataLoader.getStarvedFraction() * 100) + "% of the batches ("
+                               + (dataLoader.getStarvedNanos() / 1000000) + " ms), and " + dataLoader.getAverageReadyBatches() + " of "
+                               + DATA_LOADER_BUFFER_AMOUNT + " batches were ready on average");
+            dataLoader.close();
+        }
+        closeMetricsSinks();
 
         if(TOTAL_CONFUSION_MATRIX_PRINTING_ENABLED == true) {
             System.out.println("\nTotal Training Confusion Matrix:\n");
             totalTrainingMatrix.print();
-            System.out.println("\nTotal Testing Confusion Matrix:\n");
-            totalTestingMatrix.print();
+            System.out.println("\nTotal Validation Confusion Matrix:\n");
+            totalValidationMatrix.print();
+            System.out.println("\nTesting Confusion Matrix:\n");
+            testingMatrix.print();
+            System.out.println("\nTesting Macro Precision: " + testingMatrix.getMacroPrecision()
+                               + ", Recall: " + testingMatrix.getMacroRecall() + ", F1 Score: " + testingMatrix.getMacroF1Score());
+        }
+
+        if(QUANTIZATION_REPORT_ENABLED == true) {
+            printQuantizationReport(network);
+        }
+
+        if(PREDICTION_SERVICE_REPORT_ENABLED == true) {
+            printPredictionServiceReport(network);
+        }
+    }
+
+    /**
+     * Prints the accuracies of an epoch, and adds its confusion matrices to the totals.
+     * @param epoch The number of the epoch (counting from 1).
+     * @param trainingMatrix The confusion matrix of the epoch's training.
+     * @param validationMatrix The confusion matrix of the validation set after the epoch.
+     * @param totalTrainingMatrix The confusion matrix of every epoch's training so far.
+     * @param totalValidationMatrix The confusion matrix of every epoch's validation so far.
+     */
+    private static void printEpochResult(int epoch, ConfusionMatrix trainingMatrix, ConfusionMatrix validationMatrix,
+                                         ConfusionMatrix totalTrainingMatrix, ConfusionMatrix totalValidationMatrix) {
+        System.out.print("\t  " + epoch + "\t\t ");
+        System.out.print(trainingMatrix.getAccuracy() + "\t\t ");
+        System.out.println(validationMatrix.getAccuracy());
+        publishEpochMetrics(epoch, trainingMatrix, validationMatrix);
+        totalTrainingMatrix.addConfusionMatrix(trainingMatrix);
+        totalValidationMatrix.addConfusionMatrix(validationMatrix);
+    }
+
+    /**
+     * Opens the metrics sinks the telemetry of every epoch is sent to (none while telemetry is off).
+     */
+    private static void openMetricsSinks() {
+        if(Telemetry.ENABLED == false) {
+            return;
+        }
+        if(TELEMETRY_JSON_PATH != null) {
+            metricsSinks.add(new JsonLinesMetricsSink(TELEMETRY_JSON_PATH));
+        }
+        if(TELEMETRY_JMX_ENABLED == true) {
+            metricsSinks.add(new JmxMetricsSink());
+        }
+    }
+
+    // Close the metrics sinks once the epochs are done.
+    private static void closeMetricsSinks() {
+        for(MetricsSink sink : metricsSinks) {
+            sink.close();
+        }
+        metricsSinks.clear();
+    }
+
+    /**
+     * Collects the telemetry recorded since the last epoch, prints its losses and training speed, and
+     * sends it to the metrics sinks (nothing while telemetry is off). With asynchronous evaluation, an
+     * epoch's telemetry also holds the training of the epoch after it, which overlapped its evaluation.
+     * Its testing accuracy and loss are those of the validation set, the held-out set evaluated every epoch.
+     * @param epoch The number of the epoch (counting from 1, or the first epoch for the validation pass before training).
+     * @param trainingMatrix The confusion matrix of the epoch's training, or null for the validation pass before training.
+     * @param validationMatrix The confusion matrix of the validation set after the epoch.
+     */
+    private static void publishEpochMetrics(int epoch, ConfusionMatrix trainingMatrix, ConfusionMatrix validationMatrix) {
+        EpochMetrics metrics = Telemetry.snapshotEpoch(epoch, trainingMatrix, validationMatrix);
+        if(metrics == null) {
+            return;
+        }
+        System.out.println("\t\t(loss " + metrics.getTrainingLoss() + " training, " + metrics.getTestingLoss() + " validation, "
+                           + (long)metrics.getTrainingSamplesPerSecond() + " samples/s, " + (metrics.getAllocatedBytes() / (1024 * 1024)) + " MB allocated, "
+                           + metrics.getGcCount() + " GCs)");
+        for(MetricsSink sink : metricsSinks) {
+            sink.publish(metrics);
+        }
+    }
+
+    /**
+     * Runs the testing set through a predictor made from a trained network, first one input at a time on
+     * the main thread, then as separate requests from PREDICTION_REQUEST_THREAD_AMOUNT threads through a
+     * PredictionService, and prints the accuracy, how often each agrees with the network, and their speeds.
+     * @param network The trained network to make the predictor from.
+     */
+    private static void printPredictionServiceReport(Network network) {
+        Predictor predictor = network.createPredictor();
+        ConfusionMatrix parityMatrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
+        long startTime = System.nanoTime();
+        int[] predictedLabels = new int[testingSet.length];
+        for(int i = 0; i < testingSet.length; ++i) {
+            predictedLabels[i] = OutputDecoder.argmax(predictor.predict(testingSet[i]));
+        }
+        long singleNanos = System.nanoTime() - startTime;
+        for(int i = 0; i < testingSet.length; ++i) {
+            parityMatrix.add(predictedLabels[i], OutputDecoder.argmax(network.executeForwardPropagation(testingSet[i])));
+        }
+
+        // Filled by the request threads themselves as their predictions arrive.
+        ConcurrentConfusionMatrix serviceMatrix = new ConcurrentConfusionMatrix(OUTPUT_LAYER_SIZE);
+        ConcurrentConfusionMatrix serviceParityMatrix = new ConcurrentConfusionMatrix(OUTPUT_LAYER_SIZE);
+        ExecutorService requestThreads = Executors.newFixedThreadPool(PREDICTION_REQUEST_THREAD_AMOUNT);
+        PredictionService service = new PredictionService(predictor, PREDICTION_MAX_BATCH_SIZE, PREDICTION_MAX_DELAY_MICROSECONDS);
+        try {
+            startTime = System.nanoTime();
+            List<Future<?>> results = new ArrayList<>(testingSet.length);
+            for(int i = 0; i < testingSet.length; ++i) { // Each request waits for its own prediction, like a request handler would.
+                int inputIndex = i;
+                results.add(requestThreads.submit(() -> {
+                    int serviceLabel = OutputDecoder.argmax(service.predict(testingSet[inputIndex]));
+                    serviceMatrix.add(serviceLabel, testingSet[inputIndex].label);
+                    serviceParityMatrix.add(serviceLabel, predictedLabels[inputIndex]);
+                }));
+            }
+            for(Future<?> result : results) {
+                result.get();
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("A prediction request failed.", e);
+        } finally {
+            service.close();
+            requestThreads.shutdown();
+        }
+        long serviceNanos = System.nanoTime() - startTime;
+
+        System.out.println("\nPrediction service report (testing set):");
+        System.out.println("     Predictor agreement: " + parityMatrix.getAccuracy() + " (" + getPredictionsPerSecond(singleNanos) + " predictions/s on one thread)");
+        System.out.println("        Service accuracy: " + serviceMatrix.getAccuracy() + " (" + getPredictionsPerSecond(serviceNanos) + " predictions/s from "
+                           + PREDICTION_REQUEST_THREAD_AMOUNT + " request threads)");
+        System.out.println("       Service agreement: " + serviceParityMatrix.getAccuracy());
+        System.out.println("      Average batch size: " + service.getAverageBatchSize() + " (at most " + PREDICTION_MAX_BATCH_SIZE + ", "
+                           + PREDICTION_MAX_DELAY_MICROSECONDS + " us delay)");
+    }
+
+    // Return the number of testing set predictions per second, given how long they all took.
+    private static long getPredictionsPerSecond(long nanos) {
+        return (nanos == 0 ? 0 : testingSet.length * 1_000_000_000L / nanos);
+    }
+
+    /**
+     * Runs the testing set through a trained network and through an 8-bit integer copy of its
+     * perceptron, and prints the accuracy of both, how often they agree, and their sizes.
+     * @param network The trained network to compare against.
+     */
+    private static void printQuantizationReport(Network network) {
+        CNN cnn = (network instanceof CNN ? (CNN)network : null);
+        MLP perceptron = (cnn == null ? (MLP)network : cnn.getPerceptron(cnn.getFilterSetOutput(testingSet[0]).length));
+        QuantizedMLP quantizedPerceptron = perceptron.quantize();
+        ConfusionMatrix fullMatrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
+        ConfusionMatrix quantizedMatrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
+        // Quantized prediction vs full precision prediction, so its accuracy is the rate the two agree at.
+        ConfusionMatrix parityMatrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
+        double[] inputBuffer = new double[testingSet[0].getSize()];
+        for(Input input : testingSet) {
+            int fullLabel = OutputDecoder.argmax(network.executeForwardPropagation(input));
+            double[] inputLayer = (cnn == null ? input.getData(inputBuffer) : cnn.getFilterSetOutput(input));
+            int quantizedLabel = OutputDecoder.argmax(quantizedPerceptron.executeForwardPropagation(inputLayer));
+            fullMatrix.add(fullLabel, input.label);
+            quantizedMatrix.add(quantizedLabel, input.label);
+            parityMatrix.add(quantizedLabel, fullLabel);
+        }
+        System.out.println("\nQuantization report (testing set):");
+        System.out.println("     Full precision accuracy: " + fullMatrix.getAccuracy() + " (" + (perceptron.getWeightAmount() * Double.BYTES / 1024) + " KB of weights)");
+        System.out.println("           INT8 accuracy: " + quantizedMatrix.getAccuracy() + " (" + (quantizedPerceptron.getModelBytes() / 1024) + " KB of weights)");
+        System.out.println("  Prediction agreement: " + parityMatrix.getAccuracy());
+        if(TOTAL_CONFUSION_MATRIX_PRINTING_ENABLED == true) {
+            System.out.println("\nINT8 Testing Confusion Matrix:\n");
+            quantizedMatrix.print();
         }
     }
 
@@ -177,76 +706,88 @@ public class GroupProject {
      */
     private static ConfusionMatrix executeTrainingEpoch(Network network) {
         ConfusionMatrix matrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
+        if(BATCH_SIZE > 1) {
+            return executeBatchTrainingEpoch(network, matrix);
+        }
         for(Input input : trainingSet) {
             double[] result = network.executeForwardPropagation(input);
-            int predictedLabel = getPredictedLabel(result);
+            int predictedLabel = OutputDecoder.argmax(result);
             int actualLabel = input.label;
             matrix.add(predictedLabel, actualLabel);
-            network.executeBackPropagation(getSignVector(actualLabel));
+            network.executeBackPropagation(SIGN_VECTORS.get(actualLabel));
         }
         return matrix;
     } 
 
     /**
-     * Executes a single testing epoch over a netowrk.
+     * Executes a single training epoch over a network in mini-batches of BATCH_SIZE inputs.
      * @param network The network to run for a single epoch.
+     * @param matrix The confusion matrix to add the predictions to.
      * @return The confusion matrix produced over this epoch.
      */
-    private static ConfusionMatrix executeTestingEpoch(Network network) {
-        ConfusionMatrix matrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
-        for(Input input : testingSet) {
-            double[] result = network.executeForwardPropagation(input);
-            int predictedLabel = getPredictedLabel(result);
-            int actualLabel = input.label;
-            matrix.add(predictedLabel, actualLabel);
+    private static ConfusionMatrix executeBatchTrainingEpoch(Network network, ConfusionMatrix matrix) {
+        Input[] fullBatch = new Input[BATCH_SIZE];
+        double[][] fullTargets = new double[BATCH_SIZE][];
+        for(int batchStart = 0; batchStart < trainingSet.length; batchStart += BATCH_SIZE) {
+            int currentBatchSize = Math.min(BATCH_SIZE, trainingSet.length - batchStart);
+            Input[] batch = (currentBatchSize == BATCH_SIZE ? fullBatch : new Input[currentBatchSize]);
+            double[][] targets = (currentBatchSize == BATCH_SIZE ? fullTargets : new double[currentBatchSize][]);
+            System.arraycopy(trainingSet, batchStart, batch, 0, currentBatchSize);
+            double[][] results = network.forwardBatch(batch);
+            for(int i = 0; i < batch.length; ++i) {
+                matrix.add(OutputDecoder.argmax(results[i]), batch[i].label);
+                targets[i] = SIGN_VECTORS.get(batch[i].label);
+            }
+            network.backwardBatch(targets);
         }
         return matrix;
-    } 
+    }
 
     /**
-     * Finds the sign label whose respective label is "closest" to a predicted vector.
-     * It generates a label for a given prediction vector.
-     * @param preditedVector The prediction vector.
-     * @return The label assigned for the prediction vector.
+     * Executes a single training epoch over a network on the mini-batches of a data loader.
+     * @param network The network to run for a single epoch.
+     * @param dataLoader The data loader that prepares the training set's mini-batches of BATCH_SIZE inputs.
+     * @return The confusion matrix produced over this epoch.
      */
-    private static int getPredictedLabel(double[] preditedVector) {
-        int predictedLabel = 0;
-        double predictedDotProduct = 0;
-        for(int currentSign = 0; currentSign < OUTPUT_LAYER_SIZE; ++currentSign) {
-            double dotProduct = dotProduct(preditedVector, getSignVector(currentSign));
-            if(dotProduct > predictedDotProduct) {
-                predictedLabel = currentSign;
-                predictedDotProduct = dotProduct;
+    private static ConfusionMatrix executeTrainingEpoch(Network network, DataLoader dataLoader) {
+        ConfusionMatrix matrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
+        dataLoader.startEpoch();
+        for(DataLoader.Batch batch = dataLoader.next(); batch != null; batch = dataLoader.next()) {
+            if(batch.getSize() == 1) { // The same single-input passes as executeTrainingEpoch.
+                matrix.add(OutputDecoder.argmax(network.executeForwardPropagation(batch.inputs[0])), batch.inputs[0].label);
+                network.executeBackPropagation(batch.targets[0]);
+                continue;
+            }
+            double[][] results = network.forwardBatch(batch.inputs);
+            for(int i = 0; i < batch.getSize(); ++i) {
+                matrix.add(OutputDecoder.argmax(results[i]), batch.inputs[i].label);
             }
+            network.backwardBatch(batch.targets);
         }
-        return predictedLabel;
+        return matrix;
     }
 
     /**
-     * Generates a vector in 26-space corresponding to a given label.
-     * @param signLabel The label of the desired vector.
-     * @return The vector corresponding to the label.
+     * Executes a single testing epoch over a netowrk.
+     * @param network The network to run for a single epoch.
+     * @param evaluator The evaluator to split the inputs between threads with, or null to run them on the main thread.
+     * @param inputs The held-out inputs to evaluate (the validation set after each epoch, or the testing set once at the end).
+     * @return The confusion matrix produced over this epoch.
      */
-    private static double[] getSignVector(int signLabel) {
-        double[] signVector = new double[OUTPUT_LAYER_SIZE];
-        for(int i = 0; i < OUTPUT_LAYER_SIZE; ++i) {
-            signVector[i] = 0;
+    private static ConfusionMatrix executeTestingEpoch(Network network, Evaluator evaluator, Input[] inputs) {
+        if(evaluator != null) { // Evaluation only reads the weights, so it can run on a snapshot of them.
+            return evaluator.evaluate(network.createPredictor(), inputs);
         }
-        signVector[signLabel] = 1;
-        return signVector;
-    }
-
-    /**
-     * Performs a dot product over 2 "vectors".
-     * @param vector1 The first vector.
-     * @param vector2 The second vector.
-     * @return The dot product result.
-     */
-    private static double dotProduct(double[] vector1, double[] vector2) {
-        double sum = 0;
-        for(int i = 0; i < vector1.length && i < vector1.length; ++i) {
-            sum += vector1[i] * vector2[i];
+        long startTime = Telemetry.start();
+        ConfusionMatrix matrix = new ConfusionMatrix(OUTPUT_LAYER_SIZE);
+        for(Input input : inputs) {
+            double[] result = network.executeForwardPropagation(input);
+            int predictedLabel = OutputDecoder.argmax(result);
+            int actualLabel = input.label;
+            matrix.add(predictedLabel, actualLabel);
+            Telemetry.recordTestingLoss(result, actualLabel);
         }
-        return sum;
+        Telemetry.stop(Telemetry.Stage.EVALUATION, startTime);
+        return matrix;
     }
 }
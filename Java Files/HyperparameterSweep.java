@@ -0,0 +1,573 @@
+import java.io.*;
+import java.math.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Responsible for training many networks with different hyperparameters at once and ranking them.
+ * The training and validation sets are loaded once and shared by every trial (they are only read),
+ * and the CNNs that use the same filters share one feature cache, so each convolution output is
+ * calculated once for the whole sweep instead of once per trial.
+ *
+ * Trials run on a work-stealing ForkJoinPool: each trial trains on one worker, and splits the
+ * evaluation of every epoch into small tasks that idle workers steal (i.e., towards the end of a
+ * sweep, when fewer trials than workers are left). The scheduling is resource-aware: a trial only
+ * starts once its estimated memory fits in what the heap has left, and the most expensive trials
+ * start first, so the sweep does not end with one long trial running alone.
+ * A trial is cancelled once it is clearly losing: from the grace epoch on, when its best validation
+ * accuracy is below the median of what the other trials had reached after the same number of epochs
+ * (the median stopping rule). Each trial's learning rate schedule and early stopping come from its
+ * own TrainingController.
+ */
+public class HyperparameterSweep {
+
+    // Number of validation inputs a single evaluation task classifies before it stops splitting.
+    private static final int EVALUATION_CHUNK_SIZE = 512;
+    // Share of the heap that is free when the sweep starts that the trials and feature caches may take up.
+    private static final double HEAP_SHARE = 0.75;
+    // Least number of other trials an epoch's median is taken over before a trial can be cancelled.
+    private static final int MINIMUM_PEER_AMOUNT = 3;
+
+    /**
+     * How a trial ended.
+     */
+    public enum Status {
+        COMPLETED,     // Trained every epoch.
+        STOPPED_EARLY, // Its TrainingController stopped it once its accuracy stopped improving.
+        CANCELLED,     // Below the median of the other trials (see the class comment).
+        FAILED         // Threw an exception (see Result.getMessage).
+    }
+
+    /**
+     * The outcome of one trial.
+     */
+    public static class Result {
+
+        private final Hyperparameters hyperparameters;
+        private final Status status;
+        private final double bestAccuracy;
+        private final int bestEpoch, epochAmount;
+        private final double seconds;
+        private final String message;
+
+        Result(Hyperparameters newHyperparameters, Status newStatus, double newBestAccuracy, int newBestEpoch, int newEpochAmount,
+               double newSeconds, String newMessage) {
+            hyperparameters = newHyperparameters;
+            status = newStatus;
+            bestAccuracy = newBestAccuracy;
+            bestEpoch = newBestEpoch;
+            epochAmount = newEpochAmount;
+            seconds = newSeconds;
+            message = newMessage;
+        }
+
+        public Hyperparameters getHyperparameters() {
+            return hyperparameters;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        // Return the best validation accuracy of any epoch (0 if the trial failed before one).
+        public double getBestAccuracy() {
+            return bestAccuracy;
+        }
+
+        // Return the epoch of the best validation accuracy.
+        public int getBestEpoch() {
+            return bestEpoch;
+        }
+
+        // Return the number of epochs trained.
+        public int getEpochAmount() {
+            return epochAmount;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+        // Return why the trial failed (null unless it did).
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * The values each hyperparameter is swept over. The grid is every combination of them, and a
+     * random sample picks the values of each trial at random (the learning rate anywhere between the
+     * smallest and largest value, evenly on a log scale).
+     */
+    public static class Space {
+
+        private final Hyperparameters.NetworkType[] networkTypes;
+        private final int[][] hiddenLayerSizes;
+        private final double[] learningRates;
+        private final int[][] filterSubsets;
+        private final int[] filterApplicationAmounts;
+        private final MLPConfiguration baseConfiguration;
+
+        /**
+         * Creates a new <code>Space</code>.
+         *
+         * @param newNetworkTypes
+         *     Types of network to train.
+         * @param newHiddenLayerSizes
+         *     Hidden layer sizes of the perceptron to try (each row is the sizes of one perceptron).
+         * @param newLearningRates
+         *     Learning rates to try.
+         * @param newFilterSubsets
+         *     Subsets of the filter set a CNN can use (each row is the indices of one subset).
+         * @param newFilterApplicationAmounts
+         *     Numbers of times a CNN's filters can be applied.
+         * @param newBaseConfiguration
+         *     Configuration of every perceptron apart from its hidden layer sizes and learning rate.
+         */
+        public Space(Hyperparameters.NetworkType[] newNetworkTypes, int[][] newHiddenLayerSizes, double[] newLearningRates,
+                     int[][] newFilterSubsets, int[] newFilterApplicationAmounts, MLPConfiguration newBaseConfiguration) {
+            if(newNetworkTypes.length == 0 || newHiddenLayerSizes.length == 0 || newLearningRates.length == 0
+               || newFilterSubsets.length == 0 || newFilterApplicationAmounts.length == 0) {
+                throw new IllegalArgumentException("Every hyperparameter needs at least 1 value to sweep over.");
+            }
+            networkTypes = newNetworkTypes.clone();
+            hiddenLayerSizes = newHiddenLayerSizes.clone();
+            learningRates = newLearningRates.clone();
+            filterSubsets = newFilterSubsets.clone();
+            filterApplicationAmounts = newFilterApplicationAmounts.clone();
+            baseConfiguration = newBaseConfiguration;
+        }
+
+        // Return every combination of the values (an MLP has no filters, so it is only combined with the rest).
+        public List<Hyperparameters> grid() {
+            Set<Hyperparameters> trials = new LinkedHashSet<>();
+            for(Hyperparameters.NetworkType networkType : networkTypes) {
+                for(int[] sizes : hiddenLayerSizes) {
+                    for(double learningRate : learningRates) {
+                        for(int[] filterIndices : filterSubsets) {
+                            for(int applicationAmount : filterApplicationAmounts) {
+                                trials.add(createHyperparameters(networkType, sizes, learningRate, filterIndices, applicationAmount));
+                            }
+                        }
+                    }
+                }
+            }
+            return new ArrayList<>(trials);
+        }
+
+        /**
+         * Returns distinct random combinations of the values.
+         *
+         * @param amount
+         *     Number of combinations (fewer if the values do not allow that many distinct ones).
+         * @param seed
+         *     Seed of the random numbers, so a sweep can be repeated.
+         */
+        public List<Hyperparameters> sample(int amount, long seed) {
+            Random random = new Random(seed);
+            double minimumLearningRate = Arrays.stream(learningRates).min().getAsDouble();
+            double maximumLearningRate = Arrays.stream(learningRates).max().getAsDouble();
+            Set<Hyperparameters> trials = new LinkedHashSet<>();
+            for(int attempt = 0; trials.size() < amount && attempt < amount * 20; ++attempt) {
+                double learningRate = minimumLearningRate * Math.pow(maximumLearningRate / minimumLearningRate, random.nextDouble());
+                learningRate = new BigDecimal(learningRate).round(new MathContext(3)).doubleValue(); // Readable in the results table.
+                trials.add(createHyperparameters(networkTypes[random.nextInt(networkTypes.length)], hiddenLayerSizes[random.nextInt(hiddenLayerSizes.length)],
+                                                 learningRate, filterSubsets[random.nextInt(filterSubsets.length)],
+                                                 filterApplicationAmounts[random.nextInt(filterApplicationAmounts.length)]));
+            }
+            return new ArrayList<>(trials);
+        }
+
+        private Hyperparameters createHyperparameters(Hyperparameters.NetworkType networkType, int[] sizes, double learningRate,
+                                                      int[] filterIndices, int applicationAmount) {
+            MLPConfiguration configuration = baseConfiguration.withHiddenLayerSizes(sizes).withLearningRate(learningRate);
+            return (networkType == Hyperparameters.NetworkType.MLP ? new Hyperparameters(configuration)
+                                                                  : new Hyperparameters(configuration, filterIndices, applicationAmount));
+        }
+    }
+
+    private final Input[] trainingSet, validationSet;
+    private final int inputLayerSize, outputLayerSize;
+    private final Filter[] filterSet;
+    private final int epochAmount;
+    // Makes the TrainingController of a trial from its network and learning rate.
+    private final BiFunction<Network, Double, TrainingController> controllerFactory;
+    private final int workerAmount, graceEpochAmount;
+    private final long featureCacheBytes;
+    private final OneHotTargets targets;
+
+    // The best validation accuracy of every trial after each number of epochs (for the median stopping rule).
+    private final Map<Integer, List<Double>> epochAccuracies;
+    // Memory reserved by the running trials, and the number of running trials (guarded by this).
+    private long reservedBytes;
+    private int runningAmount;
+
+    /**
+     * Creates a new <code>HyperparameterSweep</code>.
+     *
+     * @param newTrainingSet
+     *     Inputs every trial trains on (only read).
+     * @param newValidationSet
+     *     Inputs every trial is ranked on (only read).
+     * @param newOutputLayerSize
+     *     Number of classes.
+     * @param newFilterSet
+     *     Filters the filter subsets of the CNN trials index into.
+     * @param newEpochAmount
+     *     Most epochs a trial trains for.
+     * @param newControllerFactory
+     *     Function that makes the TrainingController of a trial from its network and learning rate.
+     * @param newWorkerAmount
+     *     Number of trials that run at once (the threads of the work-stealing pool).
+     * @param newGraceEpochAmount
+     *     Number of epochs every trial trains before it can be cancelled.
+     * @param newFeatureCacheBytes
+     *     Number of bytes the feature caches shared by the CNN trials may take up altogether.
+     */
+    public HyperparameterSweep(Input[] newTrainingSet, Input[] newValidationSet, int newOutputLayerSize, Filter[] newFilterSet, int newEpochAmount,
+                               BiFunction<Network, Double, TrainingController> newControllerFactory, int newWorkerAmount, int newGraceEpochAmount,
+                               long newFeatureCacheBytes) {
+        if(newTrainingSet.length == 0 || newValidationSet.length == 0) {
+            throw new IllegalArgumentException("A sweep needs training and validation inputs.");
+        }
+        if(newEpochAmount < 1 || newWorkerAmount < 1 || newGraceEpochAmount < 1) {
+            throw new IllegalArgumentException("A sweep needs at least 1 epoch, worker and grace epoch, but was given "
+                                               + newEpochAmount + ", " + newWorkerAmount + " and " + newGraceEpochAmount);
+        }
+        trainingSet = newTrainingSet;
+        validationSet = newValidationSet;
+        inputLayerSize = newTrainingSet[0].getSize();
+        outputLayerSize = newOutputLayerSize;
+        filterSet = newFilterSet;
+        epochAmount = newEpochAmount;
+        controllerFactory = newControllerFactory;
+        workerAmount = newWorkerAmount;
+        graceEpochAmount = newGraceEpochAmount;
+        featureCacheBytes = newFeatureCacheBytes;
+        targets = new OneHotTargets(newOutputLayerSize);
+        epochAccuracies = new HashMap<>();
+    }
+
+    /**
+     * Trains every trial (duplicates once) and waits until all of them have finished.
+     *
+     * @param trials
+     *     Hyperparameters of the trials (i.e., from Space.grid or Space.sample).
+     * @param progress
+     *     Called with each result as its trial finishes (from the worker thread that ran it), or null.
+     * @return The results, ranked from the best validation accuracy down (failed trials last).
+     */
+    public List<Result> run(List<Hyperparameters> trials, Consumer<Result> progress) {
+        List<Hyperparameters> distinctTrials = new ArrayList<>(new LinkedHashSet<>(trials));
+        Map<String, FeatureCache> featureCaches = createFeatureCaches(distinctTrials);
+        long cacheBytes = 0;
+        for(String convolutionKey : featureCaches.keySet()) {
+            cacheBytes += getFeatureCacheBytes(featureCaches.size(), getFeatureSize(distinctTrials, convolutionKey));
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long freeBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long memoryBudget = Math.max(0, (long)(freeBytes * HEAP_SHARE) - cacheBytes); // The caches fill up as the trials run.
+        // Longest trials first, so the shorter ones fill in around them at the end.
+        Map<Hyperparameters, Long> costs = new HashMap<>();
+        for(Hyperparameters trial : distinctTrials) {
+            costs.put(trial, getCost(trial));
+        }
+        distinctTrials.sort((first, second) -> Long.compare(costs.get(second), costs.get(first)));
+
+        int parallelism = Math.max(1, Math.min(workerAmount, distinctTrials.size()));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<Result> results = Collections.synchronizedList(new ArrayList<>());
+        try {
+            for(Hyperparameters trial : distinctTrials) {
+                long trialBytes = getMemoryBytes(trial);
+                reserve(trialBytes, parallelism, memoryBudget);
+                pool.execute(() -> {
+                    try {
+                        Result result = runTrial(trial, featureCaches.get(trial.getConvolutionKey()));
+                        results.add(result);
+                        if(progress != null) {
+                            progress.accept(result);
+                        }
+                    } finally {
+                        release(trialBytes);
+                    }
+                });
+            }
+            awaitTrials();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running a sweep.", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        List<Result> rankedResults = new ArrayList<>(results);
+        rankedResults.sort(Comparator.comparing((Result result) -> result.getStatus() == Status.FAILED)
+                                     .thenComparing(Comparator.comparingDouble(Result::getBestAccuracy).reversed())
+                                     .thenComparingDouble(Result::getSeconds));
+        return rankedResults;
+    }
+
+    // Create one feature cache for every distinct convolution layer of the CNN trials, to be shared by all of them.
+    private Map<String, FeatureCache> createFeatureCaches(List<Hyperparameters> trials) {
+        Map<String, FeatureCache> featureCaches = new HashMap<>();
+        for(Hyperparameters trial : trials) {
+            if(trial.getConvolutionKey() != null) {
+                featureCaches.put(trial.getConvolutionKey(), null);
+            }
+        }
+        for(String convolutionKey : featureCaches.keySet()) {
+            featureCaches.put(convolutionKey, new FeatureCache(getFeatureCacheBytes(featureCaches.size(), getFeatureSize(trials, convolutionKey)), false));
+        }
+        return featureCaches;
+    }
+
+    // Return the bytes of a feature cache: enough for every input, but at most an even share of the feature cache bytes.
+    private long getFeatureCacheBytes(int cacheAmount, int featureSize) {
+        return Math.min(featureCacheBytes / cacheAmount, (long)featureSize * Double.BYTES * (trainingSet.length + validationSet.length));
+    }
+
+    // Return the convolution layer output size of the trials with a convolution key.
+    private int getFeatureSize(List<Hyperparameters> trials, String convolutionKey) {
+        for(Hyperparameters trial : trials) {
+            if(convolutionKey.equals(trial.getConvolutionKey())) {
+                return getInputSize(trial);
+            }
+        }
+        throw new IllegalArgumentException("No trial has the convolution layer " + convolutionKey);
+    }
+
+    // Return the number of values that enter a trial's perceptron.
+    private int getInputSize(Hyperparameters trial) {
+        return (trial.getNetworkType() == Hyperparameters.NetworkType.MLP ? inputLayerSize : createCNN(trial, null).getFilterSetOutputSize());
+    }
+
+    // Return the number of weights of a trial's perceptron.
+    private long getWeightAmount(Hyperparameters trial) {
+        long weightAmount = 0;
+        int layerSize = getInputSize(trial);
+        for(int hiddenLayerSize : trial.getPerceptronConfiguration().getHiddenLayerSizes()) {
+            weightAmount += (long)(layerSize + 1) * hiddenLayerSize;
+            layerSize = hiddenLayerSize;
+        }
+        return weightAmount + (long)(layerSize + 1) * outputLayerSize;
+    }
+
+    /**
+     * Estimates the work of a trial per training input: every perceptron weight is used about three
+     * times (forward, backward and update), and a CNN's convolution runs once per input over the sweep
+     * (once its output is cached), which is spread over the epochs.
+     */
+    private long getCost(Hyperparameters trial) {
+        long convolutionCost = (trial.getNetworkType() == Hyperparameters.NetworkType.MLP ? 0
+                                : (long)trial.getFilterIndices().length * inputLayerSize * trial.getFilterApplicationAmount() * 9 / epochAmount);
+        return 3 * getWeightAmount(trial) + convolutionCost;
+    }
+
+    /**
+     * Estimates the memory a running trial takes up: its weights and momentum terms, the copies of them its
+     * TrainingController keeps (the best epoch and the epoch being evaluated), and the predictor made for
+     * each evaluation. The shared feature caches are budgeted separately.
+     */
+    private long getMemoryBytes(Hyperparameters trial) {
+        return 6 * getWeightAmount(trial) * Double.BYTES;
+    }
+
+    // Wait until a trial fits: fewer trials than workers run and its memory fits in the budget (or nothing else runs).
+    private synchronized void reserve(long bytes, int parallelism, long memoryBudget) throws InterruptedException {
+        while(runningAmount >= parallelism || (runningAmount > 0 && reservedBytes + bytes > memoryBudget)) {
+            wait();
+        }
+        reservedBytes += bytes;
+        ++runningAmount;
+    }
+
+    private synchronized void release(long bytes) {
+        reservedBytes -= bytes;
+        --runningAmount;
+        notifyAll();
+    }
+
+    private synchronized void awaitTrials() throws InterruptedException {
+        while(runningAmount > 0) {
+            wait();
+        }
+    }
+
+    // Create the network of a trial (a CNN's filter set is the trial's subset of the sweep's filters).
+    private Network createNetwork(Hyperparameters trial, FeatureCache featureCache) {
+        if(trial.getNetworkType() == Hyperparameters.NetworkType.MLP) {
+            return new MLP(inputLayerSize, outputLayerSize, trial.getPerceptronConfiguration());
+        }
+        return createCNN(trial, featureCache);
+    }
+
+    private CNN createCNN(Hyperparameters trial, FeatureCache featureCache) {
+        int[] filterIndices = trial.getFilterIndices();
+        Filter[] trialFilterSet = new Filter[filterIndices.length];
+        for(int i = 0; i < filterIndices.length; ++i) {
+            trialFilterSet[i] = filterSet[filterIndices[i]];
+        }
+        MLPConfiguration configuration = trial.getPerceptronConfiguration();
+        CNN cnn = (featureCache == null ? new CNN(inputLayerSize, configuration.getHiddenLayerSizes()[0], outputLayerSize, trialFilterSet, trial.getFilterApplicationAmount())
+                                        : new CNN(inputLayerSize, configuration.getHiddenLayerSizes()[0], outputLayerSize, trialFilterSet, trial.getFilterApplicationAmount(),
+                                                  featureCache));
+        cnn.setPerceptronConfiguration(configuration);
+        return cnn;
+    }
+
+    /**
+     * Trains a single trial on the calling worker thread until it has trained every epoch, its
+     * TrainingController stops it, or it is cancelled.
+     *
+     * @param trial
+     *     Hyperparameters of the trial.
+     * @param featureCache
+     *     Feature cache shared by the CNN trials with the same convolution layer (null for an MLP).
+     */
+    private Result runTrial(Hyperparameters trial, FeatureCache featureCache) {
+        long startTime = System.nanoTime();
+        int epoch = 0;
+        TrainingController controller = null;
+        try {
+            Network network = createNetwork(trial, featureCache);
+            if(network instanceof CNN) { // The perceptron of a filter set is made by its first forward pass.
+                CNN cnn = (CNN)network;
+                cnn.getPerceptron(cnn.getFilterSetOutputSize());
+            }
+            controller = controllerFactory.apply(network, trial.getPerceptronConfiguration().getLearningRate());
+            Status status = Status.COMPLETED;
+            while(epoch < epochAmount) {
+                controller.startEpoch(epoch);
+                for(Input input : trainingSet) {
+                    network.executeForwardPropagation(input);
+                    network.executeBackPropagation(targets.get(input.label));
+                }
+                ++epoch;
+                controller.finishEpochTraining(epoch);
+                Predictor predictor = network.createPredictor();
+                controller.recordAccuracy(epoch, ForkJoinTask.inForkJoinPool() ? new EvaluationTask(predictor, 0, validationSet.length).invoke()
+                                                                                : new EvaluationTask(predictor, 0, validationSet.length).compute());
+                if(isLosing(epoch, controller.getBestAccuracy())) {
+                    status = Status.CANCELLED;
+                    break;
+                }
+                if(controller.isStopped()) {
+                    status = Status.STOPPED_EARLY;
+                    break;
+                }
+            }
+            return new Result(trial, status, controller.getBestAccuracy(), controller.getBestEpoch(), epoch, getSeconds(startTime), null);
+        } catch(RuntimeException | OutOfMemoryError e) { // One failed trial does not end the sweep.
+            return new Result(trial, Status.FAILED, (controller == null || controller.getBestEpoch() < 0 ? 0 : controller.getBestAccuracy()),
+                              (controller == null ? -1 : controller.getBestEpoch()), epoch, getSeconds(startTime), e.toString());
+        }
+    }
+
+    /**
+     * Records the best accuracy of a trial after a number of epochs, and returns whether it is below the
+     * median of the other trials after as many epochs (from the grace epoch on, once enough have got that far).
+     *
+     * @param epoch
+     *     Number of epochs the trial has trained.
+     * @param bestAccuracy
+     *     The trial's best validation accuracy so far.
+     */
+    private boolean isLosing(int epoch, double bestAccuracy) {
+        List<Double> otherAccuracies;
+        synchronized(epochAccuracies) {
+            List<Double> accuracies = epochAccuracies.computeIfAbsent(epoch, newEpoch -> new ArrayList<>());
+            otherAccuracies = new ArrayList<>(accuracies);
+            accuracies.add(bestAccuracy);
+        }
+        if(epoch < graceEpochAmount || otherAccuracies.size() < MINIMUM_PEER_AMOUNT) {
+            return false;
+        }
+        Collections.sort(otherAccuracies);
+        int middle = otherAccuracies.size() / 2;
+        double median = (otherAccuracies.size() % 2 == 1 ? otherAccuracies.get(middle) : (otherAccuracies.get(middle - 1) + otherAccuracies.get(middle)) / 2);
+        return bestAccuracy < median;
+    }
+
+    private static double getSeconds(long startTime) {
+        return (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /**
+     * Classifies a range of the validation set, splitting it in halves until a half is small enough, so
+     * idle workers of the pool can steal the halves.
+     */
+    private class EvaluationTask extends RecursiveTask<ConfusionMatrix> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Predictor predictor;
+        private final int start, end;
+
+        EvaluationTask(Predictor newPredictor, int newStart, int newEnd) {
+            predictor = newPredictor;
+            start = newStart;
+            end = newEnd;
+        }
+
+        @Override
+        protected ConfusionMatrix compute() {
+            if(end - start <= EVALUATION_CHUNK_SIZE) {
+                ConfusionMatrix matrix = new ConfusionMatrix(outputLayerSize);
+                for(int i = start; i < end; ++i) {
+                    matrix.add(OutputDecoder.argmax(predictor.predict(validationSet[i])), validationSet[i].label);
+                }
+                return matrix;
+            }
+            int middle = (start + end) >>> 1;
+            EvaluationTask secondHalf = new EvaluationTask(predictor, middle, end);
+            secondHalf.fork();
+            ConfusionMatrix matrix = new EvaluationTask(predictor, start, middle).compute();
+            matrix.addConfusionMatrix(secondHalf.join());
+            return matrix;
+        }
+    }
+
+    /**
+     * Formats results as a table, one trial per line from the best down.
+     *
+     * @param results
+     *     Ranked results (see run).
+     */
+    public static String formatResults(List<Result> results) {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-5s %-9s %-5s %-6s %-13s %-8s %s%n", "Rank", "Accuracy", "Best", "Epochs", "Status", "Seconds", "Hyperparameters"));
+        for(int i = 0; i < results.size(); ++i) {
+            Result result = results.get(i);
+            table.append(String.format("%-5d %-9.5f %-5d %-6d %-13s %-8.1f %s%s%n", i + 1, result.getBestAccuracy(), result.getBestEpoch(),
+                                       result.getEpochAmount(), result.getStatus(), result.getSeconds(), result.getHyperparameters(),
+                                       (result.getMessage() == null ? "" : " (" + result.getMessage() + ")")));
+        }
+        return table.toString();
+    }
+
+    /**
+     * Writes the results table (see formatResults) to a file.
+     *
+     * @param resultsFilePath
+     *     The string path name of the results file (missing folders are created).
+     * @param results
+     *     Ranked results (see run).
+     * @return Whether the file was written.
+     */
+    public static boolean writeResults(String resultsFilePath, List<Result> results) {
+        Path resultsPath = Paths.get(resultsFilePath);
+        try {
+            if(resultsPath.getParent() != null) {
+                Files.createDirectories(resultsPath.getParent());
+            }
+            Files.write(resultsPath, formatResults(results).getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch(IOException e) {
+            System.err.println("Error with writing " + resultsPath + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.*;
+
+/**
+ * Responsible for one point of a hyperparameter sweep: the type of network, the configuration of its
+ * perceptron (hidden layer sizes, activations, learning rate and momentum), and for a CNN, which filters
+ * of the filter set it uses and how many times they are applied. Immutable, so a sweep can share it
+ * between threads (see HyperparameterSweep).
+ */
+public final class Hyperparameters {
+
+    /**
+     * The type of network a sweep trains.
+     */
+    public enum NetworkType {
+        MLP,
+        CNN
+    }
+
+    private final NetworkType networkType;
+    private final MLPConfiguration perceptronConfiguration;
+    private final int[] filterIndices; // Indices into the sweep's filter set (empty for an MLP).
+    private final int filterApplicationAmount; // 0 for an MLP.
+
+    /**
+     * Creates the hyperparameters of an MLP.
+     *
+     * @param newPerceptronConfiguration
+     *     Hidden layer sizes, activations and hyperparameters of the MLP.
+     */
+    public Hyperparameters(MLPConfiguration newPerceptronConfiguration) {
+        this(NetworkType.MLP, newPerceptronConfiguration, new int[0], 0);
+    }
+
+    /**
+     * Creates the hyperparameters of a CNN with a fixed filter set.
+     *
+     * @param newPerceptronConfiguration
+     *     Hidden layer sizes, activations and hyperparameters of the CNN's perceptron (at least one hidden layer).
+     * @param newFilterIndices
+     *     Indices of the filters of the sweep's filter set that the CNN uses.
+     * @param newFilterApplicationAmount
+     *     Number of times each filter is applied.
+     */
+    public Hyperparameters(MLPConfiguration newPerceptronConfiguration, int[] newFilterIndices, int newFilterApplicationAmount) {
+        this(NetworkType.CNN, newPerceptronConfiguration, newFilterIndices, newFilterApplicationAmount);
+    }
+
+    private Hyperparameters(NetworkType newNetworkType, MLPConfiguration newPerceptronConfiguration, int[] newFilterIndices, int newFilterApplicationAmount) {
+        if(newNetworkType == NetworkType.CNN) {
+            if(newFilterIndices.length == 0 || newFilterApplicationAmount < 1) {
+                throw new IllegalArgumentException("A CNN needs at least 1 filter applied at least once, but has " + newFilterIndices.length
+                                                   + " filters applied " + newFilterApplicationAmount + " times");
+            }
+            if(newPerceptronConfiguration.getHiddenLayerSizes().length == 0) {
+                throw new IllegalArgumentException("The perceptron of a CNN needs at least 1 hidden layer.");
+            }
+        }
+        networkType = newNetworkType;
+        perceptronConfiguration = newPerceptronConfiguration;
+        filterIndices = newFilterIndices.clone();
+        filterApplicationAmount = newFilterApplicationAmount;
+    }
+
+    public NetworkType getNetworkType() {
+        return networkType;
+    }
+
+    public MLPConfiguration getPerceptronConfiguration() {
+        return perceptronConfiguration;
+    }
+
+    // Return the indices of the filters of the sweep's filter set that the CNN uses (empty for an MLP).
+    public int[] getFilterIndices() {
+        return filterIndices.clone();
+    }
+
+    // Return the number of times each filter is applied (0 for an MLP).
+    public int getFilterApplicationAmount() {
+        return filterApplicationAmount;
+    }
+
+    /**
+     * Returns a key that is the same for every CNN whose convolution layer gives the same output
+     * (the same filters applied the same number of times), so they can share a feature cache.
+     * Returns null for an MLP, which has no convolution layer.
+     */
+    String getConvolutionKey() {
+        return (networkType == NetworkType.MLP ? null : Arrays.toString(filterIndices) + "x" + filterApplicationAmount);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(!(other instanceof Hyperparameters)) {
+            return false;
+        }
+        Hyperparameters hyperparameters = (Hyperparameters)other;
+        return toString().equals(hyperparameters.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    // Return a short description (i.e., for the results table).
+    @Override
+    public String toString() {
+        return networkType + " " + perceptronConfiguration
+               + (networkType == NetworkType.CNN ? ", filters " + Arrays.toString(filterIndices) + " applied " + filterApplicationAmount + "x" : "");
+    }
+}
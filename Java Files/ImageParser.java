@@ -1,13 +1,21 @@
 import java.io.*;
 import java.util.*;
-import java.awt.Color;
-import java.awt.image.BufferedImage;
+import java.awt.image.*;
 import javax.imageio.ImageIO;
 
 /**
  * Responsible for parsing in data from the archive/signs file.
  */
 public class ImageParser {
+
+    // Each image is shrunk by averaging DOWNSIZE_FACTOR x DOWNSIZE_FACTOR pixel segments (256 x 256 -> 32 x 32).
+    static final int DOWNSIZE_FACTOR = 8;
+    // Every downsized pixel is a multiple of 1 / PIXEL_LEVEL_AMOUNT (an average of 0-1 pixels), so it fits in a byte.
+    static final int PIXEL_LEVEL_AMOUNT = DOWNSIZE_FACTOR * DOWNSIZE_FACTOR;
+    static final int SIGN_AMOUNT = 26;
+
+    // The gray lookup table of the last color model seen (every archive .jpg decodes with the same one).
+    private volatile GrayLookup lastGrayLookup;
     
     public ImageParser() {}
 
@@ -21,86 +29,223 @@ public class ImageParser {
      */
     public Input[] parseImages(String imagesFolderPath) {
         List<Input> inputList = new ArrayList<>();
-        for(int signValue = 0; signValue < 26; ++signValue) {
+        for(int signValue = 0; signValue < SIGN_AMOUNT; ++signValue) {
             File folder = new File(imagesFolderPath + "/" + signValue);
             for(File currentFile : folder.listFiles()) {
-                double[] imageData = getArrayFromMatrix(downsizeImage(parseImageFromFile(currentFile), 8));
-                inputList.add(new Input(imageData, signValue));
+                double[] imageData = parseDownsizedImageFromFile(currentFile);
+                if(imageData != null) {
+                    inputList.add(new Input(imageData, signValue));
+                }
             }
         }
         return inputList.toArray(new Input[inputList.size()]);
     }
 
     /**
-     * Generates a matrix of the .jpg in a file.
+     * Parses every image in the folder on several threads at once (through an <code>ImagePipeline</code>).
+     * The inputs are returned in the order they finished, not grouped by sign.
+     *
+     * @param imagesFolderPath
+     *     The containing folder string path name to be read from.
+     * @param workerAmount
+     *     Number of threads for each of the decoding and converting stages.
+     */
+    public Input[] parseImages(String imagesFolderPath, int workerAmount) {
+        List<Input> inputList = new ArrayList<>();
+        try(ImagePipeline pipeline = streamImages(imagesFolderPath, workerAmount)) {
+            pipeline.forEachRemaining(inputList::add);
+        }
+        return inputList.toArray(new Input[inputList.size()]);
+    }
+
+    /**
+     * Loads every image in the folder from a binary dataset cache file, or parses the images and
+     * creates the cache file if it is missing or the images have changed since it was made.
+     *
+     * @param imagesFolderPath
+     *     The containing folder string path name to be read from.
+     * @param workerAmount
+     *     Number of threads for each stage of parsing (1 parses the images on the calling thread).
+     * @param cacheFilePath
+     *     The string path name of the dataset cache file.
+     */
+    public Input[] loadImages(String imagesFolderPath, int workerAmount, String cacheFilePath) {
+        DatasetCache cache = new DatasetCache(cacheFilePath);
+        Input[] inputs = cache.load(imagesFolderPath);
+        if(inputs == null) {
+            inputs = (workerAmount > 1 ? parseImages(imagesFolderPath, workerAmount) : parseImages(imagesFolderPath));
+            cache.save(imagesFolderPath, inputs);
+        }
+        return inputs;
+    }
+
+    /**
+     * Starts parsing every image in the folder in the background and returns the inputs as they
+     * become ready, so that they can be used before the last image has been decoded.
+     *
+     * @param imagesFolderPath
+     *     The containing folder string path name to be read from.
+     * @param workerAmount
+     *     Number of threads for each of the decoding and converting stages.
+     */
+    public ImagePipeline streamImages(String imagesFolderPath, int workerAmount) {
+        return new ImagePipeline(this, imagesFolderPath, workerAmount);
+    }
+
+    /**
+     * Generates the downsized 1-D pixel array of the .jpg in a file.
      * @param file The file object of the .jpg.
-     * @return The matrix of the pixel values.
+     * @return The downsized pixel values, or null if the file could not be read.
      */
-    private double[][] parseImageFromFile(File file) {
-        double[][] imagePixels;
+    double[] parseDownsizedImageFromFile(File file) {
+        long startTime = Telemetry.start();
         try {
             BufferedImage image = ImageIO.read(file);
-            imagePixels = new double[image.getHeight()][image.getWidth()];
-            for(int rowIndex = 0; rowIndex < image.getHeight(); ++rowIndex) {
-                for(int columnIndex = 0; columnIndex < image.getWidth(); ++columnIndex) {
-                    imagePixels[rowIndex][columnIndex] = getPixelValue(image, rowIndex, columnIndex);
-                }
+            if(image != null) {
+                return getDownsizedImageArray(image, DOWNSIZE_FACTOR);
             }
-        } catch(Exception e) {
+            System.err.println("Error with reading " + file.getName() + ": unsupported image format");
+        } catch(IOException e) {
             System.err.println("Error with reading " + file.getName() + ": " + e.getMessage());
-            imagePixels = null;
+        } finally {
+            Telemetry.stop(Telemetry.Stage.DECODE, startTime);
         }
-        return imagePixels;
+        return null;
     }
 
     /**
-     * Calculates a scaled value of a pixel from an image.
+     * Generates the downsized 1-D pixel array of a decoded image in a single pass over its rows.
+     * The pixel values are read a whole row at a time, and summed into integer segment totals
+     * as they are read, so the full-size image matrix is never built. The values are exactly
+     * the same as reading every pixel through getRGB and averaging each segment (which the
+     * ImageParsingBenchmark in the benchmarks module checks before it runs).
      * @param image An image object.
-     * @param rowIndex The row index of the pixel.
-     * @param columnIndex The column index of the pixel.
-     * @return The value of the pixel scaled between 0-255;
+     * @param downsizeFactor The width/height of each averaged segment.
+     * @return The downsized pixel values in row-major order.
      */
-    private double getPixelValue(BufferedImage image, int rowIndex, int columnIndex) {
-        Color color = new Color(image.getRGB(columnIndex, rowIndex));
-        // The maximum value of each of the 3 RGB colors is 255.
-        // To scale the pixel between 0-255, the total RGB value must be divided by 255*3.
-        return (color.getRed() + color.getGreen() + color.getBlue()) / (255 * 3);
+    double[] getDownsizedImageArray(BufferedImage image, int downsizeFactor) {
+        int downsizedWidth = image.getWidth() / downsizeFactor;
+        int downsizedHeight = image.getHeight() / downsizeFactor;
+        int usedWidth = downsizedWidth * downsizeFactor;
+        int[] segmentSums = new int[downsizedWidth];
+        double[] downsizedImage = new double[downsizedWidth * downsizedHeight];
+        // Images stored as one byte per pixel (the archive .jpgs decode this way) are read straight from
+        // their data buffer, and any other image is read a row at a time through getRGB.
+        int[] grayLookup = getGrayLookup(image);
+        byte[] grayPixels = null;
+        int grayOffset = 0, grayRowStride = 0;
+        int[] rowRGB = null;
+        if(grayLookup != null) {
+            WritableRaster raster = image.getRaster();
+            ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+            DataBufferByte dataBuffer = (DataBufferByte)raster.getDataBuffer();
+            int bank = sampleModel.getBankIndices()[0];
+            grayPixels = dataBuffer.getData(bank);
+            grayOffset = dataBuffer.getOffsets()[bank] + sampleModel.getOffset(0, 0);
+            grayRowStride = sampleModel.getScanlineStride();
+        } else {
+            rowRGB = new int[usedWidth];
+        }
+        for(int rowIndex = 0; rowIndex < downsizedHeight * downsizeFactor; ++rowIndex) {
+            if(grayLookup != null) {
+                addGrayRow(grayPixels, grayOffset + rowIndex * grayRowStride, usedWidth, grayLookup, downsizeFactor, segmentSums);
+            } else {
+                image.getRGB(0, rowIndex, usedWidth, 1, rowRGB, 0, usedWidth);
+                for(int columnIndex = 0; columnIndex < usedWidth; ++columnIndex) {
+                    segmentSums[columnIndex / downsizeFactor] += getPixelValue(rowRGB[columnIndex]);
+                }
+            }
+            if((rowIndex + 1) % downsizeFactor == 0) {
+                int downsizedRow = (rowIndex / downsizeFactor) * downsizedWidth;
+                for(int columnIndex = 0; columnIndex < downsizedWidth; ++columnIndex) {
+                    downsizedImage[downsizedRow + columnIndex] = (double)segmentSums[columnIndex] / (downsizeFactor * downsizeFactor);
+                }
+                Arrays.fill(segmentSums, 0);
+            }
+        }
+        return downsizedImage;
     }
 
     /**
-     * Resizes a matrix by taking the average of DOWNSIZE_FACTOR by DOWNSIZE_FACTOR segments.
-     * @param imageMatrix The 2-D matrix to be downsized.
-     * @return The downsized 2-D matrix.
+     * Builds a table of the pixel value of every gray level, for an image whose pixels are stored as
+     * one byte each. The table is built from the image's own color model, so a gray level maps to
+     * exactly the value getRGB would give it.
+     * @param image An image object.
+     * @return The pixel value of each of the 256 gray levels, or null if the image is stored differently.
      */
-    public double[][] downsizeImage(double[][] imageMatrix, int downsizeFactor) {
-        double[][] downsizedImage = new double[imageMatrix.length / downsizeFactor][imageMatrix[0].length / downsizeFactor];
-        for(int rowIndex = 0; rowIndex < imageMatrix.length / downsizeFactor; ++rowIndex) {
-            for(int columnIndex = 0; columnIndex < imageMatrix[0].length / downsizeFactor; ++columnIndex) {
-                downsizedImage[rowIndex][columnIndex] = getAverageOfImageSegment(imageMatrix, rowIndex, columnIndex, downsizeFactor);
+    private int[] getGrayLookup(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if(raster.getNumBands() != 1 || raster.getParent() != null
+           || (raster.getDataBuffer() instanceof DataBufferByte) == false
+           || (raster.getSampleModel() instanceof ComponentSampleModel) == false
+           || ((ComponentSampleModel)raster.getSampleModel()).getPixelStride() != 1) {
+            return null;
+        }
+        ColorModel colorModel = image.getColorModel();
+        GrayLookup grayLookup = lastGrayLookup;
+        if(grayLookup == null || grayLookup.colorModel != colorModel) {
+            // Converting a gray level through a color model is slow, so the table is only built once per color model.
+            int[] pixelValues = new int[256];
+            for(int grayLevel = 0; grayLevel < pixelValues.length; ++grayLevel) {
+                pixelValues[grayLevel] = getPixelValue(colorModel.getRGB(grayLevel));
             }
+            grayLookup = new GrayLookup(colorModel, pixelValues);
+            lastGrayLookup = grayLookup;
         }
-        return downsizedImage;
+        return grayLookup.pixelValues;
     }
 
     /**
-     * Calculates the average of the items in a segment of a matrix.
-     * @param imageMatrix The 2-D image matrix.
-     * @param rowIndex 
-     * @param columnIndex
-     * @return
+     * Adds the pixel values of a row of one-byte gray levels to the segment totals of the row.
+     * @param pixels The gray levels of the image.
+     * @param rowOffset The index of the first pixel of the row.
+     * @param usedWidth The number of pixels of the row to add.
+     * @param grayLookup The pixel value of each gray level.
+     * @param downsizeFactor The width of each segment.
+     * @param segmentSums The running total of each segment of the row.
      */
-    private double getAverageOfImageSegment(double[][] imageMatrix, int rowIndex, int columnIndex, int downsizeFactor) {
-        rowIndex *= downsizeFactor;
-        columnIndex *= downsizeFactor;
-        double sum = 0;
-        for(int i = rowIndex; i < rowIndex + downsizeFactor; ++i) {
-            for(int j = columnIndex; j < columnIndex + downsizeFactor; ++j) {
-                sum += imageMatrix[i][j];
+    private void addGrayRow(byte[] pixels, int rowOffset, int usedWidth, int[] grayLookup, int downsizeFactor, int[] segmentSums) {
+        for(int segmentIndex = 0, columnIndex = 0; columnIndex < usedWidth; ++segmentIndex) {
+            int sum = 0;
+            for(int segmentEnd = columnIndex + downsizeFactor; columnIndex < segmentEnd; ++columnIndex) {
+                sum += grayLookup[pixels[rowOffset + columnIndex] & 0xFF];
             }
+            segmentSums[segmentIndex] += sum;
         }
-        return sum / (downsizeFactor * downsizeFactor);
     }
 
+    /**
+     * Calculates a scaled value of a pixel from its packed RGB value.
+     * @param rgb The pixel color, packed as 0xAARRGGBB.
+     * @return The value of the pixel scaled between 0-1 (integer division, so 0 unless the pixel is white).
+     */
+    private int getPixelValue(int rgb) {
+        // The maximum value of each of the 3 RGB colors is 255.
+        // To scale the pixel between 0-1, the total RGB value must be divided by 255*3.
+        return (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / (255 * 3);
+    }
+
+    /**
+     * Resizes a flat row-major matrix by taking the average of downsizeFactor by downsizeFactor segments.
+     * @param imageMatrix The matrix to be downsized.
+     * @param downsizeFactor The width/height of each averaged segment.
+     * @param downsizedImage The matrix the downsized image is written to.
+     */
+    public void downsizeImage(Tensor imageMatrix, int downsizeFactor, Tensor downsizedImage) {
+        double[] imageData = imageMatrix.data;
+        for(int rowIndex = 0; rowIndex < downsizedImage.rows; ++rowIndex) {
+            for(int columnIndex = 0; columnIndex < downsizedImage.columns; ++columnIndex) {
+                double sum = 0;
+                for(int i = rowIndex * downsizeFactor; i < (rowIndex + 1) * downsizeFactor; ++i) {
+                    int segmentOffset = imageMatrix.index(i, columnIndex * downsizeFactor);
+                    for(int j = 0; j < downsizeFactor; ++j) {
+                        sum += imageData[segmentOffset + j];
+                    }
+                }
+                downsizedImage.set(rowIndex, columnIndex, sum / (downsizeFactor * downsizeFactor));
+            }
+        }
+    }
 
     /* 
     * Pass in a 2-D image matrix and convert it to a 1-D array that has the squared value of
@@ -148,4 +293,16 @@ public class ImageParser {
             System.out.println();
         }
     }
+
+    // Pixel values of every gray level under a color model.
+    private static class GrayLookup {
+
+        final ColorModel colorModel;
+        final int[] pixelValues;
+
+        GrayLookup(ColorModel newColorModel, int[] newPixelValues) {
+            colorModel = newColorModel;
+            pixelValues = newPixelValues;
+        }
+    }
 }
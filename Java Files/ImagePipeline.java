@@ -0,0 +1,220 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+
+/**
+ * Responsible for parsing the images of the archive/signs folder on several threads and handing out
+ * each <code>Input</code> as soon as it is ready. The work is split into stages that are connected
+ * by bounded queues, so a fast stage waits for a slow one instead of filling up the memory:
+ *      - Listing: one thread walks the sign folders and queues every image file with its label.
+ *      - Decoding: worker threads read and decode the .jpg files.
+ *      - Converting: worker threads turn the decoded images into grayscale matrices, downsize
+ *        them and create the Inputs.
+ * The Inputs come out in the order they finished, not grouped by sign.
+ */
+public class ImagePipeline implements Iterator<Input>, AutoCloseable {
+
+    // Number of items each queue can hold before the stage feeding it has to wait.
+    private static final int QUEUE_CAPACITY = 256;
+
+    // A value and the sign label it belongs to, passed from one stage to the next.
+    private static class Item<T> {
+        final T value;
+        final int label;
+
+        Item(T newValue, int newLabel) {
+            value = newValue;
+            label = newLabel;
+        }
+    }
+
+    // Markers that tell a stage there is nothing more to take from its queue.
+    private static final Item<File> END_OF_FILES = new Item<>(null, -1);
+    private static final Item<BufferedImage> END_OF_IMAGES = new Item<>(null, -1);
+    private static final Input END_OF_INPUTS = new Input();
+
+    private final ImageParser parser;
+    private final List<Thread> threads;
+    private final BlockingQueue<Input> inputs;
+    private Input nextInput;
+    private boolean finished;
+
+    /**
+     * Creates a new <code>ImagePipeline</code> and starts parsing the images in the background.
+     *
+     * @param newParser
+     *     ImageParser used to convert and downsize the decoded images.
+     * @param imagesFolderPath
+     *     The containing folder string path name to be read from.
+     * @param workerAmount
+     *     Number of threads for each of the decoding and converting stages.
+     */
+    public ImagePipeline(ImageParser newParser, String imagesFolderPath, int workerAmount) {
+        parser = newParser;
+        threads = new ArrayList<>();
+        inputs = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        nextInput = null;
+        finished = false;
+        BlockingQueue<Item<File>> files = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Item<BufferedImage>> images = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        startThread("image-listing", () -> listFiles(imagesFolderPath, files, workerAmount));
+        startStage("image-decoding", workerAmount, files, END_OF_FILES, this::decodeImage, images, END_OF_IMAGES, workerAmount);
+        startStage("image-converting", workerAmount, images, END_OF_IMAGES, this::convertImage, inputs, END_OF_INPUTS, 1);
+    }
+
+    /**
+     * Queues every image file in the sign folders, then one end marker per decoding worker.
+     *
+     * @param imagesFolderPath
+     *     The containing folder string path name to be read from.
+     * @param files
+     *     Queue the files are added to.
+     * @param decodingWorkerAmount
+     *     Number of decoding workers (each of them needs its own end marker).
+     */
+    private void listFiles(String imagesFolderPath, BlockingQueue<Item<File>> files, int decodingWorkerAmount) {
+        try {
+            for(int signValue = 0; signValue < ImageParser.SIGN_AMOUNT; ++signValue) {
+                File[] folderFiles = new File(imagesFolderPath + "/" + signValue).listFiles();
+                if(folderFiles == null) {
+                    System.err.println("Error with reading folder " + imagesFolderPath + "/" + signValue);
+                    continue;
+                }
+                for(File currentFile : folderFiles) {
+                    files.put(new Item<>(currentFile, signValue));
+                }
+            }
+            for(int i = 0; i < decodingWorkerAmount; ++i) {
+                files.put(END_OF_FILES);
+            }
+        } catch(InterruptedException e) { // The pipeline was closed.
+        }
+    }
+
+    // Decode an image file (null if it cannot be read).
+    private Item<BufferedImage> decodeImage(Item<File> file) {
+        long startTime = Telemetry.start();
+        try {
+            BufferedImage image = ImageIO.read(file.value);
+            if(image != null) {
+                return new Item<>(image, file.label);
+            }
+            System.err.println("Error with reading " + file.value.getName() + ": unsupported image format");
+        } catch(IOException e) {
+            System.err.println("Error with reading " + file.value.getName() + ": " + e.getMessage());
+        } finally {
+            Telemetry.stop(Telemetry.Stage.DECODE, startTime);
+        }
+        return null;
+    }
+
+    // Turn a decoded image into a downsized Input.
+    private Input convertImage(Item<BufferedImage> image) {
+        double[] imageData = parser.getDownsizedImageArray(image.value, ImageParser.DOWNSIZE_FACTOR);
+        return new Input(imageData, image.label);
+    }
+
+    /**
+     * Starts the worker threads of a stage. Each worker takes items from its queue until it gets an
+     * end marker, and the last worker to finish passes end markers on to the next stage.
+     *
+     * @param name
+     *     Name of the stage (used to name its threads).
+     * @param workerAmount
+     *     Number of worker threads in the stage.
+     * @param in
+     *     Queue the stage takes its items from.
+     * @param inEnd
+     *     End marker of the queue the stage takes from.
+     * @param work
+     *     Function that turns an item into the item for the next stage (null to drop the item).
+     * @param out
+     *     Queue the stage puts its results in.
+     * @param outEnd
+     *     End marker of the queue the stage puts into.
+     * @param nextWorkerAmount
+     *     Number of end markers the next stage needs.
+     */
+    private <I, O> void startStage(String name, int workerAmount, BlockingQueue<I> in, I inEnd, Function<I, O> work,
+                                   BlockingQueue<O> out, O outEnd, int nextWorkerAmount) {
+        AtomicInteger runningWorkers = new AtomicInteger(workerAmount);
+        for(int i = 0; i < workerAmount; ++i) {
+            startThread(name + "-" + i, () -> {
+                try {
+                    for(I item = in.take(); item != inEnd; item = in.take()) {
+                        O result = work.apply(item);
+                        if(result != null) {
+                            out.put(result);
+                        }
+                    }
+                    if(runningWorkers.decrementAndGet() == 0) {
+                        for(int j = 0; j < nextWorkerAmount; ++j) {
+                            out.put(outEnd);
+                        }
+                    }
+                } catch(InterruptedException e) { // The pipeline was closed.
+                }
+            });
+        }
+    }
+
+    // Start a background thread that will not keep the program running.
+    private void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Waits until the next Input is ready or every image has been parsed.
+     *
+     * @return Whether there is another Input.
+     */
+    @Override
+    public boolean hasNext() {
+        if(nextInput == null && finished == false) {
+            try {
+                nextInput = inputs.take();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the next image.", e);
+            }
+            if(nextInput == END_OF_INPUTS) {
+                nextInput = null;
+                finished = true;
+            }
+        }
+        return nextInput != null;
+    }
+
+    @Override
+    public Input next() {
+        if(hasNext() == false) {
+            throw new NoSuchElementException();
+        }
+        Input input = nextInput;
+        nextInput = null;
+        return input;
+    }
+
+    // Return the remaining Inputs as a sequential stream.
+    public Stream<Input> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.NONNULL), false);
+    }
+
+    // Stop every stage (any images that have not been parsed yet are skipped).
+    @Override
+    public void close() {
+        for(Thread thread : threads) {
+            thread.interrupt();
+        }
+        finished = true;
+        nextInput = null;
+    }
+}
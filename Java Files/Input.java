@@ -1,13 +1,18 @@
-
 /**
  * Responsible for managing the contents of a single input.
  * Inputs are passed into both the MLP and CNN during forward propagation.
+ * The values can be stored at a lower precision to save memory, in which case
+ * they are widened back to doubles as they are read.
  */
 public class Input {
     
-    public double[] data;
+    public double[] data; // Null when the values are stored at a lower precision.
     public int label;
 
+    private float[] floatData;
+    private byte[] levelData; // Unsigned levels, where value = level / levelAmount.
+    private double levelAmount;
+
 
     public Input() {}
 
@@ -25,8 +30,120 @@ public class Input {
         label = newLabel;
     }
 
+    /**
+     * Creates a copy of this input with its values stored at another precision.
+     * INT8 stores each value as the nearest of 256 levels (0, 1/levelAmount, 2/levelAmount, ...),
+     * so it is exact for values that are already multiples of 1/levelAmount (i.e., downsized images,
+     * which are averages of DOWNSIZE_FACTOR * DOWNSIZE_FACTOR pixels that are each 0 or 1).
+     *
+     * @param precision
+     *     Precision to store the values at.
+     * @param levelAmount
+     *     Number of INT8 levels per 1.0 (at most 255, and only used by INT8).
+     * @return This input if it is already stored at the precision, otherwise a new input.
+     */
+    public Input withPrecision(Precision precision, int levelAmount) {
+        if(precision == getPrecision()) {
+            return this;
+        }
+        double[] values = getData(null);
+        Input input = new Input();
+        input.label = label;
+        if(precision == Precision.DOUBLE) {
+            input.data = values;
+        } else if(precision == Precision.FLOAT32) {
+            input.floatData = new float[values.length];
+            for(int i = 0; i < values.length; ++i) {
+                input.floatData[i] = (float)values[i];
+            }
+        } else {
+            input.levelData = new byte[values.length];
+            input.levelAmount = levelAmount;
+            for(int i = 0; i < values.length; ++i) {
+                long level = Math.round(values[i] * levelAmount);
+                input.levelData[i] = (byte)Math.max(0, Math.min(255, level));
+            }
+        }
+        return input;
+    }
+
+    // Return the precision the values are stored at.
+    public Precision getPrecision() {
+        return (data != null ? Precision.DOUBLE : (floatData != null ? Precision.FLOAT32 : Precision.INT8));
+    }
+
+    /**
+     * Returns the values as doubles. Values stored as doubles are returned as they are (not a copy),
+     * and values stored at a lower precision are widened into a buffer.
+     *
+     * @param buffer
+     *     Doubles array of at least getSize() values to widen the values into (a new one is made if null).
+     * @return The stored doubles array, or the buffer.
+     */
+    public double[] getData(double[] buffer) {
+        if(data != null) {
+            return data;
+        }
+        buffer = (buffer == null ? new double[getSize()] : buffer);
+        copyData(buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * Copies the values as doubles into part of a larger array.
+     *
+     * @param destination
+     *     Doubles array the values are copied to.
+     * @param offset
+     *     Index in the array where the first value is copied to.
+     */
+    public void copyData(double[] destination, int offset) {
+        if(data != null) {
+            System.arraycopy(data, 0, destination, offset, data.length);
+        } else if(floatData != null) {
+            for(int i = 0; i < floatData.length; ++i) {
+                destination[offset + i] = floatData[i];
+            }
+        } else {
+            for(int i = 0; i < levelData.length; ++i) {
+                destination[offset + i] = (levelData[i] & 0xFF) / levelAmount;
+            }
+        }
+    }
+
+    /**
+     * Copies the values as floats into part of a larger array (for the FLOAT32 training path).
+     * Doubles are rounded to the nearest float, which is exact for pixel values (see Precision).
+     *
+     * @param destination
+     *     Floats array the values are copied to.
+     * @param offset
+     *     Index in the array where the first value is copied to.
+     */
+    public void copyData(float[] destination, int offset) {
+        if(data != null) {
+            for(int i = 0; i < data.length; ++i) {
+                destination[offset + i] = (float)data[i];
+            }
+        } else if(floatData != null) {
+            System.arraycopy(floatData, 0, destination, offset, floatData.length);
+        } else {
+            for(int i = 0; i < levelData.length; ++i) {
+                destination[offset + i] = (float)((levelData[i] & 0xFF) / levelAmount);
+            }
+        }
+    }
+
+    // Make sure the values are in memory (they always are, but an input decoded on demand decodes them here).
+    public void preload() {}
+
     // Return the 1-D array's length value.
     public int getSize() {
-        return data.length;
+        return (data != null ? data.length : (floatData != null ? floatData.length : levelData.length));
+    }
+
+    // Return the number of bytes the values take up.
+    public long getDataBytes() {
+        return (long)getSize() * getPrecision().bytesPerValue;
     }
 }
@@ -0,0 +1,144 @@
+import java.lang.management.*;
+import java.util.*;
+import java.util.function.*;
+import javax.management.*;
+
+/**
+ * Responsible for exposing the telemetry of the last finished epoch through JMX, as the
+ * TelemetryMXBean registered with the platform MBean server under "asl:type=Telemetry".
+ * The attributes are read from whatever epoch was published last, so a JMX client polling them
+ * never sees a half-updated epoch.
+ */
+public class JmxMetricsSink implements MetricsSink, TelemetryMXBean {
+
+    public static final String OBJECT_NAME = "asl:type=Telemetry";
+
+    private final ObjectName objectName; // Null if the bean could not be registered.
+    private volatile EpochMetrics lastMetrics;
+
+    /**
+     * Creates a new <code>JmxMetricsSink</code> and registers it with the platform MBean server. If it
+     * cannot be registered (i.e., another sink already is), an error is printed and the metrics are only kept.
+     */
+    public JmxMetricsSink() {
+        ObjectName registeredName;
+        try {
+            registeredName = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, registeredName);
+        } catch(JMException e) {
+            System.err.println("Error with registering " + OBJECT_NAME + ": " + e.getMessage());
+            registeredName = null;
+        }
+        objectName = registeredName;
+    }
+
+    @Override
+    public void publish(EpochMetrics metrics) {
+        lastMetrics = metrics;
+    }
+
+    @Override
+    public void close() {
+        if(objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch(JMException e) {
+            System.err.println("Error with unregistering " + OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getEpoch() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? 0 : metrics.getEpoch());
+    }
+
+    @Override
+    public double getTrainingAccuracy() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? 0 : metrics.getTrainingAccuracy());
+    }
+
+    @Override
+    public double getTestingAccuracy() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? 0 : metrics.getTestingAccuracy());
+    }
+
+    @Override
+    public double getTrainingLoss() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? 0 : metrics.getTrainingLoss());
+    }
+
+    @Override
+    public double getTestingLoss() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? 0 : metrics.getTestingLoss());
+    }
+
+    @Override
+    public double getTrainingSamplesPerSecond() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? 0 : metrics.getTrainingSamplesPerSecond());
+    }
+
+    @Override
+    public long getGcCount() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? 0 : metrics.getGcCount());
+    }
+
+    @Override
+    public long getGcMillis() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? 0 : metrics.getGcMillis());
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? 0 : metrics.getAllocatedBytes());
+    }
+
+    @Override
+    public long getHeapUsedBytes() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? 0 : metrics.getHeapUsedBytes());
+    }
+
+    @Override
+    public Map<String, Long> getStageTotalNanos() {
+        return getStageValues(EpochMetrics.StageMetrics::getTotalNanos);
+    }
+
+    @Override
+    public Map<String, Long> getStageMeanNanos() {
+        return getStageValues(EpochMetrics.StageMetrics::getMeanNanos);
+    }
+
+    @Override
+    public Map<String, Long> getStageP99Nanos() {
+        return getStageValues(EpochMetrics.StageMetrics::getP99Nanos);
+    }
+
+    @Override
+    public String getLastEpochJson() {
+        EpochMetrics metrics = lastMetrics;
+        return (metrics == null ? "" : metrics.toJson());
+    }
+
+    // Return one value of every stage of the last epoch, in stage order (empty before the first epoch).
+    private Map<String, Long> getStageValues(ToLongFunction<EpochMetrics.StageMetrics> value) {
+        EpochMetrics metrics = lastMetrics;
+        Map<String, Long> values = new LinkedHashMap<>();
+        if(metrics != null) {
+            for(EpochMetrics.StageMetrics stage : metrics.getStages()) {
+                values.put(stage.getName(), value.applyAsLong(stage));
+            }
+        }
+        return values;
+    }
+}
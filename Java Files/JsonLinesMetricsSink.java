@@ -0,0 +1,63 @@
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * Responsible for writing the telemetry of every epoch to a file as JSON lines: one JSON object per
+ * line (see EpochMetrics.toJson), appended to the file, so several runs can share it and it can be
+ * read while training is still running. Each line is flushed as soon as it is written.
+ */
+public class JsonLinesMetricsSink implements MetricsSink {
+
+    private final String filePath;
+    private BufferedWriter writer; // Null if the file could not be opened or written.
+
+    /**
+     * Creates a new <code>JsonLinesMetricsSink</code>, creating the file (and its folders) if it does
+     * not exist. If the file cannot be opened, an error is printed and the metrics are dropped.
+     *
+     * @param newFilePath
+     *     Path of the file to append the lines to.
+     */
+    public JsonLinesMetricsSink(String newFilePath) {
+        filePath = newFilePath;
+        try {
+            Path path = Paths.get(filePath);
+            if(path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch(IOException e) {
+            System.err.println("Error with opening metrics file " + filePath + ": " + e.getMessage());
+            writer = null;
+        }
+    }
+
+    @Override
+    public void publish(EpochMetrics metrics) {
+        if(writer == null) {
+            return;
+        }
+        try {
+            writer.write(metrics.toJson());
+            writer.newLine();
+            writer.flush();
+        } catch(IOException e) {
+            System.err.println("Error with writing metrics file " + filePath + ": " + e.getMessage());
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if(writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch(IOException e) {
+            System.err.println("Error with closing metrics file " + filePath + ": " + e.getMessage());
+        }
+        writer = null;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Responsible for the innermost loops of the networks: dot products, axpy updates, the sigmoid and
+ * (leaky) ReLU activations and momentum weight updates, over ranges of doubles arrays. The matrix kernels of the
+ * FLOAT32 training path also have floats versions of all but the weight update (the weights stay doubles, see
+ * MLPConfiguration.withTrainingPrecision), which sum in float. This class runs them as plain scalar loops. VectorKernels runs them with SIMD instructions through the JDK Vector API,
+ * and is used instead whenever the jdk.incubator.vector module is available
+ * (run with "java --add-modules jdk.incubator.vector ...", or -Dasl.kernels=scalar to turn it off).
+ */
+public class Kernels {
+
+    // The kernels every network uses, chosen once when the class is loaded.
+    public static final Kernels INSTANCE = load();
+
+    protected Kernels() {}
+
+    // Return VectorKernels if the Vector API can be used, and scalar kernels if not.
+    private static Kernels load() {
+        if("scalar".equalsIgnoreCase(System.getProperty("asl.kernels"))) {
+            return new Kernels();
+        }
+        try {
+            // Loaded by name, so that this class compiles and runs without the incubator module.
+            Kernels vectorKernels = (Kernels)Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            return (vectorKernels.isSupported() ? vectorKernels : new Kernels());
+        } catch(ReflectiveOperationException | LinkageError e) { // The module (or VectorKernels itself) is missing.
+            return new Kernels();
+        }
+    }
+
+    // Return whether these kernels can run on this CPU.
+    protected boolean isSupported() {
+        return true;
+    }
+
+    // Return a short description of the kernels (i.e., for the run info).
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Calculates the dot product of two ranges.
+     *
+     * @param x
+     *     Doubles array of the first range.
+     * @param xOffset
+     *     Index of the first value of the first range.
+     * @param y
+     *     Doubles array of the second range.
+     * @param yOffset
+     *     Index of the first value of the second range.
+     * @param length
+     *     Number of values in each range.
+     */
+    public double dot(double[] x, int xOffset, double[] y, int yOffset, int length) {
+        double sum = 0;
+        for(int i = 0; i < length; ++i) {
+            sum += x[xOffset + i] * y[yOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates y += alpha * x over a range.
+     *
+     * @param alpha
+     *     Value every x value is multiplied by.
+     * @param x
+     *     Doubles array of the range that is added.
+     * @param xOffset
+     *     Index of the first value of the range that is added.
+     * @param y
+     *     Doubles array of the range that is added to.
+     * @param yOffset
+     *     Index of the first value of the range that is added to.
+     * @param length
+     *     Number of values in each range.
+     */
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for(int i = 0; i < length; ++i) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    /**
+     * Replaces every value of a range x by the sigmoid function 1 / (1 + e^-x).
+     *
+     * @param x
+     *     Doubles array of the range.
+     * @param offset
+     *     Index of the first value of the range.
+     * @param length
+     *     Number of values in the range.
+     */
+    public void sigmoid(double[] x, int offset, int length) {
+        for(int i = offset; i < offset + length; ++i) {
+            x[i] = 1 / (1 + Math.exp(-x[i]));
+        }
+    }
+
+    /**
+     * Replaces every value of a range x by the leaky ReLU function max(x, negativeSlope * x), which is
+     * x for positive values and negativeSlope * x for negative ones (0 for a plain ReLU).
+     *
+     * @param x
+     *     Doubles array of the range.
+     * @param offset
+     *     Index of the first value of the range.
+     * @param length
+     *     Number of values in the range.
+     * @param negativeSlope
+     *     Slope below 0, from 0 to 1.
+     */
+    public void relu(double[] x, int offset, int length, double negativeSlope) {
+        for(int i = offset; i < offset + length; ++i) {
+            x[i] = Math.max(x[i], negativeSlope * x[i]);
+        }
+    }
+
+    // Same as dot, over floats (summed in float).
+    public float dot(float[] x, int xOffset, float[] y, int yOffset, int length) {
+        float sum = 0;
+        for(int i = 0; i < length; ++i) {
+            sum += x[xOffset + i] * y[yOffset + i];
+        }
+        return sum;
+    }
+
+    // Same as axpy, over floats.
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for(int i = 0; i < length; ++i) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    // Same as sigmoid, over floats (e^x is calculated in double, then rounded).
+    public void sigmoid(float[] x, int offset, int length) {
+        for(int i = offset; i < offset + length; ++i) {
+            x[i] = (float)(1 / (1 + Math.exp(-x[i])));
+        }
+    }
+
+    // Same as relu, over floats.
+    public void relu(float[] x, int offset, int length, float negativeSlope) {
+        for(int i = offset; i < offset + length; ++i) {
+            x[i] = Math.max(x[i], negativeSlope * x[i]);
+        }
+    }
+
+    /**
+     * Updates a range of weights by scale * gradient plus the momentum term, and saves each change in the
+     * deltas the way the networks always have (delta = old value - new value).
+     *
+     * @param weights
+     *     Doubles array of the weights to update.
+     * @param deltas
+     *     Doubles array of the previous weight changes, laid out like the weights.
+     * @param offset
+     *     Index of the first weight (and delta) to update.
+     * @param scale
+     *     Value every gradient is multiplied by (i.e., the learning rate).
+     * @param gradients
+     *     Doubles array of the gradients.
+     * @param gradientOffset
+     *     Index of the gradient of the first weight.
+     * @param length
+     *     Number of weights to update.
+     * @param momentum
+     *     Value every previous change is multiplied by (0 to leave out the momentum term).
+     */
+    public void updateWeights(double[] weights, double[] deltas, int offset, double scale, double[] gradients, int gradientOffset,
+                              int length, double momentum) {
+        for(int i = 0; i < length; ++i) {
+            double newValue = weights[offset + i] + (scale * gradients[gradientOffset + i]);
+            if(momentum != 0) {
+                newValue += deltas[offset + i] * momentum;
+            }
+            deltas[offset + i] = weights[offset + i] - newValue;
+            weights[offset + i] = newValue;
+        }
+    }
+}
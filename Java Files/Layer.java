@@ -0,0 +1,33 @@
+import java.nio.*;
+
+/**
+ * The outline of the functions that a layer of a CNN's feature extractor possesses.
+ * ConvolutionLayer and PoolingLayer are children of this class. A layer turns a stack of square
+ * channels into another stack of square channels, where a stack is a [channels x (dimension * dimension)]
+ * matrix whose row c holds channel c in row-major order.
+ */
+public interface Layer {
+
+    public int getOutputChannels(int inputChannels);
+
+    public int getOutputDimension(int inputDimension);
+
+    // Write the output of the layer for an input.
+    public void forward(Tensor input, int inputDimension, Tensor output);
+
+    // Pass the error of the layer's output back to its input (unless inputError is null), and add the gradients of
+    // the layer's weights. The output error may be overwritten.
+    public void backward(Tensor input, int inputDimension, Tensor output, Tensor outputError, Tensor inputError);
+
+    // Update the layer's weights once with the average of the gradients added since the last update, and clear them.
+    public void applyGradients(int sampleCount);
+
+    // Return a copy of the layer whose weights do not change when this layer is trained (i.e., for a Predictor).
+    public Layer copy();
+
+    // Return the number of bytes writeCheckpoint writes.
+    public long getCheckpointBytes(boolean momentumIncluded);
+
+    // Write the layer's type, shape and weights (and their momentum terms if included) to a checkpoint (see Checkpoint and CNN).
+    public void writeCheckpoint(ByteBuffer buffer, boolean momentumIncluded);
+}
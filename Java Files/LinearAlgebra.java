@@ -0,0 +1,288 @@
+/**
+ * Responsible for the matrix-matrix multiplication kernels used when a neural network
+ * processes a whole batch of inputs at once. The loops are blocked (tiled) so that a block
+ * of weight rows stays in the CPU cache while it is reused by every input in the batch.
+ * Every matrix is a row-major <code>Tensor</code>; blocks of rows are packed into separate
+ * row arrays before the innermost loops run over them, so that C2 can vectorize those loops
+ * (the loops themselves are Kernels, which run them with the Vector API when it is available).
+ * Each kernel also has a FloatTensor version for the FLOAT32 training path, with its own float panels.
+ */
+public class LinearAlgebra {
+
+    // Number of weight rows in a block (64 rows of 50 hidden units is ~25 KB, which fits in the L1/L2 cache).
+    private static final int ROW_BLOCK_SIZE = 64;
+
+    // Panels are kept per thread and reused by every kernel call, so a steady-state batch allocates nothing.
+    // Slots 0-1 are used by the matrix kernels here and slots 2-4 by Convolution.
+    private static final ThreadLocal<double[][][]> PANELS = ThreadLocal.withInitial(() -> new double[5][][]);
+    // Slots 0-1 are used by the FloatTensor kernels.
+    private static final ThreadLocal<float[][][]> FLOAT_PANELS = ThreadLocal.withInitial(() -> new float[2][][]);
+
+    private LinearAlgebra() {}
+
+    /**
+     * Calculates result += a * b, where b is read starting from row 'bRowOffset'.
+     * A block of rows of 'b' is packed and multiplied against every batch row of 'a' before moving
+     * on to the next block, and the innermost loop walks both 'b' and 'result' rows contiguously.
+     *
+     * @param a
+     *     [batchSize x innerSize] matrix (i.e., a batch of layers).
+     * @param batchSize
+     *     Number of rows of 'a' and 'result' to use.
+     * @param b
+     *     [(bRowOffset + innerSize) x columnSize] matrix (i.e., the weights).
+     * @param bRowOffset
+     *     Number of leading rows of 'b' to skip (i.e., the bias row).
+     * @param result
+     *     [batchSize x columnSize] matrix that the product is added to.
+     */
+    public static void multiplyAdd(Tensor a, int batchSize, Tensor b, int bRowOffset, Tensor result) {
+        int innerSize = a.columns;
+        int columnSize = result.columns;
+        double[] aData = a.data, resultData = result.data;
+        double[][] panel = getPanel(0, ROW_BLOCK_SIZE, columnSize);
+        double[] accumulator = getPanel(1, 1, columnSize)[0];
+        for(int rowBlock = 0; rowBlock < innerSize; rowBlock += ROW_BLOCK_SIZE) {
+            int rowEnd = Math.min(rowBlock + ROW_BLOCK_SIZE, innerSize);
+            pack(b, rowBlock + bRowOffset, rowEnd - rowBlock, panel);
+            for(int batchIndex = 0; batchIndex < batchSize; ++batchIndex) {
+                int aRow = a.index(batchIndex, 0);
+                int resultRow = result.index(batchIndex, 0);
+                System.arraycopy(resultData, resultRow, accumulator, 0, columnSize);
+                for(int innerIndex = rowBlock; innerIndex < rowEnd; ++innerIndex) {
+                    double aValue = aData[aRow + innerIndex];
+                    if(aValue == 0) { // Inputs are mostly 0s and 1s.
+                        continue;
+                    }
+                    axpy(aValue, panel[innerIndex - rowBlock], accumulator, columnSize);
+                }
+                System.arraycopy(accumulator, 0, resultData, resultRow, columnSize);
+            }
+        }
+    }
+
+    /**
+     * Calculates result += transpose(a) * b, where 'result' is written starting from row 'resultRowOffset'.
+     * Used to sum the weight gradients of a whole batch (transpose(layers) * errors).
+     *
+     * @param a
+     *     [batchSize x innerSize] matrix (i.e., a batch of layers).
+     * @param batchSize
+     *     Number of rows of 'a' and 'b' to use.
+     * @param b
+     *     [batchSize x columnSize] matrix (i.e., a batch of errors).
+     * @param result
+     *     [(resultRowOffset + innerSize) x columnSize] matrix that the product is added to.
+     * @param resultRowOffset
+     *     Number of leading rows of 'result' to skip (i.e., the bias row).
+     */
+    public static void transposeMultiplyAdd(Tensor a, int batchSize, Tensor b, Tensor result, int resultRowOffset) {
+        int innerSize = a.columns;
+        int columnSize = b.columns;
+        double[] aData = a.data;
+        double[][] panel = getPanel(0, batchSize, columnSize);
+        double[][] resultPanel = getPanel(1, ROW_BLOCK_SIZE, columnSize);
+        pack(b, 0, batchSize, panel);
+        for(int rowBlock = 0; rowBlock < innerSize; rowBlock += ROW_BLOCK_SIZE) {
+            int rowEnd = Math.min(rowBlock + ROW_BLOCK_SIZE, innerSize);
+            pack(result, rowBlock + resultRowOffset, rowEnd - rowBlock, resultPanel);
+            for(int batchIndex = 0; batchIndex < batchSize; ++batchIndex) {
+                int aRow = a.index(batchIndex, 0);
+                for(int innerIndex = rowBlock; innerIndex < rowEnd; ++innerIndex) {
+                    double aValue = aData[aRow + innerIndex];
+                    if(aValue == 0) {
+                        continue;
+                    }
+                    axpy(aValue, panel[batchIndex], resultPanel[innerIndex - rowBlock], columnSize);
+                }
+            }
+            unpack(resultPanel, result, rowBlock + resultRowOffset, rowEnd - rowBlock);
+        }
+    }
+
+    /**
+     * Calculates result = a * transpose(b), where b is read starting from row 'bRowOffset'.
+     * Used to pass a batch of errors backwards through the weights (errors * transpose(weights)).
+     *
+     * @param a
+     *     [batchSize x innerSize] matrix (i.e., a batch of errors).
+     * @param batchSize
+     *     Number of rows of 'a' and 'result' to use.
+     * @param b
+     *     [(bRowOffset + rowSize) x innerSize] matrix (i.e., the weights).
+     * @param bRowOffset
+     *     Number of leading rows of 'b' to skip (i.e., the bias row).
+     * @param result
+     *     [batchSize x rowSize] matrix that the product is written to.
+     */
+    public static void multiplyTranspose(Tensor a, int batchSize, Tensor b, int bRowOffset, Tensor result) {
+        int innerSize = a.columns;
+        int rowSize = result.columns;
+        double[] aData = a.data, bData = b.data, resultData = result.data;
+        for(int rowBlock = 0; rowBlock < rowSize; rowBlock += ROW_BLOCK_SIZE) {
+            int rowEnd = Math.min(rowBlock + ROW_BLOCK_SIZE, rowSize);
+            for(int batchIndex = 0; batchIndex < batchSize; ++batchIndex) {
+                int aRow = a.index(batchIndex, 0);
+                int resultRow = result.index(batchIndex, 0);
+                for(int rowIndex = rowBlock; rowIndex < rowEnd; ++rowIndex) {
+                    int bRow = b.index(rowIndex + bRowOffset, 0);
+                    resultData[resultRow + rowIndex] = Kernels.INSTANCE.dot(aData, aRow, bData, bRow, innerSize);
+                }
+            }
+        }
+    }
+
+    // Same as multiplyAdd, over floats.
+    public static void multiplyAdd(FloatTensor a, int batchSize, FloatTensor b, int bRowOffset, FloatTensor result) {
+        int innerSize = a.columns;
+        int columnSize = result.columns;
+        float[] aData = a.data, resultData = result.data;
+        float[][] panel = getFloatPanel(0, ROW_BLOCK_SIZE, columnSize);
+        float[] accumulator = getFloatPanel(1, 1, columnSize)[0];
+        for(int rowBlock = 0; rowBlock < innerSize; rowBlock += ROW_BLOCK_SIZE) {
+            int rowEnd = Math.min(rowBlock + ROW_BLOCK_SIZE, innerSize);
+            pack(b, rowBlock + bRowOffset, rowEnd - rowBlock, panel);
+            for(int batchIndex = 0; batchIndex < batchSize; ++batchIndex) {
+                int aRow = a.index(batchIndex, 0);
+                int resultRow = result.index(batchIndex, 0);
+                System.arraycopy(resultData, resultRow, accumulator, 0, columnSize);
+                for(int innerIndex = rowBlock; innerIndex < rowEnd; ++innerIndex) {
+                    float aValue = aData[aRow + innerIndex];
+                    if(aValue == 0) {
+                        continue;
+                    }
+                    Kernels.INSTANCE.axpy(aValue, panel[innerIndex - rowBlock], 0, accumulator, 0, columnSize);
+                }
+                System.arraycopy(accumulator, 0, resultData, resultRow, columnSize);
+            }
+        }
+    }
+
+    // Same as transposeMultiplyAdd, over floats.
+    public static void transposeMultiplyAdd(FloatTensor a, int batchSize, FloatTensor b, FloatTensor result, int resultRowOffset) {
+        int innerSize = a.columns;
+        int columnSize = b.columns;
+        float[] aData = a.data;
+        float[][] panel = getFloatPanel(0, batchSize, columnSize);
+        float[][] resultPanel = getFloatPanel(1, ROW_BLOCK_SIZE, columnSize);
+        pack(b, 0, batchSize, panel);
+        for(int rowBlock = 0; rowBlock < innerSize; rowBlock += ROW_BLOCK_SIZE) {
+            int rowEnd = Math.min(rowBlock + ROW_BLOCK_SIZE, innerSize);
+            pack(result, rowBlock + resultRowOffset, rowEnd - rowBlock, resultPanel);
+            for(int batchIndex = 0; batchIndex < batchSize; ++batchIndex) {
+                int aRow = a.index(batchIndex, 0);
+                for(int innerIndex = rowBlock; innerIndex < rowEnd; ++innerIndex) {
+                    float aValue = aData[aRow + innerIndex];
+                    if(aValue == 0) {
+                        continue;
+                    }
+                    Kernels.INSTANCE.axpy(aValue, panel[batchIndex], 0, resultPanel[innerIndex - rowBlock], 0, columnSize);
+                }
+            }
+            unpack(resultPanel, result, rowBlock + resultRowOffset, rowEnd - rowBlock);
+        }
+    }
+
+    // Same as multiplyTranspose, over floats.
+    public static void multiplyTranspose(FloatTensor a, int batchSize, FloatTensor b, int bRowOffset, FloatTensor result) {
+        int innerSize = a.columns;
+        int rowSize = result.columns;
+        float[] aData = a.data, bData = b.data, resultData = result.data;
+        for(int rowBlock = 0; rowBlock < rowSize; rowBlock += ROW_BLOCK_SIZE) {
+            int rowEnd = Math.min(rowBlock + ROW_BLOCK_SIZE, rowSize);
+            for(int batchIndex = 0; batchIndex < batchSize; ++batchIndex) {
+                int aRow = a.index(batchIndex, 0);
+                int resultRow = result.index(batchIndex, 0);
+                for(int rowIndex = rowBlock; rowIndex < rowEnd; ++rowIndex) {
+                    int bRow = b.index(rowIndex + bRowOffset, 0);
+                    resultData[resultRow + rowIndex] = Kernels.INSTANCE.dot(aData, aRow, bData, bRow, innerSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies rows of a matrix into separate row arrays (a "panel"). The kernels only ever run their
+     * innermost loop over panel rows and a private accumulator, both starting at index 0, because
+     * C2 will not vectorize a loop that reads and writes double[]s at two different offsets (it
+     * cannot rule out that they are the same array).
+     *
+     * @param matrix
+     *     Row-major matrix to copy rows from.
+     * @param startRow
+     *     Index of the first row to copy.
+     * @param rowCount
+     *     Number of rows to copy.
+     * @param panel
+     *     Doubles array of at least [rowCount x matrix.columns] that the rows are copied to.
+     */
+    private static void pack(Tensor matrix, int startRow, int rowCount, double[][] panel) {
+        for(int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
+            System.arraycopy(matrix.data, matrix.index(startRow + rowIndex, 0), panel[rowIndex], 0, matrix.columns);
+        }
+    }
+
+    /**
+     * Returns this thread's panel in a slot, replacing it if it is too small.
+     *
+     * @param slot
+     *     Index of the panel (a kernel must not use a slot that a kernel it calls also uses).
+     * @param rows
+     *     Minimum number of rows the panel needs.
+     * @param columns
+     *     Minimum number of columns the panel needs.
+     */
+    static double[][] getPanel(int slot, int rows, int columns) {
+        double[][][] panels = PANELS.get();
+        double[][] panel = panels[slot];
+        if(panel == null || panel.length < rows || panel[0].length < columns) {
+            int panelRows = Math.max(rows, (panel == null ? 0 : panel.length));
+            int panelColumns = Math.max(columns, (panel == null ? 0 : panel[0].length));
+            panel = new double[panelRows][panelColumns];
+            panels[slot] = panel;
+        }
+        return panel;
+    }
+
+    // Same as getPanel, for the float panels.
+    private static float[][] getFloatPanel(int slot, int rows, int columns) {
+        float[][][] panels = FLOAT_PANELS.get();
+        float[][] panel = panels[slot];
+        if(panel == null || panel.length < rows || panel[0].length < columns) {
+            int panelRows = Math.max(rows, (panel == null ? 0 : panel.length));
+            int panelColumns = Math.max(columns, (panel == null ? 0 : panel[0].length));
+            panel = new float[panelRows][panelColumns];
+            panels[slot] = panel;
+        }
+        return panel;
+    }
+
+    private static void pack(FloatTensor matrix, int startRow, int rowCount, float[][] panel) {
+        for(int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
+            System.arraycopy(matrix.data, matrix.index(startRow + rowIndex, 0), panel[rowIndex], 0, matrix.columns);
+        }
+    }
+
+    private static void unpack(float[][] panel, FloatTensor matrix, int startRow, int rowCount) {
+        for(int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
+            System.arraycopy(panel[rowIndex], 0, matrix.data, matrix.index(startRow + rowIndex, 0), matrix.columns);
+        }
+    }
+
+    // Copy panel rows back into the rows of a matrix they were packed from.
+    private static void unpack(double[][] panel, Tensor matrix, int startRow, int rowCount) {
+        for(int rowIndex = 0; rowIndex < rowCount; ++rowIndex) {
+            System.arraycopy(panel[rowIndex], 0, matrix.data, matrix.index(startRow + rowIndex, 0), matrix.columns);
+        }
+    }
+
+    // Calculate y += alpha * x over the first 'length' values.
+    static void axpy(double alpha, double[] x, double[] y, int length) {
+        Kernels.INSTANCE.axpy(alpha, x, 0, y, 0, length);
+    }
+
+    // Return the sum of x[i] * y[i] over the first 'length' values.
+    static double dot(double[] x, double[] y, int length) {
+        return Kernels.INSTANCE.dot(x, 0, y, 0, length);
+    }
+}
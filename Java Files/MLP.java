@@ -1,25 +1,101 @@
+import java.nio.*;
 import java.util.*;
+import java.util.function.*;
 
 /**
- * Responsible for creating and managing a multi-layer perceptron.
+ * Responsible for creating and managing a multi-layer perceptron: an input layer, any number of
+ * fully connected hidden layers and an output layer, each with its own bias unit. The hidden layers
+ * share one activation function and the output layer has its own (see Activation and MLPConfiguration).
  */
 public class MLP implements Network {
-    /*============================================ CONFIG CONSTANTS ============================================ */
-    // Train with momentum term selection. [Enable to find the global error minimum]
-    private final boolean MOMENTUM_ENABLED = true;
 
-    private final double BIAS_VALUE = 1;
-    private final double LEARNING_RATE = 0.1;
-    private final double MOMENTUM_VALUE = 0.9;
+    // Runs the innermost loops (scalar, or SIMD when the Vector API is available).
+    private static final Kernels KERNELS = Kernels.INSTANCE;
 
-    private int inputLayerSize, hiddenLayerSize, outputLayerSize;
-    private double[] hiddenLayer, inputLayer, outputLayer;
-    private double[][] inputToHiddenWeights, hiddenToOutputWeights;
-    private double[][] deltaInputToHiddenWeights, deltaHiddenToOutputWeights;
+    // Number of units of every layer: the input layer, the hidden layers, then the output layer.
+    private final int[] layerSizes;
+    // Activation of every layer (index 0, the input layer, has none and is null).
+    private final Activation[] activations;
+    private MLPConfiguration configuration;
+    // Read from the configuration once, since the passes use them for every weight row.
+    private double learningRate, momentum, biasValue;
+    // weights[i] connects layer i to layer i + 1. Weights are [(layerSize + 1) x nextLayerSize] row-major matrices,
+    // where row 0 holds the bias weights. Row i holds every weight leaving unit i, so both passes walk the weights contiguously.
+    private final Tensor[] weights, deltaWeights;
+    private final Workspace workspace;
+
+    // Mini-batch state: rows [0, batchSize) hold one input each.
+    private int batchSize;
+    private Tensor[] batchLayers, batchErrors; // Indexed like the layers (batchLayers[0] is the packed input layer, batchErrors[0] is unused).
+    private double[][] batchOutputs;
+    private Gradients batchGradients;
+    // FLOAT32 mini-batch state, used instead of batchLayers and batchErrors (see MLPConfiguration.withTrainingPrecision).
+    // floatWeights are rounded from the weights at the start of each batch, and floatBatchErrors[0] holds the input errors.
+    private final boolean float32TrainingEnabled;
+    private FloatTensor[] floatWeights, floatBatchLayers, floatBatchErrors, floatBatchGradients;
+
+    /**
+     * Holds the layers and errors of a single input as it passes through the MLP. The buffers are
+     * allocated once and reused for every input, so a forward and backward pass allocates nothing.
+     * Each thread that uses the same MLP needs its own <code>Workspace</code>.
+     */
+    static class Workspace {
+
+        final double[] inputBuffer; // Holds the input data of inputs stored at a lower precision.
+        // layers[0] is the input data itself (not a copy), and layers[i] holds the units of layer i.
+        final double[][] layers;
+        final double[][] errors; // errors[i] holds the error of layer i (errors[0] is unused).
+        final double[] learningRateError; // The error of the layer being updated, times the learning rate.
+
+        Workspace(int[] layerSizes) {
+            inputBuffer = new double[layerSizes[0]];
+            layers = new double[layerSizes.length][];
+            errors = new double[layerSizes.length][];
+            int largestLayerSize = 0;
+            for(int i = 1; i < layerSizes.length; ++i) {
+                layers[i] = new double[layerSizes[i]];
+                errors[i] = new double[layerSizes[i]];
+                largestLayerSize = Math.max(largestLayerSize, layerSizes[i]);
+            }
+            learningRateError = new double[largestLayerSize];
+        }
+    }
+
+    /**
+     * Holds weight gradients summed over a number of inputs, laid out like the weights.
+     * Used to calculate a single weight update from a whole batch (i.e., by parallel workers
+     * that each sum the gradients of their own share of a batch).
+     */
+    static class Gradients {
+
+        final Tensor[] weights; // weights[i] holds the gradients of the weights from layer i to layer i + 1.
+
+        Gradients(int[] layerSizes) {
+            weights = new Tensor[layerSizes.length - 1];
+            for(int i = 0; i < weights.length; ++i) {
+                weights[i] = new Tensor(layerSizes[i] + 1, layerSizes[i + 1]);
+            }
+        }
+
+        // Reset every gradient to 0.
+        void clear() {
+            for(Tensor gradients : weights) {
+                gradients.fill(0);
+            }
+        }
+
+        // Add the gradients of another set to this one.
+        void add(Gradients toAdd) {
+            for(int i = 0; i < weights.length; ++i) {
+                KERNELS.axpy(1, toAdd.weights[i].data, 0, weights[i].data, 0, weights[i].getSize());
+            }
+        }
+    }
 
     /**
      * Creates a new <code>MLP</code> to train a model to classify an
      * American Sign Language hand sign image to an alphabetical character [A -Z].
+     * It has one hidden layer and is otherwise configured like MLPConfiguration.DEFAULT.
      *
      * @param newInputLayerSize
      *     Number of input layer units that enter the neural network.
@@ -29,37 +105,268 @@ public class MLP implements Network {
      *     Number of output layer units where the activation value from a hidden layer is taken to give the output classification value.
      */
     public MLP(int newInputLayerSize, int newHiddenLayerSize, int newOutputLayerSize) {
-        inputLayerSize = newInputLayerSize;
-        hiddenLayerSize = newHiddenLayerSize;
-        outputLayerSize = newOutputLayerSize;
-        inputLayer = null;
-        hiddenLayer = null;
-        outputLayer = null;
-        initializeWeights();
+        this(newInputLayerSize, newOutputLayerSize, MLPConfiguration.DEFAULT.withHiddenLayerSizes(newHiddenLayerSize));
     }
 
     /**
-     * Randomly initializes the weight values between neural network layers.
+     * Creates a new <code>MLP</code> with the hidden layers, activations and hyperparameters of a configuration.
+     *
+     * @param newInputLayerSize
+     *     Number of input layer units that enter the neural network.
+     * @param newOutputLayerSize
+     *     Number of output layer units where the activation value from the last hidden layer is taken to give the output classification value.
+     * @param newConfiguration
+     *     Hidden layer sizes, activations and hyperparameters.
+     */
+    public MLP(int newInputLayerSize, int newOutputLayerSize, MLPConfiguration newConfiguration) {
+        this(newInputLayerSize, newOutputLayerSize, newConfiguration, true);
+    }
+
+    // Create an MLP whose weights start random, or at 0 for a checkpoint to read them into.
+    private MLP(int newInputLayerSize, int newOutputLayerSize, MLPConfiguration newConfiguration, boolean randomWeightsEnabled) {
+        if(newInputLayerSize < 1 || newOutputLayerSize < 1) {
+            throw new IllegalArgumentException("The input and output layers need at least 1 unit, but they have "
+                                               + newInputLayerSize + " and " + newOutputLayerSize);
+        }
+        int[] hiddenLayerSizes = newConfiguration.getHiddenLayerSizes();
+        layerSizes = new int[hiddenLayerSizes.length + 2];
+        layerSizes[0] = newInputLayerSize;
+        System.arraycopy(hiddenLayerSizes, 0, layerSizes, 1, hiddenLayerSizes.length);
+        layerSizes[layerSizes.length - 1] = newOutputLayerSize;
+        activations = new Activation[layerSizes.length];
+        for(int i = 1; i < layerSizes.length; ++i) {
+            activations[i] = (i == layerSizes.length - 1 ? newConfiguration.getOutputActivation() : newConfiguration.getHiddenActivation());
+        }
+        setConfiguration(newConfiguration);
+        float32TrainingEnabled = (newConfiguration.getTrainingPrecision() == Precision.FLOAT32);
+        weights = new Tensor[layerSizes.length - 1];
+        deltaWeights = new Tensor[layerSizes.length - 1];
+        for(int i = 0; i < weights.length; ++i) {
+            // +1 for the weights from the bias nodes.
+            weights[i] = new Tensor(layerSizes[i] + 1, layerSizes[i + 1]);
+            deltaWeights[i] = new Tensor(layerSizes[i] + 1, layerSizes[i + 1]);
+        }
+        workspace = createWorkspace();
+        batchSize = 0;
+        if(randomWeightsEnabled) {
+            initializeWeights();
+        }
+    }
+
+    /**
+     * Randomly initializes the weight values between neural network layers, in the range the
+     * activation of the layer they feed suits (see Activation.getInitialWeightRange).
      */
     private void initializeWeights() {
-        // +1 for the weights from the bias nodes.
-        inputToHiddenWeights = new double[inputLayerSize + 1][hiddenLayerSize];
-        deltaInputToHiddenWeights = new double[inputLayerSize + 1][hiddenLayerSize];
-        hiddenToOutputWeights = new double[hiddenLayerSize + 1][outputLayerSize];
-        deltaHiddenToOutputWeights = new double[hiddenLayerSize + 1][outputLayerSize];
         Random random = new Random();
-        for(int i = 0; i < inputLayerSize + 1; ++i) {
-            for(int j = 0; j < hiddenLayerSize; ++j) {
-                inputToHiddenWeights[i][j] = (random.nextDouble() / 10) - 0.05;
-                deltaInputToHiddenWeights[i][j] = 0;
+        for(int i = 0; i < weights.length; ++i) {
+            double range = activations[i + 1].getInitialWeightRange(layerSizes[i]);
+            for(int j = 0; j < weights[i].getSize(); ++j) {
+                weights[i].data[j] = (random.nextDouble() * 2 - 1) * range;
+            }
+        }
+    }
+
+    // Replace the hyperparameters (the hidden layer sizes and activations must stay the same).
+    private void setConfiguration(MLPConfiguration newConfiguration) {
+        configuration = newConfiguration;
+        learningRate = newConfiguration.getLearningRate();
+        momentum = newConfiguration.getMomentum();
+        biasValue = newConfiguration.getBiasValue();
+    }
+
+    // Return the hidden layer sizes, activations and current hyperparameters.
+    public MLPConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    // Change the learning rate of every following weight update (i.e., for a learning rate schedule).
+    public void setLearningRate(double newLearningRate) {
+        setConfiguration(configuration.withLearningRate(newLearningRate));
+    }
+
+    // Change the momentum of every following weight update (0 trains without momentum).
+    public void setMomentum(double newMomentum) {
+        setConfiguration(configuration.withMomentum(newMomentum));
+    }
+
+    // Return the number of units of every layer, from the input layer to the output layer.
+    public int[] getLayerSizes() {
+        return layerSizes.clone();
+    }
+
+    /**
+     * Returns a copy of the weights and their previous changes (the momentum terms), which
+     * restoreWeights can later put back (i.e., to return to the best epoch of a training run).
+     */
+    Tensor[] copyWeights() {
+        Tensor[] weightsCopy = new Tensor[2 * weights.length];
+        for(int i = 0; i < weights.length; ++i) {
+            weightsCopy[i] = new Tensor(weights[i].toArray(), 0, weights[i].rows, weights[i].columns);
+            weightsCopy[weights.length + i] = new Tensor(deltaWeights[i].toArray(), 0, deltaWeights[i].rows, deltaWeights[i].columns);
+        }
+        return weightsCopy;
+    }
+
+    /**
+     * Overwrites the weights and their previous changes with a copy made by copyWeights. The values
+     * are copied into the existing weight matrices, so workspaces and trainers of this MLP stay valid.
+     *
+     * @param weightsCopy
+     *     Copy of the weights of this MLP, made by copyWeights.
+     */
+    void restoreWeights(Tensor[] weightsCopy) {
+        if(weightsCopy.length != 2 * weights.length) {
+            throw new IllegalArgumentException("The copy has " + weightsCopy.length + " matrices, but this MLP has " + 2 * weights.length);
+        }
+        for(int i = 0; i < weights.length; ++i) {
+            if(weightsCopy[i].getSize() != weights[i].getSize()) {
+                throw new IllegalArgumentException("The copy of weight matrix " + i + " has " + weightsCopy[i].getSize()
+                                                   + " weights, but this MLP's has " + weights[i].getSize());
+            }
+            System.arraycopy(weightsCopy[i].data, weightsCopy[i].offset, weights[i].data, weights[i].offset, weights[i].getSize());
+            System.arraycopy(weightsCopy[weights.length + i].data, weightsCopy[weights.length + i].offset,
+                             deltaWeights[i].data, deltaWeights[i].offset, deltaWeights[i].getSize());
+        }
+    }
+
+    // Return the weight matrices themselves (not copies), i.e., to send them to or overwrite them from a parameter server.
+    Tensor[] getWeightMatrices() {
+        return weights.clone();
+    }
+
+    // Return a new set of layer/error buffers sized for this MLP.
+    Workspace createWorkspace() {
+        return new Workspace(layerSizes);
+    }
+
+    // Return a new set of zeroed gradients sized for this MLP.
+    Gradients createGradients() {
+        return new Gradients(layerSizes);
+    }
+
+    /**
+     * Creates an inference-only copy of this MLP with its weights quantized to 8-bit integers.
+     * Later training of this MLP does not change the copy.
+     */
+    QuantizedMLP quantize() {
+        return new QuantizedMLP(weights, activations, biasValue);
+    }
+
+    /**
+     * Creates an inference-only copy of this MLP that any number of threads can use at once.
+     * Later training of this MLP does not change the copy.
+     */
+    public Predictor createPredictor() {
+        return createPredictor(null);
+    }
+
+    /**
+     * Creates an inference-only copy of this MLP whose inputs first pass through a feature extractor
+     * (i.e., a CNN's convolution layer).
+     *
+     * @param featureExtractor
+     *     Thread-safe function that turns an input into this MLP's input layer (null to use the input as it is).
+     */
+    Predictor createPredictor(Function<Input, double[]> featureExtractor) {
+        return new Predictor(featureExtractor, weights, activations, biasValue);
+    }
+
+    // Return the number of bytes writeCheckpoint writes.
+    long getCheckpointBytes(boolean momentumIncluded) {
+        long weightBytes = 0;
+        for(Tensor layerWeights : weights) {
+            weightBytes += Checkpoint.getTensorBytes(layerWeights);
+        }
+        return (1 + layerSizes.length + 2) * Integer.BYTES + 3 * Double.BYTES + (momentumIncluded ? 2 * weightBytes : weightBytes);
+    }
+
+    /**
+     * Writes the layer sizes, activations, hyperparameters and weights of this MLP to a checkpoint (see Checkpoint).
+     *
+     * @param buffer
+     *     Little-endian buffer to write to.
+     * @param momentumIncluded
+     *     Whether to write the previous weight changes (the momentum terms) too.
+     */
+    void writeCheckpoint(ByteBuffer buffer, boolean momentumIncluded) {
+        buffer.putInt(layerSizes.length);
+        for(int size : layerSizes) {
+            buffer.putInt(size);
+        }
+        buffer.putInt(configuration.getHiddenActivation().getId()).putInt(configuration.getOutputActivation().getId());
+        buffer.putDouble(learningRate).putDouble(momentum).putDouble(biasValue);
+        for(Tensor layerWeights : weights) {
+            Checkpoint.putTensor(buffer, layerWeights);
+        }
+        if(momentumIncluded) {
+            for(Tensor layerDeltaWeights : deltaWeights) {
+                Checkpoint.putTensor(buffer, layerDeltaWeights);
             }
         }
-        for(int i = 0; i < hiddenLayerSize + 1; ++i) {
-            for(int j = 0; j < outputLayerSize; ++j) {
-                hiddenToOutputWeights[i][j] = (random.nextDouble() / 10) - 0.05;
-                deltaHiddenToOutputWeights[i][j] = 0;
+    }
+
+    /**
+     * Creates an MLP from the layer sizes, activations, hyperparameters and weights in a checkpoint (see Checkpoint).
+     * Checkpoints of format version 1 only hold the sizes of an MLP with one hidden layer, which is
+     * configured like MLPConfiguration.DEFAULT.
+     *
+     * @param buffer
+     *     Little-endian buffer to read from.
+     * @param momentumIncluded
+     *     Whether the previous weight changes (the momentum terms) were written too.
+     * @param formatVersion
+     *     Format version of the checkpoint.
+     */
+    static MLP readCheckpoint(ByteBuffer buffer, boolean momentumIncluded, int formatVersion) {
+        int[] newLayerSizes;
+        MLPConfiguration newConfiguration;
+        if(formatVersion == 1) {
+            newLayerSizes = new int[3];
+            newLayerSizes[0] = Checkpoint.getSize(buffer, 1, "Input layer size");
+            newLayerSizes[1] = Checkpoint.getSize(buffer, 1, "Hidden layer size");
+            newLayerSizes[2] = Checkpoint.getSize(buffer, 1, "Output layer size");
+            newConfiguration = MLPConfiguration.DEFAULT.withHiddenLayerSizes(newLayerSizes[1]);
+        } else {
+            int newLayerAmount = Checkpoint.getSize(buffer, 2, "Layer amount");
+            Checkpoint.checkRemainingBytes(buffer, (double)newLayerAmount * Integer.BYTES, "The layer sizes");
+            newLayerSizes = new int[newLayerAmount];
+            for(int i = 0; i < newLayerSizes.length; ++i) {
+                newLayerSizes[i] = Checkpoint.getSize(buffer, 1, "Layer size");
+            }
+            Activation hiddenActivation = Activation.fromId(buffer.getInt());
+            Activation outputActivation = Activation.fromId(buffer.getInt());
+            newConfiguration = MLPConfiguration.DEFAULT.withHiddenLayerSizes(Arrays.copyOfRange(newLayerSizes, 1, newLayerSizes.length - 1))
+                                                       .withActivations(hiddenActivation, outputActivation)
+                                                       .withLearningRate(buffer.getDouble())
+                                                       .withMomentum(buffer.getDouble())
+                                                       .withBiasValue(buffer.getDouble());
+        }
+        // Sizes that are each in range can still ask for more weights than the file holds, so check before allocating them.
+        double weightAmount = 0;
+        for(int i = 0; i < newLayerSizes.length - 1; ++i) {
+            weightAmount += (double)(newLayerSizes[i] + 1) * newLayerSizes[i + 1];
+        }
+        Checkpoint.checkRemainingBytes(buffer, weightAmount * Double.BYTES * (momentumIncluded ? 2 : 1), "The weights");
+        MLP mlp = new MLP(newLayerSizes[0], newLayerSizes[newLayerSizes.length - 1], newConfiguration, false);
+        for(Tensor layerWeights : mlp.weights) {
+            Checkpoint.getTensor(buffer, layerWeights);
+        }
+        if(momentumIncluded) {
+            for(Tensor layerDeltaWeights : mlp.deltaWeights) {
+                Checkpoint.getTensor(buffer, layerDeltaWeights);
             }
         }
+        return mlp;
+    }
+
+    // Return the number of weights (including the bias weights).
+    int getWeightAmount() {
+        int weightAmount = 0;
+        for(Tensor layerWeights : weights) {
+            weightAmount += layerWeights.getSize();
+        }
+        return weightAmount;
     }
 
     /**
@@ -67,149 +374,566 @@ public class MLP implements Network {
      *
      * @param input
      *     Input image data object that contains pixel data and an associated label to propagate forward.
+     * @return The output layer (reused and overwritten by the next forward pass).
      */
     public double[] executeForwardPropagation(Input input) {
-        inputLayer = input.data;
-        hiddenLayer = calculateNextLayer(inputLayer, inputToHiddenWeights, hiddenLayerSize);
-        outputLayer = calculateNextLayer(hiddenLayer, hiddenToOutputWeights, outputLayerSize);
-        return outputLayer;
+        return executeForwardPropagation(input.getData(workspace.inputBuffer), workspace);
     }
 
     /**
-     * Creates a new <code>CNN</code> to train a model to classify an
-     * American Sign Language hand sign image to an alphabetical character [A -Z].
+     * Passes input data forward through the MLP using the buffers of a workspace.
+     *
+     * @param inputLayer
+     *     1-D doubles array of input layer units.
+     * @param workspace
+     *     Workspace whose layers are written to.
+     * @return The output layer of the workspace.
+     */
+    double[] executeForwardPropagation(double[] inputLayer, Workspace workspace) {
+        long startTime = Telemetry.start();
+        double[][] layers = workspace.layers;
+        layers[0] = inputLayer;
+        for(int i = 0; i < weights.length; ++i) {
+            calculateNextLayer(layers[i], weights[i], layers[i + 1], activations[i + 1]);
+        }
+        Telemetry.stop(Telemetry.Stage.FORWARD, startTime);
+        return layers[layers.length - 1];
+    }
+
+    /**
+     * Calculates the units of the next layer in the neural network. The bias unit is
+     * not stored in the layer; its weights are row 0 of the weight matrix.
      *
      * @param layer
      *     1-D doubles array that represents the units within a layer.
      * @param weights
-     *     2-D doubles array that represents the weight relationships between the
+     *     Row-major matrix that represents the weight relationships between the
      *     previous layer units and the current layer units.
-     * @param nextLayerSize
-     *     Number indicating the amount of units in the next layer in the neural network.
+     * @param nextLayer
+     *     1-D doubles array that the units of the next layer are written to.
+     * @param activation
+     *     Activation function of the next layer.
      */
-    private double[] calculateNextLayer(double[] layer, double[][] weights, int nextLayerSize) {
-        layer = getBiasedLayer(layer); // Add bias to layer.
-        double[] nextLayer = new double[nextLayerSize];
-        for(int nextLayerIndex = 0; nextLayerIndex < nextLayerSize; ++nextLayerIndex) {
-            double total = 0;
-            for(int layerIndex = 0; layerIndex < layer.length; ++layerIndex) {
-                total += layer[layerIndex] * weights[layerIndex][nextLayerIndex];
-            }
-            nextLayer[nextLayerIndex] = sigmoidFunction(total);
+    private void calculateNextLayer(double[] layer, Tensor weights, double[] nextLayer, Activation activation) {
+        int nextLayerSize = nextLayer.length;
+        double[] weightData = weights.data;
+        for(int nextLayerIndex = 0; nextLayerIndex < nextLayerSize; ++nextLayerIndex) { // Start from the bias.
+            nextLayer[nextLayerIndex] = biasValue * weightData[nextLayerIndex];
         }
-        return nextLayer;
+        for(int layerIndex = 0; layerIndex < layer.length; ++layerIndex) { // Each weight row is added to every next layer unit at once.
+            KERNELS.axpy(layer[layerIndex], weightData, (layerIndex + 1) * nextLayerSize, nextLayer, 0, nextLayerSize); // +1 for the bias.
+        }
+        activation.activate(nextLayer, 0, nextLayerSize); // The activation function determining how strongly each unit fires.
     }
 
     /**
-     * Adds the pre-determined bias value to the layer calculations.
+     * Passes target classification data backwards through the MLP.
      *
-     * @param originalLayer
-     *     1-D doubles array that represents the units within a layer.
+     * @param target
+     *     1-D doubles array of target classification values to propagate backwards through the neural network.
      */
-    private double[] getBiasedLayer(double[] originalLayer) {
-        double[] toReturn = new double[originalLayer.length + 1]; // +1 for bias.
-        toReturn[0] = BIAS_VALUE;
-        for(int i = 0; i < originalLayer.length; ++i) {
-            toReturn[i + 1] = originalLayer[i];
-        }
-        return toReturn;
+    public void executeBackPropagation(double[] target) {
+        executeBackPropagation(target, workspace);
+    }
+
+    // Pass target classification data backwards through the MLP, and write the error of each input layer unit.
+    void executeBackPropagation(double[] target, double[] inputError) {
+        executeBackPropagation(target, workspace, inputError);
+    }
+
+    /**
+     * Passes target classification data backwards through the MLP using the layers
+     * saved in a workspace by its last forward pass.
+     *
+     * @param target
+     *     1-D doubles array of target classification values to propagate backwards through the neural network.
+     * @param workspace
+     *     Workspace holding the layers of the last forward pass.
+     */
+    void executeBackPropagation(double[] target, Workspace workspace) {
+        executeBackPropagation(target, workspace, null);
     }
 
     /**
-     * The sigmoid/activation function determining whether to output 0 or 1.
+     * Passes target classification data backwards through the MLP using the layers saved in a
+     * workspace by its last forward pass, and writes the error of each input layer unit (i.e., for
+     * the convolution layers of a CNN to train on).
      *
-     * @param x
-     *     Double value used to determine activation or not.
+     * @param target
+     *     1-D doubles array of target classification values to propagate backwards through the neural network.
+     * @param workspace
+     *     Workspace holding the layers of the last forward pass.
+     * @param inputError
+     *     1-D doubles array that the error of each input layer unit is written to, or null if it is not needed.
      */
-    private static double sigmoidFunction(double x) {
-        return 1 / (1 + Math.exp(-x));
+    void executeBackPropagation(double[] target, Workspace workspace, double[] inputError) {
+        long startTime = Telemetry.start();
+        calculateErrors(target, workspace);
+        if(inputError != null) { // Calculated before the weights it passes through are updated.
+            calculateInputError(workspace, inputError);
+        }
+        for(int i = weights.length - 1; i >= 0; --i) {
+            updateWeights(weights[i], deltaWeights[i], workspace.layers[i], workspace.errors[i + 1], workspace.learningRateError);
+        }
+        workspace.layers[0] = null;
+        Telemetry.stop(Telemetry.Stage.BACKWARD, startTime);
     }
 
     /**
-     * Passes target classification data backwards through the MLP.
+     * Calculates the errors of the last forward pass of a workspace and adds the resulting weight
+     * gradients to a set of gradients, without changing the weights.
      *
      * @param target
      *     1-D doubles array of target classification values to propagate backwards through the neural network.
+     * @param workspace
+     *     Workspace holding the layers of the last forward pass.
+     * @param gradients
+     *     Gradients that this input's gradients are added to.
      */
-    public void executeBackPropagation(double[] target) {
-        double[] outputError = calculateOutputError(target);
-        double[] hiddenError = calculateHiddenError(outputError);
-        updateHiddenToOutputWeights(outputError);
-        updateInputToHiddenWeights(hiddenError);
-        inputLayer = null;
-        hiddenLayer = null;
-        outputLayer = null;
+    void accumulateGradients(double[] target, Workspace workspace, Gradients gradients) {
+        // The targets are usually OneHotTargets vectors shared by every worker, so catch one that has been written to (with -ea).
+        assert isTargetDistribution(target) : "The target " + Arrays.toString(target) + " is not a distribution over the "
+                                              + layerSizes[layerSizes.length - 1] + " output units (was a shared target modified?)";
+        long startTime = Telemetry.start();
+        calculateErrors(target, workspace);
+        for(int i = weights.length - 1; i >= 0; --i) {
+            accumulateWeightGradients(gradients.weights[i], workspace.layers[i], workspace.errors[i + 1]);
+        }
+        workspace.layers[0] = null;
+        Telemetry.stop(Telemetry.Stage.BACKWARD, startTime);
+    }
+
+    // Return whether a target has a value from 0 to 1 for every output unit, adding up to 1 (as a one-hot target does).
+    private boolean isTargetDistribution(double[] target) {
+        if(target.length != layerSizes[layerSizes.length - 1]) {
+            return false;
+        }
+        double sum = 0;
+        for(double value : target) {
+            if(!(value >= 0 && value <= 1)) {
+                return false;
+            }
+            sum += value;
+        }
+        return Math.abs(sum - 1) < 1e-9;
+    }
+
+    /**
+     * Adds the gradients (layer unit * next layer error) of a single input to a gradients matrix.
+     *
+     * @param gradients
+     *     [(layerSize + 1) x nextLayerSize] matrix the gradients are added to (row 0 is the bias).
+     * @param layer
+     *     1-D doubles array of the layer units (without the bias) feeding into the weights.
+     * @param error
+     *     1-D doubles array of the error calculations of the next layer.
+     */
+    private void accumulateWeightGradients(Tensor gradients, double[] layer, double[] error) {
+        double[] gradientData = gradients.data;
+        int nextLayerSize = gradients.columns;
+        for(int j = 0; j < nextLayerSize; ++j) {
+            gradientData[j] += biasValue * error[j];
+        }
+        for(int i = 0; i < layer.length; ++i) {
+            double unit = layer[i];
+            if(unit == 0) {
+                continue;
+            }
+            KERNELS.axpy(unit, error, 0, gradientData, (i + 1) * nextLayerSize, nextLayerSize); // +1 for the bias.
+        }
+    }
+
+    // Calculate the error of the output layer and then of every hidden layer, from the last one back.
+    private void calculateErrors(double[] target, Workspace workspace) {
+        calculateOutputError(target, workspace);
+        for(int i = layerSizes.length - 2; i >= 1; --i) {
+            calculateHiddenError(workspace, i);
+        }
     }
 
     /**
      * Calculates the error from the output layer's classification labels vs the expected target labels.
+     * A SOFTMAX output layer is trained on the cross-entropy error, whose error is just target - output;
+     * the other activations are trained on the squared error, times their derivative.
      *
      * @param target
      *     1-D double array of classified input value labels to determine error.
+     * @param workspace
+     *     Workspace holding the output layer, that the output error is written to.
      */
-    private double[] calculateOutputError(double[] target) {
-        double[] outputError = new double[outputLayerSize];
+    private void calculateOutputError(double[] target, Workspace workspace) {
+        int outputLayerIndex = layerSizes.length - 1;
+        double[] outputLayer = workspace.layers[outputLayerIndex];
+        double[] outputError = workspace.errors[outputLayerIndex];
+        Activation outputActivation = activations[outputLayerIndex];
         for(int i = 0; i < outputLayer.length; ++i) {
-            outputError[i] = outputLayer[i] * (1 - outputLayer[i]) * (target[i] - outputLayer[i]);
+            outputError[i] = (outputActivation == Activation.SOFTMAX ? target[i] - outputLayer[i]
+                                                                      : outputActivation.derivative(outputLayer[i]) * (target[i] - outputLayer[i]));
+        }
+        Telemetry.recordTrainingLoss(outputLayer, 0, target);
+    }
+
+    /**
+     * Calculates the error of a hidden layer from the error of the layer after it.
+     *
+     * @param workspace
+     *     Workspace holding the hidden layer and the next layer's error, that the hidden error is written to.
+     * @param layerIndex
+     *     Index of the hidden layer (from 1 to the number of hidden layers).
+     */
+    private void calculateHiddenError(Workspace workspace, int layerIndex) {
+        double[] weightData = weights[layerIndex].data;
+        double[] nextError = workspace.errors[layerIndex + 1];
+        double[] hiddenLayer = workspace.layers[layerIndex];
+        double[] hiddenError = workspace.errors[layerIndex];
+        int nextLayerSize = nextError.length;
+        Activation activation = activations[layerIndex];
+        for(int i = 0; i < hiddenLayer.length; ++i) {
+            double summation = KERNELS.dot(weightData, (i + 1) * nextLayerSize, nextError, 0, nextLayerSize); // +1 for the bias.
+            hiddenError[i] = activation.derivative(hiddenLayer[i]) * summation;
+        }
+    }
+
+    /**
+     * Calculates the error of each input layer unit from the error of the first layer after it. The
+     * input layer has no activation function, so this is only that error passed back through the weights.
+     *
+     * @param workspace
+     *     Workspace holding the error of the layer after the input layer.
+     * @param inputError
+     *     1-D doubles array that the error of each input layer unit is written to.
+     */
+    private void calculateInputError(Workspace workspace, double[] inputError) {
+        double[] weightData = weights[0].data;
+        double[] nextError = workspace.errors[1];
+        int nextLayerSize = nextError.length;
+        for(int i = 0; i < layerSizes[0]; ++i) {
+            inputError[i] = KERNELS.dot(weightData, (i + 1) * nextLayerSize, nextError, 0, nextLayerSize); // +1 for the bias.
+        }
+    }
+
+    /**
+     * Updates a set of weights from the units feeding into them and the error of the units they feed.
+     * The weights leaving each unit are updated by (learning rate * error) * unit, so the error is
+     * multiplied by the learning rate once for every row instead of once for every weight.
+     *
+     * @param weights
+     *     Row-major matrix of the weights to update.
+     * @param deltaWeights
+     *     Row-major matrix of the previous weight changes (used for the momentum term).
+     * @param layer
+     *     1-D doubles array of the layer units (without the bias) feeding into the weights.
+     * @param error
+     *     1-D doubles array of the error calculations of the next layer.
+     * @param learningRateError
+     *     1-D doubles array that the error times the learning rate is written to.
+     */
+    private void updateWeights(Tensor weights, Tensor deltaWeights, double[] layer, double[] error, double[] learningRateError) {
+        int nextLayerSize = weights.columns;
+        for(int j = 0; j < nextLayerSize; ++j) {
+            learningRateError[j] = learningRate * error[j];
+        }
+        KERNELS.updateWeights(weights.data, deltaWeights.data, 0, biasValue, learningRateError, 0, nextLayerSize, momentum);
+        for(int i = 0; i < layer.length; ++i) { // +1 for the bias.
+            KERNELS.updateWeights(weights.data, deltaWeights.data, (i + 1) * nextLayerSize, layer[i], learningRateError, 0, nextLayerSize, momentum);
+        }
+    }
+
+    /**
+     * Passes a batch of input data forward through the MLP. Each layer is calculated for the
+     * whole batch with one matrix-matrix multiplication instead of one matrix-vector multiplication per input.
+     *
+     * @param inputs
+     *     Input image data objects that contain pixel data and an associated label to propagate forward.
+     * @return The output layers of the batch, where row i belongs to inputs[i] (only the first inputs.length rows are valid).
+     */
+    public double[][] forwardBatch(Input[] inputs) {
+        ensureBatchCapacity(inputs.length);
+        batchSize = inputs.length;
+        if(float32TrainingEnabled) {
+            return forwardFloatBatch(inputs);
+        }
+        Tensor batchInputLayer = batchLayers[0];
+        for(int i = 0; i < batchSize; ++i) { // Pack the batch into one contiguous matrix.
+            inputs[i].copyData(batchInputLayer.data, batchInputLayer.index(i, 0));
+        }
+        long startTime = Telemetry.start();
+        for(int i = 0; i < weights.length; ++i) {
+            calculateNextBatchLayer(batchLayers[i], weights[i], batchLayers[i + 1], activations[i + 1]);
+        }
+        Tensor batchOutputLayer = batchLayers[batchLayers.length - 1];
+        for(int i = 0; i < batchSize; ++i) {
+            System.arraycopy(batchOutputLayer.data, batchOutputLayer.index(i, 0), batchOutputs[i], 0, batchOutputLayer.columns);
+        }
+        Telemetry.stop(Telemetry.Stage.FORWARD, startTime);
+        return batchOutputs;
+    }
+
+    /**
+     * Allocates the mini-batch layers, errors and gradients if they cannot hold a batch of the passed in size.
+     *
+     * @param newBatchSize
+     *     Number of inputs in the next batch.
+     */
+    private void ensureBatchCapacity(int newBatchSize) {
+        if(batchOutputs != null && batchOutputs.length >= newBatchSize) {
+            return;
+        }
+        if(float32TrainingEnabled) {
+            ensureFloatBatchCapacity(newBatchSize);
+        } else {
+            batchLayers = new Tensor[layerSizes.length];
+            batchErrors = new Tensor[layerSizes.length];
+            for(int i = 0; i < layerSizes.length; ++i) {
+                batchLayers[i] = new Tensor(newBatchSize, layerSizes[i]);
+                batchErrors[i] = (i == 0 ? null : new Tensor(newBatchSize, layerSizes[i]));
+            }
+        }
+        batchOutputs = new double[newBatchSize][layerSizes[layerSizes.length - 1]];
+        if(batchGradients == null) {
+            batchGradients = createGradients();
         }
-        return outputError;
     }
 
     /**
-     * Calculates the error from the hidden layer's classification labels vs the expected target labels.
+     * Calculates the next layer of every input in the batch.
      *
-     * @param outputError
-     *     1-D double array of output layer error calculations to determine hidden layer error.
+     * @param layers
+     *     [batchSize x layerSize] matrix of the current layer of each input.
+     * @param weights
+     *     Row-major matrix that represents the weight relationships between the
+     *     previous layer units and the current layer units (row 0 holds the bias weights).
+     * @param nextLayers
+     *     [batchSize x nextLayerSize] matrix that the next layer of each input is written to.
+     * @param activation
+     *     Activation function of the next layer.
      */
-    private double[] calculateHiddenError(double[] outputError) {
-        double[] hiddenError = new double[hiddenLayerSize];
-        for(int i = 0; i < hiddenLayerSize; ++i) {
-            double summation = 0;
-            for(int j = 0; j < outputLayerSize; ++j) {
-                summation += hiddenToOutputWeights[i + 1][j] * outputError[j]; // +1 for the bias.
+    private void calculateNextBatchLayer(Tensor layers, Tensor weights, Tensor nextLayers, Activation activation) {
+        int nextLayerSize = nextLayers.columns;
+        for(int i = 0; i < batchSize; ++i) { // Start from the bias.
+            for(int j = 0; j < nextLayerSize; ++j) {
+                nextLayers.data[i * nextLayerSize + j] = biasValue * weights.data[j];
             }
-            hiddenError[i] = hiddenLayer[i] * (1 - hiddenLayer[i]) * summation;
         }
-        return hiddenError;
+        LinearAlgebra.multiplyAdd(layers, batchSize, weights, 1, nextLayers);
+        activation.activate(nextLayers, batchSize);
     }
 
     /**
-     * Updates the output layer's weights based on the passed in pre-calculated output error.
+     * Passes a batch of target classification data backwards through the MLP. The gradients
+     * of the whole batch are summed and the weights are updated once with their average.
      *
-     * @param outputError
-     *     1-D double array of output layer error calculations to determine new output layer weights.
+     * @param targets
+     *     Target classification values for each input of the last forward batch (row i belongs to inputs[i]).
      */
-    private void updateHiddenToOutputWeights(double[] outputError) {
-        double[] biasedHiddenLayer = getBiasedLayer(hiddenLayer);
-        for(int i = 0; i < hiddenLayerSize + 1; ++i) { // +1 for the bias.
-            for(int j = 0; j < outputLayerSize; ++j) {
-                double newValue = hiddenToOutputWeights[i][j] + (LEARNING_RATE * outputError[j] * biasedHiddenLayer[i]);
-                if(MOMENTUM_ENABLED == true) {
-                    newValue += deltaHiddenToOutputWeights[i][j] * MOMENTUM_VALUE;
-                }
-                deltaHiddenToOutputWeights[i][j] = hiddenToOutputWeights[i][j] - newValue;
-                hiddenToOutputWeights[i][j] = newValue;
+    public void backwardBatch(double[][] targets) {
+        backwardBatch(targets, null);
+    }
+
+    /**
+     * Passes a batch of target classification data backwards through the MLP, and writes the
+     * error of each input layer unit of every input in the batch.
+     *
+     * @param targets
+     *     Target classification values for each input of the last forward batch (row i belongs to inputs[i]).
+     * @param inputErrors
+     *     [batchSize x inputLayerSize] matrix that the input layer errors are written to (row i belongs
+     *     to inputs[i]), or null if they are not needed.
+     */
+    void backwardBatch(double[][] targets, Tensor inputErrors) {
+        if(float32TrainingEnabled) {
+            backwardFloatBatch(targets, inputErrors);
+            return;
+        }
+        long startTime = Telemetry.start();
+        int outputLayerIndex = layerSizes.length - 1;
+        Tensor batchOutputLayer = batchLayers[outputLayerIndex];
+        Tensor batchOutputError = batchErrors[outputLayerIndex];
+        Activation outputActivation = activations[outputLayerIndex];
+        for(int i = 0; i < batchSize; ++i) {
+            for(int j = 0; j < batchOutputLayer.columns; ++j) {
+                double output = batchOutputLayer.get(i, j);
+                batchOutputError.set(i, j, (outputActivation == Activation.SOFTMAX ? targets[i][j] - output
+                                                                                   : outputActivation.derivative(output) * (targets[i][j] - output)));
+            }
+            Telemetry.recordTrainingLoss(batchOutputLayer.data, batchOutputLayer.index(i, 0), targets[i]);
+        }
+        for(int layerIndex = outputLayerIndex - 1; layerIndex >= 1; --layerIndex) {
+            Tensor batchHiddenLayer = batchLayers[layerIndex];
+            Tensor batchHiddenError = batchErrors[layerIndex];
+            LinearAlgebra.multiplyTranspose(batchErrors[layerIndex + 1], batchSize, weights[layerIndex], 1, batchHiddenError);
+            Activation activation = activations[layerIndex];
+            for(int i = 0; i < batchSize * batchHiddenLayer.columns; ++i) {
+                batchHiddenError.data[i] *= activation.derivative(batchHiddenLayer.data[i]);
             }
         }
+        if(inputErrors != null) { // Calculated before the weights it passes through are updated.
+            LinearAlgebra.multiplyTranspose(batchErrors[1], batchSize, weights[0], 1, inputErrors);
+        }
+        for(int i = weights.length - 1; i >= 0; --i) {
+            calculateBatchGradients(batchLayers[i], batchErrors[i + 1], batchGradients.weights[i]);
+        }
+        applyGradients(batchGradients, batchSize);
+        batchSize = 0;
+        Telemetry.stop(Telemetry.Stage.BACKWARD, startTime);
     }
 
     /**
-     * Updates the hidden layer's weights based on the passed in pre-calculated hidden layer error.
+     * Sums the weight gradients (layer unit * next layer error) over the batch.
      *
-     * @param outputError
-     *     1-D double array of hidden layer error calculations to determine new hidden layer weights.
+     * @param layers
+     *     [batchSize x layerSize] matrix of the layer units feeding into the weights.
+     * @param errors
+     *     [batchSize x nextLayerSize] matrix of the errors of the next layer.
+     * @param gradients
+     *     [(layerSize + 1) x nextLayerSize] matrix the summed gradients are written to (row 0 is the bias).
      */
-    private void updateInputToHiddenWeights(double[] hiddenError) {
-        double[] biasedInputLayer = getBiasedLayer(inputLayer);
-        for(int i = 0; i < inputLayerSize + 1; ++i) { // +1 for the bias.
-            for(int j = 0; j < hiddenLayerSize; ++j) {
-                double newValue = inputToHiddenWeights[i][j] + (LEARNING_RATE * hiddenError[j] * biasedInputLayer[i]);
-                if(MOMENTUM_ENABLED == true) {
-                    newValue += deltaInputToHiddenWeights[i][j] * MOMENTUM_VALUE;
-                }
-                deltaInputToHiddenWeights[i][j] = inputToHiddenWeights[i][j] - newValue;
-                inputToHiddenWeights[i][j] = newValue;
+    private void calculateBatchGradients(Tensor layers, Tensor errors, Tensor gradients) {
+        int nextLayerSize = errors.columns;
+        gradients.fill(0);
+        for(int i = 0; i < batchSize; ++i) {
+            for(int j = 0; j < nextLayerSize; ++j) {
+                gradients.data[j] += biasValue * errors.get(i, j);
+            }
+        }
+        LinearAlgebra.transposeMultiplyAdd(layers, batchSize, errors, gradients, 1);
+    }
+
+    /**
+     * Updates every weight once with the average of gradients summed over a number of inputs.
+     *
+     * @param gradients
+     *     Gradients summed over the inputs.
+     * @param sampleCount
+     *     Number of inputs the gradients were summed over.
+     */
+    void applyGradients(Gradients gradients, int sampleCount) {
+        for(int i = weights.length - 1; i >= 0; --i) {
+            applyBatchGradients(weights[i], deltaWeights[i], gradients.weights[i], learningRate / sampleCount);
+        }
+    }
+
+    /**
+     * Updates a set of weights once with the average of the gradients summed over the batch.
+     *
+     * @param weights
+     *     Row-major matrix of the weights to update.
+     * @param deltaWeights
+     *     Row-major matrix of the previous weight changes (used for the momentum term).
+     * @param gradients
+     *     Row-major matrix of the gradients summed over the batch.
+     * @param scale
+     *     Learning rate divided by the number of inputs in the batch.
+     */
+    private void applyBatchGradients(Tensor weights, Tensor deltaWeights, Tensor gradients, double scale) {
+        KERNELS.updateWeights(weights.data, deltaWeights.data, 0, scale, gradients.data, 0, weights.getSize(), momentum);
+    }
+
+    // Allocate the FLOAT32 mini-batch layers, errors and gradients for batches of up to the passed in size.
+    private void ensureFloatBatchCapacity(int newBatchSize) {
+        floatBatchLayers = new FloatTensor[layerSizes.length];
+        floatBatchErrors = new FloatTensor[layerSizes.length];
+        for(int i = 0; i < layerSizes.length; ++i) {
+            floatBatchLayers[i] = new FloatTensor(newBatchSize, layerSizes[i]);
+            floatBatchErrors[i] = new FloatTensor(newBatchSize, layerSizes[i]);
+        }
+        if(floatWeights == null) {
+            floatWeights = new FloatTensor[weights.length];
+            floatBatchGradients = new FloatTensor[weights.length];
+            for(int i = 0; i < weights.length; ++i) {
+                floatWeights[i] = new FloatTensor(weights[i].rows, weights[i].columns);
+                floatBatchGradients[i] = new FloatTensor(weights[i].rows, weights[i].columns);
+            }
+        }
+    }
+
+    /**
+     * Passes a batch forward in FLOAT32 (see forwardBatch). The weights are rounded to floats first, so
+     * any change to them since the last batch (i.e., restored or pulled from a parameter server) is used.
+     */
+    private double[][] forwardFloatBatch(Input[] inputs) {
+        FloatTensor batchInputLayer = floatBatchLayers[0];
+        for(int i = 0; i < batchSize; ++i) {
+            inputs[i].copyData(batchInputLayer.data, batchInputLayer.index(i, 0));
+        }
+        long startTime = Telemetry.start();
+        for(int i = 0; i < weights.length; ++i) {
+            floatWeights[i].copyFrom(weights[i], weights[i].rows);
+            calculateNextBatchLayer(floatBatchLayers[i], floatWeights[i], floatBatchLayers[i + 1], activations[i + 1]);
+        }
+        FloatTensor batchOutputLayer = floatBatchLayers[floatBatchLayers.length - 1];
+        for(int i = 0; i < batchSize; ++i) {
+            for(int j = 0; j < batchOutputLayer.columns; ++j) {
+                batchOutputs[i][j] = batchOutputLayer.get(i, j);
+            }
+        }
+        Telemetry.stop(Telemetry.Stage.FORWARD, startTime);
+        return batchOutputs;
+    }
+
+    // Same as calculateNextBatchLayer, in FLOAT32.
+    private void calculateNextBatchLayer(FloatTensor layers, FloatTensor weights, FloatTensor nextLayers, Activation activation) {
+        int nextLayerSize = nextLayers.columns;
+        float bias = (float)biasValue;
+        for(int i = 0; i < batchSize; ++i) {
+            for(int j = 0; j < nextLayerSize; ++j) {
+                nextLayers.data[i * nextLayerSize + j] = bias * weights.data[j];
+            }
+        }
+        LinearAlgebra.multiplyAdd(layers, batchSize, weights, 1, nextLayers);
+        activation.activate(nextLayers, batchSize);
+    }
+
+    /**
+     * Passes a batch backwards in FLOAT32 (see backwardBatch), through the same float weights as the forward pass.
+     * The summed gradients are widened to doubles, and the weights are updated by applyGradients in double.
+     */
+    private void backwardFloatBatch(double[][] targets, Tensor inputErrors) {
+        long startTime = Telemetry.start();
+        int outputLayerIndex = layerSizes.length - 1;
+        FloatTensor batchOutputLayer = floatBatchLayers[outputLayerIndex];
+        FloatTensor batchOutputError = floatBatchErrors[outputLayerIndex];
+        Activation outputActivation = activations[outputLayerIndex];
+        for(int i = 0; i < batchSize; ++i) {
+            for(int j = 0; j < batchOutputLayer.columns; ++j) {
+                double output = batchOutputLayer.get(i, j);
+                batchOutputError.set(i, j, (float)(outputActivation == Activation.SOFTMAX ? targets[i][j] - output
+                                                                                          : outputActivation.derivative(output) * (targets[i][j] - output)));
+            }
+            Telemetry.recordTrainingLoss(batchOutputs[i], 0, targets[i]);
+        }
+        for(int layerIndex = outputLayerIndex - 1; layerIndex >= 1; --layerIndex) {
+            FloatTensor batchHiddenLayer = floatBatchLayers[layerIndex];
+            FloatTensor batchHiddenError = floatBatchErrors[layerIndex];
+            LinearAlgebra.multiplyTranspose(floatBatchErrors[layerIndex + 1], batchSize, floatWeights[layerIndex], 1, batchHiddenError);
+            Activation activation = activations[layerIndex];
+            for(int i = 0; i < batchSize * batchHiddenLayer.columns; ++i) {
+                batchHiddenError.data[i] *= (float)activation.derivative(batchHiddenLayer.data[i]);
+            }
+        }
+        if(inputErrors != null) {
+            LinearAlgebra.multiplyTranspose(floatBatchErrors[1], batchSize, floatWeights[0], 1, floatBatchErrors[0]);
+            floatBatchErrors[0].copyTo(inputErrors, batchSize);
+        }
+        for(int i = weights.length - 1; i >= 0; --i) {
+            calculateBatchGradients(floatBatchLayers[i], floatBatchErrors[i + 1], floatBatchGradients[i]);
+            floatBatchGradients[i].copyTo(batchGradients.weights[i], floatBatchGradients[i].rows);
+        }
+        applyGradients(batchGradients, batchSize);
+        batchSize = 0;
+        Telemetry.stop(Telemetry.Stage.BACKWARD, startTime);
+    }
+
+    // Same as calculateBatchGradients, in FLOAT32.
+    private void calculateBatchGradients(FloatTensor layers, FloatTensor errors, FloatTensor gradients) {
+        int nextLayerSize = errors.columns;
+        float bias = (float)biasValue;
+        gradients.fill(0);
+        for(int i = 0; i < batchSize; ++i) {
+            for(int j = 0; j < nextLayerSize; ++j) {
+                gradients.data[j] += bias * errors.get(i, j);
             }
         }
+        LinearAlgebra.transposeMultiplyAdd(layers, batchSize, errors, gradients, 1);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+import java.util.*;
+
+/**
+ * Responsible for the settings of an MLP that used to be constants: its hidden layer sizes, the
+ * activation of its hidden and output layers, its learning rate, momentum and bias value, and the
+ * precision its mini-batches are trained in.
+ * Immutable: each with method returns a changed copy, so one configuration can be shared and
+ * varied (i.e., MLPConfiguration.DEFAULT.withHiddenLayerSizes(100, 50).withActivations(RELU, SOFTMAX)).
+ */
+public final class MLPConfiguration {
+
+    // One hidden layer of 50 sigmoid units and sigmoid outputs, trained in DOUBLE with a learning rate of 0.1 and momentum of 0.9.
+    public static final MLPConfiguration DEFAULT = new MLPConfiguration(new int[] {50}, Activation.SIGMOID, Activation.SIGMOID, 0.1, 0.9, 1,
+                                                                        Precision.DOUBLE);
+
+    private final int[] hiddenLayerSizes;
+    private final Activation hiddenActivation, outputActivation;
+    private final double learningRate, momentum, biasValue;
+    private final Precision trainingPrecision;
+
+    private MLPConfiguration(int[] newHiddenLayerSizes, Activation newHiddenActivation, Activation newOutputActivation,
+                             double newLearningRate, double newMomentum, double newBiasValue, Precision newTrainingPrecision) {
+        for(int size : newHiddenLayerSizes) {
+            if(size < 1) {
+                throw new IllegalArgumentException("Every hidden layer needs at least 1 unit, but the sizes are " + Arrays.toString(newHiddenLayerSizes));
+            }
+        }
+        if(!newHiddenActivation.isElementwise()) {
+            throw new IllegalArgumentException(newHiddenActivation + " can only be used for the output layer.");
+        }
+        if(!(newLearningRate > 0) || !(newMomentum >= 0 && newMomentum < 1)) {
+            throw new IllegalArgumentException("The learning rate must be above 0 and the momentum from 0 to below 1, but they are "
+                                               + newLearningRate + " and " + newMomentum);
+        }
+        if(newTrainingPrecision == Precision.INT8) {
+            throw new IllegalArgumentException("An MLP can only be trained in DOUBLE or FLOAT32 precision.");
+        }
+        hiddenLayerSizes = newHiddenLayerSizes.clone();
+        hiddenActivation = newHiddenActivation;
+        outputActivation = newOutputActivation;
+        learningRate = newLearningRate;
+        momentum = newMomentum;
+        biasValue = newBiasValue;
+        trainingPrecision = newTrainingPrecision;
+    }
+
+    // Return the number of units of each hidden layer, from the input side (empty for no hidden layers).
+    public int[] getHiddenLayerSizes() {
+        return hiddenLayerSizes.clone();
+    }
+
+    public Activation getHiddenActivation() {
+        return hiddenActivation;
+    }
+
+    public Activation getOutputActivation() {
+        return outputActivation;
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    // Return the share of the previous weight change added to each change (0 trains without momentum).
+    public double getMomentum() {
+        return momentum;
+    }
+
+    // Return the value of the bias unit of every layer.
+    public double getBiasValue() {
+        return biasValue;
+    }
+
+    // Return the precision forwardBatch and backwardBatch calculate in (single inputs are always trained in DOUBLE).
+    public Precision getTrainingPrecision() {
+        return trainingPrecision;
+    }
+
+    // Return a copy with other hidden layer sizes (none for a perceptron without hidden layers).
+    public MLPConfiguration withHiddenLayerSizes(int... newHiddenLayerSizes) {
+        return new MLPConfiguration(newHiddenLayerSizes, hiddenActivation, outputActivation, learningRate, momentum, biasValue, trainingPrecision);
+    }
+
+    // Return a copy with other activations (the hidden one must be elementwise, see Activation).
+    public MLPConfiguration withActivations(Activation newHiddenActivation, Activation newOutputActivation) {
+        return new MLPConfiguration(hiddenLayerSizes, newHiddenActivation, newOutputActivation, learningRate, momentum, biasValue, trainingPrecision);
+    }
+
+    public MLPConfiguration withLearningRate(double newLearningRate) {
+        return new MLPConfiguration(hiddenLayerSizes, hiddenActivation, outputActivation, newLearningRate, momentum, biasValue, trainingPrecision);
+    }
+
+    public MLPConfiguration withMomentum(double newMomentum) {
+        return new MLPConfiguration(hiddenLayerSizes, hiddenActivation, outputActivation, learningRate, newMomentum, biasValue, trainingPrecision);
+    }
+
+    public MLPConfiguration withBiasValue(double newBiasValue) {
+        return new MLPConfiguration(hiddenLayerSizes, hiddenActivation, outputActivation, learningRate, momentum, newBiasValue, trainingPrecision);
+    }
+
+    /**
+     * Returns a copy that trains mini-batches in another precision. With FLOAT32, forwardBatch and backwardBatch
+     * run on floats: the layers, errors and gradients of the batch, and a copy of the weights rounded to floats
+     * at the start of each batch. The weights themselves stay doubles and are updated in double, so rounding
+     * errors do not build up in them over many small updates.
+     *
+     * @param newTrainingPrecision
+     *     DOUBLE or FLOAT32 (INT8 throws an IllegalArgumentException).
+     */
+    public MLPConfiguration withTrainingPrecision(Precision newTrainingPrecision) {
+        return new MLPConfiguration(hiddenLayerSizes, hiddenActivation, outputActivation, learningRate, momentum, biasValue, newTrainingPrecision);
+    }
+
+    // Return a short description (i.e., for the run info).
+    @Override
+    public String toString() {
+        return "hidden layers " + Arrays.toString(hiddenLayerSizes) + " " + hiddenActivation + ", output " + outputActivation
+               + (outputActivation == Activation.SOFTMAX ? " (cross-entropy)" : "")
+               + ", learning rate " + learningRate + ", momentum " + momentum
+               + (trainingPrecision != Precision.DOUBLE ? ", " + trainingPrecision + " batches" : "");
+    }
+}
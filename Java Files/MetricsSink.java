@@ -0,0 +1,18 @@
+/**
+ * Responsible for receiving the telemetry of every epoch (see Telemetry), i.e., to write it to a
+ * file or expose it to a monitoring tool. Called from the thread running the epochs, once per epoch.
+ */
+public interface MetricsSink extends AutoCloseable {
+
+    /**
+     * Receives the metrics of an epoch.
+     *
+     * @param metrics
+     *     The metrics of the epoch that just finished.
+     */
+    void publish(EpochMetrics metrics);
+
+    // Release whatever the sink holds (a file, a registration) once the epochs are done.
+    @Override
+    void close();
+}
@@ -9,4 +9,12 @@ public interface Network {
     public double[] executeForwardPropagation(Input input);
 
     public void executeBackPropagation(double[] target);
+
+    // Mini-batch variants: forward a batch of inputs, then back propagate one target per input with a single weight update.
+    public double[][] forwardBatch(Input[] inputs);
+
+    public void backwardBatch(double[][] targets);
+
+    // Return an immutable, thread-safe snapshot of the network for classifying inputs (later training does not change it).
+    public Predictor createPredictor();
 }
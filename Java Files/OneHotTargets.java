@@ -0,0 +1,44 @@
+import java.util.function.*;
+
+/**
+ * Responsible for the target output layer of each label: a one-hot vector that is 1 at the
+ * label's own output unit and 0 everywhere else. Every vector is built once, when the
+ * <code>OneHotTargets</code> is made, and the same vector is handed out every time, so training
+ * allocates no targets. The vectors are shared by every caller (and thread), so they must not be modified.
+ * They are handed out as plain arrays rather than read-only views (i.e., DoubleBuffer.asReadOnlyBuffer),
+ * since every training path reads targets as arrays in its innermost loops. In exchange, MLP.accumulateGradients
+ * (where the training workers and nodes meet the shared vectors) asserts that its target is still a valid one.
+ */
+public class OneHotTargets implements IntFunction<double[]> {
+
+    private final double[][] targets;
+
+    /**
+     * Creates the one-hot target vector of every label.
+     *
+     * @param classAmount
+     *     Number of labels (and the length of each vector).
+     */
+    public OneHotTargets(int classAmount) {
+        targets = new double[classAmount][classAmount];
+        for(int label = 0; label < classAmount; ++label) {
+            targets[label][label] = 1;
+        }
+    }
+
+    /**
+     * Returns the target vector of a label (shared, so it must not be modified).
+     *
+     * @param label
+     *     The label of the desired vector.
+     */
+    public double[] get(int label) {
+        return targets[label];
+    }
+
+    // Same as get, so the targets can be passed wherever a target provider is expected.
+    @Override
+    public double[] apply(int label) {
+        return targets[label];
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Responsible for turning output layers into predictions: the predicted label (argmax), the k most
+ * likely labels with their scores (top-k), and probabilities (softmax).
+ * Each output unit belongs to one label, so a label is found by scanning the output layer once,
+ * instead of comparing it against every label's target vector. Nothing is allocated: results are
+ * written into arrays the caller owns (and can reuse), so the same methods serve the training loop,
+ * evaluation and a Predictor. The methods that take an offset and a length work on a row of a
+ * batch (i.e., tensor.data from tensor.index(row, 0)), and the Tensor methods run over a whole batch.
+ */
+public class OutputDecoder {
+
+    private OutputDecoder() {}
+
+    /**
+     * Finds the label of the largest output unit.
+     *
+     * @param outputLayer
+     *     1-D doubles array of the output layer units.
+     * @return The label of the largest unit (the first one if several are equal).
+     */
+    public static int argmax(double[] outputLayer) {
+        return argmax(outputLayer, 0, outputLayer.length);
+    }
+
+    /**
+     * Finds the label of the largest output unit in part of an array.
+     *
+     * @param values
+     *     Array that holds the output layer units.
+     * @param offset
+     *     Index of the first unit (label 0).
+     * @param length
+     *     Number of units.
+     * @return The label of the largest unit (the first one if several are equal).
+     */
+    public static int argmax(double[] values, int offset, int length) {
+        int predictedLabel = 0;
+        double largestValue = Double.NEGATIVE_INFINITY; // TANH and LEAKY_RELU output units can be below 0.
+        for(int label = 0; label < length; ++label) {
+            if(values[offset + label] > largestValue) {
+                predictedLabel = label;
+                largestValue = values[offset + label];
+            }
+        }
+        return predictedLabel;
+    }
+
+    /**
+     * Finds the label of the largest output unit of every output layer in a batch.
+     *
+     * @param outputLayers
+     *     [batchSize x outputLayerSize] matrix, where row i is the output layer of input i.
+     * @param batchSize
+     *     Number of rows to decode.
+     * @param labels
+     *     Array the label of each row is written to.
+     */
+    public static void argmax(Tensor outputLayers, int batchSize, int[] labels) {
+        for(int i = 0; i < batchSize; ++i) {
+            labels[i] = argmax(outputLayers.data, outputLayers.index(i, 0), outputLayers.columns);
+        }
+    }
+
+    /**
+     * Finds the k largest output units, largest first, where k is the length of the labels array.
+     * Runs in O(length * k), which for the handful of labels a caller shows is faster than sorting.
+     *
+     * @param values
+     *     Array that holds the output layer units.
+     * @param offset
+     *     Index of the first unit (label 0).
+     * @param length
+     *     Number of units.
+     * @param labels
+     *     Array the labels are written to, largest unit first.
+     * @param scores
+     *     Array the units of those labels are written to (at least as long as labels).
+     * @return The number of labels written (k, or length if there are fewer units than that).
+     */
+    public static int topK(double[] values, int offset, int length, int[] labels, double[] scores) {
+        int k = Math.min(labels.length, length);
+        if(scores.length < k) {
+            throw new IllegalArgumentException("Top " + k + " labels need " + k + " scores, but the scores array holds " + scores.length);
+        }
+        int found = 0;
+        for(int label = 0; label < length; ++label) {
+            double value = values[offset + label];
+            if(found == k && !(value > scores[k - 1])) { // Not larger than the smallest kept unit (equal units keep the first label).
+                continue;
+            }
+            int position = (found < k ? found++ : k - 1);
+            for(; position > 0 && value > scores[position - 1]; --position) { // Insertion sort step: shift smaller units down.
+                labels[position] = labels[position - 1];
+                scores[position] = scores[position - 1];
+            }
+            labels[position] = label;
+            scores[position] = value;
+        }
+        return k;
+    }
+
+    /**
+     * Calculates the softmax probabilities of an output layer: exp(unit) / sum(exp(units)). The largest
+     * unit is subtracted from every unit first, which gives the same probabilities without overflowing.
+     *
+     * @param values
+     *     Array that holds the output layer units.
+     * @param offset
+     *     Index of the first unit (label 0).
+     * @param length
+     *     Number of units.
+     * @param probabilities
+     *     Array the probabilities are written to (may be values itself, to convert in place).
+     * @param probabilitiesOffset
+     *     Index the probability of label 0 is written to.
+     */
+    public static void softmax(double[] values, int offset, int length, double[] probabilities, int probabilitiesOffset) {
+        double largestValue = Double.NEGATIVE_INFINITY;
+        for(int label = 0; label < length; ++label) {
+            largestValue = Math.max(largestValue, values[offset + label]);
+        }
+        double sum = 0;
+        for(int label = 0; label < length; ++label) {
+            double exponential = Math.exp(values[offset + label] - largestValue);
+            probabilities[probabilitiesOffset + label] = exponential;
+            sum += exponential;
+        }
+        for(int label = 0; label < length; ++label) {
+            probabilities[probabilitiesOffset + label] /= sum;
+        }
+    }
+
+    // Same as softmax, over floats (the exponentials are summed in double).
+    public static void softmax(float[] values, int offset, int length, float[] probabilities, int probabilitiesOffset) {
+        float largestValue = Float.NEGATIVE_INFINITY;
+        for(int label = 0; label < length; ++label) {
+            largestValue = Math.max(largestValue, values[offset + label]);
+        }
+        double sum = 0;
+        for(int label = 0; label < length; ++label) {
+            float exponential = (float)Math.exp(values[offset + label] - largestValue);
+            probabilities[probabilitiesOffset + label] = exponential;
+            sum += exponential;
+        }
+        for(int label = 0; label < length; ++label) {
+            probabilities[probabilitiesOffset + label] /= sum;
+        }
+    }
+
+    /**
+     * Calculates the softmax probabilities of every output layer in a batch.
+     *
+     * @param outputLayers
+     *     [batchSize x outputLayerSize] matrix, where row i is the output layer of input i.
+     * @param batchSize
+     *     Number of rows to convert.
+     * @param probabilities
+     *     [batchSize x outputLayerSize] matrix the probabilities are written to (may be outputLayers itself).
+     */
+    public static void softmax(Tensor outputLayers, int batchSize, Tensor probabilities) {
+        for(int i = 0; i < batchSize; ++i) {
+            softmax(outputLayers.data, outputLayers.index(i, 0), outputLayers.columns, probabilities.data, probabilities.index(i, 0));
+        }
+    }
+}
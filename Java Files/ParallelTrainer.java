@@ -0,0 +1,211 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Responsible for training a single network on several threads at once.
+ * The training set is split between a number of workers that each have their own
+ * layer buffers (an <code>MLP.Workspace</code>) but share the same weights, so the
+ * result of training is still one model. An MLP is trained directly, and a CNN is
+ * trained through its perceptron (its filters are read-only, so they can be shared).
+ * A CNN with trainable convolution layers is not supported.
+ */
+public class ParallelTrainer {
+
+    /**
+     * HOGWILD: each worker trains its own share of the training set one input at a time and
+     * updates the shared weights without locking (an update may occasionally overwrite another).
+     * SYNCHRONOUS: each mini-batch is split between the workers, which only sum gradients. The
+     * gradients are then added together in worker order and applied once, so the trained weights
+     * do not depend on the timing of the threads.
+     */
+    public enum Mode { HOGWILD, SYNCHRONOUS }
+
+    private final Network network;
+    private final Mode mode;
+    private final int workerAmount, batchSize;
+    private final ForkJoinPool pool;
+    private final ToIntFunction<double[]> labelDecoder;
+    private final IntFunction<double[]> targetProvider;
+
+    private MLP perceptron;
+    private MLP.Workspace[] workspaces;
+    private MLP.Gradients[] gradients;
+
+    /**
+     * Creates a new <code>ParallelTrainer</code> for an MLP or a CNN.
+     *
+     * @param newNetwork
+     *     The MLP or CNN to train.
+     * @param newMode
+     *     Whether the workers update the weights lock-free (HOGWILD) or once per mini-batch (SYNCHRONOUS).
+     * @param newWorkerAmount
+     *     Number of worker threads to train on.
+     * @param newBatchSize
+     *     Number of inputs per weight update in SYNCHRONOUS mode.
+     * @param newLabelDecoder
+     *     Function that gives the predicted label of an output layer.
+     * @param newTargetProvider
+     *     Function that gives the target output layer of a label.
+     */
+    public ParallelTrainer(Network newNetwork, Mode newMode, int newWorkerAmount, int newBatchSize,
+                           ToIntFunction<double[]> newLabelDecoder, IntFunction<double[]> newTargetProvider) {
+        if(!(newNetwork instanceof MLP) && !(newNetwork instanceof CNN)) {
+            throw new IllegalArgumentException("Only an MLP or a CNN can be trained in parallel.");
+        }
+        if(newNetwork instanceof CNN && ((CNN)newNetwork).hasTrainableLayers()) {
+            throw new IllegalArgumentException("A CNN with trainable convolution layers can only be trained on one thread.");
+        }
+        network = newNetwork;
+        mode = newMode;
+        workerAmount = newWorkerAmount;
+        batchSize = newBatchSize;
+        labelDecoder = newLabelDecoder;
+        targetProvider = newTargetProvider;
+        pool = new ForkJoinPool(newWorkerAmount);
+        perceptron = null;
+    }
+
+    /**
+     * Executes a single training epoch over the network on every worker.
+     *
+     * @param trainingSet
+     *     Inputs to train on.
+     * @return The confusion matrix produced over this epoch (the predictions made before each update).
+     */
+    public ConfusionMatrix executeTrainingEpoch(Input[] trainingSet) {
+        initializeWorkers(trainingSet[0]);
+        return (mode == Mode.HOGWILD ? executeHogwildEpoch(trainingSet) : executeSynchronousEpoch(trainingSet));
+    }
+
+    // Stop the worker threads.
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Finds the perceptron to train and gives every worker its own layer buffers and gradients.
+     *
+     * @param firstInput
+     *     Any input of the training set (a CNN's perceptron is sized from its filter set output).
+     */
+    private void initializeWorkers(Input firstInput) {
+        if(perceptron != null) {
+            return;
+        }
+        perceptron = (network instanceof MLP ? (MLP)network : ((CNN)network).getPerceptron(((CNN)network).getFilterSetOutput(firstInput).length));
+        workspaces = new MLP.Workspace[workerAmount];
+        gradients = new MLP.Gradients[workerAmount];
+        for(int i = 0; i < workerAmount; ++i) {
+            workspaces[i] = perceptron.createWorkspace();
+            gradients[i] = (mode == Mode.SYNCHRONOUS ? perceptron.createGradients() : null);
+        }
+    }
+
+    // Return the values that enter the perceptron for an input.
+    private double[] getInputLayer(Input input, MLP.Workspace workspace) {
+        return (network instanceof CNN ? ((CNN)network).getFilterSetOutput(input, workspace.inputBuffer) : input.getData(workspace.inputBuffer));
+    }
+
+    /**
+     * Trains each worker's share of the training set at the same time, with every worker
+     * updating the shared weights after each of its inputs.
+     *
+     * @param trainingSet
+     *     Inputs to train on.
+     */
+    private ConfusionMatrix executeHogwildEpoch(Input[] trainingSet) {
+        List<Callable<ConfusionMatrix>> tasks = new ArrayList<>(workerAmount);
+        for(int i = 0; i < workerAmount; ++i) {
+            int workerIndex = i;
+            int start = (int)((long)trainingSet.length * i / workerAmount);
+            int end = (int)((long)trainingSet.length * (i + 1) / workerAmount);
+            tasks.add(() -> {
+                ConfusionMatrix matrix = createConfusionMatrix();
+                MLP.Workspace workspace = workspaces[workerIndex];
+                for(int inputIndex = start; inputIndex < end; ++inputIndex) {
+                    Input input = trainingSet[inputIndex];
+                    double[] result = perceptron.executeForwardPropagation(getInputLayer(input, workspace), workspace);
+                    matrix.add(labelDecoder.applyAsInt(result), input.label);
+                    perceptron.executeBackPropagation(targetProvider.apply(input.label), workspace);
+                }
+                return matrix;
+            });
+        }
+        return mergeConfusionMatrices(runAll(tasks));
+    }
+
+    /**
+     * Trains the training set one mini-batch at a time, with each worker summing the gradients of
+     * its share of the batch and the weights being updated once per batch.
+     *
+     * @param trainingSet
+     *     Inputs to train on.
+     */
+    private ConfusionMatrix executeSynchronousEpoch(Input[] trainingSet) {
+        ConfusionMatrix[] matrices = new ConfusionMatrix[workerAmount];
+        for(int i = 0; i < workerAmount; ++i) {
+            matrices[i] = createConfusionMatrix();
+        }
+        List<Callable<ConfusionMatrix>> tasks = new ArrayList<>(workerAmount);
+        for(int batchStart = 0; batchStart < trainingSet.length; batchStart += batchSize) {
+            int currentBatchSize = Math.min(batchSize, trainingSet.length - batchStart);
+            tasks.clear();
+            for(int i = 0; i < workerAmount; ++i) {
+                int workerIndex = i;
+                int start = batchStart + currentBatchSize * i / workerAmount;
+                int end = batchStart + currentBatchSize * (i + 1) / workerAmount;
+                tasks.add(() -> {
+                    MLP.Workspace workspace = workspaces[workerIndex];
+                    gradients[workerIndex].clear();
+                    for(int inputIndex = start; inputIndex < end; ++inputIndex) {
+                        Input input = trainingSet[inputIndex];
+                        double[] result = perceptron.executeForwardPropagation(getInputLayer(input, workspace), workspace);
+                        matrices[workerIndex].add(labelDecoder.applyAsInt(result), input.label);
+                        perceptron.accumulateGradients(targetProvider.apply(input.label), workspace, gradients[workerIndex]);
+                    }
+                    return matrices[workerIndex];
+                });
+            }
+            runAll(tasks);
+            for(int i = 1; i < workerAmount; ++i) { // Always reduce in the same order.
+                gradients[0].add(gradients[i]);
+            }
+            perceptron.applyGradients(gradients[0], currentBatchSize);
+        }
+        return mergeConfusionMatrices(Arrays.asList(matrices));
+    }
+
+    /**
+     * Runs every task on the worker threads and waits for all of them to finish.
+     *
+     * @param tasks
+     *     Tasks to run, one per worker.
+     * @return The result of each task, in the same order as the tasks.
+     */
+    private List<ConfusionMatrix> runAll(List<Callable<ConfusionMatrix>> tasks) {
+        List<ConfusionMatrix> results = new ArrayList<>(tasks.size());
+        for(Future<ConfusionMatrix> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch(InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("A training worker failed: " + e.getMessage(), e);
+            }
+        }
+        return results;
+    }
+
+    // Return a new confusion matrix sized for the network's output layer.
+    private ConfusionMatrix createConfusionMatrix() {
+        return new ConfusionMatrix(targetProvider.apply(0).length);
+    }
+
+    // Add every worker's confusion matrix together.
+    private ConfusionMatrix mergeConfusionMatrices(List<ConfusionMatrix> matrices) {
+        ConfusionMatrix merged = createConfusionMatrix();
+        for(ConfusionMatrix matrix : matrices) {
+            merged.addConfusionMatrix(matrix);
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,157 @@
+import java.nio.*;
+
+/**
+ * Responsible for a pooling layer: every channel is shrunk by taking the maximum or the average
+ * of each size x size segment (the segments do not overlap, and leftover rows/columns are dropped,
+ * like ImageParser.downsizeImage). Average pooling of size 2 is the CNN's DOWNSIZE_FACTOR downsizing.
+ * The layer has no weights, so it can be shared by any number of threads.
+ */
+public class PoolingLayer implements Layer {
+
+    public enum Mode { MAX, AVERAGE }
+
+    // Written before the layer's shape in a checkpoint (see CNN.readLayer).
+    static final int CHECKPOINT_TYPE = 2;
+
+    private final Mode mode;
+    private final int size;
+
+    /**
+     * Creates a new <code>PoolingLayer</code>.
+     *
+     * @param newMode
+     *     Whether each segment becomes its largest value (MAX) or the average of its values (AVERAGE).
+     * @param newSize
+     *     Width/height of each segment.
+     */
+    public PoolingLayer(Mode newMode, int newSize) {
+        mode = newMode;
+        size = newSize;
+    }
+
+    // The layer has no weights, so it is its own copy.
+    public Layer copy() {
+        return this;
+    }
+
+    public long getCheckpointBytes(boolean momentumIncluded) {
+        return 3 * Integer.BYTES;
+    }
+
+    public void writeCheckpoint(ByteBuffer buffer, boolean momentumIncluded) {
+        buffer.putInt(CHECKPOINT_TYPE).putInt(mode.ordinal()).putInt(size);
+    }
+
+    // Create a PoolingLayer from the mode and size in a checkpoint, after its type.
+    static PoolingLayer readCheckpoint(ByteBuffer buffer) {
+        int modeIndex = buffer.getInt();
+        if(modeIndex < 0 || modeIndex >= Mode.values().length) {
+            throw new IllegalArgumentException("Pooling mode " + modeIndex + " is out of range");
+        }
+        return new PoolingLayer(Mode.values()[modeIndex], Checkpoint.getSize(buffer, 1, "Pooling size"));
+    }
+
+    public int getOutputChannels(int inputChannels) {
+        return inputChannels;
+    }
+
+    public int getOutputDimension(int inputDimension) {
+        return inputDimension / size;
+    }
+
+    /**
+     * Shrinks every channel of an input.
+     *
+     * @param input
+     *     [channels x (inputDimension * inputDimension)] matrix of the input channels.
+     * @param inputDimension
+     *     Width/height of each input channel.
+     * @param output
+     *     [channels x (outputDimension * outputDimension)] matrix that the shrunk channels are written to.
+     */
+    public void forward(Tensor input, int inputDimension, Tensor output) {
+        int outputDimension = getOutputDimension(inputDimension);
+        double[] inputData = input.data, outputData = output.data;
+        for(int channel = 0; channel < input.rows; ++channel) {
+            int inputStart = input.index(channel, 0);
+            int outputIndex = output.index(channel, 0);
+            for(int rowIndex = 0; rowIndex < outputDimension; ++rowIndex) {
+                for(int columnIndex = 0; columnIndex < outputDimension; ++columnIndex, ++outputIndex) {
+                    int segmentStart = inputStart + (rowIndex * inputDimension + columnIndex) * size;
+                    if(mode == Mode.MAX) {
+                        outputData[outputIndex] = inputData[getMaxIndex(inputData, segmentStart, inputDimension)];
+                        continue;
+                    }
+                    double sum = 0; // Same order as ImageParser.downsizeImage.
+                    for(int i = 0; i < size; ++i) {
+                        for(int j = 0; j < size; ++j) {
+                            sum += inputData[segmentStart + i * inputDimension + j];
+                        }
+                    }
+                    outputData[outputIndex] = sum / (size * size);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the error of every output back to the values of its segment: all of it to the largest
+     * value (MAX), or an equal share to every value (AVERAGE). Dropped rows/columns get no error.
+     *
+     * @param input
+     *     [channels x (inputDimension * inputDimension)] matrix that the output was calculated from.
+     * @param inputDimension
+     *     Width/height of each input channel.
+     * @param output
+     *     [channels x (outputDimension * outputDimension)] matrix written by the forward pass (not used).
+     * @param outputError
+     *     Matrix (laid out like the output) of the error of each output.
+     * @param inputError
+     *     Matrix (laid out like the input) that the error of each input value is written to, or null if it is not needed.
+     */
+    public void backward(Tensor input, int inputDimension, Tensor output, Tensor outputError, Tensor inputError) {
+        if(inputError == null) {
+            return;
+        }
+        int outputDimension = getOutputDimension(inputDimension);
+        double[] inputData = input.data, errorData = outputError.data, inputErrorData = inputError.data;
+        double share = 1.0 / (size * size);
+        inputError.fill(0);
+        for(int channel = 0; channel < input.rows; ++channel) {
+            int inputStart = input.index(channel, 0);
+            int inputErrorStart = inputError.index(channel, 0);
+            int errorIndex = outputError.index(channel, 0);
+            for(int rowIndex = 0; rowIndex < outputDimension; ++rowIndex) {
+                for(int columnIndex = 0; columnIndex < outputDimension; ++columnIndex, ++errorIndex) {
+                    int segmentOffset = (rowIndex * inputDimension + columnIndex) * size;
+                    if(mode == Mode.MAX) {
+                        int maxIndex = getMaxIndex(inputData, inputStart + segmentOffset, inputDimension);
+                        inputErrorData[inputErrorStart + (maxIndex - inputStart)] = errorData[errorIndex];
+                        continue;
+                    }
+                    double error = errorData[errorIndex] * share;
+                    for(int i = 0; i < size; ++i) {
+                        for(int j = 0; j < size; ++j) {
+                            inputErrorData[inputErrorStart + segmentOffset + i * inputDimension + j] = error;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Pooling has no weights.
+    public void applyGradients(int sampleCount) {}
+
+    // Return the index of the first largest value of a segment (in row-major order).
+    private int getMaxIndex(double[] data, int segmentStart, int inputDimension) {
+        int maxIndex = segmentStart;
+        for(int i = 0; i < size; ++i) {
+            for(int j = 0; j < size; ++j) {
+                int index = segmentStart + i * inputDimension + j;
+                maxIndex = (data[index] > data[maxIndex] ? index : maxIndex);
+            }
+        }
+        return maxIndex;
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Numeric precision that values are stored at.
+ *      - DOUBLE: 64-bit floating point (the precision weights are kept and updated in).
+ *      - FLOAT32: 32-bit floating point, half the memory of DOUBLE (mini-batches of an MLP can also be trained in it).
+ *      - INT8: unsigned 8-bit levels with a scale factor, an eighth of the memory of DOUBLE.
+ */
+public enum Precision {
+    DOUBLE(Double.BYTES),
+    FLOAT32(Float.BYTES),
+    INT8(Byte.BYTES);
+
+    final int bytesPerValue;
+
+    Precision(int newBytesPerValue) {
+        bytesPerValue = newBytesPerValue;
+    }
+}
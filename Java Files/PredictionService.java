@@ -0,0 +1,204 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Responsible for serving predictions to many request threads at once. Each request is queued,
+ * and a single batching thread gathers the queued requests into micro-batches that are each
+ * classified with one batched forward pass of a <code>Predictor</code> (one matrix-matrix
+ * multiplication per layer instead of one matrix-vector multiplication per request).
+ * A batch runs as soon as it holds maxBatchSize requests, or maxDelay after its first request
+ * arrived, whichever comes first, so a lone request never waits longer than maxDelay.
+ * The results are completed on the batching thread, so anything chained onto them should be short
+ * (or use the async variants of CompletableFuture).
+ */
+public class PredictionService implements AutoCloseable {
+
+    // Queued by close() to tell the batching thread to stop.
+    private static final Request SHUTDOWN = new Request(null);
+
+    private final Predictor predictor;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Request> requests;
+    private final Thread batchingThread;
+    private volatile boolean closed;
+    // Only written by the batching thread.
+    private volatile long batchAmount, predictionAmount;
+
+    /**
+     * A single input waiting to be classified, and the result its caller waits on.
+     */
+    private static class Request {
+
+        final Input input;
+        final CompletableFuture<double[]> result;
+
+        Request(Input newInput) {
+            input = newInput;
+            result = new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * Creates a new <code>PredictionService</code> and starts its batching thread.
+     *
+     * @param newPredictor
+     *     Predictor that classifies the requests.
+     * @param newMaxBatchSize
+     *     Largest number of requests classified in one batched forward pass.
+     * @param maxDelayMicroseconds
+     *     Longest time a batch waits for more requests after its first request arrived.
+     */
+    public PredictionService(Predictor newPredictor, int newMaxBatchSize, long maxDelayMicroseconds) {
+        if(newMaxBatchSize < 1 || maxDelayMicroseconds < 0) {
+            throw new IllegalArgumentException("The batch size must be at least 1 and the delay at least 0, but they are "
+                                               + newMaxBatchSize + " and " + maxDelayMicroseconds);
+        }
+        predictor = newPredictor;
+        maxBatchSize = newMaxBatchSize;
+        maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicroseconds);
+        requests = new LinkedBlockingQueue<>();
+        closed = false;
+        batchingThread = new Thread(this::runBatches, "prediction-batcher");
+        batchingThread.setDaemon(true);
+        batchingThread.start();
+    }
+
+    /**
+     * Queues an input to be classified in the next batch.
+     *
+     * @param input
+     *     Input image data object that contains pixel data.
+     * @return A future of the input's output layer (owned by the caller).
+     */
+    public CompletableFuture<double[]> submit(Input input) {
+        if(closed) {
+            throw new IllegalStateException("The prediction service has been closed.");
+        }
+        Request request = new Request(input);
+        requests.add(request);
+        // If close() ran in the meantime, the batching thread may already have stopped. Whoever removes the
+        // request from the queue (the batching thread, close() or this check) is the one that completes it.
+        if(closed && requests.remove(request)) {
+            request.result.completeExceptionally(new IllegalStateException("The prediction service has been closed."));
+        }
+        return request.result;
+    }
+
+    /**
+     * Classifies an input, waiting until the batch it is part of has run.
+     *
+     * @param input
+     *     Input image data object that contains pixel data.
+     * @return The input's output layer (owned by the caller).
+     */
+    public double[] predict(Input input) {
+        try {
+            return submit(input).get();
+        } catch(ExecutionException e) { // Rethrow whatever the predictor threw.
+            throw (e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : new IllegalStateException(e.getCause()));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a prediction.", e);
+        }
+    }
+
+    // Return the number of batches run so far.
+    public long getBatchAmount() {
+        return batchAmount;
+    }
+
+    // Return the average number of requests per batch so far.
+    public double getAverageBatchSize() {
+        long batches = batchAmount;
+        return (batches == 0 ? 0 : (double)predictionAmount / batches);
+    }
+
+    /**
+     * Stops accepting requests, and waits for the batching thread to classify the requests that are
+     * already queued. Requests that arrive while it is closing are failed with an IllegalStateException.
+     */
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        requests.add(SHUTDOWN);
+        boolean interrupted = false;
+        while(batchingThread.isAlive()) {
+            try {
+                batchingThread.join();
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for(Request request = requests.poll(); request != null; request = requests.poll()) {
+            request.result.completeExceptionally(new IllegalStateException("The prediction service has been closed."));
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Gather the queued requests into batches and classify them, until close() is called.
+    private void runBatches() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        boolean shuttingDown = false;
+        while(!shuttingDown) {
+            try {
+                Request first = requests.take();
+                if(first == SHUTDOWN) {
+                    return;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while(batch.size() < maxBatchSize) {
+                    long remainingNanos = deadline - System.nanoTime();
+                    // Once the delay is up, only requests that are already queued are added.
+                    Request next = (remainingNanos > 0 ? requests.poll(remainingNanos, TimeUnit.NANOSECONDS) : requests.poll());
+                    if(next == null) {
+                        break;
+                    }
+                    if(next == SHUTDOWN) {
+                        shuttingDown = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch(InterruptedException e) { // Nothing interrupts this thread, but run what has been gathered anyway.
+                shuttingDown = closed;
+            }
+            runBatch(batch);
+            batch.clear();
+        }
+    }
+
+    // Classify a batch of requests with one batched forward pass, and complete their results.
+    private void runBatch(List<Request> batch) {
+        if(batch.isEmpty()) {
+            return;
+        }
+        Input[] inputs = new Input[batch.size()];
+        for(int i = 0; i < inputs.length; ++i) {
+            inputs[i] = batch.get(i).input;
+        }
+        batchAmount = batchAmount + 1;
+        predictionAmount = predictionAmount + inputs.length;
+        double[][] outputLayers;
+        try {
+            outputLayers = predictor.predictBatch(inputs);
+        } catch(RuntimeException e) { // i.e., an input of the wrong size. Classify one at a time, so only the bad requests fail.
+            for(Request request : batch) {
+                try {
+                    request.result.complete(predictor.predict(request.input));
+                } catch(RuntimeException requestException) {
+                    request.result.completeExceptionally(requestException);
+                }
+            }
+            return;
+        }
+        for(int i = 0; i < inputs.length; ++i) {
+            batch.get(i).result.complete(outputLayers[i]);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+import java.util.function.*;
+
+/**
+ * Responsible for classifying inputs with a snapshot of a trained network (inference only).
+ * The weights are copied when the <code>Predictor</code> is made and never change afterwards, so
+ * later training of the network does not affect it, and any number of threads can use the same
+ * <code>Predictor</code> at once: each call runs through the calling thread's own layer buffers and
+ * returns a new output layer.
+ * A CNN's convolution layer runs through a copy of its filters (or trainable layers) before the perceptron.
+ */
+public final class Predictor {
+
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+
+    // Turns an input into the perceptron's input layer (null if the input goes into the perceptron as it is).
+    private final Function<Input, double[]> featureExtractor;
+    private final int inputLayerSize, outputLayerSize;
+    // weights[i] connects layer i to layer i + 1. Weights are [(layerSize + 1) x nextLayerSize] row-major
+    // matrices, where row 0 holds the bias weights (see MLP).
+    private final Tensor[] weights;
+    private final Activation[] activations; // Activation of every layer (index 0, the input layer, has none).
+    private final double biasValue;
+    private final ThreadLocal<Buffers> buffers;
+
+    /**
+     * Holds the layers of the inputs a thread is classifying. Allocated once per thread and
+     * grown when a larger batch arrives, so a steady stream of predictions allocates only their outputs.
+     */
+    private static class Buffers {
+
+        final double[] inputBuffer; // Holds the input data of inputs stored at a lower precision.
+        final double[][] hiddenLayers;
+        Tensor[] batchLayers; // Indexed like the layers (batchLayers[0] is the packed input layer).
+
+        Buffers(Tensor[] weights) {
+            inputBuffer = new double[weights[0].rows - 1];
+            hiddenLayers = new double[weights.length - 1][];
+            for(int i = 0; i < hiddenLayers.length; ++i) {
+                hiddenLayers[i] = new double[weights[i].columns];
+            }
+        }
+    }
+
+    /**
+     * Creates a new <code>Predictor</code> from the weights of a trained perceptron.
+     *
+     * @param newFeatureExtractor
+     *     Function that turns an input into the perceptron's input layer (it must be safe to call from
+     *     several threads at once), or null if inputs go into the perceptron as they are.
+     * @param newWeights
+     *     Weights of every layer, where newWeights[i] is a [(layerSize + 1) x nextLayerSize] matrix
+     *     whose row 0 holds the bias weights (copied).
+     * @param newActivations
+     *     Activation of every layer, where index 0 (the input layer) is ignored.
+     * @param newBiasValue
+     *     Value of the bias unit the bias weights are multiplied by.
+     */
+    Predictor(Function<Input, double[]> newFeatureExtractor, Tensor[] newWeights, Activation[] newActivations, double newBiasValue) {
+        if(newActivations.length != newWeights.length + 1) {
+            throw new IllegalArgumentException("The perceptron has " + (newWeights.length + 1) + " layers, but "
+                                               + newActivations.length + " activations");
+        }
+        featureExtractor = newFeatureExtractor;
+        weights = new Tensor[newWeights.length];
+        for(int i = 0; i < weights.length; ++i) {
+            if(i > 0 && newWeights[i].rows != newWeights[i - 1].columns + 1) {
+                throw new IllegalArgumentException("Layer " + i + " has " + newWeights[i - 1].columns + " units, but its weights have "
+                                                   + (newWeights[i].rows - 1) + " input rows");
+            }
+            weights[i] = new Tensor(newWeights[i].toArray(), 0, newWeights[i].rows, newWeights[i].columns);
+        }
+        activations = newActivations.clone();
+        inputLayerSize = weights[0].rows - 1;
+        outputLayerSize = weights[weights.length - 1].columns;
+        biasValue = newBiasValue;
+        buffers = ThreadLocal.withInitial(() -> new Buffers(weights));
+    }
+
+    public int getOutputLayerSize() {
+        return outputLayerSize;
+    }
+
+    /**
+     * Classifies a single input.
+     *
+     * @param input
+     *     Input image data object that contains pixel data.
+     * @return A new output layer (owned by the caller).
+     */
+    public double[] predict(Input input) {
+        Buffers threadBuffers = buffers.get();
+        double[] inputLayer = getInputLayer(input, threadBuffers);
+        double[] outputLayer = new double[outputLayerSize];
+        double[] layer = inputLayer;
+        for(int i = 0; i < weights.length; ++i) {
+            double[] nextLayer = (i == weights.length - 1 ? outputLayer : threadBuffers.hiddenLayers[i]);
+            calculateNextLayer(layer, weights[i], nextLayer, activations[i + 1]);
+            layer = nextLayer;
+        }
+        return outputLayer;
+    }
+
+    /**
+     * Classifies a batch of inputs at once, with one matrix-matrix multiplication per layer
+     * instead of one matrix-vector multiplication per input (see MLP.forwardBatch).
+     * Gives the same output layers as calling predict on each input (apart from the last bit or two
+     * when the SIMD kernels are used, see VectorKernels).
+     *
+     * @param inputs
+     *     Input image data objects that contain pixel data.
+     * @return New output layers (owned by the caller), where row i belongs to inputs[i].
+     */
+    public double[][] predictBatch(Input[] inputs) {
+        int batchSize = inputs.length;
+        Buffers threadBuffers = buffers.get();
+        ensureBatchCapacity(threadBuffers, batchSize);
+        Tensor batchInputLayer = threadBuffers.batchLayers[0];
+        for(int i = 0; i < batchSize; ++i) { // Pack the batch into one contiguous matrix.
+            if(featureExtractor == null) {
+                checkInputLayerSize(inputs[i].getSize());
+                inputs[i].copyData(batchInputLayer.data, batchInputLayer.index(i, 0));
+            } else {
+                double[] features = getInputLayer(inputs[i], threadBuffers);
+                System.arraycopy(features, 0, batchInputLayer.data, batchInputLayer.index(i, 0), inputLayerSize);
+            }
+        }
+        Tensor[] batchLayers = threadBuffers.batchLayers;
+        for(int i = 0; i < weights.length; ++i) {
+            calculateNextBatchLayer(batchLayers[i], batchSize, weights[i], batchLayers[i + 1], activations[i + 1]);
+        }
+        Tensor batchOutputLayer = batchLayers[batchLayers.length - 1];
+        double[][] outputLayers = new double[batchSize][outputLayerSize];
+        for(int i = 0; i < batchSize; ++i) {
+            System.arraycopy(batchOutputLayer.data, batchOutputLayer.index(i, 0), outputLayers[i], 0, outputLayerSize);
+        }
+        return outputLayers;
+    }
+
+    // Return the perceptron's input layer of an input (the input's own data, a thread buffer, or the extracted features).
+    private double[] getInputLayer(Input input, Buffers threadBuffers) {
+        if(featureExtractor == null) {
+            checkInputLayerSize(input.getSize());
+            return input.getData(threadBuffers.inputBuffer);
+        }
+        double[] features = featureExtractor.apply(input);
+        checkInputLayerSize(features.length);
+        return features;
+    }
+
+    // Throw an IllegalArgumentException if an input layer does not have one value per input layer unit.
+    private void checkInputLayerSize(int size) {
+        if(size != inputLayerSize) {
+            throw new IllegalArgumentException("The perceptron has " + inputLayerSize + " input layer units, but the input has " + size + " values");
+        }
+    }
+
+    // Allocate the batch layers of a thread if they cannot hold a batch of the passed in size.
+    private void ensureBatchCapacity(Buffers threadBuffers, int batchSize) {
+        if(threadBuffers.batchLayers != null && threadBuffers.batchLayers[0].rows >= batchSize) {
+            return;
+        }
+        threadBuffers.batchLayers = new Tensor[weights.length + 1];
+        threadBuffers.batchLayers[0] = new Tensor(batchSize, inputLayerSize);
+        for(int i = 0; i < weights.length; ++i) {
+            threadBuffers.batchLayers[i + 1] = new Tensor(batchSize, weights[i].columns);
+        }
+    }
+
+    /**
+     * Calculates the units of the next layer, in the same order of operations as MLP, so that a
+     * <code>Predictor</code> gives exactly the output layers of the network it was made from.
+     *
+     * @param layer
+     *     1-D doubles array that represents the units within a layer.
+     * @param weights
+     *     Row-major matrix of the weights between the layer and the next layer (row 0 holds the bias weights).
+     * @param nextLayer
+     *     1-D doubles array that the units of the next layer are written to.
+     * @param activation
+     *     Activation function of the next layer.
+     */
+    private void calculateNextLayer(double[] layer, Tensor weights, double[] nextLayer, Activation activation) {
+        int nextLayerSize = nextLayer.length;
+        double[] weightData = weights.data;
+        for(int nextLayerIndex = 0; nextLayerIndex < nextLayerSize; ++nextLayerIndex) { // Start from the bias.
+            nextLayer[nextLayerIndex] = biasValue * weightData[nextLayerIndex];
+        }
+        for(int layerIndex = 0; layerIndex < layer.length; ++layerIndex) { // +1 for the bias.
+            KERNELS.axpy(layer[layerIndex], weightData, (layerIndex + 1) * nextLayerSize, nextLayer, 0, nextLayerSize);
+        }
+        activation.activate(nextLayer, 0, nextLayerSize);
+    }
+
+    /**
+     * Calculates the next layer of every input in a batch.
+     *
+     * @param layers
+     *     [batchSize x layerSize] matrix of the current layer of each input.
+     * @param batchSize
+     *     Number of rows of the layers to use.
+     * @param weights
+     *     Row-major matrix of the weights between the layer and the next layer (row 0 holds the bias weights).
+     * @param nextLayers
+     *     [batchSize x nextLayerSize] matrix that the next layer of each input is written to.
+     * @param activation
+     *     Activation function of the next layer.
+     */
+    private void calculateNextBatchLayer(Tensor layers, int batchSize, Tensor weights, Tensor nextLayers, Activation activation) {
+        int nextLayerSize = nextLayers.columns;
+        for(int i = 0; i < batchSize; ++i) { // Start from the bias.
+            for(int j = 0; j < nextLayerSize; ++j) {
+                nextLayers.data[i * nextLayerSize + j] = biasValue * weights.data[j];
+            }
+        }
+        LinearAlgebra.multiplyAdd(layers, batchSize, weights, 1, nextLayers);
+        activation.activate(nextLayers, batchSize);
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.*;
+
+/**
+ * Responsible for running a trained multi-layer perceptron with 8-bit integer weights (inference only).
+ * Each weight matrix is quantized with its own scale factor (weight ~= level * scale, levels -127..127),
+ * and each layer is quantized the same way as it passes through, so the multiplications are done
+ * on ints and only the bias, scale factors and activation function use doubles.
+ * The layer buffers are reused, so a <code>QuantizedMLP</code> must only be used by one thread at a time.
+ */
+public class QuantizedMLP {
+
+    private static final int MAX_LEVEL = 127;
+
+    // weights[i] connects layer i to layer i + 1. Weights are [layerSize x nextLayerSize] row-major matrices
+    // (the bias rows are kept separately as doubles).
+    private final byte[][] weights;
+    private final double[] weightScales;
+    private final double[][] biases;
+    private final Activation[] activations; // Activation of every layer (index 0, the input layer, has none).
+
+    private final byte[][] levels; // levels[i] holds the quantized units of layer i.
+    private final int[] sums;
+    private final double[][] layers; // layers[i] holds the units of layer i + 1.
+
+    /**
+     * Creates a new <code>QuantizedMLP</code> from the weights of a trained MLP.
+     *
+     * @param newWeights
+     *     Weights of every layer, where newWeights[i] is a [(layerSize + 1) x nextLayerSize] matrix
+     *     whose row 0 holds the bias weights.
+     * @param newActivations
+     *     Activation of every layer, where index 0 (the input layer) is ignored.
+     * @param biasValue
+     *     Value of the bias unit the bias weights are multiplied by.
+     */
+    QuantizedMLP(Tensor[] newWeights, Activation[] newActivations, double biasValue) {
+        weights = new byte[newWeights.length][];
+        weightScales = new double[newWeights.length];
+        biases = new double[newWeights.length][];
+        activations = newActivations.clone();
+        levels = new byte[newWeights.length][];
+        layers = new double[newWeights.length][];
+        int largestLayerSize = 0;
+        for(int i = 0; i < newWeights.length; ++i) {
+            Tensor layerWeights = newWeights[i];
+            weightScales[i] = getScale(layerWeights.data, layerWeights.index(1, 0), (layerWeights.rows - 1) * layerWeights.columns);
+            weights[i] = quantizeWeights(layerWeights, weightScales[i]);
+            biases[i] = getBiases(layerWeights, biasValue);
+            levels[i] = new byte[layerWeights.rows - 1];
+            layers[i] = new double[layerWeights.columns];
+            largestLayerSize = Math.max(largestLayerSize, layerWeights.columns);
+        }
+        sums = new int[largestLayerSize];
+    }
+
+    /**
+     * Calculates the scale factor that maps the largest absolute value of part of an array to MAX_LEVEL.
+     *
+     * @param values
+     *     Doubles array holding the values.
+     * @param offset
+     *     Index of the first value.
+     * @param length
+     *     Number of values.
+     */
+    private static double getScale(double[] values, int offset, int length) {
+        double maxAbsolute = 0;
+        for(int i = offset; i < offset + length; ++i) {
+            maxAbsolute = Math.max(maxAbsolute, Math.abs(values[i]));
+        }
+        return (maxAbsolute == 0 ? 1 : maxAbsolute / MAX_LEVEL);
+    }
+
+    // Quantize every weight row except the bias row.
+    private static byte[] quantizeWeights(Tensor weights, double scale) {
+        byte[] levels = new byte[(weights.rows - 1) * weights.columns];
+        quantize(weights.data, weights.index(1, 0), levels, levels.length, scale);
+        return levels;
+    }
+
+    // Return the bias row multiplied by the bias value.
+    private static double[] getBiases(Tensor weights, double biasValue) {
+        double[] biases = new double[weights.columns];
+        for(int j = 0; j < biases.length; ++j) {
+            biases[j] = biasValue * weights.get(0, j);
+        }
+        return biases;
+    }
+
+    /**
+     * Rounds values to the nearest level of a scale factor.
+     *
+     * @param values
+     *     Doubles array holding the values.
+     * @param offset
+     *     Index of the first value.
+     * @param levels
+     *     Bytes array the levels are written to.
+     * @param length
+     *     Number of values.
+     * @param scale
+     *     Value of a single level.
+     */
+    private static void quantize(double[] values, int offset, byte[] levels, int length, double scale) {
+        for(int i = 0; i < length; ++i) {
+            long level = Math.round(values[offset + i] / scale);
+            levels[i] = (byte)Math.max(-MAX_LEVEL, Math.min(MAX_LEVEL, level));
+        }
+    }
+
+    /**
+     * Passes input data forward through the quantized MLP.
+     *
+     * @param inputLayer
+     *     1-D doubles array of input layer units.
+     * @return The output layer (reused and overwritten by the next forward pass).
+     */
+    public double[] executeForwardPropagation(double[] inputLayer) {
+        double[] layer = inputLayer;
+        for(int i = 0; i < weights.length; ++i) {
+            int layerSize = levels[i].length;
+            double layerScale = getScale(layer, 0, layerSize);
+            quantize(layer, 0, levels[i], layerSize, layerScale);
+            calculateNextLayer(levels[i], layerScale, weights[i], weightScales[i], biases[i], layers[i], activations[i + 1]);
+            layer = layers[i];
+        }
+        return layer;
+    }
+
+    /**
+     * Calculates the units of the next layer from a quantized layer. The products of the levels are
+     * summed as ints (127 * 127 * 1024 inputs still fits), then scaled back and passed through the activation.
+     *
+     * @param levels
+     *     Quantized units of the layer.
+     * @param layerScale
+     *     Scale factor of the layer.
+     * @param weights
+     *     Quantized [layerSize x nextLayerSize] weights.
+     * @param weightScale
+     *     Scale factor of the weights.
+     * @param biases
+     *     Bias of each next layer unit.
+     * @param nextLayer
+     *     1-D doubles array that the units of the next layer are written to.
+     * @param activation
+     *     Activation function of the next layer.
+     */
+    private void calculateNextLayer(byte[] levels, double layerScale, byte[] weights, double weightScale, double[] biases,
+                                    double[] nextLayer, Activation activation) {
+        int nextLayerSize = nextLayer.length;
+        Arrays.fill(sums, 0, nextLayerSize, 0);
+        for(int i = 0; i < levels.length; ++i) {
+            int level = levels[i];
+            if(level == 0) { // Inputs are mostly 0s.
+                continue;
+            }
+            int rowOffset = i * nextLayerSize;
+            for(int j = 0; j < nextLayerSize; ++j) {
+                sums[j] += level * weights[rowOffset + j];
+            }
+        }
+        double productScale = layerScale * weightScale;
+        for(int j = 0; j < nextLayerSize; ++j) {
+            nextLayer[j] = biases[j] + sums[j] * productScale;
+        }
+        activation.activate(nextLayer, 0, nextLayerSize);
+    }
+
+    // Return the number of bytes the weights, biases and scale factors take up.
+    public long getModelBytes() {
+        long bytes = 0;
+        for(int i = 0; i < weights.length; ++i) {
+            bytes += weights[i].length + (long)(biases[i].length + 1) * Double.BYTES;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,250 @@
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Responsible for measuring where the training time goes: how long each stage (image decoding,
+ * convolution, the perceptron's forward and backward passes, training and evaluation) takes, the
+ * training and testing loss, and the garbage collections and allocations of each epoch.
+ * Turned on with -Dasl.telemetry=true. The switch is read once, when the class is loaded, into a
+ * static final flag, so while it is off every call below is a check of a constant that the JIT
+ * compiler removes (and stop is passed the 0 that start returned), and the hot paths cost nothing.
+ * While it is on, the stages are timed with System.nanoTime into log2 histograms of LongAdders,
+ * so any number of threads (training workers, evaluators, prefetch threads) can record at once.
+ * The stages nest (i.e., EVALUATION includes the CONVOLUTION and FORWARD time of the testing set),
+ * so their times are not meant to add up.
+ */
+public class Telemetry {
+
+    public static final boolean ENABLED = Boolean.getBoolean("asl.telemetry");
+
+    /**
+     * A timed part of training.
+     */
+    public enum Stage {
+        DECODE,      // Decoding an image file into pixel values.
+        CONVOLUTION, // Running an image through the CNN's filter set (or its trainable layers) forwards.
+        FORWARD,     // The perceptron's forward pass (of an input, or of a batch).
+        BACKWARD,    // A backward pass and weight update of the perceptron, or of the CNN's trainable layers.
+        TRAINING,    // A whole training epoch.
+        EVALUATION   // A whole pass over the testing set.
+    }
+
+    private static final Histogram[] HISTOGRAMS = new Histogram[Stage.values().length];
+    private static final DoubleAdder TRAINING_LOSS = new DoubleAdder();
+    private static final LongAdder TRAINING_LOSS_AMOUNT = new LongAdder();
+    private static final DoubleAdder TESTING_LOSS = new DoubleAdder();
+    private static final LongAdder TESTING_LOSS_AMOUNT = new LongAdder();
+    // GC and allocation totals at the last snapshot (only touched by the thread that takes the snapshots).
+    private static long lastGcCount, lastGcMillis, lastAllocatedBytes;
+
+    static {
+        for(int i = 0; i < HISTOGRAMS.length; ++i) {
+            HISTOGRAMS[i] = new Histogram();
+        }
+        if(ENABLED) {
+            lastGcCount = getGcCount();
+            lastGcMillis = getGcMillis();
+            lastAllocatedBytes = getAllocatedBytes();
+        }
+    }
+
+    private Telemetry() {}
+
+    /**
+     * Durations in nanoseconds, counted in buckets by their highest set bit (bucket i holds
+     * [2^(i-1), 2^i)), so recording one is a few additions and the percentiles are within 2x.
+     */
+    private static class Histogram {
+
+        final LongAdder[] buckets = new LongAdder[Long.SIZE + 1];
+        final LongAdder amount = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for(int i = 0; i < buckets.length; ++i) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 0);
+            buckets[Long.SIZE - Long.numberOfLeadingZeros(nanos)].increment();
+            amount.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        // Return a snapshot of the histogram and start it over. Durations recorded meanwhile may land in either.
+        EpochMetrics.StageMetrics snapshotAndReset(Stage stage) {
+            long[] bucketAmounts = new long[buckets.length];
+            long bucketTotal = 0;
+            for(int i = 0; i < buckets.length; ++i) {
+                bucketAmounts[i] = buckets[i].sumThenReset();
+                bucketTotal += bucketAmounts[i];
+            }
+            long max = maxNanos.getThenReset(); // A bucket's upper bound can be above the longest duration in it.
+            return new EpochMetrics.StageMetrics(stage.name(), amount.sumThenReset(), totalNanos.sumThenReset(), max,
+                                                 Math.min(getPercentile(bucketAmounts, bucketTotal, 0.5), max),
+                                                 Math.min(getPercentile(bucketAmounts, bucketTotal, 0.99), max));
+        }
+
+        // Return the upper bound of the bucket a share of the durations are at or below (0 if there are none).
+        private static long getPercentile(long[] bucketAmounts, long bucketTotal, double share) {
+            long rank = (long)Math.ceil(bucketTotal * share);
+            long seen = 0;
+            for(int i = 0; i < bucketAmounts.length; ++i) {
+                seen += bucketAmounts[i];
+                if(seen >= rank && seen > 0) {
+                    return (i == 0 ? 0 : (i >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1));
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Starts timing a stage.
+     *
+     * @return The start time to pass to stop (0 while telemetry is off).
+     */
+    public static long start() {
+        return (ENABLED ? System.nanoTime() : 0);
+    }
+
+    /**
+     * Records the time since start in a stage's histogram (nothing while telemetry is off).
+     *
+     * @param stage
+     *     The stage that was timed.
+     * @param startTime
+     *     The time start returned.
+     */
+    public static void stop(Stage stage, long startTime) {
+        if(ENABLED) {
+            HISTOGRAMS[stage.ordinal()].record(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Adds the loss of one training input: half the summed squared error between the output layer
+     * and its target (the error the perceptron's backward pass minimizes, unless its output layer is
+     * SOFTMAX, which minimizes the cross-entropy; the squared error is kept so runs of any configuration compare).
+     *
+     * @param outputLayer
+     *     Array that holds the output layer units.
+     * @param offset
+     *     Index of the first unit.
+     * @param target
+     *     1-D doubles array of target classification values.
+     */
+    public static void recordTrainingLoss(double[] outputLayer, int offset, double[] target) {
+        if(ENABLED) {
+            double squaredError = 0;
+            for(int i = 0; i < target.length; ++i) {
+                double error = target[i] - outputLayer[offset + i];
+                squaredError += error * error;
+            }
+            TRAINING_LOSS.add(0.5 * squaredError);
+            TRAINING_LOSS_AMOUNT.increment();
+        }
+    }
+
+    /**
+     * Adds the loss of one testing input against the one-hot target of its label (the same loss as in training).
+     *
+     * @param outputLayer
+     *     1-D doubles array of the output layer units.
+     * @param label
+     *     The actual label of the input.
+     */
+    public static void recordTestingLoss(double[] outputLayer, int label) {
+        if(ENABLED) {
+            double squaredError = 0;
+            for(int i = 0; i < outputLayer.length; ++i) {
+                double error = (i == label ? 1 : 0) - outputLayer[i];
+                squaredError += error * error;
+            }
+            TESTING_LOSS.add(0.5 * squaredError);
+            TESTING_LOSS_AMOUNT.increment();
+        }
+    }
+
+    /**
+     * Collects everything recorded since the last snapshot into the metrics of an epoch, and starts
+     * every measurement over. Should be called from one thread (the one running the epochs).
+     *
+     * @param epoch
+     *     The number of the epoch (counting from 1, or 0 for the testing pass before training).
+     * @param trainingMatrix
+     *     The confusion matrix of the epoch's training, or null if there was none.
+     * @param testingMatrix
+     *     The confusion matrix of the testing set after the epoch.
+     * @return The metrics of the epoch, or null while telemetry is off.
+     */
+    public static EpochMetrics snapshotEpoch(int epoch, ConfusionMatrix trainingMatrix, ConfusionMatrix testingMatrix) {
+        if(!ENABLED) {
+            return null;
+        }
+        List<EpochMetrics.StageMetrics> stages = new ArrayList<>(HISTOGRAMS.length);
+        for(Stage stage : Stage.values()) {
+            stages.add(HISTOGRAMS[stage.ordinal()].snapshotAndReset(stage));
+        }
+        long trainingLossAmount = TRAINING_LOSS_AMOUNT.sumThenReset();
+        double trainingLoss = TRAINING_LOSS.sumThenReset();
+        long testingLossAmount = TESTING_LOSS_AMOUNT.sumThenReset();
+        double testingLoss = TESTING_LOSS.sumThenReset();
+        long gcCount = getGcCount(), gcMillis = getGcMillis(), allocatedBytes = getAllocatedBytes();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        EpochMetrics metrics = new EpochMetrics(epoch, System.currentTimeMillis(),
+                                                (trainingMatrix == null ? 0 : trainingMatrix.getAccuracy()), testingMatrix.getAccuracy(),
+                                                (trainingLossAmount == 0 ? 0 : trainingLoss / trainingLossAmount),
+                                                (testingLossAmount == 0 ? 0 : testingLoss / testingLossAmount),
+                                                (trainingMatrix == null ? 0 : trainingMatrix.getTotal()), stages,
+                                                gcCount - lastGcCount, gcMillis - lastGcMillis, Math.max(0, allocatedBytes - lastAllocatedBytes), heap.getUsed());
+        lastGcCount = gcCount;
+        lastGcMillis = gcMillis;
+        lastAllocatedBytes = allocatedBytes;
+        return metrics;
+    }
+
+    // Return the number of garbage collections so far, over every collector.
+    private static long getGcCount() {
+        long count = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    // Return the time spent in garbage collections so far, over every collector.
+    private static long getGcMillis() {
+        long millis = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the threads that are alive (the allocations of threads that
+     * have ended are lost, so the worker pools, which live as long as the run, are counted but short-lived
+     * threads may not be). Returns 0 if the JVM does not count allocations per thread.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean allocationThreads = (com.sun.management.ThreadMXBean)threads;
+        if(!allocationThreads.isThreadAllocatedMemorySupported() || !allocationThreads.isThreadAllocatedMemoryEnabled()) {
+            return 0;
+        }
+        long bytes = 0;
+        for(long threadBytes : allocationThreads.getThreadAllocatedBytes(allocationThreads.getAllThreadIds())) {
+            bytes += Math.max(0, threadBytes); // -1 for threads that ended meanwhile.
+        }
+        return bytes;
+    }
+}
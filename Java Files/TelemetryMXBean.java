@@ -0,0 +1,37 @@
+import java.util.*;
+
+/**
+ * The telemetry of the last finished epoch, as an MXBean (see JmxMetricsSink), so that JConsole,
+ * VisualVM or any JMX client can watch a training run. The stage maps are keyed by Telemetry.Stage name.
+ */
+public interface TelemetryMXBean {
+
+    int getEpoch();
+
+    double getTrainingAccuracy();
+
+    double getTestingAccuracy();
+
+    double getTrainingLoss();
+
+    double getTestingLoss();
+
+    double getTrainingSamplesPerSecond();
+
+    long getGcCount();
+
+    long getGcMillis();
+
+    long getAllocatedBytes();
+
+    long getHeapUsedBytes();
+
+    Map<String, Long> getStageTotalNanos();
+
+    Map<String, Long> getStageMeanNanos();
+
+    Map<String, Long> getStageP99Nanos();
+
+    // Return the last epoch's metrics as a JSON line (see EpochMetrics.toJson), or an empty string before the first epoch.
+    String getLastEpochJson();
+}
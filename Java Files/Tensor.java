@@ -0,0 +1,111 @@
+import java.util.*;
+
+/**
+ * Responsible for viewing a flat 1-D doubles array as a row-major 2-D matrix.
+ * Weights, layers, images and filters are all stored this way so that the inner loops
+ * of the networks walk contiguous memory (instead of chasing the row pointers of a double[][]).
+ * A view can start anywhere in the array, so a segment of a larger buffer can be used
+ * as a matrix of its own without copying it.
+ */
+public class Tensor {
+
+    public final double[] data;
+    public final int offset;
+    public final int rows, columns;
+
+    /**
+     * Creates a new <code>Tensor</code> with its own zero-filled storage.
+     *
+     * @param newRows
+     *     Number of rows in the matrix.
+     * @param newColumns
+     *     Number of columns in the matrix.
+     */
+    public Tensor(int newRows, int newColumns) {
+        this(new double[newRows * newColumns], 0, newRows, newColumns);
+    }
+
+    /**
+     * Creates a new <code>Tensor</code> view over an existing 1-D doubles array.
+     *
+     * @param newData
+     *     Flat 1-D doubles array that holds the matrix values in row-major order.
+     * @param newOffset
+     *     Index in the array where the first matrix value is.
+     * @param newRows
+     *     Number of rows in the matrix.
+     * @param newColumns
+     *     Number of columns in the matrix.
+     */
+    public Tensor(double[] newData, int newOffset, int newRows, int newColumns) {
+        if(newOffset < 0 || newOffset + newRows * newColumns > newData.length) {
+            throw new IllegalArgumentException("A [" + newRows + " x " + newColumns + "] view at " + newOffset
+                                               + " does not fit in an array of length " + newData.length);
+        }
+        data = newData;
+        offset = newOffset;
+        rows = newRows;
+        columns = newColumns;
+    }
+
+    /**
+     * Creates a new square <code>Tensor</code> view over a whole 1-D image array
+     * (i.e., an array of length 1024 is viewed as a [32 x 32] matrix).
+     *
+     * @param imageArray
+     *     Flat 1-D doubles array of image pixel data.
+     */
+    public static Tensor square(double[] imageArray) {
+        int dimension = (int)Math.sqrt(imageArray.length);
+        return new Tensor(imageArray, 0, dimension, dimension);
+    }
+
+    /**
+     * Creates a new <code>Tensor</code> with its own storage copied from a 2-D matrix/array.
+     *
+     * @param matrix
+     *     The 2-D matrix/array to copy.
+     */
+    public static Tensor fromMatrix(double[][] matrix) {
+        Tensor tensor = new Tensor(matrix.length, matrix[0].length);
+        for(int rowIndex = 0; rowIndex < tensor.rows; ++rowIndex) {
+            System.arraycopy(matrix[rowIndex], 0, tensor.data, rowIndex * tensor.columns, tensor.columns);
+        }
+        return tensor;
+    }
+
+    // Return the array index of a matrix cell.
+    public int index(int rowIndex, int columnIndex) {
+        return offset + rowIndex * columns + columnIndex;
+    }
+
+    public double get(int rowIndex, int columnIndex) {
+        return data[index(rowIndex, columnIndex)];
+    }
+
+    public void set(int rowIndex, int columnIndex, double value) {
+        data[index(rowIndex, columnIndex)] = value;
+    }
+
+    // Return a [1 x columns] view of a single row.
+    public Tensor row(int rowIndex) {
+        return new Tensor(data, index(rowIndex, 0), 1, columns);
+    }
+
+    // Return the number of values in the matrix.
+    public int getSize() {
+        return rows * columns;
+    }
+
+    // Set every value in the matrix.
+    public void fill(double value) {
+        Arrays.fill(data, offset, offset + getSize(), value);
+    }
+
+    // Copy the matrix values into a new 1-D array.
+    public double[] toArray() {
+        double[] array = new double[getSize()];
+        System.arraycopy(data, offset, array, 0, array.length);
+        return array;
+    }
+}
@@ -0,0 +1,141 @@
+import java.nio.*;
+
+/**
+ * Responsible for the compact binary encoding of weight and gradient matrices that training nodes
+ * and the parameter server send each other (see DistributedTrainer).
+ *
+ * Each matrix is its number of values and an encoding byte, followed by either the values as doubles
+ * (exact), or as 16-bit half-precision floats (4x smaller) divided by the largest magnitude in the
+ * matrix, which is sent once as a float. The scaling keeps every matrix in the range where half
+ * precision is most precise (about 3 decimal digits), whatever the size of its values.
+ * Buffers are in network byte order (big-endian).
+ */
+public final class TensorCodec {
+
+    private static final byte DOUBLE_ENCODING = 0, HALF_ENCODING = 1;
+
+    private TensorCodec() {}
+
+    // Return the number of bytes encode writes for a set of matrices.
+    static int getEncodedBytes(Tensor[] tensors, boolean halfPrecision) {
+        int bytes = 0;
+        for(Tensor tensor : tensors) {
+            bytes += Integer.BYTES + 1 + (halfPrecision ? Float.BYTES + tensor.getSize() * Short.BYTES : tensor.getSize() * Double.BYTES);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a set of matrices into a buffer.
+     *
+     * @param tensors
+     *     Matrices to write.
+     * @param halfPrecision
+     *     Whether to write the values as scaled half-precision floats instead of doubles.
+     * @param buffer
+     *     Buffer with at least getEncodedBytes bytes remaining.
+     */
+    static void encode(Tensor[] tensors, boolean halfPrecision, ByteBuffer buffer) {
+        for(Tensor tensor : tensors) {
+            int size = tensor.getSize();
+            buffer.putInt(size);
+            buffer.put(halfPrecision ? HALF_ENCODING : DOUBLE_ENCODING);
+            if(!halfPrecision) {
+                buffer.asDoubleBuffer().put(tensor.data, tensor.offset, size);
+                buffer.position(buffer.position() + size * Double.BYTES);
+                continue;
+            }
+            double maxMagnitude = 0;
+            for(int i = tensor.offset; i < tensor.offset + size; ++i) {
+                maxMagnitude = Math.max(maxMagnitude, Math.abs(tensor.data[i]));
+            }
+            float scale = (maxMagnitude > 0 ? (float)maxMagnitude : 1);
+            buffer.putFloat(scale);
+            for(int i = tensor.offset; i < tensor.offset + size; ++i) {
+                buffer.putShort(toHalf((float)(tensor.data[i] / scale)));
+            }
+        }
+    }
+
+    /**
+     * Reads a set of matrices written by encode into existing matrices of the same sizes.
+     *
+     * @param buffer
+     *     Buffer positioned at the first matrix.
+     * @param tensors
+     *     Matrices to overwrite.
+     */
+    static void decode(ByteBuffer buffer, Tensor[] tensors) {
+        for(int tensorIndex = 0; tensorIndex < tensors.length; ++tensorIndex) {
+            Tensor tensor = tensors[tensorIndex];
+            int size = buffer.getInt();
+            if(size != tensor.getSize()) {
+                throw new IllegalArgumentException("Matrix " + tensorIndex + " has " + size + " values, but " + tensor.getSize() + " were expected");
+            }
+            byte encoding = buffer.get();
+            if(encoding == DOUBLE_ENCODING) {
+                buffer.asDoubleBuffer().get(tensor.data, tensor.offset, size);
+                buffer.position(buffer.position() + size * Double.BYTES);
+            } else if(encoding == HALF_ENCODING) {
+                double scale = buffer.getFloat();
+                for(int i = tensor.offset; i < tensor.offset + size; ++i) {
+                    tensor.data[i] = toFloat(buffer.getShort()) * scale;
+                }
+            } else {
+                throw new IllegalArgumentException("Matrix " + tensorIndex + " has the unknown encoding " + encoding);
+            }
+        }
+    }
+
+    /**
+     * Returns the half-precision float nearest a float (ties to even), as its 16 bits. Values beyond the
+     * half-precision range become infinity, values below its smallest subnormal become 0, and NaN stays NaN.
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+        if(exponent >= 31) {
+            if(exponent == 0xff - 127 + 15 && mantissa != 0) { // A quiet NaN, with the top of the float's payload.
+                return (short)(sign | 0x7e00 | (mantissa >>> 13));
+            }
+            return (short)(sign | 0x7c00);
+        }
+        if(exponent <= 0) { // Subnormal: the mantissa (with its implicit 1) in units of 2^-24.
+            if(exponent < -10) {
+                return (short)sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if(remainder > halfway || (remainder == halfway && (half & 1) == 1)) {
+                ++half;
+            }
+            return (short)(sign | half);
+        }
+        int half = (exponent << 10) | (mantissa >> 13);
+        int remainder = mantissa & 0x1fff;
+        if(remainder > 0x1000 || (remainder == 0x1000 && (half & 1) == 1)) {
+            ++half; // A carry out of the mantissa correctly moves up the exponent (to infinity at most).
+        }
+        return (short)(sign | half);
+    }
+
+    // Return the float a half-precision float (as its 16 bits) holds.
+    static float toFloat(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if(exponent == 0) {
+            return Math.copySign(mantissa * 0x1p-24f, (sign == 0 ? 1f : -1f));
+        }
+        if(exponent == 31) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
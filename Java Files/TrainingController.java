@@ -0,0 +1,235 @@
+import java.util.*;
+
+/**
+ * Responsible for deciding how training goes on from epoch to epoch: the learning rate of each epoch
+ * (a learning rate schedule), and when to stop because the validation accuracy has stopped improving
+ * (early stopping), so no time is spent on epochs that do not improve the model.
+ * The weights of the epoch with the best validation accuracy are copied as training goes, and put back
+ * into the network when it stops, so the network ends at its best epoch rather than at its last one.
+ * The schedule sets the learning rate of the perceptron (the trainable layers of a CNN keep their own).
+ *
+ * Per epoch: startEpoch before training it, finishEpochTraining right after, and recordAccuracy once its
+ * validation results are known (which can be after the next epoch has trained, i.e., with asynchronous
+ * evaluation, since the weights of every epoch waiting for its results are kept until then).
+ */
+public class TrainingController {
+
+    /**
+     * How the learning rate changes from epoch to epoch.
+     */
+    public enum Schedule {
+        CONSTANT, // The initial learning rate for every epoch.
+        STEP,     // Multiplied by the decay factor every scheduleInterval epochs.
+        COSINE,   // Half a cosine from the initial learning rate down to the minimum learning rate over all epochs.
+        PLATEAU   // Multiplied by the decay factor whenever the validation accuracy has not improved for scheduleInterval epochs.
+    }
+
+    /**
+     * The trained weights of a network after an epoch.
+     */
+    private static class Snapshot {
+
+        final Tensor[] perceptronWeights;
+        final Layer[] layers; // Trainable layers of a CNN (null for an MLP or a filter set).
+
+        Snapshot(Tensor[] newPerceptronWeights, Layer[] newLayers) {
+            perceptronWeights = newPerceptronWeights;
+            layers = newLayers;
+        }
+    }
+
+    private final Network network;
+    private final int epochAmount;
+    private final Schedule schedule;
+    private final double initialLearningRate, decayFactor, minimumLearningRate;
+    private final int scheduleInterval;
+    private final int patience;
+    private final double minimumImprovement;
+
+    private double learningRate;
+    private double bestAccuracy;
+    private double improvedAccuracy; // Best accuracy when the patience last started over (the last rise of at least the minimum improvement).
+    private int bestEpoch, lastEpoch;
+    private int epochsWithoutImprovement, epochsOnPlateau;
+    private boolean stopped;
+    private Snapshot bestSnapshot;
+    // Weights of the epochs whose validation results have not been recorded yet.
+    private final Map<Integer, Snapshot> pendingSnapshots;
+
+    /**
+     * Creates a new <code>TrainingController</code> for an MLP or a CNN.
+     *
+     * @param newNetwork
+     *     The MLP or CNN being trained.
+     * @param newEpochAmount
+     *     Number of epochs training runs for unless it stops early (the COSINE schedule ends at the last one).
+     * @param newSchedule
+     *     How the learning rate changes from epoch to epoch.
+     * @param newInitialLearningRate
+     *     Learning rate of the first epoch.
+     * @param newDecayFactor
+     *     Factor the STEP and PLATEAU schedules multiply the learning rate by (from above 0 to 1).
+     * @param newScheduleInterval
+     *     Epochs between the steps of the STEP schedule, or epochs without improvement before the PLATEAU schedule decays.
+     * @param newMinimumLearningRate
+     *     Lowest learning rate of any schedule (where COSINE ends).
+     * @param newPatience
+     *     Epochs without improvement of the validation accuracy before training stops (0 never stops early).
+     * @param newMinimumImprovement
+     *     Amount the validation accuracy must rise by to start the patience (and the PLATEAU interval) over. Smaller rises
+     *     still make the weights of the epoch the best ones.
+     */
+    public TrainingController(Network newNetwork, int newEpochAmount, Schedule newSchedule, double newInitialLearningRate, double newDecayFactor,
+                              int newScheduleInterval, double newMinimumLearningRate, int newPatience, double newMinimumImprovement) {
+        if(!(newNetwork instanceof MLP) && !(newNetwork instanceof CNN)) {
+            throw new IllegalArgumentException("Only the training of an MLP or a CNN can be controlled.");
+        }
+        if(!(newInitialLearningRate > 0) || !(newDecayFactor > 0 && newDecayFactor <= 1) || newScheduleInterval < 1
+           || !(newMinimumLearningRate > 0 && newMinimumLearningRate <= newInitialLearningRate)) {
+            throw new IllegalArgumentException("The learning rate " + newInitialLearningRate + " must be above 0 and at least the minimum learning rate "
+                                               + newMinimumLearningRate + " (above 0), the decay factor " + newDecayFactor
+                                               + " from above 0 to 1, and the schedule interval " + newScheduleInterval + " at least 1");
+        }
+        if(newPatience < 0 || newMinimumImprovement < 0) {
+            throw new IllegalArgumentException("The patience and minimum improvement must be at least 0, but they are "
+                                               + newPatience + " and " + newMinimumImprovement);
+        }
+        network = newNetwork;
+        epochAmount = newEpochAmount;
+        schedule = newSchedule;
+        initialLearningRate = newInitialLearningRate;
+        decayFactor = newDecayFactor;
+        scheduleInterval = newScheduleInterval;
+        minimumLearningRate = newMinimumLearningRate;
+        patience = newPatience;
+        minimumImprovement = newMinimumImprovement;
+        learningRate = newInitialLearningRate;
+        bestAccuracy = Double.NEGATIVE_INFINITY;
+        improvedAccuracy = Double.NEGATIVE_INFINITY;
+        bestEpoch = -1;
+        lastEpoch = -1;
+        pendingSnapshots = new HashMap<>();
+    }
+
+    /**
+     * Sets the perceptron's learning rate for an epoch before it trains.
+     *
+     * @param epoch
+     *     The number of epochs trained before this one (counting from 0).
+     * @return The learning rate of the epoch.
+     */
+    public double startEpoch(int epoch) {
+        switch(schedule) {
+            case STEP:
+                learningRate = initialLearningRate * Math.pow(decayFactor, epoch / scheduleInterval);
+                break;
+            case COSINE:
+                double progress = Math.min(1, (double)epoch / Math.max(1, epochAmount - 1));
+                learningRate = minimumLearningRate + (initialLearningRate - minimumLearningRate) * (1 + Math.cos(Math.PI * progress)) / 2;
+                break;
+            case PLATEAU: // Lowered by recordAccuracy.
+                break;
+            default:
+                learningRate = initialLearningRate;
+        }
+        learningRate = Math.max(learningRate, minimumLearningRate);
+        getPerceptron().setLearningRate(learningRate);
+        return learningRate;
+    }
+
+    /**
+     * Copies the weights of an epoch that has just trained, to be kept if its validation accuracy turns
+     * out to be the best (or before the first epoch, of the network training starts from).
+     *
+     * @param epoch
+     *     The number of epochs trained so far (counting the one that just trained).
+     */
+    public void finishEpochTraining(int epoch) {
+        MLP perceptron = getPerceptron();
+        pendingSnapshots.put(epoch, new Snapshot(perceptron.copyWeights(), (network instanceof CNN ? ((CNN)network).copyTrainableLayers() : null)));
+    }
+
+    /**
+     * Records the validation results of an epoch, which decide whether its weights are the best so far,
+     * whether the PLATEAU schedule lowers the learning rate, and whether training stops.
+     *
+     * @param epoch
+     *     The number of epochs trained when the results were measured (as passed to finishEpochTraining).
+     * @param validationMatrix
+     *     The confusion matrix of the validation inputs after the epoch.
+     * @return Whether training should go on.
+     */
+    public boolean recordAccuracy(int epoch, ConfusionMatrix validationMatrix) {
+        Snapshot snapshot = pendingSnapshots.remove(epoch);
+        if(snapshot == null) {
+            throw new IllegalStateException("Epoch " + epoch + " has no weights to record the accuracy of (finishEpochTraining was not called).");
+        }
+        double accuracy = validationMatrix.getAccuracy();
+        lastEpoch = Math.max(lastEpoch, epoch);
+        if(accuracy > bestAccuracy) { // Any rise makes the best weights, but only a large enough one resets the patience.
+            bestAccuracy = accuracy;
+            bestEpoch = epoch;
+            bestSnapshot = snapshot;
+        }
+        if(accuracy > improvedAccuracy + minimumImprovement) {
+            improvedAccuracy = accuracy;
+            epochsWithoutImprovement = 0;
+            epochsOnPlateau = 0;
+        } else {
+            ++epochsWithoutImprovement;
+            if(schedule == Schedule.PLATEAU && ++epochsOnPlateau >= scheduleInterval) {
+                learningRate = Math.max(learningRate * decayFactor, minimumLearningRate);
+                epochsOnPlateau = 0;
+            }
+        }
+        stopped = stopped || (patience > 0 && epochsWithoutImprovement >= patience);
+        return !stopped;
+    }
+
+    // Return whether training should stop early (the validation accuracy has not risen by the minimum improvement for the patience).
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    // Return the number of epochs trained when the best validation accuracy was measured (-1 before any was recorded).
+    public int getBestEpoch() {
+        return bestEpoch;
+    }
+
+    public double getBestAccuracy() {
+        return bestAccuracy;
+    }
+
+    // Return the learning rate the perceptron is training with.
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    /**
+     * Puts the weights of the epoch with the best validation accuracy back into the network, if a later
+     * epoch was recorded (call once training has stopped, after every epoch's results are recorded).
+     *
+     * @return Whether the weights were restored (false if the last epoch was the best one).
+     */
+    public boolean restoreBestWeights() {
+        pendingSnapshots.clear();
+        if(bestSnapshot == null || bestEpoch == lastEpoch) {
+            return false;
+        }
+        getPerceptron().restoreWeights(bestSnapshot.perceptronWeights);
+        if(bestSnapshot.layers != null) {
+            ((CNN)network).restoreTrainableLayers(bestSnapshot.layers);
+        }
+        bestSnapshot = null;
+        return true;
+    }
+
+    // Return the perceptron being trained (a CNN's filter set makes its perceptron on its first forward pass).
+    private MLP getPerceptron() {
+        MLP perceptron = (network instanceof MLP ? (MLP)network : ((CNN)network).getPerceptron());
+        if(perceptron == null) {
+            throw new IllegalStateException("The CNN has no perceptron before its first forward pass.");
+        }
+        return perceptron;
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Responsible for one training node of a DistributedTrainer. A node connects to the parameter server,
+ * builds its own copy of the MLP from the shape the server sends, and for every epoch trains its shard
+ * of the training set in mini-batches: it pulls the weights before each batch, sums the batch's
+ * gradients without changing them, and pushes the sum back (see DistributedTrainer for the protocol).
+ * A node reads the inputs of its shard from its own training set, so it needs the same training set as
+ * the server (a node in another JVM must build it the same way), which the server checks on connection.
+ */
+public class TrainingNode {
+
+    // How long a node keeps trying to connect (i.e., when it is started before the server).
+    private static final int CONNECTION_TIMEOUT_MILLIS = 60_000;
+    private static final int CONNECTION_RETRY_MILLIS = 250;
+
+    private final String host;
+    private final int port;
+    private final Input[] trainingSet;
+    private final ToIntFunction<double[]> labelDecoder;
+    private final IntFunction<double[]> targetProvider;
+
+    /**
+     * Creates a new <code>TrainingNode</code>.
+     *
+     * @param newHost
+     *     Address of the parameter server.
+     * @param newPort
+     *     Port of the parameter server.
+     * @param newTrainingSet
+     *     The same training set as the server's (only read).
+     * @param newLabelDecoder
+     *     Function that gives the predicted label of an output layer.
+     * @param newTargetProvider
+     *     Function that gives the target output layer of a label.
+     */
+    public TrainingNode(String newHost, int newPort, Input[] newTrainingSet, ToIntFunction<double[]> newLabelDecoder, IntFunction<double[]> newTargetProvider) {
+        host = newHost;
+        port = newPort;
+        trainingSet = newTrainingSet;
+        labelDecoder = newLabelDecoder;
+        targetProvider = newTargetProvider;
+    }
+
+    /**
+     * Connects to the parameter server and trains every epoch it starts, until it shuts down.
+     *
+     * @return The number of epochs trained, or -1 if the node failed (the error is printed).
+     */
+    public int run() {
+        try(Socket socket = connect()) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), DistributedTrainer.STREAM_BUFFER_BYTES));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), DistributedTrainer.STREAM_BUFFER_BYTES));
+            out.writeByte(DistributedTrainer.HELLO);
+            out.writeInt(DistributedTrainer.MAGIC_NUMBER);
+            out.writeInt(DistributedTrainer.PROTOCOL_VERSION);
+            out.writeInt(trainingSet.length);
+            out.writeInt(DistributedTrainer.getLabelHash(trainingSet));
+            out.flush();
+
+            expect(in, DistributedTrainer.WELCOME);
+            in.readInt(); // The node's index (its shard comes with each epoch).
+            int batchSize = in.readInt();
+            boolean halfPrecisionEnabled = in.readBoolean();
+            int[] layerSizes = new int[in.readInt()];
+            for(int i = 0; i < layerSizes.length; ++i) {
+                layerSizes[i] = in.readInt();
+            }
+            int[] hiddenLayerSizes = Arrays.copyOfRange(layerSizes, 1, layerSizes.length - 1);
+            MLPConfiguration configuration = MLPConfiguration.DEFAULT.withHiddenLayerSizes(hiddenLayerSizes)
+                                                                     .withActivations(Activation.fromId(in.readInt()), Activation.fromId(in.readInt()))
+                                                                     .withBiasValue(in.readDouble());
+            MLP perceptron = new MLP(layerSizes[0], layerSizes[layerSizes.length - 1], configuration);
+            return trainEpochs(in, out, perceptron, batchSize, halfPrecisionEnabled);
+        } catch(IOException | RuntimeException e) {
+            System.err.println("Error with training node of " + host + ":" + port + ": " + e);
+            return -1;
+        }
+    }
+
+    // Connect to the server, retrying until it listens or the connection timeout passes.
+    private Socket connect() throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECTION_TIMEOUT_MILLIS;
+        while(true) {
+            try {
+                return new Socket(host, port);
+            } catch(ConnectException e) {
+                if(System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(CONNECTION_RETRY_MILLIS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while connecting");
+            }
+        }
+    }
+
+    /**
+     * Trains the shard of every epoch the server starts.
+     *
+     * @return The number of epochs trained.
+     */
+    private int trainEpochs(DataInputStream in, DataOutputStream out, MLP perceptron, int batchSize, boolean halfPrecisionEnabled) throws IOException {
+        Tensor[] weights = perceptron.getWeightMatrices();
+        MLP.Workspace workspace = perceptron.createWorkspace();
+        MLP.Gradients gradients = perceptron.createGradients();
+        ByteBuffer pushBuffer = ByteBuffer.allocate(TensorCodec.getEncodedBytes(gradients.weights, halfPrecisionEnabled));
+        byte[] weightBytes = new byte[0];
+        int epochAmount = 0;
+        while(true) {
+            out.writeByte(DistributedTrainer.NEXT_EPOCH);
+            out.flush();
+            byte type = in.readByte();
+            if(type == DistributedTrainer.SHUTDOWN) {
+                return epochAmount;
+            }
+            if(type != DistributedTrainer.START_EPOCH) {
+                throw new IOException("expected the start of an epoch, but got message type " + type);
+            }
+            in.readInt(); // The number of the epoch.
+            int start = in.readInt();
+            int end = in.readInt();
+            ConfusionMatrix matrix = new ConfusionMatrix(targetProvider.apply(0).length);
+            int clock = 0;
+            for(int batchStart = start; batchStart < end; batchStart += batchSize, ++clock) {
+                int batchEnd = Math.min(end, batchStart + batchSize);
+                out.writeByte(DistributedTrainer.PULL);
+                out.writeInt(clock);
+                out.flush();
+                expect(in, DistributedTrainer.WEIGHTS);
+                int length = in.readInt();
+                weightBytes = (weightBytes.length < length ? new byte[length] : weightBytes);
+                in.readFully(weightBytes, 0, length);
+                TensorCodec.decode(ByteBuffer.wrap(weightBytes, 0, length), weights);
+
+                gradients.clear();
+                for(int inputIndex = batchStart; inputIndex < batchEnd; ++inputIndex) {
+                    Input input = trainingSet[inputIndex];
+                    double[] result = perceptron.executeForwardPropagation(input.getData(workspace.inputBuffer), workspace);
+                    matrix.add(labelDecoder.applyAsInt(result), input.label);
+                    perceptron.accumulateGradients(targetProvider.apply(input.label), workspace, gradients);
+                }
+                pushBuffer.clear();
+                TensorCodec.encode(gradients.weights, halfPrecisionEnabled, pushBuffer);
+                out.writeByte(DistributedTrainer.PUSH); // Flushed with the next pull.
+                out.writeInt(clock);
+                out.writeInt(batchEnd - batchStart);
+                out.writeInt(pushBuffer.position());
+                out.write(pushBuffer.array(), 0, pushBuffer.position());
+            }
+            out.writeByte(DistributedTrainer.EPOCH_DONE);
+            DistributedTrainer.writeConfusionMatrix(out, matrix);
+            out.flush();
+            ++epochAmount;
+        }
+    }
+
+    // Read a message type, and throw if it is not the expected one.
+    private static void expect(DataInputStream in, byte expectedType) throws IOException {
+        byte type = in.readByte();
+        if(type != expectedType) {
+            throw new IOException("expected message type " + expectedType + ", but got " + type);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+import jdk.incubator.vector.*;
+
+/**
+ * Responsible for running the Kernels with SIMD instructions through the JDK Vector API, as many
+ * doubles at a time as the CPU's widest vectors hold (i.e., 4 with AVX2 and 8 with AVX-512), followed
+ * by a scalar loop over the leftover values. The vectors load straight from any offset, so unlike
+ * C2's auto-vectorization these loops do not need their arrays packed first.
+ * axpy, relu and updateWeights do exactly the same arithmetic as the scalar kernels. dot sums in a different
+ * order (one partial sum per lane, with fused multiply-adds), and sigmoid uses its own e^x
+ * approximation, so both can differ from the scalar kernels in the last bit or two.
+ * The floats kernels hold twice as many values per vector (FLOAT_SPECIES has the same width). Their dot
+ * sums per lane like the doubles one, and their sigmoid uses the Vector API's own e^x.
+ * Needs the jdk.incubator.vector module (compile and run with --add-modules jdk.incubator.vector).
+ */
+public class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    // e^x = 2^n * e^r, where n = round(x / ln(2)) and r = x - n * ln(2) (|r| <= ln(2) / 2). ln(2) is split into a high part
+    // with its low bits cleared (so n * LN2_HIGH is exact) and the rest, and e^r is a Taylor polynomial (error below 1e-17).
+    private static final double LOG2_E = 1.4426950408889634;
+    private static final double LN2_HIGH = 6.93147180369123816490e-01;
+    private static final double LN2_LOW = 1.90821492927058770002e-10;
+    // Adding 1.5 * 2^52 rounds a double to the nearest integer, which ends up in the low bits of the sum.
+    private static final double ROUNDING_SHIFTER = 0x1.8p52;
+    // Exponents are clamped to this range, where 2^n (and so e^x) is still a normal double.
+    private static final double MIN_EXPONENT = -708, MAX_EXPONENT = 709;
+    private static final double[] TAYLOR_COEFFICIENTS = createTaylorCoefficients(13);
+
+    public VectorKernels() {}
+
+    // Return 1 / k! for k = 0 to degree.
+    private static double[] createTaylorCoefficients(int degree) {
+        double[] coefficients = new double[degree + 1];
+        coefficients[0] = 1;
+        for(int k = 1; k <= degree; ++k) {
+            coefficients[k] = coefficients[k - 1] / k;
+        }
+        return coefficients;
+    }
+
+    // Only worth it if a vector holds more than one double.
+    protected boolean isSupported() {
+        return SPECIES.length() > 1;
+    }
+
+    public String getName() {
+        return "Vector API (" + SPECIES.vectorBitSize() + "-bit, " + SPECIES.length() + " doubles per vector)";
+    }
+
+    public double dot(double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int step = SPECIES.length();
+        int vectorEnd = SPECIES.loopBound(length);
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for(; i < vectorEnd; i += step) {
+            DoubleVector xVector = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector yVector = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            sum = xVector.fma(yVector, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for(; i < length; ++i) {
+            result += x[xOffset + i] * y[yOffset + i];
+        }
+        return result;
+    }
+
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int step = SPECIES.length();
+        int vectorEnd = SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += step) { // Multiply then add (not fused), the same as the scalar kernel.
+            DoubleVector xVector = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector yVector = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            yVector.add(xVector.mul(alpha)).intoArray(y, yOffset + i);
+        }
+        for(; i < length; ++i) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    public void sigmoid(double[] x, int offset, int length) {
+        int step = SPECIES.length();
+        int vectorEnd = SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += step) {
+            DoubleVector xVector = DoubleVector.fromArray(SPECIES, x, offset + i);
+            DoubleVector exponential = exp(xVector.neg());
+            DoubleVector sigmoid = DoubleVector.broadcast(SPECIES, 1).div(exponential.add(1));
+            // Below -MAX_EXPONENT the sigmoid is 0 (or a subnormal), rather than stopping at 1 / e^MAX_EXPONENT.
+            VectorMask<Double> underflow = xVector.compare(VectorOperators.LT, -MAX_EXPONENT);
+            sigmoid.blend(0, underflow).intoArray(x, offset + i);
+        }
+        for(; i < length; ++i) {
+            x[offset + i] = 1 / (1 + Math.exp(-x[offset + i]));
+        }
+    }
+
+    public void relu(double[] x, int offset, int length, double negativeSlope) {
+        int step = SPECIES.length();
+        int vectorEnd = SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += step) {
+            DoubleVector xVector = DoubleVector.fromArray(SPECIES, x, offset + i);
+            xVector.max(xVector.mul(negativeSlope)).intoArray(x, offset + i);
+        }
+        for(; i < length; ++i) {
+            x[offset + i] = Math.max(x[offset + i], negativeSlope * x[offset + i]);
+        }
+    }
+
+    public float dot(float[] x, int xOffset, float[] y, int yOffset, int length) {
+        int step = FLOAT_SPECIES.length();
+        int vectorEnd = FLOAT_SPECIES.loopBound(length);
+        FloatVector sum = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+        for(; i < vectorEnd; i += step) {
+            FloatVector xVector = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+            FloatVector yVector = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+            sum = xVector.fma(yVector, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; i < length; ++i) {
+            result += x[xOffset + i] * y[yOffset + i];
+        }
+        return result;
+    }
+
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        int step = FLOAT_SPECIES.length();
+        int vectorEnd = FLOAT_SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += step) {
+            FloatVector xVector = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+            FloatVector yVector = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+            yVector.add(xVector.mul(alpha)).intoArray(y, yOffset + i);
+        }
+        for(; i < length; ++i) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    public void sigmoid(float[] x, int offset, int length) {
+        int step = FLOAT_SPECIES.length();
+        int vectorEnd = FLOAT_SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += step) { // e^-x overflows to infinity below about -88, which gives a sigmoid of exactly 0.
+            FloatVector xVector = FloatVector.fromArray(FLOAT_SPECIES, x, offset + i);
+            FloatVector exponential = xVector.neg().lanewise(VectorOperators.EXP);
+            FloatVector.broadcast(FLOAT_SPECIES, 1).div(exponential.add(1)).intoArray(x, offset + i);
+        }
+        super.sigmoid(x, offset + i, length - i);
+    }
+
+    public void relu(float[] x, int offset, int length, float negativeSlope) {
+        int step = FLOAT_SPECIES.length();
+        int vectorEnd = FLOAT_SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += step) {
+            FloatVector xVector = FloatVector.fromArray(FLOAT_SPECIES, x, offset + i);
+            xVector.max(xVector.mul(negativeSlope)).intoArray(x, offset + i);
+        }
+        super.relu(x, offset + i, length - i, negativeSlope);
+    }
+
+    /**
+     * Approximates e^x for every lane of a vector.
+     *
+     * @param x
+     *     Vector of exponents (clamped to MIN_EXPONENT to MAX_EXPONENT).
+     */
+    private static DoubleVector exp(DoubleVector x) {
+        x = x.max(MIN_EXPONENT).min(MAX_EXPONENT);
+        DoubleVector shifted = x.mul(LOG2_E).add(ROUNDING_SHIFTER);
+        DoubleVector n = shifted.sub(ROUNDING_SHIFTER);
+        DoubleVector r = x.sub(n.mul(LN2_HIGH)).sub(n.mul(LN2_LOW));
+        DoubleVector polynomial = DoubleVector.broadcast(SPECIES, TAYLOR_COEFFICIENTS[TAYLOR_COEFFICIENTS.length - 1]);
+        for(int k = TAYLOR_COEFFICIENTS.length - 2; k >= 0; --k) { // Horner's method.
+            polynomial = polynomial.fma(r, DoubleVector.broadcast(SPECIES, TAYLOR_COEFFICIENTS[k]));
+        }
+        // 2^n is built straight from its bits: exponent field n + 1023 (n sits in the low bits of 'shifted').
+        LongVector powerBits = shifted.reinterpretAsLongs().lanewise(VectorOperators.LSHL, 52).add(1023L << 52);
+        return polynomial.mul(powerBits.reinterpretAsDoubles());
+    }
+
+    public void updateWeights(double[] weights, double[] deltas, int offset, double scale, double[] gradients, int gradientOffset,
+                              int length, double momentum) {
+        int step = SPECIES.length();
+        int vectorEnd = SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += step) { // Same order of operations as the scalar kernel.
+            DoubleVector weightVector = DoubleVector.fromArray(SPECIES, weights, offset + i);
+            DoubleVector gradientVector = DoubleVector.fromArray(SPECIES, gradients, gradientOffset + i);
+            DoubleVector newValue = weightVector.add(gradientVector.mul(scale));
+            if(momentum != 0) {
+                newValue = newValue.add(DoubleVector.fromArray(SPECIES, deltas, offset + i).mul(momentum));
+            }
+            weightVector.sub(newValue).intoArray(deltas, offset + i);
+            newValue.intoArray(weights, offset + i);
+        }
+        super.updateWeights(weights, deltas, offset + i, scale, gradients, gradientOffset + i, length - i, momentum);
+    }
+}
@@ -0,0 +1,197 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * Tests that networks come back from a checkpoint exactly as they were saved: the same outputs, and
+ * (with the momentum terms saved) the same weights after training on, and that a damaged file is refused.
+ */
+class CheckpointTest {
+
+    private static final int IMAGE_DIMENSION = 8;
+    private static final int INPUT_LAYER_SIZE = IMAGE_DIMENSION * IMAGE_DIMENSION;
+    private static final int OUTPUT_LAYER_SIZE = 5;
+    private static final int INPUT_AMOUNT = 12;
+
+    @TempDir
+    Path folder;
+
+    private Input[] inputs;
+    private double[][] targets;
+
+    @BeforeEach
+    void setUp() {
+        Random random = new Random(445L);
+        inputs = new Input[INPUT_AMOUNT];
+        for(int i = 0; i < inputs.length; ++i) {
+            double[] data = new double[INPUT_LAYER_SIZE];
+            for(int j = 0; j < data.length; ++j) {
+                data[j] = random.nextInt(17) / 16.0; // Like a downsized image.
+            }
+            inputs[i] = new Input(data, i % OUTPUT_LAYER_SIZE);
+        }
+        targets = new double[OUTPUT_LAYER_SIZE][OUTPUT_LAYER_SIZE];
+        for(int label = 0; label < OUTPUT_LAYER_SIZE; ++label) {
+            targets[label][label] = 1;
+        }
+    }
+
+    @Test
+    void mlpRoundTrip() {
+        MLPConfiguration configuration = MLPConfiguration.DEFAULT.withHiddenLayerSizes(12, 8)
+                                                                 .withActivations(Activation.TANH, Activation.SOFTMAX)
+                                                                 .withLearningRate(0.2)
+                                                                 .withMomentum(0.5)
+                                                                 .withBiasValue(0.75);
+        MLP mlp = new MLP(INPUT_LAYER_SIZE, OUTPUT_LAYER_SIZE, configuration);
+        train(mlp);
+
+        MLP loaded = (MLP)saveAndLoad(mlp, 7, true).getNetwork();
+        assertArrayEquals(mlp.getLayerSizes(), loaded.getLayerSizes());
+        assertEquals(mlp.getConfiguration().toString(), loaded.getConfiguration().toString());
+        assertSameTensors(mlp.copyWeights(), loaded.copyWeights()); // The weights and their momentum terms.
+        assertSameTrainingRun(mlp, loaded);
+    }
+
+    @Test
+    void mlpRoundTripWithoutMomentum() {
+        MLP mlp = new MLP(INPUT_LAYER_SIZE, 10, OUTPUT_LAYER_SIZE);
+        train(mlp);
+
+        Checkpoint checkpoint = saveAndLoad(mlp, 3, false);
+        assertFalse(checkpoint.isMomentumIncluded());
+        MLP loaded = (MLP)checkpoint.getNetwork();
+        assertSameTensors(mlp.getWeightMatrices(), loaded.getWeightMatrices());
+        assertSameOutputs(mlp, loaded);
+    }
+
+    @Test
+    void cnnWithFilterSetRoundTrip() {
+        Filter[] filterSet = {new Filter(new double[][] {{-1, -1, -1}, {1, 1, 1}, {0, 0, 0}}),
+                              new Filter(new double[][] {{-1, 0, 1}, {-1, 0, 1}, {-1, 0, 1}})};
+        CNN cnn = new CNN(INPUT_LAYER_SIZE, 10, OUTPUT_LAYER_SIZE, filterSet, 1);
+        train(cnn);
+
+        CNN loaded = (CNN)saveAndLoad(cnn, 4, true).getNetwork();
+        assertFalse(loaded.hasTrainableLayers());
+        assertEquals(cnn.getFilterSetOutputSize(), loaded.getFilterSetOutputSize());
+        assertSameTensors(cnn.getPerceptron().copyWeights(), loaded.getPerceptron().copyWeights());
+        assertSameTrainingRun(cnn, loaded);
+    }
+
+    @Test
+    void cnnWithTrainableLayersRoundTrip() {
+        Layer[] layers = {new ConvolutionLayer(1, 3, 3, 1, 1, true),
+                          new PoolingLayer(PoolingLayer.Mode.MAX, 2),
+                          new ConvolutionLayer(3, 4, 3, 1, 0, true),
+                          new PoolingLayer(PoolingLayer.Mode.AVERAGE, 1)};
+        CNN cnn = new CNN(INPUT_LAYER_SIZE, 10, OUTPUT_LAYER_SIZE, layers);
+        train(cnn);
+
+        CNN loaded = (CNN)saveAndLoad(cnn, 9, true).getNetwork();
+        assertTrue(loaded.hasTrainableLayers());
+        assertSameTensors(cnn.getPerceptron().copyWeights(), loaded.getPerceptron().copyWeights());
+        assertSameTrainingRun(cnn, loaded); // Also trains the layers, so it checks their weights and momentum terms.
+    }
+
+    @Test
+    void truncatedCheckpointIsRefused() throws IOException {
+        MLP mlp = new MLP(INPUT_LAYER_SIZE, 10, OUTPUT_LAYER_SIZE);
+        Path path = folder.resolve("mlp.ckpt");
+        assertTrue(Checkpoint.save(path.toString(), mlp, 1, true));
+        byte[] bytes = Files.readAllBytes(path);
+        Path truncatedPath = folder.resolve("truncated.ckpt");
+        // Within the header, within the layer sizes, within the weights, and just the last byte missing.
+        for(int length : new int[] {0, 10, 24, bytes.length / 2, bytes.length - 1}) {
+            Files.write(truncatedPath, Arrays.copyOf(bytes, length));
+            assertNull(Checkpoint.load(truncatedPath.toString()), "A checkpoint cut to " + length + " of " + bytes.length + " bytes was loaded");
+        }
+        Files.write(truncatedPath, Arrays.copyOf(bytes, bytes.length + 8)); // Bytes left over at the end.
+        assertNull(Checkpoint.load(truncatedPath.toString()));
+        assertNull(Checkpoint.load(folder.resolve("missing.ckpt").toString()));
+        assertNotNull(Checkpoint.load(path.toString()));
+    }
+
+    @Test
+    void oversizedCheckpointIsRefused() throws IOException {
+        Path path = folder.resolve("oversized.ckpt");
+        // Sizes that are each in range, but whose weights overflow an int, or fit one but not the file.
+        for(int[] layerSizes : new int[][] {{46340, 46341}, {20000, 20000}, {1 << 24, 1 << 24}}) {
+            ByteBuffer buffer = createHeader(1, 64 + Integer.BYTES * layerSizes.length);
+            buffer.putInt(layerSizes.length);
+            for(int layerSize : layerSizes) {
+                buffer.putInt(layerSize);
+            }
+            buffer.putInt(Activation.SIGMOID.getId()).putInt(Activation.SIGMOID.getId());
+            buffer.putDouble(0.1).putDouble(0.9).putDouble(1);
+            buffer.putDouble(0.5); // Just one of the weights.
+            Files.write(path, Arrays.copyOf(buffer.array(), buffer.position()));
+            assertNull(Checkpoint.load(path.toString()), "A checkpoint with layer sizes " + Arrays.toString(layerSizes) + " was loaded");
+        }
+        // A convolution layer with 2^24 filters over 2^24 channels, and one with an output of 2^24 x 2^24 values per channel.
+        for(int[] shape : new int[][] {{1 << 24, 1 << 24, 3, 1, 0}, {1, 1, 1, 1, 1 << 23}}) {
+            ByteBuffer buffer = createHeader(2, 256);
+            buffer.putInt(INPUT_LAYER_SIZE).putInt(10).putInt(OUTPUT_LAYER_SIZE);
+            buffer.putInt(1).putInt(1).putInt(ConvolutionLayer.CHECKPOINT_TYPE);
+            for(int value : shape) {
+                buffer.putInt(value);
+            }
+            buffer.putInt(1); // ReLU enabled.
+            buffer.putDouble(0.5).putDouble(0.5); // A kernel and a bias.
+            Files.write(path, Arrays.copyOf(buffer.array(), buffer.position()));
+            assertNull(Checkpoint.load(path.toString()), "A checkpoint with layer shape " + Arrays.toString(shape) + " was loaded");
+        }
+    }
+
+    // Return a little-endian buffer with a checkpoint header written to it (see Checkpoint.load), without the momentum terms.
+    private static ByteBuffer createHeader(int networkType, int bodyBytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(20 + bodyBytes).order(ByteOrder.LITTLE_ENDIAN);
+        return buffer.putInt(0x41534C4D).putInt(2).putInt(networkType).putInt(0).putInt(1);
+    }
+
+    // Train a network on every input once, so that its weights and momentum terms are no longer the initial ones.
+    private void train(Network network) {
+        for(Input input : inputs) {
+            network.executeForwardPropagation(input);
+            network.executeBackPropagation(targets[input.label]);
+        }
+    }
+
+    private Checkpoint saveAndLoad(Network network, int epochAmount, boolean momentumIncluded) {
+        String path = folder.resolve("network.ckpt").toString();
+        assertTrue(Checkpoint.save(path, network, epochAmount, momentumIncluded));
+        Checkpoint checkpoint = Checkpoint.load(path);
+        assertNotNull(checkpoint);
+        assertEquals(epochAmount, checkpoint.getEpochAmount());
+        assertEquals(momentumIncluded, checkpoint.isMomentumIncluded());
+        assertEquals(network.getClass(), checkpoint.getNetwork().getClass());
+        return checkpoint;
+    }
+
+    // Check that two networks give the same outputs, then train both on the same inputs and check them again.
+    private void assertSameTrainingRun(Network network, Network loaded) {
+        assertSameOutputs(network, loaded);
+        train(network);
+        train(loaded);
+        assertSameOutputs(network, loaded);
+    }
+
+    private void assertSameOutputs(Network network, Network loaded) {
+        for(Input input : inputs) {
+            double[] output = network.executeForwardPropagation(input).clone();
+            assertArrayEquals(output, loaded.executeForwardPropagation(input));
+        }
+    }
+
+    private static void assertSameTensors(Tensor[] expected, Tensor[] actual) {
+        assertEquals(expected.length, actual.length);
+        for(int i = 0; i < expected.length; ++i) {
+            assertArrayEquals(expected[i].toArray(), actual[i].toArray(), "Matrix " + i);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+/**
+ * Tests that inputs come back from the dataset cache file with their labels and values, read
+ * from the mapped file, and convert to every precision.
+ */
+class DatasetCacheTest {
+
+    private static final int VALUES_PER_IMAGE = 100;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void savedInputsLoadAsMappedFloats() {
+        String imagesFolderPath = folder.resolve("signs").toString(); // Missing, so it has no images to fingerprint.
+        Random random = new Random(445L);
+        Input[] inputs = new Input[7];
+        for(int i = 0; i < inputs.length; ++i) {
+            double[] data = new double[VALUES_PER_IMAGE];
+            for(int j = 0; j < data.length; ++j) {
+                data[j] = random.nextInt(ImageParser.PIXEL_LEVEL_AMOUNT + 1) / (double)ImageParser.PIXEL_LEVEL_AMOUNT;
+            }
+            inputs[i] = new Input(data, i * 3);
+        }
+        DatasetCache cache = new DatasetCache(folder.resolve("dataset.bin").toString());
+        cache.save(imagesFolderPath, inputs);
+
+        Input[] loaded = cache.load(imagesFolderPath);
+        assertNotNull(loaded);
+        assertEquals(inputs.length, loaded.length);
+        float[] floats = new float[VALUES_PER_IMAGE + 1];
+        for(int i = 0; i < inputs.length; ++i) {
+            assertEquals(inputs[i].label, loaded[i].label);
+            assertEquals(Precision.FLOAT32, loaded[i].getPrecision());
+            assertEquals(VALUES_PER_IMAGE, loaded[i].getSize());
+            assertArrayEquals(inputs[i].data, loaded[i].getData(null), "Input " + i); // Pixel values are exact as floats.
+            loaded[i].copyData(floats, 1);
+            for(int j = 0; j < VALUES_PER_IMAGE; ++j) {
+                assertEquals((float)inputs[i].data[j], floats[j + 1]);
+            }
+            assertSame(loaded[i], loaded[i].withPrecision(Precision.FLOAT32, ImageParser.PIXEL_LEVEL_AMOUNT));
+            for(Precision precision : new Precision[] {Precision.DOUBLE, Precision.INT8}) {
+                Input converted = loaded[i].withPrecision(precision, ImageParser.PIXEL_LEVEL_AMOUNT);
+                assertEquals(precision, converted.getPrecision());
+                assertArrayEquals(inputs[i].data, converted.getData(null), precision + " input " + i);
+            }
+        }
+    }
+
+    @Test
+    void outOfDateFileIsNotLoaded() throws IOException {
+        Path imagesFolder = folder.resolve("signs");
+        DatasetCache cache = new DatasetCache(folder.resolve("dataset.bin").toString());
+        assertNull(cache.load(imagesFolder.toString()));
+        cache.save(imagesFolder.toString(), new Input[] {new Input(new double[VALUES_PER_IMAGE], 0)});
+        assertNotNull(cache.load(imagesFolder.toString()));
+        Files.createDirectories(imagesFolder.resolve("0"));
+        Files.write(imagesFolder.resolve("0").resolve("image.jpg"), new byte[1]); // A new image changes the fingerprint.
+        assertNull(cache.load(imagesFolder.toString()));
+    }
+}
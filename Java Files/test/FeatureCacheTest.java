@@ -0,0 +1,71 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+
+/**
+ * Tests that feature maps come back from the cache as they were put, on and off the heap, and that
+ * the memory bound is kept.
+ */
+class FeatureCacheTest {
+
+    // Feature maps of 256 KiB, so that 64 of them fill one 16 MiB off-heap chunk.
+    private static final int FEATURE_LENGTH = 32 * 1024;
+
+    @Test
+    void offHeapFeatureMapsSpanChunks() {
+        FeatureCache cache = new FeatureCache(200L * FEATURE_LENGTH * Double.BYTES, true);
+        Input[] inputs = putFeatureMaps(cache, 150);
+        assertEquals(inputs.length, cache.getSize());
+        assertEquals((long)inputs.length * FEATURE_LENGTH * Double.BYTES, cache.getUsedBytes());
+        assertFeatureMaps(cache, inputs);
+    }
+
+    @Test
+    void boundIsKeptOnAndOffTheHeap() {
+        for(boolean offHeapEnabled : new boolean[] {false, true}) {
+            // Room for 70 and a half feature maps, so the second off-heap chunk is cut short.
+            FeatureCache cache = new FeatureCache(70L * FEATURE_LENGTH * Double.BYTES + FEATURE_LENGTH * 4, offHeapEnabled);
+            Input[] inputs = putFeatureMaps(cache, 80);
+            assertEquals(70, cache.getSize());
+            for(int i = 0; i < inputs.length; ++i) {
+                assertEquals(i < 70, cache.contains(inputs[i]), "Input " + i);
+            }
+            cache.invalidate();
+            assertEquals(0, cache.getSize());
+            assertEquals(0, cache.getUsedBytes());
+            assertNull(cache.get(inputs[0]));
+        }
+    }
+
+    @Test
+    void boundOfMoreThanAnIntOfBytes() {
+        FeatureCache cache = new FeatureCache(2048L << 20, true); // Reserves nothing up front.
+        Input[] inputs = putFeatureMaps(cache, 3);
+        assertFeatureMaps(cache, inputs);
+    }
+
+    // Put a feature map for each of a number of new inputs, where value j of feature map i is i * FEATURE_LENGTH + j.
+    private static Input[] putFeatureMaps(FeatureCache cache, int amount) {
+        Input[] inputs = new Input[amount];
+        for(int i = 0; i < inputs.length; ++i) {
+            inputs[i] = new Input(new double[1], 0);
+            cache.put(inputs[i], createFeatureMap(i));
+        }
+        return inputs;
+    }
+
+    private static void assertFeatureMaps(FeatureCache cache, Input[] inputs) {
+        double[] destination = new double[FEATURE_LENGTH];
+        for(int i = 0; i < inputs.length; ++i) {
+            assertArrayEquals(createFeatureMap(i), cache.get(inputs[i], destination), "Feature map " + i);
+        }
+    }
+
+    private static double[] createFeatureMap(int index) {
+        double[] features = new double[FEATURE_LENGTH];
+        for(int j = 0; j < features.length; ++j) {
+            features[j] = (double)index * FEATURE_LENGTH + j;
+        }
+        return features;
+    }
+}
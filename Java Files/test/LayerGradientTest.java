@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.function.*;
+import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.*;
+
+/**
+ * Checks the backward passes of the trainable CNN layers against finite differences. Each layer's output
+ * is scored by a fixed random weighting of its values (loss = sum of weight * output), so the output error
+ * of that loss is the weighting itself, and every gradient backward gives (input errors, and the filter and
+ * bias gradients) must match the change in the loss when that one value is nudged up and down.
+ */
+class LayerGradientTest {
+
+    private static final double EPSILON = 1e-6;
+    // Central differences are off by about EPSILON^2 (the layers are piecewise linear) plus rounding of about 1e-10.
+    private static final double TOLERANCE = 1e-7;
+
+    private final Random random = new Random(445L);
+
+    @ParameterizedTest(name = "{0} -> {1} channels, {2} x {2} filters, stride {3}, padding {4}, ReLU {5}, {6} x {6} input")
+    @CsvSource({"1, 3, 3, 1, 1, false, 6",
+                "2, 3, 3, 2, 1, true, 7",
+                "3, 2, 2, 1, 0, true, 5",
+                "2, 4, 5, 2, 2, false, 9"})
+    void convolutionLayerBackward(int inputChannels, int outputChannels, int filterSize, int stride, int padding,
+                                  boolean reluEnabled, int inputDimension) {
+        ConvolutionLayer layer = new ConvolutionLayer(inputChannels, outputChannels, filterSize, stride, padding, reluEnabled);
+        Tensor[] weights = layer.getWeightMatrices();
+        for(Tensor weightMatrix : weights) {
+            fillRandom(weightMatrix);
+        }
+        Tensor input = createRandom(inputChannels, inputDimension * inputDimension);
+        int outputDimension = layer.getOutputDimension(inputDimension);
+        Tensor lossWeights = createRandom(outputChannels, outputDimension * outputDimension);
+        DoubleSupplier loss = () -> getLoss(layer, input, inputDimension, lossWeights);
+
+        Tensor inputError = backward(layer, input, inputDimension, lossWeights);
+        assertMatchesFiniteDifferences("input", inputError, input, loss);
+        Tensor[] gradients = layer.getGradientMatrices();
+        assertMatchesFiniteDifferences("kernel", gradients[0], weights[0], loss);
+        assertMatchesFiniteDifferences("bias", gradients[1], weights[1], loss);
+    }
+
+    @ParameterizedTest(name = "{0} pooling of {1} x {1} segments, {2} x {2} input")
+    @CsvSource({"MAX, 2, 6",
+                "MAX, 2, 7",
+                "MAX, 3, 6",
+                "AVERAGE, 2, 6",
+                "AVERAGE, 3, 7"})
+    void poolingLayerBackward(PoolingLayer.Mode mode, int size, int inputDimension) {
+        int channels = 2;
+        PoolingLayer layer = new PoolingLayer(mode, size);
+        Tensor input = createRandom(channels, inputDimension * inputDimension);
+        int outputDimension = layer.getOutputDimension(inputDimension);
+        Tensor lossWeights = createRandom(channels, outputDimension * outputDimension);
+
+        Tensor inputError = backward(layer, input, inputDimension, lossWeights);
+        assertMatchesFiniteDifferences("input", inputError, input, () -> getLoss(layer, input, inputDimension, lossWeights));
+    }
+
+    // Run a forward and backward pass, with the loss weights as the output error, and return the input error.
+    private static Tensor backward(Layer layer, Tensor input, int inputDimension, Tensor lossWeights) {
+        Tensor output = new Tensor(lossWeights.rows, lossWeights.columns);
+        layer.forward(input, inputDimension, output);
+        Tensor outputError = new Tensor(lossWeights.toArray(), 0, lossWeights.rows, lossWeights.columns); // backward may overwrite it.
+        Tensor inputError = new Tensor(input.rows, input.columns);
+        layer.backward(input, inputDimension, output, outputError, inputError);
+        return inputError;
+    }
+
+    private static double getLoss(Layer layer, Tensor input, int inputDimension, Tensor lossWeights) {
+        Tensor output = new Tensor(lossWeights.rows, lossWeights.columns);
+        layer.forward(input, inputDimension, output);
+        double loss = 0;
+        for(int i = 0; i < output.getSize(); ++i) {
+            loss += lossWeights.data[i] * output.data[i];
+        }
+        return loss;
+    }
+
+    /**
+     * Checks every gradient against the central difference of the loss at its value.
+     *
+     * @param name
+     *     What the values are (for the failure messages).
+     * @param gradients
+     *     Gradients calculated by the backward pass, laid out like the values.
+     * @param values
+     *     The values the loss depends on (each one is nudged and put back).
+     * @param loss
+     *     Function that gives the loss for the current values.
+     */
+    private static void assertMatchesFiniteDifferences(String name, Tensor gradients, Tensor values, DoubleSupplier loss) {
+        for(int i = 0; i < values.getSize(); ++i) {
+            int index = values.offset + i;
+            double value = values.data[index];
+            values.data[index] = value + EPSILON;
+            double upperLoss = loss.getAsDouble();
+            values.data[index] = value - EPSILON;
+            double lowerLoss = loss.getAsDouble();
+            values.data[index] = value;
+            double expected = (upperLoss - lowerLoss) / (2 * EPSILON);
+            assertEquals(expected, gradients.data[gradients.offset + i], TOLERANCE * Math.max(1, Math.abs(expected)),
+                         "Gradient of " + name + " value " + i);
+        }
+    }
+
+    private Tensor createRandom(int rows, int columns) {
+        Tensor tensor = new Tensor(rows, columns);
+        fillRandom(tensor);
+        return tensor;
+    }
+
+    // Fill a matrix with values from -1 to 1.
+    private void fillRandom(Tensor tensor) {
+        for(int i = 0; i < tensor.getSize(); ++i) {
+            tensor.data[tensor.offset + i] = random.nextDouble() * 2 - 1;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+
+/**
+ * Tests the half-precision conversions of TensorCodec against every one of the 65536 half-precision
+ * values, and the encoding of whole matrices.
+ */
+class TensorCodecTest {
+
+    private static final int HALF_VALUE_AMOUNT = 1 << 16;
+    private static final int POSITIVE_INFINITY = 0x7c00;
+
+    @Test
+    void toFloatGivesTheValueOfEveryHalf() {
+        for(int i = 0; i < HALF_VALUE_AMOUNT; ++i) {
+            int bits = i; // Read by the failure messages.
+            float value = TensorCodec.toFloat((short)bits);
+            if(isNaN(bits)) {
+                assertTrue(Float.isNaN(value), () -> "Half " + hex(bits) + " is not NaN as a float");
+            } else {
+                assertEquals(getHalfValue(bits), value, () -> "Half " + hex(bits));
+                assertEquals((bits & 0x8000) != 0, (Float.floatToRawIntBits(value) & 0x80000000) != 0, () -> "Sign of half " + hex(bits));
+            }
+        }
+    }
+
+    @Test
+    void everyHalfRoundTrips() {
+        for(int i = 0; i < HALF_VALUE_AMOUNT; ++i) {
+            int bits = i; // Read by the failure messages.
+            int roundTrip = TensorCodec.toHalf(TensorCodec.toFloat((short)bits)) & 0xffff;
+            if(isNaN(bits)) {
+                assertTrue(isNaN(roundTrip), () -> "NaN " + hex(bits) + " became " + hex(roundTrip));
+            } else {
+                assertEquals(bits, roundTrip, () -> "Half " + hex(bits) + " became " + hex(roundTrip));
+            }
+        }
+    }
+
+    @Test
+    void toHalfRoundsToNearestWithTiesToEven() {
+        // Every pair of neighbouring non-negative halves, where the one above the largest finite half is infinity (at 2^16).
+        for(int lower = 0; lower < POSITIVE_INFINITY; ++lower) {
+            int upper = lower + 1;
+            float lowerValue = getHalfValue(lower);
+            float upperValue = (upper == POSITIVE_INFINITY ? 0x1p16f : getHalfValue(upper));
+            float halfway = (lowerValue + upperValue) / 2; // Exact: a float holds 13 more significant bits than a half.
+            int even = ((lower & 1) == 0 ? lower : upper);
+            for(int sign : new int[] {0, 0x8000}) {
+                float signedHalfway = (sign == 0 ? halfway : -halfway);
+                assertHalf(sign | even, signedHalfway);
+                assertHalf(sign | lower, (sign == 0 ? Math.nextDown(halfway) : -Math.nextDown(halfway)));
+                assertHalf(sign | upper, (sign == 0 ? Math.nextUp(halfway) : -Math.nextUp(halfway)));
+            }
+        }
+    }
+
+    @Test
+    void toHalfKeepsSpecialValues() {
+        assertHalf(0x0000, 0f);
+        assertHalf(0x8000, -0f);
+        assertHalf(POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        assertHalf(0xfc00, Float.NEGATIVE_INFINITY);
+        assertHalf(POSITIVE_INFINITY, Float.MAX_VALUE);
+        assertHalf(0x0000, Float.MIN_VALUE);
+        assertTrue(isNaN(TensorCodec.toHalf(Float.NaN) & 0xffff));
+        assertTrue(isNaN(TensorCodec.toHalf(Float.intBitsToFloat(0xff800001)) & 0xffff)); // A NaN with only the lowest payload bit.
+    }
+
+    @Test
+    void encodeAndDecodeMatrices() {
+        Random random = new Random(445L);
+        Tensor[] tensors = {new Tensor(3, 7), new Tensor(new double[20], 4, 4, 4)};
+        for(Tensor tensor : tensors) {
+            for(int i = 0; i < tensor.getSize(); ++i) {
+                tensor.data[tensor.offset + i] = random.nextGaussian() * 1e-3;
+            }
+        }
+        for(boolean halfPrecision : new boolean[] {false, true}) {
+            ByteBuffer buffer = ByteBuffer.allocate(TensorCodec.getEncodedBytes(tensors, halfPrecision));
+            TensorCodec.encode(tensors, halfPrecision, buffer);
+            assertFalse(buffer.hasRemaining());
+            buffer.flip();
+            Tensor[] decoded = {new Tensor(3, 7), new Tensor(4, 4)};
+            TensorCodec.decode(buffer, decoded);
+            for(int tensorIndex = 0; tensorIndex < tensors.length; ++tensorIndex) {
+                double[] expected = tensors[tensorIndex].toArray();
+                double[] actual = decoded[tensorIndex].toArray();
+                double largestMagnitude = Arrays.stream(expected).map(Math::abs).max().getAsDouble();
+                for(int i = 0; i < expected.length; ++i) { // Half precision holds 11 significant bits of value / largestMagnitude.
+                    assertEquals(expected[i], actual[i], (halfPrecision ? largestMagnitude * 0x1p-11 : 0));
+                }
+            }
+        }
+    }
+
+    // Check that a float converts to a half.
+    private static void assertHalf(int expectedBits, float value) {
+        int bits = TensorCodec.toHalf(value) & 0xffff;
+        assertEquals(expectedBits, bits, () -> value + " became " + hex(bits) + " instead of " + hex(expectedBits));
+    }
+
+    private static boolean isNaN(int bits) {
+        return (bits & 0x7c00) == 0x7c00 && (bits & 0x3ff) != 0;
+    }
+
+    // Return the value of a finite or infinite half from its definition (worked out in double, where it is exact).
+    private static float getHalfValue(int bits) {
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        double magnitude;
+        if(exponent == 0x1f) {
+            magnitude = Double.POSITIVE_INFINITY;
+        } else if(exponent == 0) {
+            magnitude = mantissa * 0x1p-24;
+        } else {
+            magnitude = (1 + mantissa / 1024.0) * Math.pow(2, exponent - 15);
+        }
+        return (float)((bits & 0x8000) != 0 ? -magnitude : magnitude);
+    }
+
+    private static String hex(int bits) {
+        return String.format("0x%04x", bits);
+    }
+}
@@ -0,0 +1,27 @@
+package benchmarks;
+
+import java.util.*;
+
+/**
+ * Runs the benchmarks through the JMH command line, with the GC profiler added unless another
+ * profiler is asked for, so every score comes with its allocation rate (gc.alloc.rate.norm is
+ * the number of bytes allocated per sample). The benchmark JVMs also get the Vector API module, so
+ * the networks run on VectorKernels (add "-jvmArgsAppend -Dasl.kernels=scalar" for the scalar kernels).
+ *
+ * Usage: java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regex]
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if(arguments.contains("-prof") == false) {
+            arguments.add(0, "gc");
+            arguments.add(0, "-prof");
+        }
+        if(arguments.contains("-jvmArgsPrepend") == false) {
+            arguments.add(0, "--add-modules=jdk.incubator.vector");
+            arguments.add(0, "-jvmArgsPrepend");
+        }
+        org.openjdk.jmh.Main.main(arguments.toArray(new String[0]));
+    }
+}
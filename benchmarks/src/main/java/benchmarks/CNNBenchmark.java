@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks a single CNN training/testing step with the 8 edge filters of GroupProject.
+ * Without a feature cache every sample runs through the convolution layer (the first epoch);
+ * with one, every sample's feature map is already cached (every later epoch).
+ * Each operation is one sample, so the scores are samples per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CNNBenchmark {
+
+    private static final int INPUT_AMOUNT = 1024;
+    private static final int HIDDEN_LAYER_SIZE = 50;
+    private static final long FEATURE_CACHE_BYTES = 64L * 1024 * 1024;
+
+    @Param({"false", "true"})
+    public boolean featureCacheEnabled;
+
+    private Object cnn;
+    private Object[] inputs;
+    private double[][] targets;
+    private int inputIndex;
+
+    @Setup
+    public void setUp() {
+        Object featureCache = (featureCacheEnabled ? Project.newFeatureCache(FEATURE_CACHE_BYTES, false) : null);
+        cnn = Project.newCNN(SyntheticData.INPUT_LAYER_SIZE, HIDDEN_LAYER_SIZE, SyntheticData.OUTPUT_LAYER_SIZE,
+                             SyntheticData.createFilterSet(), 1, featureCache);
+        inputs = SyntheticData.createInputs(INPUT_AMOUNT);
+        targets = SyntheticData.createTargets();
+        inputIndex = 0;
+    }
+
+    // Return the next input, going around the inputs in order.
+    private Object nextInput() {
+        inputIndex = (inputIndex + 1 == INPUT_AMOUNT ? 0 : inputIndex + 1);
+        return inputs[inputIndex];
+    }
+
+    @Benchmark
+    public double[] forward() {
+        return Project.executeForwardPropagation(cnn, nextInput());
+    }
+
+    @Benchmark
+    public void forwardBackward() {
+        Project.executeForwardPropagation(cnn, nextInput());
+        Project.executeBackPropagation(cnn, targets[inputIndex % SyntheticData.OUTPUT_LAYER_SIZE]);
+    }
+}
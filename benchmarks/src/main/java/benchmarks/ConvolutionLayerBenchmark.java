@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the forward and backward pass of a trainable 3 x 3 convolution layer (padded to keep
+ * the image size), from the first layer (1 -> 8 channels over 32 x 32) to the second (8 -> 16 over 16 x 16).
+ * Each operation is one image, so the scores are images per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ConvolutionLayerBenchmark {
+
+    private static final int FILTER_SIZE = 3;
+
+    // inputChannels:outputChannels:imageDimension
+    @Param({"1:8:32", "8:16:16"})
+    public String shape;
+
+    private Object layer;
+    private int imageDimension;
+    private Object input, output, outputError, inputError;
+
+    @Setup
+    public void setUp() {
+        String[] values = shape.split(":");
+        int inputChannels = Integer.parseInt(values[0]);
+        int outputChannels = Integer.parseInt(values[1]);
+        imageDimension = Integer.parseInt(values[2]);
+        layer = Project.newConvolutionLayer(inputChannels, outputChannels, FILTER_SIZE, 1, 1, true);
+        Random random = new Random(0);
+        input = createTensor(random, inputChannels, imageDimension);
+        output = Project.newTensor(outputChannels, imageDimension * imageDimension);
+        outputError = createTensor(random, outputChannels, imageDimension);
+        inputError = Project.newTensor(inputChannels, imageDimension * imageDimension);
+        Project.forward(layer, input, imageDimension, output);
+    }
+
+    // Return a [channels x (dimension * dimension)] tensor of random values in [0, 1).
+    private static Object createTensor(Random random, int channels, int dimension) {
+        Object tensor = Project.newTensor(channels, dimension * dimension);
+        double[] data = Project.getTensorData(tensor);
+        for(int i = 0; i < data.length; ++i) {
+            data[i] = random.nextDouble();
+        }
+        return tensor;
+    }
+
+    @Benchmark
+    public Object forward() {
+        Project.forward(layer, input, imageDimension, output);
+        return output;
+    }
+
+    // Weight gradients (summed, never applied, so the layer does not change) and input error.
+    @Benchmark
+    public Object backward() {
+        Project.backward(layer, input, imageDimension, output, outputError, inputError);
+        return inputError;
+    }
+}
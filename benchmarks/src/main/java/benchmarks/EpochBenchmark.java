@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks a whole training epoch the way GroupProject runs it (forward, label, backward for every
+ * sample, or for every mini-batch when the batch size is above 1).
+ * Each operation is one sample, so the scores are samples per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class EpochBenchmark {
+
+    private static final int EPOCH_SIZE = 2048;
+    private static final int HIDDEN_LAYER_SIZE = 50;
+    private static final long FEATURE_CACHE_BYTES = 256L * 1024 * 1024;
+
+    @Param({"1", "64"})
+    public int batchSize;
+
+    private Object mlp, cnn;
+    private Object[] trainingSet;
+    private Object[] batch;
+    private double[][] targets, batchTargets;
+
+    @Setup
+    public void setUp() {
+        mlp = Project.newMLP(SyntheticData.INPUT_LAYER_SIZE, HIDDEN_LAYER_SIZE, SyntheticData.OUTPUT_LAYER_SIZE);
+        cnn = Project.newCNN(SyntheticData.INPUT_LAYER_SIZE, HIDDEN_LAYER_SIZE, SyntheticData.OUTPUT_LAYER_SIZE,
+                             SyntheticData.createFilterSet(), 1, Project.newFeatureCache(FEATURE_CACHE_BYTES, false));
+        trainingSet = SyntheticData.createInputs(EPOCH_SIZE);
+        targets = SyntheticData.createTargets();
+        batch = Project.newInputArray(batchSize);
+        batchTargets = new double[batchSize][];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EPOCH_SIZE)
+    public int mlpEpoch() {
+        return executeTrainingEpoch(mlp);
+    }
+
+    // Every epoch after the first takes the CNN feature maps from the cache.
+    @Benchmark
+    @OperationsPerInvocation(EPOCH_SIZE)
+    public int cnnEpoch() {
+        return executeTrainingEpoch(cnn);
+    }
+
+    /**
+     * Trains a network on every sample of the training set once.
+     *
+     * @param network
+     *     The network to train.
+     * @return The number of correctly labelled samples.
+     */
+    private int executeTrainingEpoch(Object network) {
+        int correctAmount = 0;
+        if(batchSize == 1) {
+            for(Object input : trainingSet) {
+                int label = Project.getLabel(input);
+                correctAmount += (Project.argmax(Project.executeForwardPropagation(network, input)) == label ? 1 : 0);
+                Project.executeBackPropagation(network, targets[label]);
+            }
+            return correctAmount;
+        }
+        for(int batchStart = 0; batchStart + batchSize <= trainingSet.length; batchStart += batchSize) {
+            System.arraycopy(trainingSet, batchStart, batch, 0, batchSize);
+            double[][] results = Project.forwardBatch(network, batch);
+            for(int i = 0; i < batchSize; ++i) {
+                int label = Project.getLabel(batch[i]);
+                correctAmount += (Project.argmax(results[i]) == label ? 1 : 0);
+                batchTargets[i] = targets[label];
+            }
+            Project.backwardBatch(network, batchTargets);
+        }
+        return correctAmount;
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks 3 x 3 filter applications at several image sizes: a single filter, and the 8 edge filters
+ * of GroupProject applied one at a time or as one bank in a single pass.
+ * Each operation is one image, so the scores are images per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+    @Param({"32", "64", "128", "256"})
+    public int imageDimension;
+
+    private static final int FILTER_SIZE = 3;
+
+    private Object[] filterSet;
+    private Object filter, filterKernels;
+    private double[] image;
+    private Object imageTensor, filterSetOutput;
+
+    @Setup
+    public void setUp() {
+        filterSet = SyntheticData.createFilterSet();
+        filter = filterSet[0];
+        filterKernels = Project.stackKernels(filterSet);
+        image = SyntheticData.createImage(new Random(imageDimension), imageDimension);
+        imageTensor = Project.newTensor(imageDimension, imageDimension);
+        System.arraycopy(image, 0, Project.getTensorData(imageTensor), 0, image.length);
+        int outputDimension = imageDimension - FILTER_SIZE + 1;
+        filterSetOutput = Project.newTensor(filterSet.length, outputDimension * outputDimension);
+    }
+
+    @Benchmark
+    public double[] applyFilter() {
+        return Project.applyFilter(filter, image);
+    }
+
+    // Every filter of the set through its own pass over the image.
+    @Benchmark
+    public double[] applyFilterSetOneAtATime() {
+        double[] filteredImage = null;
+        for(Object singleFilter : filterSet) {
+            filteredImage = Project.applyFilter(singleFilter, image);
+        }
+        return filteredImage;
+    }
+
+    // Every filter of the set in one pass over the image (what CNN does).
+    @Benchmark
+    public Object applyFilterSet() {
+        Project.convolve(imageTensor, filterKernels, FILTER_SIZE, 1, 0, filterSetOutput);
+        return filterSetOutput;
+    }
+}
@@ -0,0 +1,157 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks turning .jpg files into inputs: parsing a whole folder (serially and through the
+ * parsing pipeline), converting a decoded image, and downsizing a full-size image matrix.
+ * The folder is a synthetic copy of the archive/signs layout written to a temporary directory.
+ * Each operation is one image, so the scores are images per second.
+ * The single-pass conversion is compared against the per-pixel one it replaced (kept here as the
+ * baseline) on every image before the benchmarks run, and they must give exactly the same values.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageParsingBenchmark {
+
+    private static final int IMAGES_PER_SIGN = 4;
+    private static final int IMAGE_AMOUNT = IMAGES_PER_SIGN * SyntheticData.OUTPUT_LAYER_SIZE;
+    private static final int DOWNSIZE_FACTOR = 8;
+
+    private Path imagesFolder;
+    private Object parser;
+    private BufferedImage image;
+    private double[][] imageMatrix;
+    private Object imageTensor, downsizedTensor;
+
+    @Setup
+    public void setUp() throws IOException {
+        imagesFolder = SyntheticData.writeImagesFolder(IMAGES_PER_SIGN);
+        parser = Project.newImageParser();
+        image = SyntheticData.createArchiveImage(new Random(0));
+        checkSinglePassConversion();
+        imageMatrix = getImageMatrix(image);
+        imageTensor = Project.newTensor(SyntheticData.ARCHIVE_IMAGE_DIMENSION, SyntheticData.ARCHIVE_IMAGE_DIMENSION);
+        double[] imageData = Project.getTensorData(imageTensor);
+        for(int rowIndex = 0; rowIndex < imageMatrix.length; ++rowIndex) {
+            System.arraycopy(imageMatrix[rowIndex], 0, imageData, rowIndex * imageMatrix.length, imageMatrix.length);
+        }
+        downsizedTensor = Project.newTensor(SyntheticData.IMAGE_DIMENSION, SyntheticData.IMAGE_DIMENSION);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticData.deleteImagesFolder(imagesFolder);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMAGE_AMOUNT)
+    public Object[] parseImages() {
+        return Project.parseImages(parser, imagesFolder.toString());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMAGE_AMOUNT)
+    public Object[] parseImagesInParallel() {
+        return Project.parseImages(parser, imagesFolder.toString(), Runtime.getRuntime().availableProcessors());
+    }
+
+    // The original conversion: a full-size matrix through getRGB, then downsized.
+    @Benchmark
+    public double[][] convertPerPixel() {
+        return downsizeImage(getImageMatrix(image), DOWNSIZE_FACTOR);
+    }
+
+    // The conversion parseImages uses: a single pass over the raster rows.
+    @Benchmark
+    public double[] convertSinglePass() {
+        return Project.getDownsizedImageArray(parser, image, DOWNSIZE_FACTOR);
+    }
+
+    @Benchmark
+    public double[][] downsizeImage() {
+        return downsizeImage(imageMatrix, DOWNSIZE_FACTOR);
+    }
+
+    @Benchmark
+    public Object downsizeTensor() {
+        Project.downsizeImage(parser, imageTensor, DOWNSIZE_FACTOR, downsizedTensor);
+        return downsizedTensor;
+    }
+
+    /**
+     * Checks that the single-pass conversion gives exactly the per-pixel conversion's values, for every
+     * image of the folder as ImageIO decodes it (one byte per pixel, read from the raster), and for
+     * the synthetic image as one byte per pixel and as packed RGB (read through getRGB).
+     */
+    private void checkSinglePassConversion() throws IOException {
+        List<BufferedImage> images = new ArrayList<>();
+        try(DirectoryStream<Path> signFolders = Files.newDirectoryStream(imagesFolder)) {
+            for(Path signFolder : signFolders) {
+                try(DirectoryStream<Path> files = Files.newDirectoryStream(signFolder)) {
+                    for(Path file : files) {
+                        images.add(ImageIO.read(file.toFile()));
+                    }
+                }
+            }
+        }
+        images.add(image);
+        BufferedImage rgbImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        rgbImage.getGraphics().drawImage(image, 0, 0, null);
+        images.add(rgbImage);
+        int mismatches = 0;
+        for(BufferedImage checkedImage : images) {
+            double[][] expected = downsizeImage(getImageMatrix(checkedImage), DOWNSIZE_FACTOR);
+            double[] actual = Project.getDownsizedImageArray(parser, checkedImage, DOWNSIZE_FACTOR);
+            for(int rowIndex = 0; rowIndex < expected.length; ++rowIndex) {
+                if(Arrays.equals(expected[rowIndex], 0, expected[rowIndex].length,
+                                 actual, rowIndex * expected[rowIndex].length, (rowIndex + 1) * expected[rowIndex].length) == false) {
+                    ++mismatches;
+                    break;
+                }
+            }
+        }
+        if(mismatches > 0) {
+            throw new IllegalStateException(mismatches + " of " + images.size() + " images convert differently in a single pass than per pixel");
+        }
+    }
+
+    // Return the value of every pixel of an image (0 unless it is white), read one getRGB call at a time.
+    private static double[][] getImageMatrix(BufferedImage image) {
+        double[][] imagePixels = new double[image.getHeight()][image.getWidth()];
+        for(int rowIndex = 0; rowIndex < image.getHeight(); ++rowIndex) {
+            for(int columnIndex = 0; columnIndex < image.getWidth(); ++columnIndex) {
+                int rgb = image.getRGB(columnIndex, rowIndex);
+                imagePixels[rowIndex][columnIndex] = (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / (255 * 3);
+            }
+        }
+        return imagePixels;
+    }
+
+    // Return a matrix shrunk by averaging every downsizeFactor x downsizeFactor segment.
+    private static double[][] downsizeImage(double[][] imageMatrix, int downsizeFactor) {
+        double[][] downsizedImage = new double[imageMatrix.length / downsizeFactor][imageMatrix[0].length / downsizeFactor];
+        for(int rowIndex = 0; rowIndex < downsizedImage.length; ++rowIndex) {
+            for(int columnIndex = 0; columnIndex < downsizedImage[rowIndex].length; ++columnIndex) {
+                double sum = 0;
+                for(int i = rowIndex * downsizeFactor; i < (rowIndex + 1) * downsizeFactor; ++i) {
+                    for(int j = columnIndex * downsizeFactor; j < (columnIndex + 1) * downsizeFactor; ++j) {
+                        sum += imageMatrix[i][j];
+                    }
+                }
+                downsizedImage[rowIndex][columnIndex] = sum / (downsizeFactor * downsizeFactor);
+            }
+        }
+        return downsizedImage;
+    }
+}
@@ -0,0 +1,87 @@
+package benchmarks;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the scalar kernels against the Vector API kernels on rows the size of the MLP's layers
+ * (i.e., 50 hidden units and 26 output units) and on a whole weight matrix (1025 x 50).
+ * The weight rows are read at an offset into a larger array, like the MLP reads its weight matrices.
+ * Each operation is one kernel call.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsPrepend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+    private static final int ROW_OFFSET = 50;
+    private static final double MOMENTUM = 0.9;
+
+    @Param({"Kernels", "VectorKernels"})
+    public String kernelsClass;
+
+    @Param({"26", "50", "51250"})
+    public int length;
+
+    private Object kernels;
+    private double[] weights, deltas, error, layer;
+
+    @Setup
+    public void setUp() {
+        kernels = Project.newKernels(kernelsClass);
+        Random random = new Random(length);
+        weights = createArray(random, ROW_OFFSET + length, 0.05);
+        deltas = createArray(random, ROW_OFFSET + length, 0.001);
+        error = createArray(random, length, 0.1);
+        layer = createArray(random, length, 4);
+    }
+
+    // Return an array of random values in +/- limit.
+    private static double[] createArray(Random random, int length, double limit) {
+        double[] array = new double[length];
+        for(int i = 0; i < length; ++i) {
+            array[i] = (random.nextDouble() * 2 - 1) * limit;
+        }
+        return array;
+    }
+
+    // A weight row times an error (calculateHiddenError).
+    @Benchmark
+    public double dot() {
+        return Project.dot(kernels, weights, ROW_OFFSET, error, 0, length);
+    }
+
+    // A unit times a weight row added to a layer (calculateNextLayer).
+    @Benchmark
+    public double[] axpy() {
+        Project.axpy(kernels, 1e-9, weights, ROW_OFFSET, layer, 0, length);
+        return layer;
+    }
+
+    // The activation of a layer. The layer is copied first so every call sees the same values.
+    @Benchmark
+    public double[] sigmoid() {
+        System.arraycopy(weights, ROW_OFFSET, layer, 0, length);
+        Project.sigmoid(kernels, layer, 0, length);
+        return layer;
+    }
+
+    // The leaky ReLU activation of a layer, copied first like sigmoid.
+    @Benchmark
+    public double[] relu() {
+        System.arraycopy(weights, ROW_OFFSET, layer, 0, length);
+        Project.relu(kernels, layer, 0, length, 0.01);
+        return layer;
+    }
+
+    // A weight row updated with the momentum term (updateWeights/applyBatchGradients).
+    @Benchmark
+    public double[] updateWeights() {
+        Project.updateWeights(kernels, weights, deltas, ROW_OFFSET, 1e-9, error, 0, length, MOMENTUM);
+        return weights;
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks a single MLP training/testing step at several hidden layer sizes, with mini-batches trained in each precision.
+ * Each operation is one sample, so the scores are samples per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MLPBenchmark {
+
+    private static final int INPUT_AMOUNT = 1024;
+    private static final int BATCH_SIZE = 64;
+
+    @Param({"25", "50", "100", "200"})
+    public int hiddenLayerSize;
+
+    // Only changes batchForwardBackward (single inputs are always trained in DOUBLE).
+    @Param({"DOUBLE", "FLOAT32"})
+    public String trainingPrecision;
+
+    private Object mlp;
+    private Object[] inputs;
+    private Object[] batch;
+    private double[][] targets, batchTargets;
+    private int inputIndex;
+
+    @Setup
+    public void setUp() {
+        mlp = Project.newMLP(SyntheticData.INPUT_LAYER_SIZE, hiddenLayerSize, SyntheticData.OUTPUT_LAYER_SIZE, trainingPrecision);
+        inputs = SyntheticData.createInputs(INPUT_AMOUNT);
+        targets = SyntheticData.createTargets();
+        batch = Project.newInputArray(BATCH_SIZE);
+        batchTargets = new double[BATCH_SIZE][];
+        inputIndex = 0;
+    }
+
+    // Return the next input, going around the inputs in order.
+    private Object nextInput() {
+        inputIndex = (inputIndex + 1 == INPUT_AMOUNT ? 0 : inputIndex + 1);
+        return inputs[inputIndex];
+    }
+
+    @Benchmark
+    public double[] forward() {
+        return Project.executeForwardPropagation(mlp, nextInput());
+    }
+
+    @Benchmark
+    public void forwardBackward() {
+        Project.executeForwardPropagation(mlp, nextInput());
+        Project.executeBackPropagation(mlp, targets[inputIndex % SyntheticData.OUTPUT_LAYER_SIZE]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void batchForwardBackward() {
+        for(int i = 0; i < BATCH_SIZE; ++i) {
+            batch[i] = nextInput();
+            batchTargets[i] = targets[inputIndex % SyntheticData.OUTPUT_LAYER_SIZE];
+        }
+        Project.forwardBatch(mlp, batch);
+        Project.backwardBatch(mlp, batchTargets);
+    }
+}
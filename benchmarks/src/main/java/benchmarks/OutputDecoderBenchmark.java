@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks decoding output layers of 26 sigmoid units: the label found by a dot product against
+ * every label's one-hot target (how GroupProject labelled outputs before OutputDecoder), against
+ * OutputDecoder's single-pass argmax, its top 5 labels with their scores, and softmax probabilities.
+ * Each operation is one output layer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OutputDecoderBenchmark {
+
+    private static final int OUTPUT_LAYER_AMOUNT = 1024;
+    private static final int TOP_K = 5;
+
+    private double[][] outputLayers, targets;
+    private int[] labels;
+    private double[] scores, probabilities;
+    private int outputLayerIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(OUTPUT_LAYER_AMOUNT);
+        outputLayers = new double[OUTPUT_LAYER_AMOUNT][SyntheticData.OUTPUT_LAYER_SIZE];
+        for(double[] outputLayer : outputLayers) {
+            for(int i = 0; i < outputLayer.length; ++i) {
+                outputLayer[i] = random.nextDouble();
+            }
+        }
+        targets = SyntheticData.createTargets();
+        labels = new int[TOP_K];
+        scores = new double[TOP_K];
+        probabilities = new double[SyntheticData.OUTPUT_LAYER_SIZE];
+        outputLayerIndex = 0;
+    }
+
+    // Return the next output layer, going around the output layers in order.
+    private double[] nextOutputLayer() {
+        outputLayerIndex = (outputLayerIndex + 1 == OUTPUT_LAYER_AMOUNT ? 0 : outputLayerIndex + 1);
+        return outputLayers[outputLayerIndex];
+    }
+
+    @Benchmark
+    public int oneHotDotProducts() {
+        double[] outputLayer = nextOutputLayer();
+        int predictedLabel = 0;
+        double predictedDotProduct = 0;
+        for(int label = 0; label < targets.length; ++label) {
+            double dotProduct = 0;
+            for(int i = 0; i < outputLayer.length; ++i) {
+                dotProduct += outputLayer[i] * targets[label][i];
+            }
+            if(dotProduct > predictedDotProduct) {
+                predictedLabel = label;
+                predictedDotProduct = dotProduct;
+            }
+        }
+        return predictedLabel;
+    }
+
+    @Benchmark
+    public int argmax() {
+        return Project.argmax(nextOutputLayer());
+    }
+
+    @Benchmark
+    public int[] topK() {
+        Project.topK(nextOutputLayer(), 0, SyntheticData.OUTPUT_LAYER_SIZE, labels, scores);
+        return labels;
+    }
+
+    @Benchmark
+    public double[] softmax() {
+        Project.softmax(nextOutputLayer(), 0, SyntheticData.OUTPUT_LAYER_SIZE, probabilities, 0);
+        return probabilities;
+    }
+}
@@ -0,0 +1,113 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Benchmarks classifying inputs with a Predictor made from an MLP: one input at a time, a batch of
+ * inputs at once, and single requests from 16 threads at once through a micro-batching PredictionService
+ * (which gathers them into batches of up to 32). Each operation is one input, so the scores are
+ * predictions per second (summed over every thread). servicePredict also reports the batches the service
+ * ran per second (servicePredict:batches), so its average batch size is the score divided by that.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PredictionBenchmark {
+
+    private static final int INPUT_AMOUNT = 1024;
+    private static final int HIDDEN_LAYER_SIZE = 50;
+    private static final int BATCH_SIZE = 32;
+    private static final int REQUEST_THREAD_AMOUNT = 16;
+    private static final long MAX_DELAY_MICROSECONDS = 200;
+
+    /**
+     * The predictor and service, shared by every benchmark thread.
+     */
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        Object predictor, service;
+        Object[] inputs;
+
+        @Setup
+        public void setUp() {
+            Object mlp = Project.newMLP(SyntheticData.INPUT_LAYER_SIZE, HIDDEN_LAYER_SIZE, SyntheticData.OUTPUT_LAYER_SIZE);
+            predictor = Project.createPredictor(mlp);
+            service = Project.newPredictionService(predictor, BATCH_SIZE, MAX_DELAY_MICROSECONDS);
+            inputs = SyntheticData.createInputs(INPUT_AMOUNT);
+        }
+
+        @TearDown
+        public void tearDown() {
+            Project.closeService(service);
+        }
+    }
+
+    /**
+     * The batches the service runs in an iteration, reported next to the score. The service does not know which
+     * thread a batch was for, so each request thread counts an equal share (JMH sums the threads' counters).
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ServiceCounters {
+
+        public double batches;
+        private long startBatchAmount;
+
+        @Setup(Level.Iteration)
+        public void setUp(Shared shared) {
+            startBatchAmount = Project.getBatchAmount(shared.service);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown(Shared shared, ThreadParams threadParams) {
+            batches = (double)(Project.getBatchAmount(shared.service) - startBatchAmount) / threadParams.getThreadCount();
+        }
+    }
+
+    /**
+     * The position of a benchmark thread in the inputs.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        Object[] batch;
+        int inputIndex;
+
+        @Setup
+        public void setUp() {
+            batch = Project.newInputArray(BATCH_SIZE);
+            inputIndex = 0;
+        }
+
+        // Return the next input, going around the inputs in order.
+        Object nextInput(Shared shared) {
+            inputIndex = (inputIndex + 1 == INPUT_AMOUNT ? 0 : inputIndex + 1);
+            return shared.inputs[inputIndex];
+        }
+    }
+
+    @Benchmark
+    public double[] predict(Shared shared, Cursor cursor) {
+        return Project.predict(shared.predictor, cursor.nextInput(shared));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public double[][] predictBatch(Shared shared, Cursor cursor) {
+        for(int i = 0; i < BATCH_SIZE; ++i) {
+            cursor.batch[i] = cursor.nextInput(shared);
+        }
+        return Project.predictBatch(shared.predictor, cursor.batch);
+    }
+
+    @Benchmark
+    @Threads(REQUEST_THREAD_AMOUNT)
+    public double[] servicePredict(Shared shared, Cursor cursor, ServiceCounters counters) {
+        return Project.servicePredict(shared.service, cursor.nextInput(shared));
+    }
+}
@@ -0,0 +1,516 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.*;
+import java.lang.reflect.Array;
+
+/**
+ * Responsible for calling the project classes from the benchmarks. The project keeps its classes in the
+ * default package, which code in a named package cannot refer to, and JMH does not allow benchmarks in
+ * the default package. So every class is looked up once by name and every method is called through a
+ * constant method handle, which the JIT inlines like an ordinary call.
+ * Project objects are passed around as <code>Object</code>s (and arrays of them as <code>Object[]</code>s).
+ */
+final class Project {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final Class<?> INPUT = findClass("Input");
+    static final Class<?> NETWORK = findClass("Network");
+    static final Class<?> MLP = findClass("MLP");
+    static final Class<?> MLP_CONFIGURATION = findClass("MLPConfiguration");
+    static final Class<?> PRECISION = findClass("Precision");
+    static final Class<?> CNN = findClass("CNN");
+    static final Class<?> FILTER = findClass("Filter");
+    static final Class<?> FEATURE_CACHE = findClass("FeatureCache");
+    static final Class<?> IMAGE_PARSER = findClass("ImageParser");
+    static final Class<?> TENSOR = findClass("Tensor");
+    static final Class<?> CONVOLUTION = findClass("Convolution");
+    static final Class<?> LAYER = findClass("Layer");
+    static final Class<?> CONVOLUTION_LAYER = findClass("ConvolutionLayer");
+    static final Class<?> KERNELS = findClass("Kernels");
+    static final Class<?> PREDICTOR = findClass("Predictor");
+    static final Class<?> PREDICTION_SERVICE = findClass("PredictionService");
+    static final Class<?> OUTPUT_DECODER = findClass("OutputDecoder");
+
+    private static final MethodHandle NEW_INPUT = findConstructor(INPUT, double[].class, int.class);
+    private static final MethodHandle NEW_MLP = findConstructor(MLP, int.class, int.class, int.class);
+    private static final MethodHandle NEW_CONFIGURED_MLP = findConstructor(MLP, int.class, int.class, MLP_CONFIGURATION);
+    private static final MethodHandle NEW_CNN = findConstructor(CNN, int.class, int.class, int.class, FILTER.arrayType(), int.class, FEATURE_CACHE);
+    private static final MethodHandle NEW_FILTER = findConstructor(FILTER, double[][].class);
+    private static final MethodHandle NEW_FEATURE_CACHE = findConstructor(FEATURE_CACHE, long.class, boolean.class);
+    private static final MethodHandle NEW_IMAGE_PARSER = findConstructor(IMAGE_PARSER);
+    private static final MethodHandle NEW_TENSOR = findConstructor(TENSOR, int.class, int.class);
+    private static final MethodHandle NEW_PREDICTION_SERVICE = findConstructor(PREDICTION_SERVICE, PREDICTOR, int.class, long.class);
+    private static final MethodHandle NEW_CONVOLUTION_LAYER = findConstructor(CONVOLUTION_LAYER, int.class, int.class, int.class, int.class, int.class, boolean.class);
+
+    private static final MethodHandle FORWARD = findMethod(NETWORK, "executeForwardPropagation", double[].class, INPUT);
+    private static final MethodHandle BACKWARD = findMethod(NETWORK, "executeBackPropagation", void.class, double[].class);
+    private static final MethodHandle FORWARD_BATCH = findMethod(NETWORK, "forwardBatch", double[][].class, INPUT.arrayType());
+    private static final MethodHandle BACKWARD_BATCH = findMethod(NETWORK, "backwardBatch", void.class, double[][].class);
+    private static final MethodHandle CREATE_PREDICTOR = findMethod(NETWORK, "createPredictor", PREDICTOR);
+    private static final MethodHandle PREDICT = findMethod(PREDICTOR, "predict", double[].class, INPUT);
+    private static final MethodHandle PREDICT_BATCH = findMethod(PREDICTOR, "predictBatch", double[][].class, INPUT.arrayType());
+    private static final MethodHandle SERVICE_PREDICT = findMethod(PREDICTION_SERVICE, "predict", double[].class, INPUT);
+    private static final MethodHandle SERVICE_BATCH_AMOUNT = findMethod(PREDICTION_SERVICE, "getBatchAmount", long.class);
+    private static final MethodHandle SERVICE_CLOSE = findMethod(PREDICTION_SERVICE, "close", void.class);
+    private static final MethodHandle APPLY_FILTER = findMethod(FILTER, "applyFilter", double[].class, double[].class);
+    private static final MethodHandle STACK_KERNELS = findStaticMethod(FILTER, "stackKernels", TENSOR, FILTER.arrayType());
+    private static final MethodHandle CONVOLVE = findStaticMethod(CONVOLUTION, "convolve", void.class, TENSOR, TENSOR, int.class, int.class, int.class, TENSOR);
+    private static final MethodHandle LAYER_FORWARD = findMethod(LAYER, "forward", void.class, TENSOR, int.class, TENSOR);
+    private static final MethodHandle LAYER_BACKWARD = findMethod(LAYER, "backward", void.class, TENSOR, int.class, TENSOR, TENSOR, TENSOR);
+    private static final MethodHandle DOT = findMethod(KERNELS, "dot", double.class, double[].class, int.class, double[].class, int.class, int.class);
+    private static final MethodHandle AXPY = findMethod(KERNELS, "axpy", void.class, double.class, double[].class, int.class, double[].class, int.class, int.class);
+    private static final MethodHandle SIGMOID = findMethod(KERNELS, "sigmoid", void.class, double[].class, int.class, int.class);
+    private static final MethodHandle RELU = findMethod(KERNELS, "relu", void.class, double[].class, int.class, int.class, double.class);
+    private static final MethodHandle UPDATE_WEIGHTS = findMethod(KERNELS, "updateWeights", void.class, double[].class, double[].class, int.class,
+                                                                  double.class, double[].class, int.class, int.class, double.class);
+    private static final MethodHandle ARGMAX = findStaticMethod(OUTPUT_DECODER, "argmax", int.class, double[].class);
+    private static final MethodHandle TOP_K = findStaticMethod(OUTPUT_DECODER, "topK", int.class, double[].class, int.class, int.class, int[].class, double[].class);
+    private static final MethodHandle SOFTMAX = findStaticMethod(OUTPUT_DECODER, "softmax", void.class, double[].class, int.class, int.class, double[].class, int.class);
+    private static final MethodHandle PARSE_IMAGES = findMethod(IMAGE_PARSER, "parseImages", INPUT.arrayType(), String.class);
+    private static final MethodHandle PARSE_IMAGES_IN_PARALLEL = findMethod(IMAGE_PARSER, "parseImages", INPUT.arrayType(), String.class, int.class);
+    private static final MethodHandle DOWNSIZE_TENSOR = findMethod(IMAGE_PARSER, "downsizeImage", void.class, TENSOR, int.class, TENSOR);
+    private static final MethodHandle GET_DOWNSIZED_IMAGE_ARRAY = findMethod(IMAGE_PARSER, "getDownsizedImageArray", double[].class, BufferedImage.class, int.class);
+    private static final MethodHandle DEFAULT_CONFIGURATION = findStaticGetter(MLP_CONFIGURATION, "DEFAULT", MLP_CONFIGURATION);
+    private static final MethodHandle WITH_HIDDEN_LAYER_SIZES = findMethod(MLP_CONFIGURATION, "withHiddenLayerSizes", MLP_CONFIGURATION, int[].class);
+    private static final MethodHandle WITH_TRAINING_PRECISION = findMethod(MLP_CONFIGURATION, "withTrainingPrecision", MLP_CONFIGURATION, PRECISION);
+    private static final MethodHandle PRECISION_VALUE_OF = findStaticMethod(PRECISION, "valueOf", PRECISION, String.class);
+    private static final MethodHandle GET_LABEL = findGetter(INPUT, "label", int.class);
+    private static final MethodHandle GET_TENSOR_DATA = findGetter(TENSOR, "data", double[].class);
+
+    private Project() {}
+
+    static Object newInput(double[] data, int label) {
+        try {
+            return NEW_INPUT.invokeExact(data, label);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    // Return an empty Input[] (typed as Object[]).
+    static Object[] newInputArray(int length) {
+        return (Object[])Array.newInstance(INPUT, length);
+    }
+
+    static Object newMLP(int inputLayerSize, int hiddenLayerSize, int outputLayerSize) {
+        try {
+            return NEW_MLP.invokeExact(inputLayerSize, hiddenLayerSize, outputLayerSize);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    // Return an MLP with one hidden layer that trains its mini-batches in a precision ("DOUBLE" or "FLOAT32").
+    static Object newMLP(int inputLayerSize, int hiddenLayerSize, int outputLayerSize, String trainingPrecision) {
+        try {
+            Object configuration = WITH_HIDDEN_LAYER_SIZES.invokeExact((Object)DEFAULT_CONFIGURATION.invokeExact(), new int[] {hiddenLayerSize});
+            configuration = WITH_TRAINING_PRECISION.invokeExact(configuration, (Object)PRECISION_VALUE_OF.invokeExact(trainingPrecision));
+            return NEW_CONFIGURED_MLP.invokeExact(inputLayerSize, outputLayerSize, configuration);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object newCNN(int inputLayerSize, int hiddenLayerSize, int outputLayerSize, Object[] filterSet,
+                         int filterApplicationAmount, Object featureCache) {
+        try {
+            return NEW_CNN.invokeExact(inputLayerSize, hiddenLayerSize, outputLayerSize, filterSet, filterApplicationAmount, featureCache);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object newFilter(double[][] filterMatrix) {
+        try {
+            return NEW_FILTER.invokeExact(filterMatrix);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    // Return an empty Filter[] (typed as Object[]).
+    static Object[] newFilterArray(int length) {
+        return (Object[])Array.newInstance(FILTER, length);
+    }
+
+    static Object newFeatureCache(long maxBytes, boolean offHeapEnabled) {
+        try {
+            return NEW_FEATURE_CACHE.invokeExact(maxBytes, offHeapEnabled);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object newImageParser() {
+        try {
+            return NEW_IMAGE_PARSER.invokeExact();
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object newTensor(int rows, int columns) {
+        try {
+            return NEW_TENSOR.invokeExact(rows, columns);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object newConvolutionLayer(int inputChannels, int outputChannels, int filterSize, int stride, int padding, boolean reluEnabled) {
+        try {
+            return NEW_CONVOLUTION_LAYER.invokeExact(inputChannels, outputChannels, filterSize, stride, padding, reluEnabled);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object newPredictionService(Object predictor, int maxBatchSize, long maxDelayMicroseconds) {
+        try {
+            return NEW_PREDICTION_SERVICE.invokeExact(predictor, maxBatchSize, maxDelayMicroseconds);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    // Return new Kernels (scalar) or VectorKernels, looked up when asked for since VectorKernels needs the Vector API module.
+    static Object newKernels(String className) {
+        try {
+            Class<?> kernelsClass = findClass(className);
+            return getLookup(kernelsClass).findConstructor(kernelsClass, MethodType.methodType(void.class)).invoke();
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static double[] executeForwardPropagation(Object network, Object input) {
+        try {
+            return (double[])FORWARD.invokeExact(network, input);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void executeBackPropagation(Object network, double[] target) {
+        try {
+            BACKWARD.invokeExact(network, target);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static double[][] forwardBatch(Object network, Object[] inputs) {
+        try {
+            return (double[][])FORWARD_BATCH.invokeExact(network, inputs);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void backwardBatch(Object network, double[][] targets) {
+        try {
+            BACKWARD_BATCH.invokeExact(network, targets);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object createPredictor(Object network) {
+        try {
+            return CREATE_PREDICTOR.invokeExact(network);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static double[] predict(Object predictor, Object input) {
+        try {
+            return (double[])PREDICT.invokeExact(predictor, input);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static double[][] predictBatch(Object predictor, Object[] inputs) {
+        try {
+            return (double[][])PREDICT_BATCH.invokeExact(predictor, inputs);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static double[] servicePredict(Object service, Object input) {
+        try {
+            return (double[])SERVICE_PREDICT.invokeExact(service, input);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static long getBatchAmount(Object service) {
+        try {
+            return (long)SERVICE_BATCH_AMOUNT.invokeExact(service);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void closeService(Object service) {
+        try {
+            SERVICE_CLOSE.invokeExact(service);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static double[] applyFilter(Object filter, double[] image) {
+        try {
+            return (double[])APPLY_FILTER.invokeExact(filter, image);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object stackKernels(Object[] filterSet) {
+        try {
+            return STACK_KERNELS.invokeExact(filterSet);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void convolve(Object image, Object kernels, int filterSize, int stride, int padding, Object output) {
+        try {
+            CONVOLVE.invokeExact(image, kernels, filterSize, stride, padding, output);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void forward(Object layer, Object input, int inputDimension, Object output) {
+        try {
+            LAYER_FORWARD.invokeExact(layer, input, inputDimension, output);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void backward(Object layer, Object input, int inputDimension, Object output, Object outputError, Object inputError) {
+        try {
+            LAYER_BACKWARD.invokeExact(layer, input, inputDimension, output, outputError, inputError);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static double dot(Object kernels, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        try {
+            return (double)DOT.invokeExact(kernels, x, xOffset, y, yOffset, length);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void axpy(Object kernels, double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        try {
+            AXPY.invokeExact(kernels, alpha, x, xOffset, y, yOffset, length);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void sigmoid(Object kernels, double[] x, int offset, int length) {
+        try {
+            SIGMOID.invokeExact(kernels, x, offset, length);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void relu(Object kernels, double[] x, int offset, int length, double negativeSlope) {
+        try {
+            RELU.invokeExact(kernels, x, offset, length, negativeSlope);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void updateWeights(Object kernels, double[] weights, double[] deltas, int offset, double scale, double[] gradients,
+                              int gradientOffset, int length, double momentum) {
+        try {
+            UPDATE_WEIGHTS.invokeExact(kernels, weights, deltas, offset, scale, gradients, gradientOffset, length, momentum);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static int argmax(double[] outputLayer) {
+        try {
+            return (int)ARGMAX.invokeExact(outputLayer);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static int topK(double[] values, int offset, int length, int[] labels, double[] scores) {
+        try {
+            return (int)TOP_K.invokeExact(values, offset, length, labels, scores);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void softmax(double[] values, int offset, int length, double[] probabilities, int probabilitiesOffset) {
+        try {
+            SOFTMAX.invokeExact(values, offset, length, probabilities, probabilitiesOffset);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object[] parseImages(Object parser, String imagesFolderPath) {
+        try {
+            return (Object[])PARSE_IMAGES.invokeExact(parser, imagesFolderPath);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static Object[] parseImages(Object parser, String imagesFolderPath, int workerAmount) {
+        try {
+            return (Object[])PARSE_IMAGES_IN_PARALLEL.invokeExact(parser, imagesFolderPath, workerAmount);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static void downsizeImage(Object parser, Object imageMatrix, int downsizeFactor, Object downsizedImage) {
+        try {
+            DOWNSIZE_TENSOR.invokeExact(parser, imageMatrix, downsizeFactor, downsizedImage);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static double[] getDownsizedImageArray(Object parser, BufferedImage image, int downsizeFactor) {
+        try {
+            return (double[])GET_DOWNSIZED_IMAGE_ARRAY.invokeExact(parser, image, downsizeFactor);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static int getLabel(Object input) {
+        try {
+            return (int)GET_LABEL.invokeExact(input);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    static double[] getTensorData(Object tensor) {
+        try {
+            return (double[])GET_TENSOR_DATA.invokeExact(tensor);
+        } catch(Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    private static Class<?> findClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch(ClassNotFoundException e) {
+            throw new IllegalStateException("Project class " + name + " is not on the class path", e);
+        }
+    }
+
+    // Return a constructor handle (project types in its signature are hidden).
+    private static MethodHandle findConstructor(Class<?> owner, Class<?>... parameterTypes) {
+        try {
+            MethodHandle handle = getLookup(owner).findConstructor(owner, MethodType.methodType(void.class, parameterTypes));
+            return hideProjectTypes(handle);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing constructor of " + owner.getName(), e);
+        }
+    }
+
+    // Return a method handle, including package-private methods (project types in its signature are hidden).
+    private static MethodHandle findMethod(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodHandle handle = getLookup(owner).findVirtual(owner, name, MethodType.methodType(returnType, parameterTypes));
+            return hideProjectTypes(handle);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing method " + owner.getName() + "." + name, e);
+        }
+    }
+
+    // Return a static method handle (project types in its signature are hidden).
+    private static MethodHandle findStaticMethod(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodHandle handle = getLookup(owner).findStatic(owner, name, MethodType.methodType(returnType, parameterTypes));
+            return hideProjectTypes(handle);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing method " + owner.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle findGetter(Class<?> owner, String name, Class<?> type) {
+        try {
+            MethodHandle handle = getLookup(owner).findGetter(owner, name, type);
+            return hideProjectTypes(handle);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing field " + owner.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle findStaticGetter(Class<?> owner, String name, Class<?> type) {
+        try {
+            MethodHandle handle = getLookup(owner).findStaticGetter(owner, name, type);
+            return hideProjectTypes(handle);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException("Missing field " + owner.getName() + "." + name, e);
+        }
+    }
+
+    // Replace every project type in the signature of a handle by Object (and arrays of them by Object[]).
+    private static MethodHandle hideProjectTypes(MethodHandle handle) {
+        MethodType type = handle.type().changeReturnType(hideProjectType(handle.type().returnType()));
+        for(int i = 0; i < type.parameterCount(); ++i) {
+            type = type.changeParameterType(i, hideProjectType(type.parameterType(i)));
+        }
+        return handle.asType(type);
+    }
+
+    private static Class<?> hideProjectType(Class<?> type) {
+        Class<?> elementType = type;
+        int dimensions = 0;
+        for(; elementType.isArray(); ++dimensions) {
+            elementType = elementType.getComponentType();
+        }
+        if(elementType.isPrimitive() || elementType.getPackageName().isEmpty() == false) {
+            return type;
+        }
+        Class<?> hiddenType = Object.class;
+        for(int i = 0; i < dimensions; ++i) {
+            hiddenType = hiddenType.arrayType();
+        }
+        return hiddenType;
+    }
+
+    // The project and the benchmarks share the unnamed module, so the project classes can be looked up with full access.
+    private static MethodHandles.Lookup getLookup(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, LOOKUP);
+    }
+
+    private static RuntimeException propagate(Throwable e) {
+        if(e instanceof RuntimeException) {
+            return (RuntimeException)e;
+        }
+        if(e instanceof Error) {
+            throw (Error)e;
+        }
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,135 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import javax.imageio.ImageIO;
+
+/**
+ * Responsible for generating inputs, filters and image files that look like the ASL sign dataset,
+ * so that the benchmarks run without the image archive.
+ */
+final class SyntheticData {
+
+    static final int IMAGE_DIMENSION = 32; // Downsized images are [32 x 32].
+    static final int INPUT_LAYER_SIZE = IMAGE_DIMENSION * IMAGE_DIMENSION;
+    static final int OUTPUT_LAYER_SIZE = 26;
+    static final int ARCHIVE_IMAGE_DIMENSION = 256;
+
+    // Downsized pixels are averages of 8 x 8 pixels that are each 0 or 1, so they are multiples of 1/64.
+    private static final int PIXEL_LEVEL_AMOUNT = 64;
+    private static final long SEED = 445;
+
+    private SyntheticData() {}
+
+    /**
+     * Generates a square image whose pixels are multiples of 1/64, about half of them 0
+     * (like a downsized sign image).
+     *
+     * @param random
+     *     Random number generator to draw the pixels from.
+     * @param dimension
+     *     Width/height of the image.
+     * @return 1-D doubles array of the image pixels in row-major order.
+     */
+    static double[] createImage(Random random, int dimension) {
+        double[] image = new double[dimension * dimension];
+        for(int i = 0; i < image.length; ++i) {
+            image[i] = (random.nextBoolean() ? 0 : random.nextInt(PIXEL_LEVEL_AMOUNT + 1) / (double)PIXEL_LEVEL_AMOUNT);
+        }
+        return image;
+    }
+
+    /**
+     * Generates [32 x 32] inputs with every label used in turn.
+     *
+     * @param amount
+     *     Number of inputs to generate.
+     * @return An Input[] (typed as Object[]).
+     */
+    static Object[] createInputs(int amount) {
+        Random random = new Random(SEED);
+        Object[] inputs = Project.newInputArray(amount);
+        for(int i = 0; i < amount; ++i) {
+            inputs[i] = Project.newInput(createImage(random, IMAGE_DIMENSION), i % OUTPUT_LAYER_SIZE);
+        }
+        return inputs;
+    }
+
+    // Return the target vector of every label (row i is the target of label i).
+    static double[][] createTargets() {
+        double[][] targets = new double[OUTPUT_LAYER_SIZE][OUTPUT_LAYER_SIZE];
+        for(int label = 0; label < OUTPUT_LAYER_SIZE; ++label) {
+            targets[label][label] = 1;
+        }
+        return targets;
+    }
+
+    // Return the edge filter set that GroupProject gives a CNN (typed as Object[]).
+    static Object[] createFilterSet() {
+        double[][][] filterMatrices = {
+            {{-1,-1,-1}, { 1, 1, 1}, { 0, 0, 0}},
+            {{ 0, 0, 0}, { 1, 1, 1}, {-1,-1,-1}},
+            {{-1, 1, 0}, {-1, 1, 0}, {-1, 1, 0}},
+            {{ 0, 1,-1}, { 0, 1,-1}, { 0, 1,-1}},
+            {{-1,-1, 1}, {-1, 1, 0}, { 1, 0, 0}},
+            {{ 0, 0, 1}, { 0, 1,-1}, { 1,-1,-1}},
+            {{ 1, 0, 0}, {-1, 1, 0}, {-1,-1, 1}},
+            {{ 1,-1,-1}, { 0, 1,-1}, { 0, 0, 1}}
+        };
+        Object[] filterSet = Project.newFilterArray(filterMatrices.length);
+        for(int i = 0; i < filterMatrices.length; ++i) {
+            filterSet[i] = Project.newFilter(filterMatrices[i]);
+        }
+        return filterSet;
+    }
+
+    /**
+     * Generates a [256 x 256] grayscale image of a bright blob on a dark background
+     * (like an archive image of a hand).
+     *
+     * @param random
+     *     Random number generator to place the blob with.
+     */
+    static BufferedImage createArchiveImage(Random random) {
+        BufferedImage image = new BufferedImage(ARCHIVE_IMAGE_DIMENSION, ARCHIVE_IMAGE_DIMENSION, BufferedImage.TYPE_BYTE_GRAY);
+        int centerX = 64 + random.nextInt(128), centerY = 64 + random.nextInt(128), radius = 32 + random.nextInt(48);
+        for(int y = 0; y < ARCHIVE_IMAGE_DIMENSION; ++y) {
+            for(int x = 0; x < ARCHIVE_IMAGE_DIMENSION; ++x) {
+                int distanceSquared = (x - centerX) * (x - centerX) + (y - centerY) * (y - centerY);
+                int gray = (distanceSquared < radius * radius ? 255 : random.nextInt(64));
+                image.getRaster().setSample(x, y, 0, gray);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Writes a folder laid out like archive/signs (one numbered folder of .jpgs per sign).
+     *
+     * @param imagesPerSign
+     *     Number of images to write in each sign folder.
+     * @return The path of the folder.
+     */
+    static Path writeImagesFolder(int imagesPerSign) throws IOException {
+        Random random = new Random(SEED);
+        Path imagesFolder = Files.createTempDirectory("signs");
+        for(int signValue = 0; signValue < OUTPUT_LAYER_SIZE; ++signValue) {
+            Path signFolder = Files.createDirectory(imagesFolder.resolve(Integer.toString(signValue)));
+            for(int i = 0; i < imagesPerSign; ++i) {
+                ImageIO.write(createArchiveImage(random), "jpg", signFolder.resolve(i + ".jpg").toFile());
+            }
+        }
+        return imagesFolder;
+    }
+
+    // Delete a folder written by writeImagesFolder.
+    static void deleteImagesFolder(Path imagesFolder) throws IOException {
+        try(var paths = Files.walk(imagesFolder)) {
+            for(Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}